@@ -1,6 +1,7 @@
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.OneToOne;
+import javax.persistence.Version;
 
 /**
  * Created by mtumilowicz on 2018-05-02.
@@ -9,6 +10,9 @@ import javax.persistence.OneToOne;
 public class Address {
     @Id
     private int id;
+
+    @Version
+    private int version;
     
     private String street;
 
@@ -23,6 +27,10 @@ public class Address {
         return id;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
     public String getStreet() {
         return street;
     }
@@ -1,14 +1,27 @@
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Immutable;
+
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.OneToMany;
+import javax.persistence.Version;
+import java.io.Serializable;
 import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by mtumilowicz on 2018-05-02.
  */
 @Entity
-public class Announcement {
+public class Announcement implements Serializable {
     @Id
     private int stateRef;
+
+    @Version
+    private int version;
+
     private int a_id;
 
     private String title;
@@ -17,6 +30,16 @@ public class Announcement {
 
     private OffsetDateTime createdOn;
 
+    /**
+     * Read-only: entitlements reference announcements by {@code Entitlement.announcementId = a_id}. Collections of
+     * up to {@value EntitlementLoader#CHUNK_SIZE} announcements of the session are initialized by one statement.
+     */
+    @OneToMany
+    @JoinColumn(name = "announcementId", referencedColumnName = "a_id", insertable = false, updatable = false)
+    @Immutable
+    @BatchSize(size = EntitlementLoader.CHUNK_SIZE)
+    private List<Entitlement> entitlements;
+
     public int getA_id() {
         return a_id;
     }
@@ -41,6 +64,10 @@ public class Announcement {
         return stateRef;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
     public void setStateRef(int stateRef) {
         this.stateRef = stateRef;
     }
@@ -53,6 +80,10 @@ public class Announcement {
         this.createdOn = createdOn;
     }
 
+    public List<Entitlement> getEntitlements() {
+        return entitlements == null ? Collections.emptyList() : Collections.unmodifiableList(entitlements);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
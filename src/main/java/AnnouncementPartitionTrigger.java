@@ -0,0 +1,181 @@
+import org.h2.api.ErrorCode;
+import org.h2.api.TimestampWithTimeZone;
+import org.h2.api.Trigger;
+
+import java.sql.*;
+import java.time.*;
+import java.util.function.Function;
+
+/**
+ * INSTEAD OF trigger of the view Announcement (see V8__Announcement_partitions.sql): routes inserted, updated &
+ * deleted rows to the month bucket of createdOn (ANNOUNCEMENT_yyyyMM, UTC) or to ANNOUNCEMENT_DEFAULT if createdOn
+ * is null or the month has no bucket; update moving createdOn to another month moves the row. Updates & deletes of rows
+ * not found in the bucket go to ANNOUNCEMENT_DEFAULT (the bucket was created, its rows are not moved yet).
+ * <p>
+ * Inserted rows without stateRef get the next value of ANNOUNCEMENT_STATE_REF, without version 0.
+ */
+public class AnnouncementPartitionTrigger implements Trigger {
+    private static final String COLUMNS = "STATEREF, A_ID, TITLE, DIVIDEND, CREATEDON, VERSION";
+
+    private int stateRefColumn;
+    private int aIdColumn;
+    private int titleColumn;
+    private int dividendColumn;
+    private int createdOnColumn;
+    private int versionColumn;
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before, int type)
+            throws SQLException {
+        // columns of the view are columns of buckets (SELECT *); the view may be invalid during RUNSCRIPT
+        try (ResultSet columns = conn.getMetaData()
+                .getColumns(null, schemaName, AnnouncementPartitions.DEFAULT_BUCKET, null)) {
+            while (columns.next()) {
+                int index = columns.getInt("ORDINAL_POSITION") - 1;
+                switch (columns.getString("COLUMN_NAME")) {
+                    case "STATEREF":
+                        stateRefColumn = index;
+                        break;
+                    case "A_ID":
+                        aIdColumn = index;
+                        break;
+                    case "TITLE":
+                        titleColumn = index;
+                        break;
+                    case "DIVIDEND":
+                        dividendColumn = index;
+                        break;
+                    case "CREATEDON":
+                        createdOnColumn = index;
+                        break;
+                    case "VERSION":
+                        versionColumn = index;
+                        break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        if (oldRow != null && newRow != null
+                && AnnouncementPartitions.bucket(month(oldRow[createdOnColumn]))
+                .equals(AnnouncementPartitions.bucket(month(newRow[createdOnColumn])))) {
+            update(conn, oldRow, newRow);
+            return;
+        }
+        if (oldRow != null) {
+            delete(conn, oldRow);
+        }
+        if (newRow != null) {
+            insert(conn, newRow);
+        }
+    }
+
+    /**
+     * @return month (UTC) of createdOn or null
+     */
+    static YearMonth month(Object createdOn) {
+        if (createdOn == null) {
+            return null;
+        }
+        if (createdOn instanceof TimestampWithTimeZone) {
+            TimestampWithTimeZone timestamp = (TimestampWithTimeZone) createdOn;
+            return YearMonth.from(LocalDate.of(timestamp.getYear(), timestamp.getMonth(), timestamp.getDay())
+                    .atStartOfDay()
+                    .plusNanos(timestamp.getNanosSinceMidnight())
+                    .atOffset(ZoneOffset.ofTotalSeconds(timestamp.getTimeZoneOffsetMins() * 60))
+                    .atZoneSameInstant(ZoneOffset.UTC));
+        }
+        if (createdOn instanceof Timestamp) {
+            return YearMonth.from(((Timestamp) createdOn).toInstant().atZone(ZoneOffset.UTC));
+        }
+        return YearMonth.from(((OffsetDateTime) createdOn).atZoneSameInstant(ZoneOffset.UTC));
+    }
+
+    private void insert(Connection conn, Object[] row) throws SQLException {
+        Object stateRef = row[stateRefColumn];
+        if (stateRef == null) {
+            try (Statement statement = conn.createStatement();
+                 ResultSet next = statement.executeQuery("SELECT NEXT VALUE FOR ANNOUNCEMENT_STATE_REF")) {
+                next.next();
+                stateRef = next.getInt(1);
+            }
+        }
+        Object version = row[versionColumn] == null ? 0 : row[versionColumn];
+        Object[] values = {stateRef, row[aIdColumn], row[titleColumn], row[dividendColumn], row[createdOnColumn],
+                version};
+        String bucket = AnnouncementPartitions.bucket(month(row[createdOnColumn]));
+        try {
+            insert(conn, bucket, values);
+        } catch (SQLException e) {
+            if (e.getErrorCode() != ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1) {
+                throw e;
+            }
+            insert(conn, AnnouncementPartitions.DEFAULT_BUCKET, values);
+        }
+    }
+
+    private static void insert(Connection conn, String bucket, Object[] values) throws SQLException {
+        try (PreparedStatement insert = conn.prepareStatement("" +
+                "INSERT INTO " + bucket + " (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < values.length; i++) {
+                insert.setObject(i + 1, values[i]);
+            }
+            insert.executeUpdate();
+        }
+    }
+
+    private void update(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        execute(conn, oldRow, bucket -> "" +
+                        "UPDATE " + bucket + " " +
+                        "SET STATEREF = ?, A_ID = ?, TITLE = ?, DIVIDEND = ?, CREATEDON = ?, VERSION = ? " +
+                        "WHERE STATEREF = ?",
+                newRow[stateRefColumn], newRow[aIdColumn], newRow[titleColumn], newRow[dividendColumn],
+                newRow[createdOnColumn], newRow[versionColumn], oldRow[stateRefColumn]);
+    }
+
+    private void delete(Connection conn, Object[] row) throws SQLException {
+        execute(conn, row, bucket -> "DELETE FROM " + bucket + " WHERE STATEREF = ?", row[stateRefColumn]);
+    }
+
+    /**
+     * Executes the statement on the bucket of the row or on ANNOUNCEMENT_DEFAULT if the month has no bucket or the
+     * bucket has no such row.
+     */
+    private void execute(Connection conn, Object[] row, Function<String, String> sql,
+                         Object... parameters) throws SQLException {
+        String bucket = AnnouncementPartitions.bucket(month(row[createdOnColumn]));
+        try {
+            if (execute(conn, sql.apply(bucket), parameters) > 0
+                    || bucket.equals(AnnouncementPartitions.DEFAULT_BUCKET)) {
+                return;
+            }
+        } catch (SQLException e) {
+            if (e.getErrorCode() != ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1) {
+                throw e;
+            }
+        }
+        execute(conn, sql.apply(AnnouncementPartitions.DEFAULT_BUCKET), parameters);
+    }
+
+    /**
+     * @return number of changed rows
+     */
+    private static int execute(Connection conn, String sql, Object... parameters) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            return statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+}
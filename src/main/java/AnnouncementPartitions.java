@@ -0,0 +1,374 @@
+import com.google.common.base.Preconditions;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Month buckets of {@link Announcement} (V8__Announcement_partitions.sql): rows live in tables ANNOUNCEMENT_yyyyMM
+ * (by createdOn in UTC) & ANNOUNCEMENT_DEFAULT (createdOn null or month without bucket); Announcement is the
+ * UNION ALL view of buckets, writes are routed by {@link AnnouncementPartitionTrigger}.
+ * <pre>
+ * partitions.createBuckets(YearMonth.of(2019, 7), YearMonth.of(2019, 12));
+ * partitions.getResultList(entityManager, cc_query, from, to); // scans only buckets of [from, to) & the default one
+ * partitions.dropBucketsBefore(YearMonth.of(2019, 6)); // retention: DROP TABLE instead of DELETE
+ * </pre>
+ * Range queries run in the caller's EntityManager (results are managed, lazy associations load as usual); their
+ * SELECTs are routed by {@link Routing}, the statement inspector of the persistence unit, which also restricts every
+ * reference of Announcement to the range - the caller's query is not changed. The range is bound to the H2 variables
+ * {@code @ANNOUNCEMENT_FROM} & {@code @ANNOUNCEMENT_TO} of the connection, so the routed SQL only changes with the
+ * buckets of the range: range queries run in a transaction of the caller (its connection is kept until it completes)
+ * & the variables are cleared again after the query.
+ * <p>
+ * Buckets are cached by the instance & refreshed by {@link #createBuckets} & {@link #dropBucketsBefore}; call
+ * {@link #refreshBuckets} after buckets are changed otherwise (e.g. ANNOUNCEMENT_BUCKET_DEFAULT, another instance).
+ * <p>
+ * Bucket changes are DDL (H2 commits the current transaction) - run them when there are no concurrent writers.
+ * A bucket is created & takes over its rows from ANNOUNCEMENT_DEFAULT in separate transactions: the move is idempotent
+ * ({@link #createBuckets} again completes an interrupted one), range queries always read ANNOUNCEMENT_DEFAULT too & the
+ * trigger falls back to it for rows not moved yet.
+ */
+public final class AnnouncementPartitions {
+    static final String DEFAULT_BUCKET = "ANNOUNCEMENT_DEFAULT";
+    private static final String PREFIX = "ANNOUNCEMENT_";
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final Pattern BUCKET = Pattern.compile(PREFIX + "(\\d{6})");
+    private static final Pattern TABLE = Pattern.compile("\\b(from|join)\\s+Announcement\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SELECT = Pattern.compile("\\s*select\\b", Pattern.CASE_INSENSITIVE);
+
+    private static final String RANGE = " WHERE CREATEDON >= @ANNOUNCEMENT_FROM AND CREATEDON < @ANNOUNCEMENT_TO";
+
+    private final EntityManagerFactory emf;
+    private volatile List<YearMonth> buckets;
+
+    public AnnouncementPartitions(EntityManagerFactory emf) {
+        this.emf = emf;
+    }
+
+    /**
+     * @return table of the month, {@link #DEFAULT_BUCKET} for null
+     */
+    static String bucket(YearMonth month) {
+        return month == null ? DEFAULT_BUCKET : PREFIX + MONTH.format(month);
+    }
+
+    /**
+     * @return months having a bucket (ascending), cached
+     */
+    public List<YearMonth> buckets() {
+        List<YearMonth> cached = buckets;
+        return cached == null ? refreshBuckets() : cached;
+    }
+
+    /**
+     * Reads buckets of the database again.
+     *
+     * @return months having a bucket (ascending)
+     */
+    public List<YearMonth> refreshBuckets() {
+        List<YearMonth> read = Collections.unmodifiableList(readBuckets());
+        buckets = read;
+        return read;
+    }
+
+    private List<YearMonth> readBuckets() {
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            return entityManager.unwrap(Session.class).doReturningWork(AnnouncementPartitions::buckets);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Creates missing buckets of months from - to (inclusive) & moves rows of all buckets of the range out of
+     * ANNOUNCEMENT_DEFAULT (one transaction per month).
+     *
+     * @return number of created buckets
+     */
+    public int createBuckets(YearMonth from, YearMonth to) {
+        Preconditions.checkArgument(!from.isAfter(to), "Empty range: %s - %s", from, to);
+        List<YearMonth> buckets = readBuckets();
+        int created = 0;
+        try {
+            for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+                if (!buckets.contains(month)) {
+                    YearMonth bucket = month;
+                    inConnection(connection -> {
+                        createBucket(connection, bucket);
+                        buckets.add(bucket);
+                        replaceView(connection, buckets);
+                    });
+                    created++;
+                }
+                moveFromDefault(month);
+            }
+        } finally {
+            this.buckets = Collections.unmodifiableList(buckets);
+        }
+        return created;
+    }
+
+    /**
+     * Retention: drops buckets of months before the month (rows of ANNOUNCEMENT_DEFAULT are kept).
+     *
+     * @return number of dropped buckets
+     */
+    public int dropBucketsBefore(YearMonth month) {
+        List<YearMonth> buckets = readBuckets();
+        List<YearMonth> dropped = buckets.stream()
+                .filter(bucket -> bucket.isBefore(month))
+                .collect(Collectors.toList());
+        if (dropped.isEmpty()) {
+            this.buckets = Collections.unmodifiableList(buckets);
+            return 0;
+        }
+        buckets.removeAll(dropped);
+        // the view doesn't read dropped buckets anymore: routed queries must not either, whatever happens next
+        this.buckets = Collections.unmodifiableList(buckets);
+        try {
+            inConnection(connection -> {
+                replaceView(connection, buckets);
+                for (YearMonth bucket : dropped) {
+                    execute(connection, "DROP TABLE " + bucket(bucket));
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshBuckets();
+            throw e;
+        }
+        return dropped.size();
+    }
+
+    /**
+     * Executes the query in the entity manager on announcements created in [from, to) only: every reference of
+     * Announcement in its SELECTs - subqueries too - reads buckets of the range & ANNOUNCEMENT_DEFAULT restricted to
+     * the range. The query itself is not changed.
+     *
+     * @throws IllegalStateException if no transaction of the entity manager is active or {@link Routing} is not the
+     *                               statement inspector of the persistence unit
+     */
+    public <T> List<T> getResultList(EntityManager entityManager, CriteriaQuery<T> query,
+                                     OffsetDateTime from, OffsetDateTime to) {
+        Preconditions.checkArgument(from.isBefore(to), "Empty range: %s - %s", from, to);
+        Preconditions.checkArgument(query.getRoots().stream()
+                        .anyMatch(candidate -> candidate.getJavaType() == Announcement.class),
+                "No root of Announcement in query");
+        Preconditions.checkState(entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+                        .getSessionFactoryOptions().getStatementInspector() instanceof Routing,
+                "Statement inspector of the persistence unit has to be %s", Routing.class.getName());
+        // otherwise the session may release the connection after the work & the query reads unbound variables
+        Preconditions.checkState(entityManager.getTransaction().isActive(),
+                "Range queries run in an active transaction of the entity manager");
+
+        TypedQuery<T> typedQuery = entityManager.createQuery(query);
+        Session session = entityManager.unwrap(Session.class);
+        session.doWork(connection -> bindRange(connection, from, to));
+        String enclosing = Routing.TABLES.get();
+        Routing.TABLES.set(tables(from, to));
+        try {
+            return typedQuery.getResultList();
+        } finally {
+            if (enclosing == null) {
+                Routing.TABLES.remove();
+            } else {
+                Routing.TABLES.set(enclosing);
+            }
+            // the connection goes back to the pool without the range
+            session.doWork(connection -> bindRange(connection, null, null));
+        }
+    }
+
+    /**
+     * @return UNION ALL of buckets of months of [from, to) & ANNOUNCEMENT_DEFAULT, restricted to rows created in
+     * [@ANNOUNCEMENT_FROM, @ANNOUNCEMENT_TO)
+     */
+    String tables(OffsetDateTime from, OffsetDateTime to) {
+        List<YearMonth> buckets = buckets();
+        List<String> tables = new ArrayList<>();
+        YearMonth last = YearMonth.from(to.atZoneSameInstant(ZoneOffset.UTC).minusNanos(1));
+        for (YearMonth month = YearMonth.from(from.atZoneSameInstant(ZoneOffset.UTC));
+             !month.isAfter(last); month = month.plusMonths(1)) {
+            if (buckets.contains(month)) {
+                tables.add(bucket(month));
+            }
+        }
+        tables.add(DEFAULT_BUCKET);
+        return tables.stream()
+                .map(table -> "SELECT * FROM " + table + RANGE)
+                .collect(Collectors.joining(" UNION ALL ", "(", ")"));
+    }
+
+    private static void bindRange(Connection connection, OffsetDateTime from, OffsetDateTime to) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("" +
+                "SELECT SET(@ANNOUNCEMENT_FROM, ?), SET(@ANNOUNCEMENT_TO, ?)")) {
+            statement.setObject(1, from);
+            statement.setObject(2, to);
+            statement.executeQuery().close();
+        }
+    }
+
+    static String route(String sql, String tables) {
+        return TABLE.matcher(sql).replaceAll("$1 " + Matcher.quoteReplacement(tables));
+    }
+
+    /**
+     * H2 alias ANNOUNCEMENT_BUCKET_DEFAULT (V8__Announcement_partitions.sql): creates a bucket of every month having
+     * rows in ANNOUNCEMENT_DEFAULT & moves the rows.
+     *
+     * @return number of created buckets
+     */
+    public static int bucketDefault(Connection connection) throws SQLException {
+        TreeSet<YearMonth> months = new TreeSet<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet createdOn = statement.executeQuery("" +
+                     "SELECT DISTINCT CREATEDON FROM " + DEFAULT_BUCKET + " WHERE CREATEDON IS NOT NULL")) {
+            while (createdOn.next()) {
+                months.add(AnnouncementPartitionTrigger.month(createdOn.getObject(1)));
+            }
+        }
+        List<YearMonth> buckets = buckets(connection);
+        months.removeAll(buckets);
+        for (YearMonth month : months) {
+            createBucket(connection, month);
+            buckets.add(month);
+        }
+        buckets.sort(null);
+        replaceView(connection, buckets);
+        for (YearMonth month : months) {
+            moveFromDefault(connection, month);
+        }
+        return months.size();
+    }
+
+    private static List<YearMonth> buckets(Connection connection) throws SQLException {
+        List<YearMonth> buckets = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet tables = statement.executeQuery("" +
+                     "SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES " +
+                     "WHERE TABLE_SCHEMA = SCHEMA() AND TABLE_TYPE = 'TABLE' AND TABLE_NAME LIKE 'ANNOUNCEMENT\\_%'")) {
+            while (tables.next()) {
+                Matcher bucket = BUCKET.matcher(tables.getString(1));
+                if (bucket.matches()) {
+                    buckets.add(YearMonth.parse(bucket.group(1), MONTH));
+                }
+            }
+        }
+        buckets.sort(null);
+        return buckets;
+    }
+
+    private static void createBucket(Connection connection, YearMonth month) throws SQLException {
+        execute(connection, "" +
+                "CREATE TABLE " + bucket(month) + " (" +
+                "STATEREF int primary key, " +
+                "A_ID int not null, " +
+                "TITLE varchar(50), " +
+                "DIVIDEND int not null, " +
+                "CREATEDON TIMESTAMP WITH TIME ZONE, " +
+                "VERSION int default 0 not null)");
+    }
+
+    private static void replaceView(Connection connection, List<YearMonth> buckets) throws SQLException {
+        String union = buckets.stream()
+                .map(month -> "SELECT * FROM " + bucket(month) + " UNION ALL ")
+                .collect(Collectors.joining());
+        execute(connection, "CREATE OR REPLACE VIEW Announcement AS " + union + "SELECT * FROM " + DEFAULT_BUCKET);
+    }
+
+    private void moveFromDefault(YearMonth month) {
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            entityManager.unwrap(Session.class).doWork(connection -> moveFromDefault(connection, month));
+            entityManager.getTransaction().commit();
+        } finally {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Idempotent: rows already in the bucket are overwritten by their copy in ANNOUNCEMENT_DEFAULT.
+     */
+    private static void moveFromDefault(Connection connection, YearMonth month) throws SQLException {
+        OffsetDateTime start = month.atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC);
+        OffsetDateTime end = start.plusMonths(1);
+        for (String sql : new String[]{
+                "MERGE INTO " + bucket(month) + " KEY (STATEREF) SELECT * FROM " + DEFAULT_BUCKET +
+                        " WHERE CREATEDON >= ? AND CREATEDON < ?",
+                "DELETE FROM " + DEFAULT_BUCKET + " WHERE CREATEDON >= ? AND CREATEDON < ?"}) {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setObject(1, start);
+                statement.setObject(2, end);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private static void execute(Connection connection, String ddl) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(ddl);
+        }
+    }
+
+    private void inConnection(Work work) {
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            entityManager.unwrap(Session.class).doWork(work);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Statement inspector of NewPersistenceUnit ({@code hibernate.session_factory.statement_inspector}): during
+     * {@link #getResultList} routes SELECTs of the calling thread to buckets of the range, other statements (e.g. of a
+     * flush before the query) & statements outside of it are unchanged.
+     * <p>
+     * A persistence unit has one statement inspector: another one (e.g. recording statements) is chained with
+     * {@link #Routing(StatementInspector)} & inspects the routed SQL.
+     */
+    public static final class Routing implements StatementInspector {
+        private static final ThreadLocal<String> TABLES = new ThreadLocal<>();
+
+        private final StatementInspector next;
+
+        public Routing() {
+            this(sql -> sql);
+        }
+
+        public Routing(StatementInspector next) {
+            this.next = next;
+        }
+
+        @Override
+        public String inspect(String sql) {
+            String tables = TABLES.get();
+            return next.inspect(tables == null || !SELECT.matcher(sql).lookingAt() ? sql : route(sql, tables));
+        }
+    }
+}
@@ -1,3 +1,6 @@
+import org.hibernate.annotations.LazyCollection;
+import org.hibernate.annotations.LazyCollectionOption;
+
 import javax.persistence.*;
 import java.util.List;
 
@@ -8,16 +11,27 @@ import java.util.List;
 public class Author {
     @Id
     private int id;
+
+    @Version
+    private int version;
     
     private String name;
     
+    /**
+     * Extra lazy like {@code Bookstore.books}.
+     */
     @ManyToMany(mappedBy = "authors")
+    @LazyCollection(LazyCollectionOption.EXTRA)
     private List<Book> books;
 
     public int getId() {
         return id;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
     public String getName() {
         return name;
     }
@@ -1,5 +1,5 @@
 import javax.persistence.*;
-import java.util.List;
+import java.util.Set;
 
 /**
  * Created by mtumilowicz on 2018-05-02.
@@ -8,6 +8,9 @@ import java.util.List;
 public class Book {
     @Id
     private int id;
+
+    @Version
+    private int version;
     
     private String title;
     
@@ -20,12 +23,16 @@ public class Book {
     private Bookstore bookstore;
 
     @ManyToMany
-    private List<Author> authors;
+    private Set<Author> authors;
 
     public int getId() {
         return id;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
     public String getTitle() {
         return title;
     }
@@ -34,11 +41,11 @@ public class Book {
         this.title = title;
     }
 
-    public List<Author> getAuthors() {
+    public Set<Author> getAuthors() {
         return authors;
     }
 
-    public void setAuthors(List<Author> authors) {
+    public void setAuthors(Set<Author> authors) {
         this.authors = authors;
     }
 
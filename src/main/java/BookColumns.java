@@ -0,0 +1,588 @@
+import org.hibernate.event.service.spi.EventListenerGroup;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process columnar copy of BOOK for analytics: price, genre (ordinal of {@link WritingGenre}) & bookstore id
+ * (with a separate marker of books without bookstore) are kept as primitive columns in off-heap memory, so
+ * aggregates are tight loops over ints without round trips to the database & without per-row objects. Rows are
+ * found by id through an off-heap open addressing index.
+ * <p>
+ * {@link #attach(EntityManagerFactory)} loads all books & keeps columns up to date with committed inserts, updates
+ * & deletes of {@link Book} entities (post-commit Hibernate events); changes made with native SQL or bulk JPQL
+ * bypass events - call {@link #reload()} after them. Every row keeps the {@code @Version} of its book, so an event
+ * older than the row (e.g. delivered late, or replayed after a reload) doesn't overwrite it; events arriving while
+ * a reload queries BOOK are recorded & replayed on top of its result. A delete leaves a tombstone with the version
+ * of the deleted book, so an update committed before the delete but delivered after it (events of concurrently
+ * committing threads come in any order) doesn't bring the book back; an insert under the id (a new book, starting
+ * at version 0 again) removes the tombstone. A reload drops tombstones of deletes seen before it started.
+ * {@link #close()} unregisters the columns.
+ */
+public final class BookColumns implements PostCommitInsertEventListener, PostCommitUpdateEventListener,
+        PostCommitDeleteEventListener, AutoCloseable {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final WritingGenre[] GENRES = WritingGenre.values();
+
+    private static final EventType<?>[] EVENTS =
+            {EventType.POST_COMMIT_INSERT, EventType.POST_COMMIT_UPDATE, EventType.POST_COMMIT_DELETE};
+
+    private final EntityManagerFactory emf;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final RowIndex rows = new RowIndex(INITIAL_CAPACITY);
+    // id -> version of deleted book
+    private final Map<Integer, Integer> tombstones = new HashMap<>();
+
+    // changes received while a reload queries BOOK (null otherwise), guarded by the write lock
+    private List<Change> replay;
+    private boolean closed;
+
+    private IntBuffer ids;
+    private IntBuffer versions;
+    private IntBuffer prices;
+    private ByteBuffer genres;
+    private IntBuffer bookstores;
+    // 1 for books without bookstore
+    private ByteBuffer withoutBookstore;
+    private int size;
+
+    private BookColumns(EntityManagerFactory emf) {
+        this.emf = emf;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return columns of all books, refreshed by entity change events of emf
+     */
+    public static BookColumns attach(EntityManagerFactory emf) {
+        BookColumns columns = new BookColumns(emf);
+        columns.reload();
+        EventListenerRegistry listeners = listeners(emf);
+        for (EventType<?> type : EVENTS) {
+            columns.append(listeners, type);
+        }
+        return columns;
+    }
+
+    /**
+     * Replaces columns with the current content of BOOK; changes committed meanwhile are applied on top of it.
+     */
+    public synchronized void reload() {
+        lock.writeLock().lock();
+        try {
+            replay = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        List<Object[]> books;
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            books = entityManager.createQuery("" +
+                            "SELECT b.id, b.version, b.price, b.genre, bookstore.id " +
+                            "FROM Book b LEFT JOIN b.bookstore bookstore",
+                    Object[].class)
+                    .getResultList();
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                replay = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+        lock.writeLock().lock();
+        try {
+            rows.clear(books.size());
+            size = 0;
+            allocate(Math.max(INITIAL_CAPACITY, books.size()));
+            for (Object[] book : books) {
+                tombstones.remove((Integer) book[0]);
+                put((Integer) book[0], (Integer) book[1], (Integer) book[2], (WritingGenre) book[3],
+                        (Integer) book[4]);
+            }
+            Set<Integer> deletedMeanwhile = new HashSet<>();
+            for (Change change : replay) {
+                change.apply(this);
+                if (change.kind == Change.Kind.DELETE) {
+                    deletedMeanwhile.add(change.id);
+                }
+            }
+            // deletes committed before the query are in its result
+            tombstones.keySet().retainAll(deletedMeanwhile);
+            replay = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops listening to events of the factory; columns keep their content.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (emf.isOpen()) {
+            EventListenerRegistry listeners = listeners(emf);
+            for (EventType<?> type : EVENTS) {
+                remove(listeners.getEventListenerGroup(type));
+            }
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Map<WritingGenre, Long> countByGenre() {
+        long[] counts = new long[GENRES.length];
+        lock.readLock().lock();
+        try {
+            for (int row = 0; row < size; row++) {
+                counts[genres.get(row)]++;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Map<WritingGenre, Long> result = new EnumMap<>(WritingGenre.class);
+        for (WritingGenre genre : GENRES) {
+            if (counts[genre.ordinal()] > 0) {
+                result.put(genre, counts[genre.ordinal()]);
+            }
+        }
+        return result;
+    }
+
+    public OptionalInt maxPrice() {
+        lock.readLock().lock();
+        try {
+            if (size == 0) {
+                return OptionalInt.empty();
+            }
+            return OptionalInt.of(maxPrice(size));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of bookstores having a book with the maximum price (as in
+     * {@code SELECT book.bookstore FROM Book book WHERE book.price = (SELECT MAX(b.price) FROM Book b)})
+     */
+    public Set<Integer> bookstoresWithMostExpensiveBook() {
+        Set<Integer> result = new TreeSet<>();
+        lock.readLock().lock();
+        try {
+            int max = maxPrice(size);
+            for (int row = 0; row < size; row++) {
+                if (prices.get(row) == max && withoutBookstore.get(row) == 0) {
+                    result.add(bookstores.get(row));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * @return bookstore id -> average price of its books (only bookstores with at least one book)
+     */
+    public Map<Integer, Double> averagePriceByBookstore() {
+        int[] distinct;
+        long[] counts;
+        long[] sums;
+        lock.readLock().lock();
+        try {
+            // sorted distinct bookstore ids, aggregated by binary search - sized by books, not by ids
+            int[] ids = new int[size];
+            int count = 0;
+            for (int row = 0; row < size; row++) {
+                if (withoutBookstore.get(row) == 0) {
+                    ids[count++] = bookstores.get(row);
+                }
+            }
+            distinct = Arrays.stream(ids, 0, count).sorted().distinct().toArray();
+            counts = new long[distinct.length];
+            sums = new long[distinct.length];
+            for (int row = 0; row < size; row++) {
+                if (withoutBookstore.get(row) == 0) {
+                    int bookstore = Arrays.binarySearch(distinct, bookstores.get(row));
+                    counts[bookstore]++;
+                    sums[bookstore] += prices.get(row);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Map<Integer, Double> result = new TreeMap<>();
+        for (int bookstore = 0; bookstore < distinct.length; bookstore++) {
+            result.put(distinct[bookstore], (double) sums[bookstore] / counts[bookstore]);
+        }
+        return result;
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Book) {
+            write(Change.Kind.INSERT, (Book) event.getEntity());
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Book) {
+            write(Change.Kind.UPDATE, (Book) event.getEntity());
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Book) {
+            apply(Change.delete((Integer) event.getId(), ((Book) event.getEntity()).getVersion()));
+        }
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return persister.getMappedClass() == Book.class;
+    }
+
+    /**
+     * Still abstract in Hibernate 5.2.
+     */
+    @Override
+    @Deprecated
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return requiresPostCommitHandling(persister);
+    }
+
+    private void write(Change.Kind kind, Book book) {
+        apply(new Change(book.getId(), kind, book.getVersion(), book.getPrice(), book.getGenre(),
+                bookstoreId(book.getBookstore())));
+    }
+
+    private void apply(Change change) {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            change.apply(this);
+            if (replay != null) {
+                replay.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static EventListenerRegistry listeners(EntityManagerFactory emf) {
+        return emf.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void append(EventListenerRegistry listeners, EventType<T> type) {
+        listeners.getEventListenerGroup(type).appendListener((T) this);
+    }
+
+    /**
+     * The group has no removal of a single listener: it is refilled with the other listeners.
+     */
+    private <T> void remove(EventListenerGroup<T> group) {
+        List<T> others = new ArrayList<>();
+        for (T listener : group.listeners()) {
+            if (listener != this) {
+                others.add(listener);
+            }
+        }
+        group.clear();
+        others.forEach(group::appendListener);
+    }
+
+    private static Integer bookstoreId(Bookstore bookstore) {
+        if (bookstore == null) {
+            return null;
+        }
+        if (bookstore instanceof HibernateProxy) {
+            return (Integer) ((HibernateProxy) bookstore).getHibernateLazyInitializer().getIdentifier();
+        }
+        return bookstore.getId();
+    }
+
+    private int maxPrice(int size) {
+        int max = Integer.MIN_VALUE;
+        for (int row = 0; row < size; row++) {
+            max = Math.max(max, prices.get(row));
+        }
+        return max;
+    }
+
+    /**
+     * Ignored if the row has a newer version.
+     */
+    private void put(int id, int version, int price, WritingGenre genre, Integer bookstore) {
+        int row = rows.get(id);
+        if (row < 0) {
+            if (size == ids.capacity()) {
+                grow();
+            }
+            row = size++;
+            rows.put(id, row);
+            ids.put(row, id);
+        } else if (versions.get(row) > version) {
+            return;
+        }
+        versions.put(row, version);
+        prices.put(row, price);
+        genres.put(row, (byte) genre.ordinal());
+        bookstores.put(row, bookstore == null ? 0 : bookstore);
+        withoutBookstore.put(row, (byte) (bookstore == null ? 1 : 0));
+    }
+
+    /**
+     * A new book under the id of a deleted one removes its tombstone.
+     */
+    private void insert(int id, int version, int price, WritingGenre genre, Integer bookstore) {
+        tombstones.remove(id);
+        put(id, version, price, genre, bookstore);
+    }
+
+    /**
+     * Ignored if the book was deleted in the same or a newer version.
+     */
+    private void update(int id, int version, int price, WritingGenre genre, Integer bookstore) {
+        Integer deleted = tombstones.get(id);
+        if (deleted == null || version > deleted) {
+            put(id, version, price, genre, bookstore);
+        }
+    }
+
+    /**
+     * Leaves a tombstone & moves the last row into the hole.
+     */
+    private void delete(int id, int version) {
+        tombstones.merge(id, version, Math::max);
+        int row = rows.remove(id);
+        if (row < 0) {
+            return;
+        }
+        int last = --size;
+        if (row != last) {
+            int lastId = ids.get(last);
+            ids.put(row, lastId);
+            versions.put(row, versions.get(last));
+            prices.put(row, prices.get(last));
+            genres.put(row, genres.get(last));
+            bookstores.put(row, bookstores.get(last));
+            withoutBookstore.put(row, withoutBookstore.get(last));
+            rows.put(lastId, row);
+        }
+    }
+
+    private void allocate(int capacity) {
+        ids = intColumn(capacity);
+        versions = intColumn(capacity);
+        prices = intColumn(capacity);
+        genres = ByteBuffer.allocateDirect(capacity);
+        bookstores = intColumn(capacity);
+        withoutBookstore = ByteBuffer.allocateDirect(capacity);
+    }
+
+    private void grow() {
+        IntBuffer oldIds = ids;
+        IntBuffer oldVersions = versions;
+        IntBuffer oldPrices = prices;
+        ByteBuffer oldGenres = genres;
+        IntBuffer oldBookstores = bookstores;
+        ByteBuffer oldWithoutBookstore = withoutBookstore;
+        allocate(ids.capacity() * 2);
+        for (int row = 0; row < size; row++) {
+            ids.put(row, oldIds.get(row));
+            versions.put(row, oldVersions.get(row));
+            prices.put(row, oldPrices.get(row));
+            genres.put(row, oldGenres.get(row));
+            bookstores.put(row, oldBookstores.get(row));
+            withoutBookstore.put(row, oldWithoutBookstore.get(row));
+        }
+    }
+
+    private static IntBuffer intColumn(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * Integer.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asIntBuffer();
+    }
+
+    /**
+     * Id -> row by open addressing (linear probing) over an off-heap buffer of (id, row + 1) pairs; row + 1 = 0
+     * marks a free slot. At most half of the slots are used.
+     */
+    private static final class RowIndex {
+        private IntBuffer slots;
+        private int mask;
+        private int count;
+
+        RowIndex(int expected) {
+            clear(expected);
+        }
+
+        /**
+         * @return row of the id or -1
+         */
+        int get(int id) {
+            for (int slot = home(id); ; slot = (slot + 1) & mask) {
+                int row = slots.get(2 * slot + 1) - 1;
+                if (row < 0 || slots.get(2 * slot) == id) {
+                    return row;
+                }
+            }
+        }
+
+        void put(int id, int row) {
+            int slot = home(id);
+            while (slots.get(2 * slot + 1) != 0 && slots.get(2 * slot) != id) {
+                slot = (slot + 1) & mask;
+            }
+            if (slots.get(2 * slot + 1) == 0) {
+                if (2 * (count + 1) > mask + 1) {
+                    rehash(2 * (mask + 1));
+                    put(id, row);
+                    return;
+                }
+                count++;
+            }
+            slots.put(2 * slot, id);
+            slots.put(2 * slot + 1, row + 1);
+        }
+
+        /**
+         * Shifts following entries of the probe sequence back into the hole (no deleted markers).
+         *
+         * @return removed row or -1
+         */
+        int remove(int id) {
+            int slot = home(id);
+            while (slots.get(2 * slot + 1) != 0 && slots.get(2 * slot) != id) {
+                slot = (slot + 1) & mask;
+            }
+            int row = slots.get(2 * slot + 1) - 1;
+            if (row < 0) {
+                return -1;
+            }
+            count--;
+            for (int next = (slot + 1) & mask; slots.get(2 * next + 1) != 0; next = (next + 1) & mask) {
+                int home = home(slots.get(2 * next));
+                // the entry may move into the hole if its home isn't cyclically in (hole, next]
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    slots.put(2 * slot, slots.get(2 * next));
+                    slots.put(2 * slot + 1, slots.get(2 * next + 1));
+                    slot = next;
+                }
+            }
+            slots.put(2 * slot, 0);
+            slots.put(2 * slot + 1, 0);
+            return row;
+        }
+
+        void clear(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(INITIAL_CAPACITY, expected) * 2 - 1) * 2;
+            slots = intColumn(2 * capacity);
+            mask = capacity - 1;
+            count = 0;
+        }
+
+        private void rehash(int capacity) {
+            IntBuffer old = this.slots;
+            slots = intColumn(2 * capacity);
+            mask = capacity - 1;
+            count = 0;
+            for (int slot = 0; slot < old.capacity() / 2; slot++) {
+                if (old.get(2 * slot + 1) != 0) {
+                    put(old.get(2 * slot), old.get(2 * slot + 1) - 1);
+                }
+            }
+        }
+
+        private int home(int id) {
+            int hash = id * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+    }
+
+    /**
+     * Committed insert, update or delete of a book.
+     */
+    private static final class Change {
+        enum Kind {INSERT, UPDATE, DELETE}
+
+        final int id;
+        final Kind kind;
+        final int version;
+        final int price;
+        final WritingGenre genre;
+        final Integer bookstore;
+
+        Change(int id, Kind kind, int version, int price, WritingGenre genre, Integer bookstore) {
+            this.id = id;
+            this.kind = kind;
+            this.version = version;
+            this.price = price;
+            this.genre = genre;
+            this.bookstore = bookstore;
+        }
+
+        static Change delete(int id, int version) {
+            return new Change(id, Kind.DELETE, version, 0, null, null);
+        }
+
+        void apply(BookColumns columns) {
+            switch (kind) {
+                case INSERT:
+                    columns.insert(id, version, price, genre, bookstore);
+                    break;
+                case UPDATE:
+                    columns.update(id, version, price, genre, bookstore);
+                    break;
+                default:
+                    columns.delete(id, version);
+            }
+        }
+    }
+}
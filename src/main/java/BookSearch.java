@@ -0,0 +1,194 @@
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Search of books by any combination of filters - title, price range, genre, city of bookstore & author, e.g.
+ * <pre>
+ * bookSearch.find(entityManager, BookSearch.filter().priceBetween(10, 20).bookstoreCity("New York"));
+ * </pre>
+ * Every filter is a {@link Specification} over metamodel attributes ({@code Book_}, no lookup by name) binding its
+ * value as a named parameter; the query of a combination of filters is built & rendered to JPQL only once (Hibernate
+ * then takes its plan from the query plan cache) - a search only binds values.
+ */
+public final class BookSearch {
+    private static final String TITLE = "title";
+    private static final String MIN_PRICE = "minPrice";
+    private static final String MAX_PRICE = "maxPrice";
+    private static final String GENRE = "genre";
+    private static final String CITY = "city";
+    private static final String AUTHOR = "author";
+
+    private static final int TITLE_FILTER = 0;
+    private static final int PRICE_FILTER = 1;
+    private static final int GENRE_FILTER = 2;
+    private static final int CITY_FILTER = 3;
+    private static final int AUTHOR_FILTER = 4;
+
+    /**
+     * Indexed by *_FILTER.
+     */
+    private static final List<Specification<Book>> FILTERS = ImmutableList.of(
+            (cb, book) -> cb.equal(book.get(Book_.title), cb.parameter(String.class, TITLE)),
+            (cb, book) -> cb.between(book.get(Book_.price),
+                    cb.parameter(Integer.class, MIN_PRICE), cb.parameter(Integer.class, MAX_PRICE)),
+            (cb, book) -> cb.equal(book.get(Book_.genre), cb.parameter(WritingGenre.class, GENRE)),
+            (cb, book) -> cb.equal(book.get(Book_.bookstore).get(Bookstore_.address).get(Address_.city),
+                    cb.parameter(String.class, CITY)),
+            (cb, book) -> cb.equal(book.join(Book_.authors).get(Author_.name), cb.parameter(String.class, AUTHOR)));
+
+    private final EntityManagerFactory emf;
+    /**
+     * JPQL by bit set of filters.
+     */
+    private final AtomicReferenceArray<String> queries = new AtomicReferenceArray<>(1 << FILTERS.size());
+
+    public BookSearch(EntityManagerFactory emf) {
+        this.emf = emf;
+    }
+
+    public static Filter filter() {
+        return new Filter();
+    }
+
+    /**
+     * @return books matching all filters, ordered by id
+     */
+    public List<Book> find(EntityManager entityManager, Filter filter) {
+        return query(entityManager, filter).getResultList();
+    }
+
+    /**
+     * @return query of books matching all filters (ordered by id) with bound values, e.g. to set paging
+     */
+    public TypedQuery<Book> query(EntityManager entityManager, Filter filter) {
+        TypedQuery<Book> query = entityManager.createQuery(jpql(filter.filters), Book.class);
+        if (filter.has(TITLE_FILTER)) {
+            query.setParameter(TITLE, filter.title);
+        }
+        if (filter.has(PRICE_FILTER)) {
+            query.setParameter(MIN_PRICE, filter.minPrice).setParameter(MAX_PRICE, filter.maxPrice);
+        }
+        if (filter.has(GENRE_FILTER)) {
+            query.setParameter(GENRE, filter.genre);
+        }
+        if (filter.has(CITY_FILTER)) {
+            query.setParameter(CITY, filter.city);
+        }
+        if (filter.has(AUTHOR_FILTER)) {
+            query.setParameter(AUTHOR, filter.author);
+        }
+        return query;
+    }
+
+    /**
+     * @return number of compiled combinations of filters
+     */
+    int compiled() {
+        int compiled = 0;
+        for (int i = 0; i < queries.length(); i++) {
+            if (queries.get(i) != null) {
+                compiled++;
+            }
+        }
+        return compiled;
+    }
+
+    String jpql(int filters) {
+        String jpql = queries.get(filters);
+        if (jpql == null) {
+            // concurrent compilations of the same combination produce the same JPQL
+            jpql = compile(filters);
+            queries.set(filters, jpql);
+        }
+        return jpql;
+    }
+
+    private String compile(int filters) {
+        CriteriaBuilder cb = emf.getCriteriaBuilder();
+        CriteriaQuery<Book> query = cb.createQuery(Book.class);
+        Root<Book> book = query.from(Book.class);
+        Specification<Book> specification = Specification.all();
+        for (int i = 0; i < FILTERS.size(); i++) {
+            if ((filters & 1 << i) != 0) {
+                specification = specification.and(FILTERS.get(i));
+            }
+        }
+        query.select(book)
+                .where(specification.toPredicate(cb, book))
+                // books having more authors of the name
+                .distinct((filters & 1 << AUTHOR_FILTER) != 0)
+                .orderBy(cb.asc(book.get(Book_.id)));
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            return entityManager.createQuery(query).unwrap(org.hibernate.query.Query.class).getQueryString();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Values of filters; reusable - setting a filter again replaces its value.
+     */
+    public static final class Filter {
+        private int filters;
+        private String title;
+        private int minPrice;
+        private int maxPrice;
+        private WritingGenre genre;
+        private String city;
+        private String author;
+
+        private Filter() {
+        }
+
+        public Filter titleEquals(String title) {
+            this.title = Objects.requireNonNull(title);
+            return with(TITLE_FILTER);
+        }
+
+        /**
+         * @param minPrice inclusive
+         * @param maxPrice inclusive
+         */
+        public Filter priceBetween(int minPrice, int maxPrice) {
+            Preconditions.checkArgument(minPrice <= maxPrice, "Empty range: %s - %s", minPrice, maxPrice);
+            this.minPrice = minPrice;
+            this.maxPrice = maxPrice;
+            return with(PRICE_FILTER);
+        }
+
+        public Filter genre(WritingGenre genre) {
+            this.genre = Objects.requireNonNull(genre);
+            return with(GENRE_FILTER);
+        }
+
+        public Filter bookstoreCity(String city) {
+            this.city = Objects.requireNonNull(city);
+            return with(CITY_FILTER);
+        }
+
+        public Filter hasAuthor(String name) {
+            this.author = Objects.requireNonNull(name);
+            return with(AUTHOR_FILTER);
+        }
+
+        private Filter with(int filter) {
+            filters |= 1 << filter;
+            return this;
+        }
+
+        private boolean has(int filter) {
+            return (filters & 1 << filter) != 0;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * Entry of the title index maintained by {@link BookTitleTrigramTrigger}: book's title contains trigram
+ * (after lowercasing).
+ */
+@Entity
+@Immutable
+@IdClass(BookTitleTrigram.Key.class)
+@Table(name = "BOOK_TITLE_TRIGRAM")
+public class BookTitleTrigram {
+    @Id
+    private String trigram;
+
+    @Id
+    @Column(name = "BOOK_ID")
+    private int bookId;
+
+    public String getTrigram() {
+        return trigram;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BookTitleTrigram that = (BookTitleTrigram) o;
+
+        return bookId == that.bookId && trigram.equals(that.trigram);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * trigram.hashCode() + bookId;
+    }
+
+    @Override
+    public String toString() {
+        return "BookTitleTrigram{" +
+                "trigram='" + trigram + '\'' +
+                ", bookId=" + bookId +
+                '}';
+    }
+
+    public static class Key implements Serializable {
+        private String trigram;
+        private int bookId;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return bookId == key.bookId && trigram.equals(key.trigram);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * trigram.hashCode() + bookId;
+        }
+    }
+}
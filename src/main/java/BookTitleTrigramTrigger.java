@@ -0,0 +1,66 @@
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+
+/**
+ * Row trigger on BOOK keeping BOOK_TITLE_TRIGRAM (see V4__Book_title_trigrams.sql) in sync with titles.
+ */
+public class BookTitleTrigramTrigger implements Trigger {
+    private int idColumn;
+    private int titleColumn;
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before, int type)
+            throws SQLException {
+        try (ResultSet columns = conn.getMetaData().getColumns(null, schemaName, tableName, null)) {
+            while (columns.next()) {
+                int index = columns.getInt("ORDINAL_POSITION") - 1;
+                switch (columns.getString("COLUMN_NAME")) {
+                    case "ID":
+                        idColumn = index;
+                        break;
+                    case "TITLE":
+                        titleColumn = index;
+                        break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        if (oldRow != null && newRow != null
+                && Objects.equals(oldRow[idColumn], newRow[idColumn])
+                && Objects.equals(oldRow[titleColumn], newRow[titleColumn])) {
+            return;
+        }
+        if (oldRow != null) {
+            try (PreparedStatement delete = conn.prepareStatement("DELETE FROM BOOK_TITLE_TRIGRAM WHERE BOOK_ID = ?")) {
+                delete.setInt(1, (Integer) oldRow[idColumn]);
+                delete.executeUpdate();
+            }
+        }
+        if (newRow != null) {
+            try (PreparedStatement insert = conn.prepareStatement("INSERT INTO BOOK_TITLE_TRIGRAM (TRIGRAM, BOOK_ID) VALUES (?, ?)")) {
+                for (String trigram : TitleSearch.trigrams((String) newRow[titleColumn])) {
+                    insert.setString(1, trigram);
+                    insert.setInt(2, (Integer) newRow[idColumn]);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+}
@@ -1,7 +1,11 @@
+import org.hibernate.annotations.LazyCollection;
+import org.hibernate.annotations.LazyCollectionOption;
+
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
+import javax.persistence.Version;
 import java.util.List;
 
 /**
@@ -11,19 +15,31 @@ import java.util.List;
 public class Bookstore {
     @Id
     private int id;
+
+    @Version
+    private int version;
     
     private String name;
     
     @OneToOne
     private Address address;
     
+    /**
+     * Extra lazy: {@code size()}, {@code isEmpty()} & {@code contains(book)} of an uninitialized collection are
+     * answered by SQL ({@code count} / row lookup) without loading books.
+     */
     @OneToMany(mappedBy = "bookstore")
+    @LazyCollection(LazyCollectionOption.EXTRA)
     private List<Book> books;
 
     public int getId() {
         return id;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
     public String getName() {
         return name;
     }
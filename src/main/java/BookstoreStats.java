@@ -0,0 +1,99 @@
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.*;
+import java.util.Map;
+
+/**
+ * Summary of bookstore's books maintained by {@link BookstoreStatsTrigger}.
+ */
+@Entity
+@Immutable
+@Table(name = "BOOKSTORE_STATS")
+public class BookstoreStats {
+    @Id
+    @Column(name = "BOOKSTORE_ID")
+    private int bookstoreId;
+
+    // @OneToOne sharing the id column is selected as null by Hibernate 5.2 (e.g. in SELECT s.bookstore)
+    @ManyToOne
+    @JoinColumn(name = "BOOKSTORE_ID", insertable = false, updatable = false)
+    private Bookstore bookstore;
+
+    @Column(name = "BOOK_COUNT")
+    private long bookCount;
+
+    @Column(name = "PRICE_SUM")
+    private long priceSum;
+
+    @Column(name = "MIN_PRICE")
+    private Integer minPrice;
+
+    @Column(name = "MAX_PRICE")
+    private Integer maxPrice;
+
+    @ElementCollection
+    @CollectionTable(name = "BOOKSTORE_GENRE_STATS", joinColumns = @JoinColumn(name = "BOOKSTORE_ID"))
+    @MapKeyColumn(name = "GENRE")
+    @MapKeyEnumerated(EnumType.STRING)
+    @Column(name = "BOOK_COUNT")
+    private Map<WritingGenre, Long> genreCounts;
+
+    public int getBookstoreId() {
+        return bookstoreId;
+    }
+
+    public Bookstore getBookstore() {
+        return bookstore;
+    }
+
+    public long getBookCount() {
+        return bookCount;
+    }
+
+    public long getPriceSum() {
+        return priceSum;
+    }
+
+    public Integer getMinPrice() {
+        return minPrice;
+    }
+
+    public Integer getMaxPrice() {
+        return maxPrice;
+    }
+
+    /**
+     * @return null for bookstore without books (as min & max price, and avg() in SQL)
+     */
+    public Double getPriceAvg() {
+        return bookCount == 0 ? null : (double) priceSum / bookCount;
+    }
+
+    public Map<WritingGenre, Long> getGenreCounts() {
+        return genreCounts;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BookstoreStats stats = (BookstoreStats) o;
+
+        return bookstoreId == stats.bookstoreId;
+    }
+
+    @Override
+    public int hashCode() {
+        return bookstoreId;
+    }
+
+    @Override
+    public String toString() {
+        return "BookstoreStats{" +
+                "bookstoreId=" + bookstoreId +
+                ", bookCount=" + bookCount +
+                ", priceSum=" + priceSum +
+                '}';
+    }
+}
@@ -0,0 +1,107 @@
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import javax.persistence.EntityManager;
+import java.util.*;
+
+/**
+ * Verifies BOOKSTORE_STATS & BOOKSTORE_GENRE_STATS against BOOK and repairs drifted bookstores
+ * (e.g. after manual changes made with {@link BookstoreStatsTrigger} disabled).
+ */
+public final class BookstoreStatsReconciliation {
+    private final EntityManager entityManager;
+
+    public BookstoreStatsReconciliation(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * @return ids of bookstores which stats differ from BOOK
+     */
+    public Set<Integer> verify() {
+        Map<Integer, List<Object>> actual = rows("" +
+                "SELECT BOOKSTORE_ID, count(*), sum(PRICE), min(PRICE), max(PRICE) " +
+                "FROM BOOK " +
+                "WHERE BOOKSTORE_ID IS NOT NULL " +
+                "GROUP BY BOOKSTORE_ID");
+        Map<Integer, List<Object>> stored = rows("" +
+                "SELECT BOOKSTORE_ID, BOOK_COUNT, PRICE_SUM, MIN_PRICE, MAX_PRICE " +
+                "FROM BOOKSTORE_STATS " +
+                "WHERE BOOK_COUNT <> 0 OR PRICE_SUM <> 0 OR MIN_PRICE IS NOT NULL OR MAX_PRICE IS NOT NULL");
+        Map<Integer, List<Object>> actualGenres = rows("" +
+                "SELECT BOOKSTORE_ID, GENRE, count(*) " +
+                "FROM BOOK " +
+                "WHERE BOOKSTORE_ID IS NOT NULL " +
+                "GROUP BY BOOKSTORE_ID, GENRE " +
+                "ORDER BY GENRE");
+        Map<Integer, List<Object>> storedGenres = rows("" +
+                "SELECT BOOKSTORE_ID, GENRE, BOOK_COUNT " +
+                "FROM BOOKSTORE_GENRE_STATS " +
+                "WHERE BOOK_COUNT <> 0 " +
+                "ORDER BY GENRE");
+
+        Set<Integer> drifted = new TreeSet<>();
+        for (Integer bookstore : Sets.union(actual.keySet(), stored.keySet())) {
+            if (!Objects.equals(actual.get(bookstore), stored.get(bookstore))) {
+                drifted.add(bookstore);
+            }
+        }
+        for (Integer bookstore : Sets.union(actualGenres.keySet(), storedGenres.keySet())) {
+            if (!Objects.equals(actualGenres.get(bookstore), storedGenres.get(bookstore))) {
+                drifted.add(bookstore);
+            }
+        }
+        return ImmutableSet.copyOf(drifted);
+    }
+
+    /**
+     * Recomputes stats of drifted bookstores from BOOK; has to be called inside a transaction.
+     *
+     * @return ids of repaired bookstores
+     */
+    public Set<Integer> repair() {
+        Set<Integer> drifted = verify();
+        for (Integer bookstore : drifted) {
+            entityManager.createNativeQuery("DELETE FROM BOOKSTORE_GENRE_STATS WHERE BOOKSTORE_ID = ?1")
+                    .setParameter(1, bookstore)
+                    .executeUpdate();
+            entityManager.createNativeQuery("DELETE FROM BOOKSTORE_STATS WHERE BOOKSTORE_ID = ?1")
+                    .setParameter(1, bookstore)
+                    .executeUpdate();
+            entityManager.createNativeQuery("" +
+                    "INSERT INTO BOOKSTORE_STATS (BOOKSTORE_ID, BOOK_COUNT, PRICE_SUM, MIN_PRICE, MAX_PRICE) " +
+                    "SELECT ?1, count(*), COALESCE(sum(PRICE), 0), min(PRICE), max(PRICE) " +
+                    "FROM BOOK " +
+                    "WHERE BOOKSTORE_ID = ?1")
+                    .setParameter(1, bookstore)
+                    .executeUpdate();
+            entityManager.createNativeQuery("" +
+                    "INSERT INTO BOOKSTORE_GENRE_STATS (BOOKSTORE_ID, GENRE, BOOK_COUNT) " +
+                    "SELECT BOOKSTORE_ID, GENRE, count(*) " +
+                    "FROM BOOK " +
+                    "WHERE BOOKSTORE_ID = ?1 " +
+                    "GROUP BY BOOKSTORE_ID, GENRE")
+                    .setParameter(1, bookstore)
+                    .executeUpdate();
+        }
+        if (!drifted.isEmpty()) {
+            entityManager.getEntityManagerFactory().getCache().evict(BookstoreStats.class);
+        }
+        return drifted;
+    }
+
+    /**
+     * @return first column (bookstore id) -> remaining columns; rows of the same bookstore are concatenated
+     */
+    private Map<Integer, List<Object>> rows(String sql) {
+        Map<Integer, List<Object>> rows = new HashMap<>();
+        for (Object row : entityManager.createNativeQuery(sql).getResultList()) {
+            Object[] columns = (Object[]) row;
+            List<Object> values = rows.computeIfAbsent(((Number) columns[0]).intValue(), id -> new ArrayList<>());
+            for (int i = 1; i < columns.length; i++) {
+                values.add(columns[i] instanceof Number ? ((Number) columns[i]).longValue() : columns[i]);
+            }
+        }
+        return rows;
+    }
+}
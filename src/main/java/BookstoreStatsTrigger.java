@@ -0,0 +1,146 @@
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+
+/**
+ * Row trigger on BOOK keeping BOOKSTORE_STATS & BOOKSTORE_GENRE_STATS up to date (see V3__Bookstore_stats.sql).
+ * <p>
+ * Count, sum & per-genre counts are maintained incrementally; min/max are recomputed from BOOK
+ * (with use of index on BOOKSTORE_ID) only when the removed price was the extreme one.
+ * <p>
+ * On BOOKSTORE the trigger inserts the (empty) stats row of a new bookstore (V10__Bookstore_stats_rows.sql), so a
+ * change of BOOK only updates it: the row lock serializes concurrent changes of the same bookstore, including the
+ * first insert of a genre into BOOKSTORE_GENRE_STATS.
+ */
+public class BookstoreStatsTrigger implements Trigger {
+    private boolean bookstore;
+    private int idColumn;
+    private int priceColumn;
+    private int genreColumn;
+    private int bookstoreColumn;
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before, int type)
+            throws SQLException {
+        bookstore = tableName.equals("BOOKSTORE");
+        try (ResultSet columns = conn.getMetaData().getColumns(null, schemaName, tableName, null)) {
+            while (columns.next()) {
+                int index = columns.getInt("ORDINAL_POSITION") - 1;
+                switch (columns.getString("COLUMN_NAME")) {
+                    case "ID":
+                        idColumn = index;
+                        break;
+                    case "PRICE":
+                        priceColumn = index;
+                        break;
+                    case "GENRE":
+                        genreColumn = index;
+                        break;
+                    case "BOOKSTORE_ID":
+                        bookstoreColumn = index;
+                        break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        if (bookstore) {
+            try (PreparedStatement insert = conn.prepareStatement("" +
+                    "INSERT INTO BOOKSTORE_STATS (BOOKSTORE_ID, BOOK_COUNT, PRICE_SUM, MIN_PRICE, MAX_PRICE) " +
+                    "VALUES (?, 0, 0, NULL, NULL)")) {
+                insert.setInt(1, (Integer) newRow[idColumn]);
+                insert.executeUpdate();
+            }
+            return;
+        }
+        if (oldRow != null && newRow != null
+                && Objects.equals(oldRow[bookstoreColumn], newRow[bookstoreColumn])
+                && Objects.equals(oldRow[priceColumn], newRow[priceColumn])
+                && Objects.equals(oldRow[genreColumn], newRow[genreColumn])) {
+            return;
+        }
+        if (oldRow != null && oldRow[bookstoreColumn] != null) {
+            remove(conn, (Integer) oldRow[bookstoreColumn], (Integer) oldRow[priceColumn], (String) oldRow[genreColumn]);
+        }
+        if (newRow != null && newRow[bookstoreColumn] != null) {
+            add(conn, (Integer) newRow[bookstoreColumn], (Integer) newRow[priceColumn], (String) newRow[genreColumn]);
+        }
+    }
+
+    private static void add(Connection conn, int bookstore, int price, String genre) throws SQLException {
+        try (PreparedStatement update = conn.prepareStatement("" +
+                "UPDATE BOOKSTORE_STATS " +
+                "SET BOOK_COUNT = BOOK_COUNT + 1, PRICE_SUM = PRICE_SUM + ?, " +
+                "MIN_PRICE = LEAST(COALESCE(MIN_PRICE, ?), ?), MAX_PRICE = GREATEST(COALESCE(MAX_PRICE, ?), ?) " +
+                "WHERE BOOKSTORE_ID = ?")) {
+            update.setInt(1, price);
+            update.setInt(2, price);
+            update.setInt(3, price);
+            update.setInt(4, price);
+            update.setInt(5, price);
+            update.setInt(6, bookstore);
+            update.executeUpdate();
+        }
+        try (PreparedStatement update = conn.prepareStatement("" +
+                "UPDATE BOOKSTORE_GENRE_STATS " +
+                "SET BOOK_COUNT = BOOK_COUNT + 1 " +
+                "WHERE BOOKSTORE_ID = ? AND GENRE = ?")) {
+            update.setInt(1, bookstore);
+            update.setString(2, genre);
+            if (update.executeUpdate() == 0) {
+                try (PreparedStatement insert = conn.prepareStatement("" +
+                        "INSERT INTO BOOKSTORE_GENRE_STATS (BOOKSTORE_ID, GENRE, BOOK_COUNT) " +
+                        "VALUES (?, ?, 1)")) {
+                    insert.setInt(1, bookstore);
+                    insert.setString(2, genre);
+                    insert.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private static void remove(Connection conn, int bookstore, int price, String genre) throws SQLException {
+        try (PreparedStatement update = conn.prepareStatement("" +
+                "UPDATE BOOKSTORE_STATS " +
+                "SET BOOK_COUNT = BOOK_COUNT - 1, PRICE_SUM = PRICE_SUM - ? " +
+                "WHERE BOOKSTORE_ID = ?")) {
+            update.setInt(1, price);
+            update.setInt(2, bookstore);
+            update.executeUpdate();
+        }
+        try (PreparedStatement recompute = conn.prepareStatement("" +
+                "UPDATE BOOKSTORE_STATS " +
+                "SET MIN_PRICE = (SELECT MIN(PRICE) FROM BOOK WHERE BOOKSTORE_ID = ?), " +
+                "MAX_PRICE = (SELECT MAX(PRICE) FROM BOOK WHERE BOOKSTORE_ID = ?) " +
+                "WHERE BOOKSTORE_ID = ? AND (MIN_PRICE = ? OR MAX_PRICE = ?)")) {
+            recompute.setInt(1, bookstore);
+            recompute.setInt(2, bookstore);
+            recompute.setInt(3, bookstore);
+            recompute.setInt(4, price);
+            recompute.setInt(5, price);
+            recompute.executeUpdate();
+        }
+        try (PreparedStatement update = conn.prepareStatement("" +
+                "UPDATE BOOKSTORE_GENRE_STATS " +
+                "SET BOOK_COUNT = BOOK_COUNT - 1 " +
+                "WHERE BOOKSTORE_ID = ? AND GENRE = ?")) {
+            update.setInt(1, bookstore);
+            update.setString(2, genre);
+            update.executeUpdate();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+}
@@ -0,0 +1,231 @@
+import com.google.common.base.Preconditions;
+import org.hibernate.engine.spi.SessionImplementor;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.*;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Catalog-wide changes with {@link CriteriaUpdate} / {@link CriteriaDelete} instead of loading & changing
+ * entities one by one, e.g. raise price 5% for all FANTASY books in bookstore 1:
+ * <pre>
+ * new BulkOperations(entityManager).update(Book.class,
+ *         (cb, book) -> cb.and(
+ *                 cb.equal(book.get(Book_.genre), WritingGenre.FANTASY),
+ *                 cb.equal(book.get(Book_.bookstore).get(Bookstore_.id), 1)),
+ *         BulkOperations.raisePrice(5));
+ * </pre>
+ * Statements run in chunks (every chunk in its own transaction) to limit lock duration & undo size: a chunk is the
+ * next {@code chunkSize} ids of matching entities after the previous chunk (keyset), so sparse ids cost no empty
+ * chunks; the statement covers the id range of the chunk. After every chunk entities of the chunk are detached
+ * from the entity manager & evicted from the second-level cache. Entity listeners & triggers based on entity events
+ * (e.g. {@link BookColumns}) don't see bulk changes.
+ * <p>
+ * BulkOperationsBenchmark: row triggers of BOOK get slower as the transaction grows, so small chunks win
+ * (100k books: 7300 rows/s with chunks of 1000 ids, 440 rows/s in a single transaction).
+ */
+public final class BulkOperations {
+    public static final int DEFAULT_CHUNK_SIZE = 1_000;
+    private static final String CHUNK_FROM = "chunkFrom";
+
+    private final EntityManager entityManager;
+    private final int chunkSize;
+
+    public BulkOperations(EntityManager entityManager) {
+        this(entityManager, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize number of matching entities updated / deleted in one transaction
+     */
+    public BulkOperations(EntityManager entityManager, int chunkSize) {
+        Preconditions.checkArgument(chunkSize > 0, "chunkSize has to be positive: %s", chunkSize);
+        this.entityManager = entityManager;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets {@code price = round(price * (100 + percent) / 100)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static Assignment<Book> raisePrice(int percent) {
+        return (cb, book, update) -> {
+            Path<Integer> price = book.get(Book_.price);
+            Expression<?> raised = cb.quot(cb.sum(cb.prod(price, 100 + percent), 50), 100);
+            update.set(price, (Expression<Integer>) raised);
+        };
+    }
+
+    public static Assignment<Book> setGenre(WritingGenre genre) {
+        return (cb, book, update) -> update.set(book.get(Book_.genre), genre);
+    }
+
+    /**
+     * Increments version of versioned entities (bulk statements bypass optimistic locking).
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Result update(Class<T> entity, Specification<T> filter, Assignment<T> assignment) {
+        Optional<SingularAttribute<? super T, ?>> version = entityManager.getMetamodel().entity(entity)
+                .getSingularAttributes()
+                .stream()
+                .filter(SingularAttribute::isVersion)
+                .findFirst();
+        return run(entity, filter, (cb, id, from, to) -> {
+            CriteriaUpdate<T> update = cb.createCriteriaUpdate(entity);
+            Root<T> root = update.from(entity);
+            assignment.assign(cb, root, update);
+            version.ifPresent(attribute -> {
+                Path<Integer> path = root.get((SingularAttribute<? super T, Integer>) attribute);
+                update.set(path, cb.sum(path, 1));
+            });
+            update.where(filter.toPredicate(cb, root), cb.between(root.get(id), from, to));
+            return entityManager.createQuery(update);
+        });
+    }
+
+    public <T> Result delete(Class<T> entity, Specification<T> filter) {
+        return run(entity, filter, (cb, id, from, to) -> {
+            CriteriaDelete<T> delete = cb.createCriteriaDelete(entity);
+            Root<T> root = delete.from(entity);
+            delete.where(filter.toPredicate(cb, root), cb.between(root.get(id), from, to));
+            return entityManager.createQuery(delete);
+        });
+    }
+
+    private <T> Result run(Class<T> entity, Specification<T> filter, Statement<T> statement) {
+        Preconditions.checkState(!entityManager.getTransaction().isActive(),
+                "Bulk operation manages its own transactions");
+        long start = System.nanoTime();
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        EntityType<T> entityType = entityManager.getMetamodel().entity(entity);
+        @SuppressWarnings("unchecked")
+        SingularAttribute<? super T, Integer> id = entityType.getId((Class<Integer>) entityType.getIdType().getJavaType());
+        ParameterExpression<Integer> from = cb.parameter(Integer.class, "chunkStart");
+        ParameterExpression<Integer> to = cb.parameter(Integer.class, "chunkEnd");
+        javax.persistence.Query query = statement.create(cb, id, from, to);
+        TypedQuery<Integer> nextIds = nextIds(entity, filter, id);
+
+        long rows = 0;
+        int chunks = 0;
+        for (int next = Integer.MIN_VALUE; ; ) {
+            List<Integer> ids;
+            EntityTransaction transaction = entityManager.getTransaction();
+            transaction.begin();
+            try {
+                ids = nextIds.setParameter(CHUNK_FROM, next).getResultList();
+                if (!ids.isEmpty()) {
+                    rows += query.setParameter(from.getName(), ids.get(0))
+                            .setParameter(to.getName(), ids.get(ids.size() - 1))
+                            .executeUpdate();
+                }
+                transaction.commit();
+            } finally {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+            }
+            if (ids.isEmpty()) {
+                break;
+            }
+            invalidate(entity, ids);
+            chunks++;
+            int last = ids.get(ids.size() - 1);
+            if (ids.size() < chunkSize || last == Integer.MAX_VALUE) {
+                break;
+            }
+            next = last + 1;
+        }
+        return new Result(rows, chunks, System.nanoTime() - start);
+    }
+
+    /**
+     * @return query of the next {@code chunkSize} ids (from {@link #CHUNK_FROM}) of entities matching filter
+     */
+    private <T> TypedQuery<Integer> nextIds(Class<T> entity, Specification<T> filter,
+                                            SingularAttribute<? super T, Integer> id) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Integer> cc_query = cb.createQuery(Integer.class);
+        Root<T> cc_query_root = cc_query.from(entity);
+        cc_query.select(cc_query_root.get(id))
+                .where(filter.toPredicate(cb, cc_query_root),
+                        cb.greaterThanOrEqualTo(cc_query_root.get(id), cb.parameter(Integer.class, CHUNK_FROM)))
+                .orderBy(cb.asc(cc_query_root.get(id)));
+        return entityManager.createQuery(cc_query).setMaxResults(chunkSize);
+    }
+
+    /**
+     * @param ids sorted ids of the chunk
+     */
+    private void invalidate(Class<?> entity, List<Integer> ids) {
+        PersistenceUnitUtil entities = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        List<Object> stale = new ArrayList<>();
+        for (Object managed : entityManager.unwrap(SessionImplementor.class).getPersistenceContext().getEntitiesByKey().values()) {
+            if (entity.isInstance(managed)
+                    && Collections.binarySearch(ids, (Integer) entities.getIdentifier(managed)) >= 0) {
+                stale.add(managed);
+            }
+        }
+        stale.forEach(entityManager::detach);
+        Cache cache = entityManager.getEntityManagerFactory().getCache();
+        for (Integer id : ids) {
+            cache.evict(entity, id);
+        }
+    }
+
+    /**
+     * Sets attributes of updated entities.
+     */
+    @FunctionalInterface
+    public interface Assignment<T> {
+        void assign(CriteriaBuilder cb, Root<T> root, CriteriaUpdate<T> update);
+    }
+
+    @FunctionalInterface
+    private interface Statement<T> {
+        javax.persistence.Query create(CriteriaBuilder cb, SingularAttribute<? super T, Integer> id,
+                                       ParameterExpression<Integer> from, ParameterExpression<Integer> to);
+    }
+
+    public static final class Result {
+        private final long rows;
+        private final int chunks;
+        private final long nanos;
+
+        Result(long rows, int chunks, long nanos) {
+            this.rows = rows;
+            this.chunks = chunks;
+            this.nanos = nanos;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public long getMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        public double getRowsPerSecond() {
+            return nanos == 0 ? 0 : rows * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows in %d chunks, %d ms (%.0f rows/s)", rows, chunks, getMillis(), getRowsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,506 @@
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams scalar projections of the catalog (not entities) into files: rows are read by {@link ScalarRows}
+ * & encoded by one reusable encoder into a direct {@link ByteBuffer} which is written to a {@link FileChannel}
+ * whenever it fills up, so memory stays flat regardless of catalog size.
+ * <ul>
+ * <li>{@link Format#CSV} - header with column names, RFC 4180 quoting, empty field for null</li>
+ * <li>{@link Format#BINARY} - header: magic {@code CATX}, column count, then for every column its name
+ * (length-prefixed UTF-8) & type code; every row: length of the rest of the row (int), null bitmap
+ * (1 bit per column), values of non-null columns - int (4 bytes), long & double (8 bytes),
+ * text (length-prefixed UTF-8); big-endian</li>
+ * </ul>
+ * {@link #exportCatalog(EntityManagerFactory, Path, Format, int)} writes bookstores, books, authors & book
+ * authors, every one split into partition files ({@code mod(id, partitions)}) written in parallel.
+ * <p>
+ * CatalogExportBenchmark (100k books, 310k rows): ~45 - 85 MB/s with a single partition & ~20 kB allocated
+ * by the exporter per catalog (vs 160 MB with {@code getResultList()} & string building); embedded H2 executes
+ * statements of a database one at a time & every partition scans the whole table, so more partitions only
+ * pay off with a database that runs them concurrently.
+ */
+public final class CatalogExport {
+    public static final Map<String, String> CATALOG = ImmutableMap.of(
+            "bookstores", "" +
+                    "SELECT b.id AS id, b.name AS name, a.city AS city " +
+                    "FROM Bookstore b LEFT JOIN b.address a " +
+                    "WHERE mod(b.id, :partitions) = :partition " +
+                    "ORDER BY b.id",
+            "books", "" +
+                    "SELECT b.id AS id, b.title AS title, b.price AS price, b.genre AS genre, s.id AS bookstore " +
+                    "FROM Book b LEFT JOIN b.bookstore s " +
+                    "WHERE mod(b.id, :partitions) = :partition " +
+                    "ORDER BY b.id",
+            "authors", "" +
+                    "SELECT a.id AS id, a.name AS name " +
+                    "FROM Author a " +
+                    "WHERE mod(a.id, :partitions) = :partition " +
+                    "ORDER BY a.id",
+            "book_authors", "" +
+                    "SELECT b.id AS book, a.id AS author " +
+                    "FROM Book b JOIN b.authors a " +
+                    "WHERE mod(b.id, :partitions) = :partition " +
+                    "ORDER BY b.id, a.id");
+
+    static final byte[] MAGIC = "CATX".getBytes(StandardCharsets.US_ASCII);
+    static final byte INT = 1;
+    static final byte LONG = 2;
+    static final byte DOUBLE = 3;
+    static final byte TEXT = 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CatalogExport() {
+    }
+
+    public enum Format {
+        CSV("csv"), BINARY("bin");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Exports all queries of {@link #CATALOG} into {@code <directory>/<name>-<partition>.<csv|bin>}.
+     */
+    public static Report exportCatalog(EntityManagerFactory emf, Path directory, Format format, int partitions) {
+        Report report = Report.EMPTY;
+        for (Map.Entry<String, String> export : CATALOG.entrySet()) {
+            report = report.plus(exportPartitioned(emf, export.getValue(), directory, export.getKey(), format, partitions));
+        }
+        return report;
+    }
+
+    /**
+     * @param jpql scalar query with parameters {@code :partition} & {@code :partitions}
+     */
+    public static Report exportPartitioned(EntityManagerFactory emf, String jpql, Path directory, String name,
+                                           Format format, int partitions) {
+        Preconditions.checkArgument(partitions > 0, "partitions has to be positive: %s", partitions);
+        ExecutorService executor = Executors.newFixedThreadPool(partitions,
+                new ThreadFactoryBuilder().setNameFormat("export-" + name + "-%d").build());
+        try {
+            long start = System.nanoTime();
+            List<Future<Report>> futures = new ArrayList<>();
+            for (int partition = 0; partition < partitions; partition++) {
+                Path file = directory.resolve(name + "-" + partition + "." + format.extension);
+                int current = partition;
+                futures.add(executor.submit(() -> {
+                    EntityManager entityManager = emf.createEntityManager();
+                    try {
+                        return export(entityManager, entityManager.createQuery(jpql)
+                                .setParameter("partitions", partitions)
+                                .setParameter("partition", current), file, format);
+                    } finally {
+                        entityManager.close();
+                    }
+                }));
+            }
+            long rows = 0;
+            long bytes = 0;
+            for (Future<Report> future : futures) {
+                Report partition = future.get();
+                rows += partition.rows;
+                bytes += partition.bytes;
+            }
+            return new Report(rows, bytes, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Export of " + name + " failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes results of scalar query into file (replaces existing one).
+     */
+    public static Report export(EntityManager entityManager, Query query, Path file, Format format) {
+        long start = System.nanoTime();
+        ScalarRows rows = ScalarRows.of(entityManager, query);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Encoder encoder = format == Format.CSV
+                    ? new CsvEncoder(channel, rows.columnTypes())
+                    : new BinaryEncoder(channel, rows.columnTypes(), BUFFER_SIZE);
+            encoder.header(rows.columnNames());
+            long[] count = {0};
+            rows.forEach(row -> {
+                try {
+                    encoder.row(row);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                count[0]++;
+            });
+            encoder.flush();
+            return new Report(count[0], Files.size(file), System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static final class Report {
+        static final Report EMPTY = new Report(0, 0, 0);
+
+        private final long rows;
+        private final long bytes;
+        private final long nanos;
+
+        Report(long rows, long bytes, long nanos) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        Report plus(Report other) {
+            return new Report(rows + other.rows, bytes + other.bytes, nanos + other.nanos);
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double getMegabytesPerSecond() {
+            return nanos == 0 ? 0 : bytes / 1e6 / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows, %.1f MB in %d ms (%.1f MB/s)",
+                    rows, bytes / 1e6, nanos / 1_000_000, getMegabytesPerSecond());
+        }
+    }
+
+    /**
+     * Encodes rows into direct buffer, writes the buffer to channel when it's full.
+     */
+    abstract static class Encoder {
+        private final FileChannel channel;
+        final ByteBuffer buffer;
+        final Class<?>[] types;
+
+        Encoder(FileChannel channel, Class<?>[] types, int bufferSize) {
+            this.channel = channel;
+            this.types = types;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.BIG_ENDIAN);
+        }
+
+        abstract void header(String[] names) throws IOException;
+
+        abstract void row(ScalarRows.Row row) throws SQLException, IOException;
+
+        /**
+         * Ensures space for bytes (buffer has to be big enough for them).
+         */
+        final void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        final void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        final void putUtf8(CharSequence text) throws IOException {
+            putUtf8(text, 0, text.length());
+        }
+
+        final void putUtf8(CharSequence text, int from, int to) throws IOException {
+            for (int i = from; i < to; i++) {
+                ensure(4);
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    buffer.put((byte) c);
+                } else if (c < 0x800) {
+                    buffer.put((byte) (0xC0 | c >> 6));
+                    buffer.put((byte) (0x80 | c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < to
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    buffer.put((byte) (0xF0 | codePoint >> 18));
+                    buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                    buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                    buffer.put((byte) (0x80 | codePoint & 0x3F));
+                } else {
+                    buffer.put((byte) (0xE0 | c >> 12));
+                    buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                    buffer.put((byte) (0x80 | c & 0x3F));
+                }
+            }
+        }
+
+        static int utf8Length(CharSequence text) {
+            int length = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    length += 1;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        static CharSequence text(ScalarRows.Row row, int column, Class<?> type) throws SQLException {
+            if (type.isEnum()) {
+                Enum<?> value = (Enum<?>) row.get(column, type);
+                return value == null ? null : value.name();
+            }
+            if (type == String.class) {
+                return row.getString(column);
+            }
+            Object value = row.get(column, type);
+            return value == null ? null : value.toString();
+        }
+    }
+
+    private static final class CsvEncoder extends Encoder {
+        private final byte[] digits = new byte[20];
+
+        CsvEncoder(FileChannel channel, Class<?>[] types) {
+            super(channel, types, BUFFER_SIZE);
+        }
+
+        @Override
+        void header(String[] names) throws IOException {
+            for (int column = 0; column < names.length; column++) {
+                separator(column);
+                putQuoted(names[column]);
+            }
+            ensure(1);
+            buffer.put((byte) '\n');
+        }
+
+        @Override
+        void row(ScalarRows.Row row) throws SQLException, IOException {
+            for (int column = 0; column < types.length; column++) {
+                separator(column);
+                Class<?> type = types[column];
+                if (type == Integer.class || type == Long.class) {
+                    long value = row.getLong(column);
+                    if (!row.wasNull()) {
+                        putDecimal(value);
+                    }
+                } else if (type == Double.class) {
+                    double value = row.getDouble(column);
+                    if (!row.wasNull()) {
+                        putUtf8(Double.toString(value));
+                    }
+                } else {
+                    CharSequence value = text(row, column, type);
+                    if (value != null) {
+                        putQuoted(value);
+                    }
+                }
+            }
+            ensure(1);
+            buffer.put((byte) '\n');
+        }
+
+        private void separator(int column) throws IOException {
+            if (column > 0) {
+                ensure(1);
+                buffer.put((byte) ',');
+            }
+        }
+
+        private void putDecimal(long value) throws IOException {
+            ensure(digits.length);
+            if (value == Long.MIN_VALUE) {
+                putUtf8(Long.toString(value));
+                return;
+            }
+            if (value < 0) {
+                buffer.put((byte) '-');
+                value = -value;
+            }
+            int position = digits.length;
+            do {
+                digits[--position] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            buffer.put(digits, position, digits.length - position);
+        }
+
+        private void putQuoted(CharSequence value) throws IOException {
+            if (!needsQuotes(value)) {
+                putUtf8(value);
+                return;
+            }
+            ensure(1);
+            buffer.put((byte) '"');
+            int start = 0;
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) == '"') {
+                    putUtf8(value, start, i + 1);
+                    ensure(1);
+                    buffer.put((byte) '"');
+                    start = i + 1;
+                }
+            }
+            putUtf8(value, start, value.length());
+            ensure(1);
+            buffer.put((byte) '"');
+        }
+
+        private static boolean needsQuotes(CharSequence value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class BinaryEncoder extends Encoder {
+        private final byte[] typeCodes;
+        private final CharSequence[] texts;
+        private final long[] numbers;
+        private final boolean[] nulls;
+
+        /**
+         * @param bufferSize at least 8 bytes (a long value)
+         */
+        BinaryEncoder(FileChannel channel, Class<?>[] types, int bufferSize) {
+            super(channel, types, bufferSize);
+            typeCodes = new byte[types.length];
+            for (int column = 0; column < types.length; column++) {
+                typeCodes[column] = typeCode(types[column]);
+            }
+            texts = new CharSequence[types.length];
+            numbers = new long[types.length];
+            nulls = new boolean[types.length];
+        }
+
+        @Override
+        void header(String[] names) throws IOException {
+            ensure(MAGIC.length + 4);
+            buffer.put(MAGIC);
+            buffer.putInt(names.length);
+            for (int column = 0; column < names.length; column++) {
+                ensure(5);
+                buffer.putInt(utf8Length(names[column]));
+                putUtf8(names[column]);
+                ensure(1);
+                buffer.put(typeCodes[column]);
+            }
+        }
+
+        @Override
+        void row(ScalarRows.Row row) throws SQLException, IOException {
+            int bitmap = (types.length + 7) / 8;
+            int length = bitmap;
+            for (int column = 0; column < types.length; column++) {
+                switch (typeCodes[column]) {
+                    case INT:
+                        numbers[column] = row.getInt(column);
+                        nulls[column] = row.wasNull();
+                        length += nulls[column] ? 0 : 4;
+                        break;
+                    case LONG:
+                        numbers[column] = row.getLong(column);
+                        nulls[column] = row.wasNull();
+                        length += nulls[column] ? 0 : 8;
+                        break;
+                    case DOUBLE:
+                        numbers[column] = Double.doubleToRawLongBits(row.getDouble(column));
+                        nulls[column] = row.wasNull();
+                        length += nulls[column] ? 0 : 8;
+                        break;
+                    default:
+                        texts[column] = text(row, column, types[column]);
+                        nulls[column] = texts[column] == null;
+                        length += nulls[column] ? 0 : 4 + utf8Length(texts[column]);
+                }
+            }
+            ensure(4 + bitmap);
+            buffer.putInt(length);
+            for (int first = 0; first < types.length; first += 8) {
+                int bits = 0;
+                for (int column = first; column < Math.min(first + 8, types.length); column++) {
+                    bits |= nulls[column] ? 1 << (column - first) : 0;
+                }
+                buffer.put((byte) bits);
+            }
+            for (int column = 0; column < types.length; column++) {
+                if (nulls[column]) {
+                    continue;
+                }
+                ensure(8);
+                switch (typeCodes[column]) {
+                    case INT:
+                        buffer.putInt((int) numbers[column]);
+                        break;
+                    case LONG:
+                    case DOUBLE:
+                        buffer.putLong(numbers[column]);
+                        break;
+                    default:
+                        buffer.putInt(utf8Length(texts[column]));
+                        putUtf8(texts[column]);
+                        texts[column] = null;
+                }
+            }
+        }
+
+        private static byte typeCode(Class<?> type) {
+            if (type == Integer.class || type == Short.class || type == Byte.class) {
+                return INT;
+            }
+            if (type == Long.class) {
+                return LONG;
+            }
+            if (type == Double.class || type == Float.class) {
+                return DOUBLE;
+            }
+            return TEXT;
+        }
+    }
+}
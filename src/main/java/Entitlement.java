@@ -1,5 +1,6 @@
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Version;
 
 /**
  * Created by mtumilowicz on 2018-05-02.
@@ -10,6 +11,9 @@ public class Entitlement {
     @Id
     private int stateRef;
 
+    @Version
+    private int version;
+
     private int e_id;
 
     private int amount;
@@ -20,6 +24,10 @@ public class Entitlement {
         return e_id;
     }
 
+    public void setE_id(int e_id) {
+        this.e_id = e_id;
+    }
+
     public int getAmount() {
         return amount;
     }
@@ -40,10 +48,27 @@ public class Entitlement {
         return stateRef;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
     public void setStateRef(int stateRef) {
         this.stateRef = stateRef;
     }
 
+    /**
+     * @return detached copy (same id & version)
+     */
+    public Entitlement copy() {
+        Entitlement copy = new Entitlement();
+        copy.stateRef = stateRef;
+        copy.version = version;
+        copy.e_id = e_id;
+        copy.amount = amount;
+        copy.announcementId = announcementId;
+        return copy;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,176 @@
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entitlements of many announcements ({@code Entitlement.announcementId = Announcement.a_id}) by a few statements
+ * instead of one query per announcement:
+ * <pre>
+ * EntitlementLoader.ByAnnouncement entitlements = new EntitlementLoader(entityManager).load(announcementIds);
+ * entitlements.get(announcement.getA_id());
+ * </pre>
+ * Ids are queried in chunks of {@code chunkSize} by padded IN-lists ({@link InList}); more than
+ * {@code temporaryTableThreshold} ids in an active transaction are joined through the temporary table of
+ * {@link InList} by one statement. {@code Announcement.entitlements} is batch-fetched with the same chunk size.
+ * <p>
+ * Optional cache (shared by loaders, {@link #cache}) keeps detached copies of entitlements per announcement id:
+ * entitlements loaded by the query are managed by the loader's entity manager, cached ones are returned as fresh
+ * detached copies (changes are not flushed, merge them to write); invalidate the announcement after writing its
+ * entitlements.
+ */
+public final class EntitlementLoader {
+    public static final int CHUNK_SIZE = 512;
+
+    private final EntityManager entityManager;
+    private final int chunkSize;
+    private final int temporaryTableThreshold;
+    private final Cache<Integer, List<Entitlement>> cache;
+
+    public EntitlementLoader(EntityManager entityManager) {
+        this(entityManager, CHUNK_SIZE, InList.DEFAULT_THRESHOLD, null);
+    }
+
+    public EntitlementLoader(EntityManager entityManager, Cache<Integer, List<Entitlement>> cache) {
+        this(entityManager, CHUNK_SIZE, InList.DEFAULT_THRESHOLD, cache);
+    }
+
+    /**
+     * @param cache null for no caching
+     */
+    public EntitlementLoader(EntityManager entityManager, int chunkSize, int temporaryTableThreshold,
+                             Cache<Integer, List<Entitlement>> cache) {
+        Preconditions.checkArgument(chunkSize > 0, "chunkSize has to be positive: %s", chunkSize);
+        Preconditions.checkArgument(temporaryTableThreshold >= chunkSize,
+                "temporaryTableThreshold %s is less than chunkSize %s", temporaryTableThreshold, chunkSize);
+        this.entityManager = entityManager;
+        this.chunkSize = chunkSize;
+        this.temporaryTableThreshold = temporaryTableThreshold;
+        this.cache = cache;
+    }
+
+    /**
+     * @return cache of entitlements of at most {@code maximumAnnouncements} announcements
+     */
+    public static Cache<Integer, List<Entitlement>> cache(long maximumAnnouncements, Duration expireAfterWrite) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maximumAnnouncements)
+                .expireAfterWrite(expireAfterWrite.toNanos(), TimeUnit.NANOSECONDS)
+                .build();
+    }
+
+    /**
+     * @return entitlements of every requested announcement (empty for announcements without entitlements)
+     */
+    public ByAnnouncement load(Collection<Integer> announcementIds) {
+        Set<Integer> distinct = new LinkedHashSet<>(announcementIds);
+        Map<Integer, List<Entitlement>> loaded = new HashMap<>(distinct.size() * 2);
+        List<Integer> missing = new ArrayList<>(distinct.size());
+        for (Integer id : distinct) {
+            List<Entitlement> cached = cache == null ? null : cache.getIfPresent(id);
+            if (cached != null) {
+                loaded.put(id, copies(cached));
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            boolean temporaryTable = missing.size() > temporaryTableThreshold
+                    && entityManager.getTransaction().isActive();
+            for (List<Integer> chunk : temporaryTable
+                    ? Collections.singletonList(missing)
+                    : Iterables.partition(missing, chunkSize)) {
+                for (Entitlement entitlement : query(chunk)) {
+                    loaded.computeIfAbsent(entitlement.getAnnouncementId(), id -> new ArrayList<>())
+                            .add(entitlement);
+                }
+            }
+            for (Integer id : missing) {
+                List<Entitlement> entitlements = loaded.get(id);
+                entitlements = entitlements == null ? ImmutableList.of() : ImmutableList.copyOf(entitlements);
+                loaded.put(id, entitlements);
+                if (cache != null) {
+                    cache.put(id, copies(entitlements));
+                }
+            }
+        }
+        return new ByAnnouncement(loaded);
+    }
+
+    private List<Entitlement> query(List<Integer> announcementIds) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Entitlement> cc_query = cb.createQuery(Entitlement.class);
+        Root<Entitlement> cc_query_root = cc_query.from(Entitlement.class);
+        InList ids = InList.of(entityManager, announcementIds, temporaryTableThreshold);
+        cc_query.where(ids.predicate(cb, cc_query, cc_query_root.get(Entitlement_.announcementId)))
+                .orderBy(cb.asc(cc_query_root.get(Entitlement_.stateRef)));
+        return ids.bind(entityManager.createQuery(cc_query)).getResultList();
+    }
+
+    /**
+     * Managed entities of one entity manager are never shared with another one.
+     */
+    private static List<Entitlement> copies(List<Entitlement> entitlements) {
+        return entitlements.stream().map(Entitlement::copy).collect(ImmutableList.toImmutableList());
+    }
+
+    /**
+     * Announcement id (int) -> entitlements ordered by stateRef; ids in a sorted int array, no boxed keys.
+     */
+    public static final class ByAnnouncement {
+        private final int[] announcementIds;
+        private final List<List<Entitlement>> entitlements;
+
+        private ByAnnouncement(Map<Integer, List<Entitlement>> loaded) {
+            announcementIds = loaded.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+            List<List<Entitlement>> lists = new ArrayList<>(announcementIds.length);
+            for (int id : announcementIds) {
+                lists.add(loaded.get(id));
+            }
+            entitlements = lists;
+        }
+
+        /**
+         * @return entitlements of the announcement; empty if it has none or it wasn't requested
+         */
+        public List<Entitlement> get(int announcementId) {
+            int index = Arrays.binarySearch(announcementIds, announcementId);
+            return index < 0 ? ImmutableList.of() : entitlements.get(index);
+        }
+
+        public boolean contains(int announcementId) {
+            return Arrays.binarySearch(announcementIds, announcementId) >= 0;
+        }
+
+        /**
+         * @return requested announcement ids, sorted
+         */
+        public int[] announcementIds() {
+            return announcementIds.clone();
+        }
+
+        /**
+         * @return number of entitlements
+         */
+        public int size() {
+            return entitlements.stream().mapToInt(List::size).sum();
+        }
+    }
+}
@@ -0,0 +1,397 @@
+import com.google.common.base.Preconditions;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind of {@link Entitlement} inserts for bursts of writes (thousands per announcement):
+ * <pre>
+ * try (EntitlementWriteBehind writeBehind = new EntitlementWriteBehind(emf)) {
+ *     writeBehind.write(entitlement);
+ * }
+ * </pre>
+ * Writes are queued in a lock-free queue bounded by {@code capacity} permits - callers block while the queue is
+ * full (backpressure). A background thread inserts queued entitlements by one JDBC batch per transaction: when
+ * {@code batchSize} writes are queued or {@code maxDelayMillis} after the previous flush.
+ * <p>
+ * {@link Durability#QUEUED} acknowledges a write once it is queued (a crash loses the queue),
+ * {@link Durability#FLUSHED} returns from {@link #write} after the transaction of its batch is committed - the
+ * writer flushes at once, so concurrent callers share batches (group commit).
+ * <p>
+ * Values are copied when the write is queued; {@code stateRef} is assigned by the database (auto_increment) and is
+ * not set on the entity.
+ * <p>
+ * Writes are queued under the read lock of {@code gate}, close takes its write lock - the writer's last pass sees every
+ * accepted write. If the writer stops (close or an unexpected error), entitlements left in the queue complete
+ * exceptionally & release their space.
+ */
+public final class EntitlementWriteBehind implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 50;
+    private static final String INSERT = "INSERT INTO Entitlement (e_id, amount, announcementId) VALUES (?, ?, ?)";
+
+    public enum Durability {
+        QUEUED, FLUSHED
+    }
+
+    private final EntityManagerFactory emf;
+    private final int capacity;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final Durability durability;
+
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final Semaphore free;
+    private final AtomicInteger depth = new AtomicInteger();
+    private final ReadWriteLock gate = new ReentrantReadWriteLock();
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile boolean flushRequested;
+    // of batches since the last flush marker, only used by the writer
+    private Throwable unflushedFailure;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicInteger maxBatchSize = new AtomicInteger();
+    private volatile int lastBatchSize;
+
+    public EntitlementWriteBehind(EntityManagerFactory emf) {
+        this(emf, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS, Durability.QUEUED);
+    }
+
+    public EntitlementWriteBehind(EntityManagerFactory emf, int capacity, int batchSize, long maxDelayMillis,
+                                  Durability durability) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize has to be positive: %s", batchSize);
+        Preconditions.checkArgument(capacity >= batchSize, "capacity %s is less than batchSize %s",
+                capacity, batchSize);
+        Preconditions.checkArgument(maxDelayMillis > 0, "maxDelayMillis has to be positive: %s", maxDelayMillis);
+        this.emf = emf;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.durability = Preconditions.checkNotNull(durability);
+        this.free = new Semaphore(capacity);
+        this.writer = new Thread(this::run, "entitlement-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Blocks while the queue is full; with {@link Durability#FLUSHED} also until the entitlement is committed.
+     *
+     * @return completed when the batch of the entitlement is committed (or exceptionally if it is rolled back)
+     * @throws IllegalStateException if closed; with {@link Durability#FLUSHED} if the batch is rolled back
+     */
+    public CompletableFuture<Void> write(Entitlement entitlement) {
+        Preconditions.checkState(!closed, "Write-behind is closed");
+        Pending pending = new Pending(entitlement);
+        if (!free.tryAcquire()) {
+            blocked.increment();
+            free.acquireUninterruptibly();
+        }
+        if (!enqueue(pending)) {
+            free.release();
+            throw new IllegalStateException("Write-behind is closed");
+        }
+        if (durability == Durability.FLUSHED) {
+            flushRequested = true;
+            LockSupport.unpark(writer);
+            await(pending.written);
+        }
+        return pending.written;
+    }
+
+    /**
+     * Writes entitlements queued before the call now & waits for them: queues a marker which the writer completes
+     * after the entitlements queued before it.
+     *
+     * @throws IllegalStateException if a batch written since the previous flush is rolled back
+     */
+    public void flush() {
+        Pending marker = new Pending();
+        if (enqueue(marker)) {
+            flushRequested = true;
+            LockSupport.unpark(writer);
+            await(marker.written);
+        }
+    }
+
+    /**
+     * Writes queued entitlements & stops the writer; writes after close are rejected.
+     */
+    @Override
+    public void close() {
+        closeGate();
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return queued entitlements not written yet
+     */
+    public int queueDepth() {
+        return depth.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return committed entitlements
+     */
+    public long written() {
+        return written.sum();
+    }
+
+    /**
+     * @return entitlements of rolled back batches
+     */
+    public long failed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return committed & rolled back batches
+     */
+    public long batches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return writes that waited for space in the full queue
+     */
+    public long blocked() {
+        return blocked.sum();
+    }
+
+    public int lastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public int maxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    /**
+     * @return total time of batches (insert & commit)
+     */
+    public long flushNanos() {
+        return flushNanos.sum();
+    }
+
+    public long maxFlushNanos() {
+        return maxFlushNanos.get();
+    }
+
+    /**
+     * @return false if closed (pending is not queued)
+     */
+    private boolean enqueue(Pending pending) {
+        gate.readLock().lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            queue.add(pending);
+            if (!pending.marker && depth.incrementAndGet() >= batchSize) {
+                LockSupport.unpark(writer);
+            }
+            return true;
+        } finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    private void closeGate() {
+        gate.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                boolean stopping = closed;
+                if (depth.get() < batchSize && !flushRequested && !stopping) {
+                    LockSupport.parkNanos(this, maxDelayNanos);
+                }
+                flushRequested = false;
+                // everything queued, in batches of batchSize; markers once entitlements before them are written
+                Pending pending;
+                while ((pending = queue.poll()) != null) {
+                    if (pending.marker) {
+                        write(batch);
+                        complete(pending);
+                    } else {
+                        batch.add(pending);
+                        if (batch.size() == batchSize) {
+                            write(batch);
+                        }
+                    }
+                }
+                write(batch);
+                if (stopping) {
+                    return;
+                }
+            }
+        } finally {
+            closeGate();
+            IllegalStateException rejected = new IllegalStateException("Write-behind is closed");
+            Pending pending;
+            while ((pending = queue.poll()) != null) {
+                batch.add(pending);
+            }
+            for (Pending left : batch) {
+                release(left);
+                left.written.completeExceptionally(rejected);
+            }
+        }
+    }
+
+    /**
+     * Inserts the batch, releases its space, then completes its entitlements.
+     */
+    private void write(List<Pending> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Throwable failure = insert(batch);
+        batch.forEach(this::release);
+        if (failure == null) {
+            written.add(batch.size());
+            batch.forEach(pending -> pending.written.complete(null));
+        } else {
+            failed.add(batch.size());
+            unflushedFailure = failure;
+            for (Pending pending : batch) {
+                pending.written.completeExceptionally(failure);
+            }
+        }
+        batch.clear();
+    }
+
+    private void complete(Pending marker) {
+        if (unflushedFailure == null) {
+            marker.written.complete(null);
+        } else {
+            marker.written.completeExceptionally(unflushedFailure);
+            unflushedFailure = null;
+        }
+    }
+
+    private void release(Pending pending) {
+        if (!pending.marker) {
+            depth.decrementAndGet();
+            free.release();
+        }
+    }
+
+    /**
+     * @return failure of the transaction (also an Error, which doesn't stop the writer), null if committed
+     */
+    private Throwable insert(List<Pending> batch) {
+        long start = System.nanoTime();
+        EntityManager entityManager = null;
+        Throwable failure = null;
+        try {
+            entityManager = emf.createEntityManager();
+            entityManager.getTransaction().begin();
+            entityManager.unwrap(Session.class).doWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+                    for (Pending pending : batch) {
+                        statement.setInt(1, pending.e_id);
+                        statement.setInt(2, pending.amount);
+                        statement.setInt(3, pending.announcementId);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+            });
+            entityManager.getTransaction().commit();
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        } finally {
+            try {
+                if (entityManager != null) {
+                    if (entityManager.getTransaction().isActive()) {
+                        entityManager.getTransaction().rollback();
+                    }
+                    entityManager.close();
+                }
+            } catch (RuntimeException | Error e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        batches.increment();
+        flushNanos.add(nanos);
+        maxFlushNanos.accumulateAndGet(nanos, Math::max);
+        maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+        lastBatchSize = batch.size();
+        return failure;
+    }
+
+    private static void await(CompletableFuture<Void> written) {
+        try {
+            written.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Batch of entitlements rolled back", e.getCause());
+        }
+    }
+
+    private static final class Pending {
+        final boolean marker;
+        final int e_id;
+        final int amount;
+        final int announcementId;
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        Pending(Entitlement entitlement) {
+            this.marker = false;
+            this.e_id = entitlement.getE_id();
+            this.amount = entitlement.getAmount();
+            this.announcementId = entitlement.getAnnouncementId();
+        }
+
+        /**
+         * Flush marker.
+         */
+        Pending() {
+            this.marker = true;
+            this.e_id = 0;
+            this.amount = 0;
+            this.announcementId = 0;
+        }
+    }
+}
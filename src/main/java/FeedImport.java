@@ -0,0 +1,504 @@
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.Attribute;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk import of CSV feeds (header & one record per entity) into tables of {@link Announcement} &
+ * {@link Entitlement}:
+ * <pre>
+ * new FeedImport(emf).importFile(FeedImport.Feed.ENTITLEMENTS, "entitlements-2019-06", path);
+ * </pre>
+ * Records are read by a streaming {@link CsvParser} on the calling thread & validated against the entity model
+ * (java type of the attribute, primitive attributes are required) & the table (NOT NULL, length of character
+ * columns) - invalid records are rejected & reported, not imported. Valid records are written by parallel writer
+ * threads: every chunk of {@code commitInterval} records is one transaction of batched multi-row INSERTs (entities
+ * are not instantiated).
+ * <p>
+ * Committed chunks are recorded in IMPORT_PROGRESS in the same transaction, so an import that failed continues
+ * where it stopped: importing the feed with the same name again skips the committed records.
+ */
+public final class FeedImport {
+    public static final int DEFAULT_COMMIT_INTERVAL = 10_000;
+    static final int ROWS_PER_STATEMENT = 100;
+    private static final int MAX_REPORTED_REJECTIONS = 100;
+    private static final Set<Class<?>> SUPPORTED_TYPES = ImmutableSet.of(
+            int.class, Integer.class, long.class, Long.class, String.class, OffsetDateTime.class);
+
+    private final EntityManagerFactory emf;
+    private final int writers;
+    private final int commitInterval;
+
+    public FeedImport(EntityManagerFactory emf) {
+        this(emf, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), DEFAULT_COMMIT_INTERVAL);
+    }
+
+    public FeedImport(EntityManagerFactory emf, int writers, int commitInterval) {
+        Preconditions.checkArgument(writers > 0, "writers has to be positive: %s", writers);
+        Preconditions.checkArgument(commitInterval > 0, "commitInterval has to be positive: %s", commitInterval);
+        this.emf = emf;
+        this.writers = writers;
+        this.commitInterval = commitInterval;
+    }
+
+    public Progress importFile(Feed feed, String name, Path file) throws IOException {
+        return importFile(feed, name, file, progress -> {
+        });
+    }
+
+    public Progress importFile(Feed feed, String name, Path file, Consumer<? super Progress> listener)
+            throws IOException {
+        return importFeed(feed, name, Files.newBufferedReader(file, StandardCharsets.UTF_8), listener);
+    }
+
+    /**
+     * @param name     identifies the feed in IMPORT_PROGRESS
+     * @param reader   UTF-8 CSV with header (names of attributes, any order); closed after import
+     * @param listener called after every committed chunk (by writer thread)
+     * @throws IllegalStateException if a chunk can't be written; chunks committed before are kept
+     */
+    public Progress importFeed(Feed feed, String name, Reader reader, Consumer<? super Progress> listener)
+            throws IOException {
+        Progress progress = new Progress();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try (CsvParser parser = new CsvParser(reader)) {
+            Column[] columns = describe(feed);
+            NavigableMap<Long, Integer> committed = committedChunks(name);
+            read(parser, feed, name, columns, committed, progress, failure, listener);
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Import of " + name + " failed after " + progress.getImported() +
+                    " rows; import it again to continue", failure.get());
+        }
+        return progress;
+    }
+
+    private void read(CsvParser parser, Feed feed, String name, Column[] columns, NavigableMap<Long, Integer> committed,
+                      Progress progress, AtomicReference<Throwable> failure, Consumer<? super Progress> listener)
+            throws IOException {
+        Semaphore inFlight = new Semaphore(2 * writers);
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            String[] header = parser.next();
+            Preconditions.checkArgument(header != null, "Feed %s is empty", name);
+            int[] positions = positions(feed, header);
+            Chunk chunk = null;
+            String[] fields;
+            while (failure.get() == null && (fields = parser.next()) != null) {
+                long record = parser.records() - 1;
+                progress.records.increment();
+                Map.Entry<Long, Integer> range = committed.floorEntry(record);
+                if (range != null && record < range.getKey() + range.getValue()) {
+                    progress.skipped.increment();
+                    if (chunk != null) {
+                        submit(executor, inFlight, failure, feed, name, chunk, progress, listener);
+                        chunk = null;
+                    }
+                    continue;
+                }
+                if (chunk == null) {
+                    chunk = new Chunk(record, commitInterval);
+                }
+                chunk.records++;
+                Object[] row = validate(columns, positions, fields, record, progress);
+                if (row != null) {
+                    chunk.rows.add(row);
+                }
+                if (chunk.records == commitInterval) {
+                    submit(executor, inFlight, failure, feed, name, chunk, progress, listener);
+                    chunk = null;
+                }
+            }
+            if (chunk != null && failure.get() == null) {
+                submit(executor, inFlight, failure, feed, name, chunk, progress, listener);
+            }
+        } finally {
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+    }
+
+    /**
+     * Forgets committed chunks of the feed, so it can be imported again from the beginning.
+     */
+    public void reset(String name) {
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            entityManager.createNativeQuery("DELETE FROM IMPORT_PROGRESS WHERE FEED = ?")
+                    .setParameter(1, name)
+                    .executeUpdate();
+            entityManager.getTransaction().commit();
+        } finally {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            entityManager.close();
+        }
+    }
+
+    private void submit(ExecutorService executor, Semaphore inFlight, AtomicReference<Throwable> failure,
+                        Feed feed, String name, Chunk chunk, Progress progress,
+                        Consumer<? super Progress> listener) {
+        inFlight.acquireUninterruptibly();
+        executor.execute(() -> {
+            try {
+                if (failure.get() == null) {
+                    write(feed, name, chunk);
+                    progress.imported.add(chunk.rows.size());
+                    progress.chunks.increment();
+                    listener.accept(progress);
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void write(Feed feed, String name, Chunk chunk) {
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            entityManager.unwrap(Session.class).doWork(connection -> {
+                insert(connection, feed, chunk.rows);
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "INSERT INTO IMPORT_PROGRESS (FEED, FIRST_RECORD, RECORDS) VALUES (?, ?, ?)")) {
+                    statement.setString(1, name);
+                    statement.setLong(2, chunk.first);
+                    statement.setInt(3, chunk.records);
+                    statement.executeUpdate();
+                }
+            });
+            entityManager.getTransaction().commit();
+        } finally {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            entityManager.close();
+        }
+    }
+
+    private static void insert(Connection connection, Feed feed, List<Object[]> rows) throws SQLException {
+        int statements = rows.size() / ROWS_PER_STATEMENT;
+        if (statements > 0) {
+            try (PreparedStatement statement = connection.prepareStatement(feed.insert(ROWS_PER_STATEMENT))) {
+                for (int i = 0; i < statements; i++) {
+                    bind(statement, rows, i * ROWS_PER_STATEMENT, ROWS_PER_STATEMENT);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        }
+        int rest = rows.size() % ROWS_PER_STATEMENT;
+        if (rest > 0) {
+            try (PreparedStatement statement = connection.prepareStatement(feed.insert(rest))) {
+                bind(statement, rows, statements * ROWS_PER_STATEMENT, rest);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement statement, List<Object[]> rows, int from, int count)
+            throws SQLException {
+        int parameter = 1;
+        for (int i = from; i < from + count; i++) {
+            for (Object value : rows.get(i)) {
+                statement.setObject(parameter++, value);
+            }
+        }
+    }
+
+    /**
+     * @return values converted to java types of attributes or null if the record is rejected
+     */
+    private static Object[] validate(Column[] columns, int[] positions, String[] fields, long record,
+                                     Progress progress) {
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Column column = columns[i];
+            String field = positions[i] < fields.length ? fields[positions[i]] : "";
+            if (field.isEmpty()) {
+                if (column.required) {
+                    return progress.reject(record, column.name + " is required");
+                }
+                continue;
+            }
+            if (column.maxLength > 0 && field.length() > column.maxLength) {
+                return progress.reject(record, column.name + " is longer than " + column.maxLength);
+            }
+            try {
+                row[i] = column.parse(field);
+            } catch (NumberFormatException | DateTimeParseException e) {
+                return progress.reject(record, column.name + " is not " + column.type.getSimpleName() + ": " + field);
+            }
+        }
+        return row;
+    }
+
+    private Column[] describe(Feed feed) {
+        Map<String, Column> columns = new HashMap<>();
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            entityManager.unwrap(Session.class).doWork(connection -> {
+                try (ResultSet resultSet = connection.getMetaData()
+                        .getColumns(null, null, feed.table().toUpperCase(Locale.ROOT), null)) {
+                    while (resultSet.next()) {
+                        String name = resultSet.getString("COLUMN_NAME");
+                        int type = resultSet.getInt("DATA_TYPE");
+                        boolean character = type == Types.VARCHAR || type == Types.CHAR;
+                        columns.put(name.toUpperCase(Locale.ROOT), new Column(name,
+                                resultSet.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls,
+                                character ? resultSet.getInt("COLUMN_SIZE") : 0, null));
+                    }
+                }
+            });
+        } finally {
+            entityManager.close();
+        }
+        Column[] described = new Column[feed.attributes.size()];
+        for (int i = 0; i < described.length; i++) {
+            String attributeName = feed.attributes.get(i);
+            Attribute<?, ?> attribute = emf.getMetamodel().entity(feed.entity).getAttribute(attributeName);
+            Column column = columns.get(attributeName.toUpperCase(Locale.ROOT));
+            Preconditions.checkState(column != null, "No column for %s in %s", attributeName, feed.table());
+            Class<?> type = attribute.getJavaType();
+            Preconditions.checkArgument(SUPPORTED_TYPES.contains(type), "Unsupported type of %s: %s",
+                    attributeName, type);
+            described[i] = new Column(attributeName, column.required || type.isPrimitive(), column.maxLength, type);
+        }
+        return described;
+    }
+
+    private static int[] positions(Feed feed, String[] header) {
+        List<String> names = Arrays.stream(header)
+                .map(String::trim)
+                .map(name -> name.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toList());
+        int[] positions = new int[feed.attributes.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = names.indexOf(feed.attributes.get(i).toLowerCase(Locale.ROOT));
+            Preconditions.checkArgument(positions[i] >= 0, "No %s in header %s", feed.attributes.get(i), names);
+        }
+        return positions;
+    }
+
+    /**
+     * @return first record -> number of records of committed chunks
+     */
+    private NavigableMap<Long, Integer> committedChunks(String name) {
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            @SuppressWarnings("unchecked")
+            List<Object[]> chunks = entityManager.createNativeQuery(
+                    "SELECT FIRST_RECORD, RECORDS FROM IMPORT_PROGRESS WHERE FEED = ?")
+                    .setParameter(1, name)
+                    .getResultList();
+            NavigableMap<Long, Integer> committed = new TreeMap<>();
+            for (Object[] chunk : chunks) {
+                committed.put(((Number) chunk[0]).longValue(), ((Number) chunk[1]).intValue());
+            }
+            return committed;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Entity & its attributes imported from CSV columns of the same names (table & columns have default names).
+     */
+    public static final class Feed {
+        public static final Feed ANNOUNCEMENTS = new Feed(Announcement.class, "a_id", "title", "dividend", "createdOn");
+        public static final Feed ENTITLEMENTS = new Feed(Entitlement.class, "e_id", "amount", "announcementId");
+
+        private final Class<?> entity;
+        private final List<String> attributes;
+
+        public Feed(Class<?> entity, String... attributes) {
+            Preconditions.checkArgument(attributes.length > 0, "No attributes of %s", entity);
+            this.entity = entity;
+            this.attributes = ImmutableList.copyOf(attributes);
+        }
+
+        String table() {
+            return entity.getSimpleName();
+        }
+
+        String insert(int rows) {
+            String values = attributes.stream()
+                    .map(attribute -> "?")
+                    .collect(Collectors.joining(", ", "(", ")"));
+            return "INSERT INTO " + table() + " (" + String.join(", ", attributes) + ") VALUES " +
+                    String.join(", ", Collections.nCopies(rows, values));
+        }
+    }
+
+    /**
+     * Counters of the import (updated by reading & writer threads).
+     */
+    public static final class Progress {
+        private final long start = System.nanoTime();
+        private final LongAdder records = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder imported = new LongAdder();
+        private final LongAdder chunks = new LongAdder();
+        private final List<Rejection> rejections = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * @return records read (without header)
+         */
+        public long getRecords() {
+            return records.sum();
+        }
+
+        /**
+         * @return records committed by previous imports of the feed
+         */
+        public long getSkipped() {
+            return skipped.sum();
+        }
+
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        /**
+         * @return committed rows
+         */
+        public long getImported() {
+            return imported.sum();
+        }
+
+        /**
+         * @return committed chunks (transactions)
+         */
+        public long getChunks() {
+            return chunks.sum();
+        }
+
+        public double getRowsPerSecond() {
+            return getImported() * 1e9 / Math.max(1, System.nanoTime() - start);
+        }
+
+        /**
+         * @return first rejected records
+         */
+        public List<Rejection> getRejections() {
+            synchronized (rejections) {
+                return new ArrayList<>(rejections);
+            }
+        }
+
+        private Object[] reject(long record, String reason) {
+            rejected.increment();
+            if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+                rejections.add(new Rejection(record, reason));
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("records %d, imported %d (%.0f rows/s), skipped %d, rejected %d, chunks %d",
+                    getRecords(), getImported(), getRowsPerSecond(), getSkipped(), getRejected(), getChunks());
+        }
+    }
+
+    public static final class Rejection {
+        private final long record;
+        private final String reason;
+
+        private Rejection(long record, String reason) {
+            this.record = record;
+            this.reason = reason;
+        }
+
+        /**
+         * @return number of record (1 is the first after header)
+         */
+        public long getRecord() {
+            return record;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "record " + record + ": " + reason;
+        }
+    }
+
+    private static final class Column {
+        private final String name;
+        private final boolean required;
+        private final int maxLength;
+        private final Class<?> type;
+
+        private Column(String name, boolean required, int maxLength, Class<?> type) {
+            this.name = name;
+            this.required = required;
+            this.maxLength = maxLength;
+            this.type = type;
+        }
+
+        private Object parse(String field) {
+            if (type == int.class || type == Integer.class) {
+                return Integer.valueOf(field);
+            }
+            if (type == long.class || type == Long.class) {
+                return Long.valueOf(field);
+            }
+            if (type == OffsetDateTime.class) {
+                return OffsetDateTime.parse(field);
+            }
+            return field;
+        }
+    }
+
+    private static final class Chunk {
+        private final long first;
+        private final List<Object[]> rows;
+        private int records;
+
+        private Chunk(long first, int capacity) {
+            this.first = first;
+            this.rows = new ArrayList<>(capacity);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Reactive streams interfaces with the contract of {@code java.util.concurrent.Flow} (Java 9), which this Java 8
+ * build can't use - on Java 9+ the JDK interfaces replace them one to one.
+ */
+public final class Flow {
+    private Flow() {
+    }
+
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+        /**
+         * Adds {@code n} items to the demand; {@code n <= 0} fails the subscription.
+         */
+        void request(long n);
+
+        void cancel();
+    }
+}
@@ -0,0 +1,151 @@
+import com.google.common.base.Preconditions;
+import org.flywaydb.core.Flyway;
+import org.h2.tools.Server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * H2 TCP server (client / server mode for several JVMs) over the database migrated by Flyway (db/migration):
+ * <pre>
+ * H2_PASSWORD=... java H2TcpServer [-port 9092] [-database ./database] [-user app] [-tcpAllowOthers] [-CACHE_SIZE 65536] ...
+ * </pre>
+ * clients connect to {@link #url()}, e.g. {@code jdbc:h2:tcp://127.0.0.1:9092/./database} (a file database relative
+ * to the working directory of the server) or {@code jdbc:h2:tcp://127.0.0.1:9092/mem:catalog}, with the user &
+ * password of the database.
+ * <p>
+ * An admin of an H2 database can run Java code on the server ({@code CREATE ALIAS}), so the database requires a
+ * password, clients can't create other databases ({@code -ifExists}) & the server can be shut down only with a random
+ * {@code -tcpPassword} (by {@link #close()}).
+ * <p>
+ * Engine settings (e.g. {@code CACHE_SIZE} in KB, {@code MV_STORE}, {@code LOCK_MODE}, {@code MULTI_THREADED},
+ * {@code PAGE_SIZE}, {@code WRITE_DELAY}) are appended to the url of the database opened by the server - H2 applies
+ * most of them only when the database opens, so the server keeps it open until {@link #close()}.
+ */
+public final class H2TcpServer implements AutoCloseable {
+    private final Server server;
+    private final Connection connection;
+    private final String database;
+
+    private H2TcpServer(Server server, Connection connection, String database) {
+        this.server = server;
+        this.connection = connection;
+        this.database = database;
+    }
+
+    /**
+     * @param database name of database in H2 url, e.g. {@code ./database} or {@code mem:catalog}
+     * @param port     0 for any free port
+     * @param settings engine settings, e.g. {@code CACHE_SIZE -> 65536}
+     * @param user     user of the database (admin of a new database)
+     * @param password password of the user, not empty
+     * @param allowOthers accept connections from other hosts (loopback only otherwise)
+     */
+    public static H2TcpServer start(String database, int port, Map<String, String> settings, String user,
+                                    String password, boolean allowOthers) {
+        Preconditions.checkArgument(!user.isEmpty() && !password.isEmpty(), "H2 TCP server requires user & password");
+        StringBuilder url = new StringBuilder("jdbc:h2:").append(database);
+        settings.forEach((name, value) -> {
+            Preconditions.checkArgument(name.matches("[A-Z_]+"), "Invalid H2 setting: %s", name);
+            Preconditions.checkArgument(value.matches("[\\w.-]+"), "Invalid value of %s: %s", name, value);
+            url.append(';').append(name).append('=').append(value);
+        });
+        if (database.startsWith("mem:")) {
+            url.append(";DB_CLOSE_DELAY=-1");
+        }
+        Connection connection = null;
+        boolean started = false;
+        try {
+            connection = DriverManager.getConnection(url.toString(), user, password);
+            Flyway flyway = new Flyway();
+            flyway.setDataSource(url.toString(), user, password);
+            flyway.migrate();
+            List<String> arguments = new ArrayList<>();
+            arguments.add("-tcpPort");
+            arguments.add(String.valueOf(port));
+            arguments.add("-tcpPassword");
+            arguments.add(UUID.randomUUID().toString());
+            arguments.add("-ifExists");
+            if (allowOthers) {
+                arguments.add("-tcpAllowOthers");
+            }
+            Server server = Server.createTcpServer(arguments.toArray(new String[0])).start();
+            started = true;
+            return new H2TcpServer(server, connection, database);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot start H2 TCP server of " + url, e);
+        } finally {
+            if (!started) {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    public int port() {
+        return server.getPort();
+    }
+
+    /**
+     * @return jdbc url of the database for clients of the server
+     */
+    public String url() {
+        return "jdbc:h2:tcp://127.0.0.1:" + port() + "/" + database;
+    }
+
+    @Override
+    public void close() {
+        server.stop();
+        closeQuietly(connection);
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+                // database closes with the JVM
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int port = 9092;
+        String database = "./database";
+        String user = "app";
+        boolean allowOthers = false;
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "-database":
+                    database = args[++i];
+                    break;
+                case "-user":
+                    user = args[++i];
+                    break;
+                case "-tcpAllowOthers":
+                    allowOthers = true;
+                    break;
+                default:
+                    Preconditions.checkArgument(args[i].startsWith("-") && i + 1 < args.length, "" +
+                            "Usage: H2_PASSWORD=... H2TcpServer [-port 9092] [-database ./database] [-user app] " +
+                            "[-tcpAllowOthers] [-SETTING value]...");
+                    settings.put(args[i].substring(1), args[++i]);
+            }
+        }
+        String password = System.getenv("H2_PASSWORD");
+        Preconditions.checkArgument(password != null, "Password of the database required in H2_PASSWORD");
+        H2TcpServer server = start(database, port, settings, user, password, allowOthers);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("H2 TCP server: " + server.url());
+        Thread.currentThread().join();
+    }
+}
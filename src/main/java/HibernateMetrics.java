@@ -0,0 +1,216 @@
+import com.google.common.collect.ImmutableMap;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.CollectionStatistics;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hibernate statistics of a persistence unit in Prometheus text format (0.0.4), e.g. served by
+ * {@link MetricsEndpoint}. Statistics are off in NewPersistenceUnit; {@link #properties(double)} turns them on in
+ * the persistence unit serving metrics:
+ * <pre>
+ * emf = Persistence.createEntityManagerFactory("NewPersistenceUnit", HibernateMetrics.properties(0.1));
+ * </pre>
+ * <ul>
+ * <li>sessions, flushes, connections, statements & transactions</li>
+ * <li>loads, fetches & writes per entity ({@code entity="Book"}) & collection role ({@code role="Book.authors"})</li>
+ * <li>second-level cache hits, misses & puts per region; query cache</li>
+ * <li>executed & coalesced queries of {@link QueryCoalescing} (if it is a listener of the {@link JdbcProxy})</li>
+ * <li>executions, rows & time per query ({@code query="SELECT ..."}) - {@value #MAX_QUERIES} queries of the
+ * highest total time (queries with inlined literals would grow the output without bound)</li>
+ * </ul>
+ * Counts of sampled events ({@link SampledStatistics}) are exported as estimates (count / sampling rate). Hibernate
+ * 5.2 has no statistics of the query plan cache - it is not exported.
+ */
+public final class HibernateMetrics {
+    static final int MAX_QUERIES = 100;
+
+    private final SessionFactoryImplementor sessionFactory;
+
+    public HibernateMetrics(EntityManagerFactory emf) {
+        this.sessionFactory = emf.unwrap(SessionFactoryImplementor.class);
+    }
+
+    /**
+     * @param samplingRate probability of recording an event with a name, see {@link SampledStatistics}
+     * @return properties collecting statistics of persistence unit
+     */
+    public static Map<String, Object> properties(double samplingRate) {
+        return ImmutableMap.of(
+                "hibernate.generate_statistics", "true",
+                "hibernate.stats.factory", SampledStatistics.Factory.class.getName(),
+                SampledStatistics.SAMPLING_RATE, String.valueOf(samplingRate));
+    }
+
+    public String scrape() {
+        Statistics statistics = sessionFactory.getStatistics();
+        double scale = statistics instanceof SampledStatistics
+                ? 1 / ((SampledStatistics) statistics).samplingRate()
+                : 1;
+        StringBuilder out = new StringBuilder(8192);
+
+        gauge(out, "hibernate_statistics_enabled", "1 if Hibernate collects statistics",
+                statistics.isStatisticsEnabled() ? 1 : 0);
+        gauge(out, "hibernate_statistics_sampling_rate", "Probability of recording an event with a name",
+                1 / scale);
+        counter(out, "hibernate_sessions_opened_total", "Opened sessions", statistics.getSessionOpenCount());
+        counter(out, "hibernate_sessions_closed_total", "Closed sessions", statistics.getSessionCloseCount());
+        counter(out, "hibernate_flushes_total", "Flushes of sessions", statistics.getFlushCount());
+        counter(out, "hibernate_connections_obtained_total", "Obtained JDBC connections",
+                statistics.getConnectCount());
+        counter(out, "hibernate_statements_prepared_total", "Prepared JDBC statements",
+                statistics.getPrepareStatementCount());
+        counter(out, "hibernate_statements_closed_total", "Closed JDBC statements",
+                statistics.getCloseStatementCount());
+        counter(out, "hibernate_transactions_total", "Finished transactions", statistics.getTransactionCount());
+        counter(out, "hibernate_transactions_successful_total", "Committed transactions",
+                statistics.getSuccessfulTransactionCount());
+
+        String[] entities = sorted(statistics.getEntityNames());
+        perName(out, "hibernate_entity_loads_total", "Loaded entities", "entity", entities,
+                name -> statistics.getEntityStatistics(name), EntityStatistics::getLoadCount, scale);
+        perName(out, "hibernate_entity_fetches_total", "Entities fetched by a separate select", "entity", entities,
+                name -> statistics.getEntityStatistics(name), EntityStatistics::getFetchCount, scale);
+        perName(out, "hibernate_entity_inserts_total", "Inserted entities", "entity", entities,
+                name -> statistics.getEntityStatistics(name), EntityStatistics::getInsertCount, scale);
+        perName(out, "hibernate_entity_updates_total", "Updated entities", "entity", entities,
+                name -> statistics.getEntityStatistics(name), EntityStatistics::getUpdateCount, scale);
+        perName(out, "hibernate_entity_deletes_total", "Deleted entities", "entity", entities,
+                name -> statistics.getEntityStatistics(name), EntityStatistics::getDeleteCount, scale);
+        perName(out, "hibernate_entity_optimistic_failures_total", "Optimistic lock failures", "entity", entities,
+                name -> statistics.getEntityStatistics(name), EntityStatistics::getOptimisticFailureCount, scale);
+
+        // getCollectionRoleNames() of Hibernate 5.2 returns entity names
+        String[] roles = sorted(sessionFactory.getMetamodel().collectionPersisters().keySet().toArray(new String[0]));
+        perName(out, "hibernate_collection_loads_total", "Loaded collections", "role", roles,
+                name -> statistics.getCollectionStatistics(name), CollectionStatistics::getLoadCount, scale);
+        perName(out, "hibernate_collection_fetches_total", "Collections fetched by a separate select", "role",
+                roles, name -> statistics.getCollectionStatistics(name), CollectionStatistics::getFetchCount, scale);
+        perName(out, "hibernate_collection_updates_total", "Updated collections", "role", roles,
+                name -> statistics.getCollectionStatistics(name), CollectionStatistics::getUpdateCount, scale);
+        perName(out, "hibernate_collection_recreates_total", "Recreated collections", "role", roles,
+                name -> statistics.getCollectionStatistics(name), CollectionStatistics::getRecreateCount, scale);
+        perName(out, "hibernate_collection_removes_total", "Removed collections", "role", roles,
+                name -> statistics.getCollectionStatistics(name), CollectionStatistics::getRemoveCount, scale);
+
+        String[] regions = sorted(statistics.getSecondLevelCacheRegionNames());
+        perName(out, "hibernate_second_level_cache_hits_total", "Second-level cache hits", "region", regions,
+                name -> statistics.getSecondLevelCacheStatistics(name), SecondLevelCacheStatistics::getHitCount,
+                scale);
+        perName(out, "hibernate_second_level_cache_misses_total", "Second-level cache misses", "region", regions,
+                name -> statistics.getSecondLevelCacheStatistics(name), SecondLevelCacheStatistics::getMissCount,
+                scale);
+        perName(out, "hibernate_second_level_cache_puts_total", "Second-level cache puts", "region", regions,
+                name -> statistics.getSecondLevelCacheStatistics(name), SecondLevelCacheStatistics::getPutCount,
+                scale);
+        counter(out, "hibernate_query_cache_hits_total", "Query cache hits",
+                Math.round(statistics.getQueryCacheHitCount() * scale));
+        counter(out, "hibernate_query_cache_misses_total", "Query cache misses",
+                Math.round(statistics.getQueryCacheMissCount() * scale));
+        counter(out, "hibernate_query_cache_puts_total", "Query cache puts",
+                Math.round(statistics.getQueryCachePutCount() * scale));
+
+        ConnectionProvider connections = sessionFactory.getServiceRegistry().getService(ConnectionProvider.class);
+        QueryCoalescing coalescing = connections instanceof JdbcProxy
+                ? ((JdbcProxy) connections).listener(QueryCoalescing.class).orElse(null)
+                : null;
+        if (coalescing != null) {
+            counter(out, "hibernate_coalescing_executed_total", "Read-only queries executed for all waiting callers",
+                    coalescing.executed());
+            counter(out, "hibernate_coalescing_coalesced_total", "Queries answered by an identical query in flight",
+                    coalescing.coalesced());
+            counter(out, "hibernate_coalescing_bypassed_total", "Queries executed without coalescing",
+                    coalescing.bypassed());
+        }
+
+        String[] queries = Arrays.stream(statistics.getQueries())
+                .sorted(Comparator.comparingLong(
+                        (String query) -> statistics.getQueryStatistics(query).getExecutionTotalTime()).reversed())
+                .limit(MAX_QUERIES)
+                .sorted()
+                .toArray(String[]::new);
+        perName(out, "hibernate_query_executions_total", "Executions of the query", "query", queries,
+                name -> statistics.getQueryStatistics(name), QueryStatistics::getExecutionCount, scale);
+        perName(out, "hibernate_query_rows_total", "Rows returned by the query", "query", queries,
+                name -> statistics.getQueryStatistics(name), QueryStatistics::getExecutionRowCount, scale);
+        perQuery(out, "hibernate_query_execution_seconds_total", "counter", "Time of executions of the query",
+                queries, query -> statistics.getQueryStatistics(query).getExecutionTotalTime() * scale / 1000);
+        perQuery(out, "hibernate_query_execution_max_seconds", "gauge", "The longest execution of the query",
+                queries, query -> statistics.getQueryStatistics(query).getExecutionMaxTime() / 1000.0);
+        return out.toString();
+    }
+
+    private static String[] sorted(String[] names) {
+        String[] sorted = names.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static <S> void perName(StringBuilder out, String name, String help, String label, String[] names,
+                                    Function<String, S> statistics, ToLongFunction<S> count,
+                                    double scale) {
+        header(out, name, "counter", help);
+        for (String each : names) {
+            sample(out, name, label, each, Math.round(count.applyAsLong(statistics.apply(each)) * scale));
+        }
+    }
+
+    private static void perQuery(StringBuilder out, String name, String type, String help, String[] queries,
+                                 ToDoubleFunction<String> value) {
+        header(out, name, type, help);
+        for (String query : queries) {
+            out.append(name).append("{query=\"");
+            escape(out, query);
+            out.append("\"} ").append(value.applyAsDouble(query)).append('\n');
+        }
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, "counter", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, "gauge", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String value, long count) {
+        out.append(name).append('{').append(label).append("=\"");
+        escape(out, value);
+        out.append("\"} ").append(count).append('\n');
+    }
+
+    /**
+     * Label value: backslash, double quote & line feed are escaped; JPQL of Criteria queries spans no lines, but
+     * formatted JPQL may.
+     */
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
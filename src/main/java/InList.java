@@ -0,0 +1,177 @@
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.criteria.*;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IN-list of integer values (ids, prices) that doesn't produce new SQL (and new query plan) for every list size:
+ * <ul>
+ * <li>small lists are padded (by repeating the last value) to the next power of two, so there are
+ * only a few distinct SQL strings: {@code price IN (?, ?, ?, ?)}</li>
+ * <li>lists above threshold are bulk-loaded into the session-scoped temporary table IN_LIST_VALUE
+ * ({@link InListValue}) and filtered with {@code price IN (SELECT element FROM IN_LIST_VALUE WHERE listId = ?)}
+ * - such lists require an active transaction (temporary table lives in the transaction's connection,
+ * its rows are deleted on commit / rollback)</li>
+ * </ul>
+ * Usage:
+ * <pre>
+ * InList prices = InList.of(entityManager, values);
+ * cc_query.where(prices.predicate(cb, cc_query, cc_query_root.get(Book_.price)));
+ * return prices.bind(entityManager.createQuery(cc_query)).getResultList();
+ * </pre>
+ * A list serves a single query: {@link #predicate} can be called once.
+ * <p>
+ * The default threshold bounds a statement to {@value #DEFAULT_THRESHOLD} bind parameters: longer lists cost parsing,
+ * a large cached plan per padded size & exceed IN-list limits of other databases (e.g. 1000 in Oracle), while the
+ * temporary table costs a constant statement & one batch insert per {@value #LOAD_BATCH_SIZE} values
+ * (InListBenchmark compares both at 1 - 100k values).
+ */
+public final class InList {
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+    private static final AtomicInteger LIST_IDS = new AtomicInteger();
+
+    private final EntityManager entityManager;
+    private final ImmutableSet<Integer> values;
+    private final boolean temporaryTable;
+    private final int listId;
+
+    private boolean predicateCreated;
+    private ParameterExpression<Collection<Integer>> valuesParameter;
+    private ParameterExpression<Integer> listIdParameter;
+
+    private InList(EntityManager entityManager, ImmutableSet<Integer> values, boolean temporaryTable) {
+        this.entityManager = entityManager;
+        this.values = values;
+        this.temporaryTable = temporaryTable;
+        this.listId = temporaryTable ? LIST_IDS.incrementAndGet() : 0;
+        if (temporaryTable) {
+            load();
+        }
+    }
+
+    public static InList of(EntityManager entityManager, Collection<Integer> values) {
+        return of(entityManager, values, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold lists with more distinct values go to the temporary table
+     */
+    public static InList of(EntityManager entityManager, Collection<Integer> values, int threshold) {
+        ImmutableSet<Integer> distinct = ImmutableSet.copyOf(values);
+        return new InList(entityManager, distinct, distinct.size() > threshold);
+    }
+
+    /**
+     * @return values padded to the next power of two with the last value
+     */
+    public static List<Integer> pad(Collection<Integer> values) {
+        ImmutableList<Integer> distinct = ImmutableSet.copyOf(values).asList();
+        if (distinct.isEmpty()) {
+            return distinct;
+        }
+        int size = Integer.highestOneBit(distinct.size());
+        if (size < distinct.size()) {
+            size <<= 1;
+        }
+        ImmutableList.Builder<Integer> padded = ImmutableList.<Integer>builder().addAll(distinct);
+        Integer last = distinct.get(distinct.size() - 1);
+        for (int i = distinct.size(); i < size; i++) {
+            padded.add(last);
+        }
+        return padded.build();
+    }
+
+    public boolean usesTemporaryTable() {
+        return temporaryTable;
+    }
+
+    /**
+     * @return predicate: expression IN values; parameters have to be bound with {@link #bind(Query)}
+     * @throws IllegalStateException if called for the second time (bind() binds parameters of the first predicate)
+     */
+    @SuppressWarnings("unchecked")
+    public Predicate predicate(CriteriaBuilder cb, AbstractQuery<?> query, Expression<Integer> expression) {
+        Preconditions.checkState(!predicateCreated, "Predicate of this InList already created - use another InList");
+        predicateCreated = true;
+        if (values.isEmpty()) {
+            return cb.disjunction();
+        }
+        if (!temporaryTable) {
+            valuesParameter = collectionParameter(cb);
+            return expression.in((Expression<Collection<?>>) (Expression<?>) valuesParameter);
+        }
+        listIdParameter = cb.parameter(Integer.class);
+        Subquery<Integer> elements = query.subquery(Integer.class);
+        Root<InListValue> value = elements.from(InListValue.class);
+        elements.select(value.get(InListValue_.element))
+                .where(cb.equal(value.get(InListValue_.listId), listIdParameter));
+        return expression.in(elements);
+    }
+
+    /**
+     * Binds parameters of {@link #predicate(CriteriaBuilder, AbstractQuery, Expression)}.
+     */
+    public <Q extends Query> Q bind(Q query) {
+        if (valuesParameter != null) {
+            query.setParameter(valuesParameter, pad(values));
+        }
+        if (listIdParameter != null) {
+            query.setParameter(listIdParameter, listId);
+        }
+        return query;
+    }
+
+    /**
+     * Binds padded values to the collection-valued parameter of JPQL query (e.g. {@code b.price IN :prices}),
+     * works only for lists below threshold.
+     */
+    public <Q extends Query> Q bind(Q query, String parameter) {
+        Preconditions.checkState(!temporaryTable, "List of %s values exceeds threshold - use predicate()", values.size());
+        query.setParameter(parameter, pad(values));
+        return query;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ParameterExpression<Collection<Integer>> collectionParameter(CriteriaBuilder cb) {
+        return cb.parameter((Class<Collection<Integer>>) (Class<?>) Collection.class);
+    }
+
+    private void load() {
+        Preconditions.checkState(entityManager.getTransaction().isActive(),
+                "Temporary table of IN-list requires an active transaction");
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (Statement create = connection.createStatement()) {
+                create.execute("" +
+                        "CREATE LOCAL TEMPORARY TABLE IF NOT EXISTS IN_LIST_VALUE (" +
+                        "LIST_ID int not null, " +
+                        "ELEMENT int not null, " +
+                        "primary key (LIST_ID, ELEMENT)) " +
+                        "ON COMMIT DELETE ROWS " +
+                        "TRANSACTIONAL");
+            }
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO IN_LIST_VALUE (LIST_ID, ELEMENT) VALUES (?, ?)")) {
+                int batched = 0;
+                for (Integer value : values) {
+                    insert.setInt(1, listId);
+                    insert.setInt(2, value);
+                    insert.addBatch();
+                    if (++batched % LOAD_BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+        });
+    }
+}
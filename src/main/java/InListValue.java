@@ -0,0 +1,71 @@
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * Row of the session-scoped temporary table IN_LIST_VALUE created & filled by {@link InList}.
+ */
+@Entity
+@Immutable
+@IdClass(InListValue.Key.class)
+@Table(name = "IN_LIST_VALUE")
+public class InListValue {
+    @Id
+    @Column(name = "LIST_ID")
+    private int listId;
+
+    @Id
+    private int element;
+
+    public int getListId() {
+        return listId;
+    }
+
+    public int getElement() {
+        return element;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        InListValue that = (InListValue) o;
+
+        return listId == that.listId && element == that.element;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * listId + element;
+    }
+
+    @Override
+    public String toString() {
+        return "InListValue{" +
+                "listId=" + listId +
+                ", element=" + element +
+                '}';
+    }
+
+    public static class Key implements Serializable {
+        private int listId;
+        private int element;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return listId == key.listId && element == key.element;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * listId + element;
+        }
+    }
+}
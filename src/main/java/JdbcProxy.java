@@ -0,0 +1,475 @@
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.hibernate.engine.jdbc.connections.internal.DriverManagerConnectionProviderImpl;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import javax.persistence.EntityManagerFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Connection provider of NewPersistenceUnit ({@code hibernate.connection.provider_class = JdbcProxy}, see
+ * {@link #properties(Class[])}) handing out proxies of connections & statements which pass every execution of a
+ * statement through listeners ({@value #LISTENERS}: comma separated class names) - e.g. {@link SlowQueryLog} &
+ * {@link QueryCoalescing} on the same connections. Listeners are called in the listed order, each around the next one
+ * & the execution itself.
+ * <p>
+ * Proxies record bound parameters (index & value of {@code setXxx}), max rows & query timeout of statements, whether
+ * the current transaction wrote or locked rows & count commits of all connections (commit epoch). Statements of
+ * {@code SELECT}s are prepared on first use - calls before are recorded & replayed, so a listener answering a query
+ * without executing it never prepares the statement (H2 prepares under the database lock); SQL errors of
+ * {@code SELECT}s are reported by execution.
+ */
+public class JdbcProxy extends DriverManagerConnectionProviderImpl {
+    public static final String LISTENERS = "jdbc_proxy.listeners";
+
+    private static final Pattern FOR_UPDATE = Pattern.compile("\\s+for\\s+update\\b", Pattern.CASE_INSENSITIVE);
+
+    private ImmutableList<Listener> listeners = ImmutableList.of();
+    /**
+     * Transaction isolation of pooled connections: read when a connection is handed out for the first time (H2 reads
+     * it by a query, which would wait for running statements), then tracked.
+     */
+    private final Map<Connection, Integer> isolations = Collections.synchronizedMap(new WeakHashMap<>());
+    /**
+     * Commits of connections of the proxy: explicit, by enabling auto-commit & of writes in auto-commit mode.
+     */
+    private final AtomicLong commits = new AtomicLong();
+
+    /**
+     * @return properties passing statements of persistence unit through listeners (in the given order)
+     */
+    @SafeVarargs
+    public static Map<String, Object> properties(Class<? extends Listener>... listeners) {
+        StringJoiner names = new StringJoiner(",");
+        for (Class<? extends Listener> listener : listeners) {
+            names.add(listener.getName());
+        }
+        return ImmutableMap.of(
+                "hibernate.connection.provider_class", JdbcProxy.class.getName(),
+                LISTENERS, names.toString());
+    }
+
+    /**
+     * @return proxy of persistence unit configured by {@link #properties(Class[])}
+     */
+    public static JdbcProxy of(EntityManagerFactory emf) {
+        ConnectionProvider provider = emf.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(ConnectionProvider.class);
+        Preconditions.checkArgument(provider instanceof JdbcProxy,
+                "Connection provider of persistence unit is not a JdbcProxy: %s", provider);
+        return (JdbcProxy) provider;
+    }
+
+    /**
+     * @return listener of the class, if configured
+     */
+    public <T extends Listener> Optional<T> listener(Class<T> type) {
+        return listeners.stream()
+                .filter(type::isInstance)
+                .map(type::cast)
+                .findFirst();
+    }
+
+    /**
+     * @return classes of configured listeners
+     */
+    List<Class<?>> listenerClasses() {
+        return listeners.stream().map(Object::getClass).collect(Collectors.toList());
+    }
+
+    /**
+     * Raw map of the overridden {@code Configurable.configure(Map)} of Hibernate 5.2.
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void configure(Map configurationValues) {
+        super.configure(configurationValues);
+        Map<?, ?> settings = configurationValues;
+        Object names = settings.get(LISTENERS);
+        List<Listener> configured = new ArrayList<>();
+        for (String name : Splitter.on(',').trimResults().omitEmptyStrings()
+                .split(names == null ? "" : names.toString())) {
+            try {
+                Object listener = Class.forName(name).getDeclaredConstructor().newInstance();
+                Preconditions.checkArgument(listener instanceof Listener, "Not a JdbcProxy.Listener: %s", name);
+                configured.add((Listener) listener);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Cannot create listener " + name, e);
+            }
+        }
+        listeners = ImmutableList.copyOf(configured);
+        for (Listener listener : listeners) {
+            listener.configure(this, settings);
+        }
+    }
+
+    /**
+     * Stops listeners (in reverse order) before connections are closed.
+     */
+    @Override
+    public void stop() {
+        for (Listener listener : listeners.reverse()) {
+            listener.stop();
+        }
+        super.stop();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection connection = super.getConnection();
+        if (!isolations.containsKey(connection)) {
+            isolations.put(connection, connection.getTransactionIsolation());
+        }
+        return (Connection) Proxy.newProxyInstance(JdbcProxy.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(connection));
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        super.closeConnection(Proxy.isProxyClass(connection.getClass())
+                && Proxy.getInvocationHandler(connection) instanceof ConnectionHandler
+                ? ((ConnectionHandler) Proxy.getInvocationHandler(connection)).connection
+                : connection);
+    }
+
+    /**
+     * @return connection of the pool without proxy - statements of listeners themselves; release it by
+     * {@link #closeUnproxiedConnection(Connection)}
+     */
+    Connection unproxiedConnection() throws SQLException {
+        return super.getConnection();
+    }
+
+    void closeUnproxiedConnection(Connection connection) throws SQLException {
+        super.closeConnection(connection);
+    }
+
+    /**
+     * @return SQL is a {@code SELECT} (after a leading comment) without {@code FOR UPDATE}
+     */
+    static boolean select(String sql) {
+        String statement = sql.trim();
+        if (statement.startsWith("/*") && statement.contains("*/")) {
+            statement = statement.substring(statement.indexOf("*/") + 2).trim();
+        }
+        return statement.regionMatches(true, 0, "select", 0, "select".length())
+                && !FOR_UPDATE.matcher(statement).find();
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Called around executions of statements of all connections (concurrently); has a public no-arg constructor.
+     */
+    public interface Listener {
+        /**
+         * Called once by {@link JdbcProxy#configure} with settings of the persistence unit.
+         */
+        default void configure(JdbcProxy proxy, Map<?, ?> settings) {
+        }
+
+        /**
+         * Called by {@link JdbcProxy#stop} before connections are closed.
+         */
+        default void stop() {
+        }
+
+        /**
+         * @return result of {@link Execution#proceed()} (called at most once) or of the listener itself
+         */
+        Object execute(Execution execution) throws SQLException;
+    }
+
+    /**
+     * Execution of a statement ({@code execute*} method) passing through the listeners.
+     */
+    public static final class Execution {
+        private final List<Listener> listeners;
+        private final StatementHandler handler;
+        private final Statement statement;
+        private final Method method;
+        private final Object[] args;
+        private final String sql;
+        private int next;
+
+        private Execution(List<Listener> listeners, StatementHandler handler, Statement statement, Method method,
+                          Object[] args, String sql) {
+            this.listeners = listeners;
+            this.handler = handler;
+            this.statement = statement;
+            this.method = method;
+            this.args = args;
+            this.sql = sql;
+        }
+
+        /**
+         * @return executed SQL (null for batches of a plain statement)
+         */
+        public String sql() {
+            return sql;
+        }
+
+        /**
+         * @return execution is {@code executeQuery}
+         */
+        public boolean query() {
+            return method.getName().equals("executeQuery");
+        }
+
+        /**
+         * @return copy of bound parameters (index 0 is parameter 1)
+         */
+        public Object[] parameters() {
+            return Arrays.copyOf(handler.parameters, handler.count);
+        }
+
+        public long maxRows() {
+            return handler.maxRows;
+        }
+
+        /**
+         * @return query timeout of the statement in seconds (0 - no timeout)
+         */
+        public int queryTimeout() {
+            return handler.queryTimeout;
+        }
+
+        /**
+         * @return the current transaction wrote or locked rows
+         */
+        public boolean written() {
+            return handler.connection.written;
+        }
+
+        /**
+         * @return commits of connections of the proxy so far: a query started after reading n sees writes of the
+         * first n commits (commits on connections outside the proxy are not counted)
+         */
+        public long commits() {
+            return handler.connection.commits();
+        }
+
+        /**
+         * @return transaction isolation of the connection (SERIALIZABLE if unknown)
+         */
+        public int transactionIsolation() {
+            return handler.connection.transactionIsolation();
+        }
+
+        /**
+         * @return statement proxy (e.g. {@code ResultSet.getStatement()} of results of the listener)
+         */
+        public Statement statement() {
+            return statement;
+        }
+
+        /**
+         * Calls the next listener or executes the statement.
+         */
+        public Object proceed() throws SQLException {
+            if (next < listeners.size()) {
+                return listeners.get(next++).execute(this);
+            }
+            try {
+                return JdbcProxy.invoke(handler.statement(), method, args);
+            } catch (SQLException | RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new SQLException(e);
+            }
+        }
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+        /**
+         * The current transaction wrote or locked rows.
+         */
+        private boolean written;
+
+        ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("commit") || name.equals("rollback") || name.equals("setAutoCommit")) {
+                written = false;
+            } else if (name.equals("setTransactionIsolation")) {
+                isolations.remove(connection);
+            }
+            if (name.equals("prepareStatement") && args[0] instanceof String && select((String) args[0])) {
+                return Proxy.newProxyInstance(JdbcProxy.class.getClassLoader(),
+                        new Class<?>[]{PreparedStatement.class},
+                        new StatementHandler(this, method, args, null, (String) args[0]));
+            }
+            Object result = JdbcProxy.invoke(connection, method, args);
+            if (name.equals("setTransactionIsolation")) {
+                isolations.put(connection, (Integer) args[0]);
+            } else if (name.equals("commit") || name.equals("setAutoCommit") && Boolean.TRUE.equals(args[0])) {
+                commits.incrementAndGet();
+            }
+            if (result instanceof Statement && Statement.class.isAssignableFrom(method.getReturnType())) {
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+                        : result instanceof PreparedStatement ? PreparedStatement.class
+                        : Statement.class;
+                return Proxy.newProxyInstance(JdbcProxy.class.getClassLoader(), new Class<?>[]{type},
+                        new StatementHandler(this, null, null, (Statement) result, sql));
+            }
+            return result;
+        }
+
+        int transactionIsolation() {
+            Integer isolation = isolations.get(connection);
+            return isolation == null ? Connection.TRANSACTION_SERIALIZABLE : isolation;
+        }
+
+        long commits() {
+            return commits.get();
+        }
+
+        /**
+         * @return the statement commits by itself (a write in auto-commit mode)
+         */
+        boolean executing(String sql) throws SQLException {
+            if (sql != null && select(sql)) {
+                return false;
+            }
+            boolean autoCommit = connection.getAutoCommit();
+            written = !autoCommit;
+            return autoCommit;
+        }
+
+        void committed() {
+            commits.incrementAndGet();
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+        private final ConnectionHandler connection;
+        private final Method prepare;
+        private final Object[] prepareArgs;
+        private final List<Object[]> deferred = new ArrayList<>();
+        private final String sql;
+        private Statement statement;
+        private boolean closed;
+        private Object[] parameters = new Object[8];
+        private int count;
+        private long maxRows;
+        private int queryTimeout;
+
+        StatementHandler(ConnectionHandler connection, Method prepare, Object[] prepareArgs, Statement statement,
+                         String sql) {
+            this.connection = connection;
+            this.prepare = prepare;
+            this.prepareArgs = prepareArgs;
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                String executed = args != null && args.length > 0 && args[0] instanceof String
+                        ? (String) args[0]
+                        : sql;
+                boolean commits = connection.executing(executed);
+                try {
+                    return new Execution(listeners, this, (Statement) proxy, method, args, executed).proceed();
+                } finally {
+                    if (commits) {
+                        connection.committed();
+                    }
+                }
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parameter((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters")) {
+                Arrays.fill(parameters, null);
+                count = 0;
+            } else if (name.equals("setMaxRows") || name.equals("setLargeMaxRows")) {
+                maxRows = ((Number) args[0]).longValue();
+            } else if (name.equals("setQueryTimeout")) {
+                queryTimeout = (Integer) args[0];
+            }
+            if (statement == null) {
+                switch (name) {
+                    case "close":
+                        closed = true;
+                        return null;
+                    case "isClosed":
+                        return closed;
+                    case "getWarnings":
+                        return null;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        if (method.getReturnType() == void.class) {
+                            deferred.add(new Object[]{method, args});
+                            return null;
+                        }
+                }
+            }
+            return JdbcProxy.invoke(statement(), method, args);
+        }
+
+        private Statement statement() throws SQLException {
+            if (statement == null) {
+                try {
+                    statement = (Statement) JdbcProxy.invoke(connection.connection, prepare, prepareArgs);
+                    for (Object[] call : deferred) {
+                        JdbcProxy.invoke(statement, (Method) call[0], (Object[]) call[1]);
+                    }
+                } catch (SQLException | RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new SQLException(e);
+                }
+                deferred.clear();
+            }
+            return statement;
+        }
+
+        private void parameter(int index, Object value) {
+            if (index > parameters.length) {
+                parameters = Arrays.copyOf(parameters, Math.max(index, parameters.length * 2));
+            }
+            parameters[index - 1] = value;
+            count = Math.max(count, index);
+        }
+    }
+}
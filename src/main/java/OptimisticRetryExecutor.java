@@ -0,0 +1,158 @@
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import org.hibernate.StaleStateException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.OptimisticLockException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Runs transactions on versioned entities & retries them (with exponential backoff & jitter) when they
+ * conflict with concurrent writers:
+ * <pre>
+ * executor.execute(entityManager -> {
+ *     Book book = entityManager.find(Book.class, 1);
+ *     book.setPrice(book.getPrice() + 1);
+ *     return book;
+ * });
+ * </pre>
+ * Conflict: optimistic lock failure (stale version) or concurrent update / lock timeout reported by H2.
+ * Every attempt gets a new EntityManager, so work has to be repeatable.
+ */
+public final class OptimisticRetryExecutor {
+    private static final int H2_LOCK_TIMEOUT = 50200;
+    private static final int H2_CONCURRENT_UPDATE = 90131;
+
+    private final EntityManagerFactory emf;
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final Metrics metrics = new Metrics();
+
+    public OptimisticRetryExecutor(EntityManagerFactory emf) {
+        this(emf, 10, Duration.ofMillis(1), Duration.ofMillis(100));
+    }
+
+    public OptimisticRetryExecutor(EntityManagerFactory emf, int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+        Preconditions.checkArgument(maxAttempts > 0, "maxAttempts has to be positive: %s", maxAttempts);
+        this.emf = emf;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+    }
+
+    /**
+     * @throws OptimisticLockException if the last attempt conflicts
+     */
+    public <T> T execute(Function<EntityManager, T> work) {
+        long backoff = initialBackoffNanos;
+        for (int attempt = 1; ; attempt++) {
+            EntityManager entityManager = emf.createEntityManager();
+            EntityTransaction transaction = entityManager.getTransaction();
+            try {
+                transaction.begin();
+                T result = work.apply(entityManager);
+                transaction.commit();
+                metrics.commits.increment();
+                return result;
+            } catch (RuntimeException e) {
+                if (!isConflict(e)) {
+                    throw e;
+                }
+                metrics.conflicts.increment();
+                if (attempt == maxAttempts) {
+                    metrics.failures.increment();
+                    throw new OptimisticLockException("Conflict after " + attempt + " attempts", e);
+                }
+            } finally {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                entityManager.close();
+            }
+            metrics.retries.increment();
+            sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+            backoff = Math.min(backoff * 2, maxBackoffNanos);
+        }
+    }
+
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    static boolean isConflict(Throwable e) {
+        for (Throwable cause : Throwables.getCausalChain(e)) {
+            if (cause instanceof OptimisticLockException || cause instanceof StaleStateException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                int code = ((SQLException) cause).getErrorCode();
+                if (code == H2_CONCURRENT_UPDATE || code == H2_LOCK_TIMEOUT) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Contention since creation of executor.
+     */
+    public static final class Metrics {
+        private final long start = System.nanoTime();
+        private final LongAdder commits = new LongAdder();
+        private final LongAdder conflicts = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        public long getCommits() {
+            return commits.sum();
+        }
+
+        public long getConflicts() {
+            return conflicts.sum();
+        }
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        /**
+         * @return transactions that conflicted in all attempts
+         */
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public double getConflictsPerSecond() {
+            return getConflicts() * 1e9 / Math.max(1, System.nanoTime() - start);
+        }
+
+        public double getRetriesPerCommit() {
+            long commits = getCommits();
+            return commits == 0 ? 0 : (double) getRetries() / commits;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("commits %d, conflicts %d (%.1f/s), retries per commit %.2f, failures %d",
+                    getCommits(), getConflicts(), getConflictsPerSecond(), getRetriesPerCommit(), getFailures());
+        }
+    }
+}
@@ -0,0 +1,605 @@
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.BaseEncoding;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.Temporal;
+import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link JdbcProxy} listener of NewPersistenceUnit (see {@link #properties()}) executing identical concurrent queries
+ * once (single flight): a query (same SQL & bound parameters) arriving while the same query is executed by another
+ * thread waits for its rows instead of executing it again. Rows are read into memory by the executing thread; every
+ * caller gets its own copy as a {@link ResultSet} (mutable values - dates, byte arrays - are copied on every read), so
+ * Hibernate of every caller creates its own entities in its own persistence context.
+ * <p>
+ * Only read-only queries are coalesced: {@code SELECT}s without {@code FOR UPDATE}, in a transaction that hasn't
+ * written (it has to see its own writes), at isolation READ COMMITTED or lower & with parameters of value types.
+ * A caller waits only for a query that started after the last commit on connections of the proxy
+ * ({@link JdbcProxy.Execution#commits()}), so it sees every write committed before it called - its own writes of an
+ * earlier transaction too - as READ COMMITTED (H2 default) requires; a query in flight that started before a commit is
+ * replaced by the caller's. Transactions of stricter isolation levels execute their queries themselves. A waiting
+ * caller waits for its own query timeout ({@value #MAX_WAIT} without one, default 10 s); when the executing query
+ * fails or takes longer, the caller executes the query itself.
+ * <p>
+ * Results are copied only if every column is of a type the copy reads exactly (numbers, strings, booleans, binaries,
+ * LOBs, dates, times & timestamps with or without time zone): other results (e.g. ARRAY, JAVA_OBJECT) are returned
+ * to the executing caller as they are & waiting callers execute the query themselves.
+ */
+public class QueryCoalescing implements JdbcProxy.Listener {
+    public static final String MAX_WAIT = "query_coalescing.max_wait_ms";
+
+    private final ConcurrentHashMap<List<Object>, Flight> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private long maxWaitMillis;
+
+    /**
+     * @return properties coalescing queries of persistence unit
+     */
+    public static Map<String, Object> properties() {
+        return JdbcProxy.properties(QueryCoalescing.class);
+    }
+
+    /**
+     * @return coalescing of persistence unit configured by {@link #properties()} (or with QueryCoalescing among
+     * listeners of {@link JdbcProxy})
+     */
+    public static QueryCoalescing of(EntityManagerFactory emf) {
+        return JdbcProxy.of(emf).listener(QueryCoalescing.class)
+                .orElseThrow(() -> new IllegalArgumentException("Persistence unit doesn't coalesce queries"));
+    }
+
+    @Override
+    public void configure(JdbcProxy proxy, Map<?, ?> settings) {
+        Object maxWait = settings.get(MAX_WAIT);
+        maxWaitMillis = maxWait == null ? 10_000 : Long.parseLong(maxWait.toString());
+        Preconditions.checkArgument(maxWaitMillis > 0, "%s has to be positive: %s", MAX_WAIT, maxWaitMillis);
+    }
+
+    /**
+     * @return read-only queries executed (rows shared with waiting callers)
+     */
+    public long executed() {
+        return executed.sum();
+    }
+
+    /**
+     * @return read-only queries answered by rows of an identical query executed by another caller
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return queries executed without coalescing (not read-only, stricter isolation, waiting failed or timed out)
+     */
+    public long bypassed() {
+        return bypassed.sum();
+    }
+
+    @Override
+    public Object execute(JdbcProxy.Execution execution) throws SQLException {
+        if (!execution.query()) {
+            return execution.proceed();
+        }
+        String sql = execution.sql();
+        Object[] parameters = execution.parameters();
+        if (sql == null || !JdbcProxy.select(sql) || execution.written()
+                || !Arrays.stream(parameters).allMatch(QueryCoalescing::value)
+                || execution.transactionIsolation() > Connection.TRANSACTION_READ_COMMITTED) {
+            bypassed.increment();
+            return execution.proceed();
+        }
+        Object[] key = new Object[parameters.length + 2];
+        key[0] = sql;
+        key[1] = execution.maxRows();
+        System.arraycopy(parameters, 0, key, 2, parameters.length);
+        return executeQuery(Arrays.asList(key), execution);
+    }
+
+    private ResultSet executeQuery(List<Object> key, JdbcProxy.Execution execution) throws SQLException {
+        Flight flight = new Flight(execution.commits());
+        Flight leader = inFlight.putIfAbsent(key, flight);
+        while (leader != null && leader.commits < flight.commits) {
+            // started before a commit the caller has to see - the caller's query takes its place
+            leader = inFlight.replace(key, leader, flight) ? null : inFlight.putIfAbsent(key, flight);
+        }
+        if (leader != null) {
+            long waitMillis = execution.queryTimeout() > 0
+                    ? TimeUnit.SECONDS.toMillis(execution.queryTimeout())
+                    : maxWaitMillis;
+            try {
+                Rows rows = leader.rows.get(waitMillis, TimeUnit.MILLISECONDS);
+                coalesced.increment();
+                return rows.resultSet(execution.statement());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for coalesced query", e);
+            } catch (ExecutionException | TimeoutException e) {
+                // failure of the executing caller (e.g. its timeout), a result that isn't copied or a slow one -
+                // execute own query
+                bypassed.increment();
+                return (ResultSet) execution.proceed();
+            }
+        }
+        ResultSet resultSet = null;
+        try {
+            resultSet = (ResultSet) execution.proceed();
+            String uncopied = Rows.uncopied(resultSet.getMetaData());
+            if (uncopied != null) {
+                bypassed.increment();
+                inFlight.remove(key, flight);
+                flight.rows.completeExceptionally(new SQLFeatureNotSupportedException("Not copied: " + uncopied));
+                return resultSet;
+            }
+            Rows rows = Rows.read(resultSet);
+            resultSet.close();
+            executed.increment();
+            inFlight.remove(key, flight);
+            flight.rows.complete(rows);
+            return rows.resultSet(execution.statement());
+        } catch (SQLException | RuntimeException | Error e) {
+            inFlight.remove(key, flight);
+            flight.rows.completeExceptionally(e);
+            if (resultSet != null) {
+                try {
+                    resultSet.close();
+                } catch (SQLException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private static boolean value(Object parameter) {
+        return parameter == null
+                || parameter instanceof String
+                || parameter instanceof Number
+                || parameter instanceof Boolean
+                || parameter instanceof Character
+                || parameter instanceof java.util.Date
+                || parameter instanceof Temporal
+                || parameter instanceof Enum
+                || parameter instanceof UUID;
+    }
+
+    /**
+     * Query in flight; rows are shared with callers arriving after no more than {@link #commits} commits.
+     */
+    private static final class Flight {
+        private final long commits;
+        private final CompletableFuture<Rows> rows = new CompletableFuture<>();
+
+        Flight(long commits) {
+            this.commits = commits;
+        }
+    }
+
+    /**
+     * Rows of a query read into memory (LOBs as strings & byte arrays, dates, times & timestamps as JDBC date-time
+     * values, timestamps with time zone as {@link Zoned}).
+     */
+    private static final class Rows {
+        private static final Set<Integer> COPIED = ImmutableSet.of(Types.BIT, Types.TINYINT, Types.SMALLINT,
+                Types.INTEGER, Types.BIGINT, Types.FLOAT, Types.REAL, Types.DOUBLE, Types.NUMERIC, Types.DECIMAL,
+                Types.CHAR, Types.VARCHAR, Types.LONGVARCHAR, Types.NCHAR, Types.NVARCHAR, Types.LONGNVARCHAR,
+                Types.BOOLEAN, Types.DATE, Types.TIME, Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE,
+                Types.BINARY, Types.VARBINARY, Types.LONGVARBINARY, Types.BLOB, Types.CLOB, Types.NULL);
+
+        private final RowSetMetaDataImpl metaData;
+        private final Map<String, Integer> columns;
+        private final List<Object[]> rows;
+
+        private Rows(RowSetMetaDataImpl metaData, Map<String, Integer> columns, List<Object[]> rows) {
+            this.metaData = metaData;
+            this.columns = columns;
+            this.rows = rows;
+        }
+
+        /**
+         * @return description of the first column not copied exactly (e.g. {@code TAGS ARRAY}), null if all are
+         */
+        static String uncopied(ResultSetMetaData metaData) throws SQLException {
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                if (!COPIED.contains(metaData.getColumnType(i))) {
+                    return metaData.getColumnLabel(i) + " " + metaData.getColumnTypeName(i);
+                }
+            }
+            return null;
+        }
+
+        static Rows read(ResultSet resultSet) throws SQLException {
+            ResultSetMetaData source = resultSet.getMetaData();
+            int count = source.getColumnCount();
+            RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+            metaData.setColumnCount(count);
+            Map<String, Integer> columns = new HashMap<>();
+            int[] types = new int[count];
+            for (int i = 1; i <= count; i++) {
+                types[i - 1] = source.getColumnType(i);
+                metaData.setColumnLabel(i, source.getColumnLabel(i));
+                metaData.setColumnName(i, source.getColumnName(i));
+                metaData.setColumnType(i, types[i - 1]);
+                metaData.setColumnTypeName(i, source.getColumnTypeName(i));
+                metaData.setPrecision(i, Math.max(0, source.getPrecision(i)));
+                metaData.setScale(i, Math.max(0, source.getScale(i)));
+                metaData.setNullable(i, source.isNullable(i));
+                columns.putIfAbsent(source.getColumnLabel(i).toUpperCase(), i);
+            }
+            List<Object[]> rows = new ArrayList<>();
+            while (resultSet.next()) {
+                Object[] row = new Object[count];
+                for (int i = 1; i <= count; i++) {
+                    row[i - 1] = column(resultSet, i, types[i - 1]);
+                }
+                rows.add(row);
+            }
+            return new Rows(metaData, columns, rows);
+        }
+
+        private static Object column(ResultSet resultSet, int column, int type) throws SQLException {
+            switch (type) {
+                case Types.DATE:
+                    return resultSet.getDate(column);
+                case Types.TIME:
+                    return resultSet.getTime(column);
+                case Types.TIMESTAMP:
+                    return resultSet.getTimestamp(column);
+                case Types.TIMESTAMP_WITH_TIMEZONE:
+                    Object zoned = resultSet.getObject(column);
+                    return zoned == null ? null : new Zoned(zoned, resultSet.getObject(column, OffsetDateTime.class));
+                default:
+                    Object value = resultSet.getObject(column);
+                    if (value instanceof Clob) {
+                        Clob clob = (Clob) value;
+                        return clob.getSubString(1, (int) clob.length());
+                    }
+                    if (value instanceof Blob) {
+                        Blob blob = (Blob) value;
+                        return blob.getBytes(1, (int) blob.length());
+                    }
+                    return value;
+            }
+        }
+
+        ResultSet resultSet(Statement statement) {
+            return (ResultSet) Proxy.newProxyInstance(QueryCoalescing.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class}, new RowsHandler(this, statement));
+        }
+    }
+
+    /**
+     * Forward-only result set over {@link Rows}.
+     */
+    private static final class RowsHandler implements InvocationHandler {
+        private final Rows rows;
+        private final Statement statement;
+        private int row = -1;
+        private boolean wasNull;
+        private boolean closed;
+
+        RowsHandler(Rows rows, Statement statement) {
+            this.rows = rows;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "next":
+                    return ++row < rows.rows.size();
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "wasNull":
+                    return wasNull;
+                case "findColumn":
+                    return column(args[0]);
+                case "getMetaData":
+                    return rows.metaData;
+                case "getStatement":
+                    return statement;
+                case "getType":
+                    return ResultSet.TYPE_FORWARD_ONLY;
+                case "getConcurrency":
+                    return ResultSet.CONCUR_READ_ONLY;
+                case "getFetchSize":
+                    return 0;
+                case "setFetchSize":
+                case "setFetchDirection":
+                case "clearWarnings":
+                case "getWarnings":
+                    return null;
+                case "isWrapperFor":
+                    return false;
+                case "unwrap":
+                    throw new SQLException("Not a wrapper");
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "QueryCoalescing rows " + rows.rows.size();
+                default:
+                    if (name.startsWith("get") && args != null && (args.length == 1 || args.length == 2)
+                            && (args[0] instanceof Integer || args[0] instanceof String)) {
+                        Object value = rows.rows.get(row)[column(args[0]) - 1];
+                        wasNull = value == null;
+                        return value == null ? nullValue(method.getReturnType()) : get(name, value, args);
+                    }
+                    throw new SQLFeatureNotSupportedException(name);
+            }
+        }
+
+        private int column(Object column) throws SQLException {
+            if (column instanceof Integer) {
+                return (Integer) column;
+            }
+            Integer index = rows.columns.get(((String) column).toUpperCase());
+            if (index == null) {
+                throw new SQLException("Column not found: " + column);
+            }
+            return index;
+        }
+
+        /**
+         * @return value of SQL NULL by a getter returning the type (0 / false for primitives)
+         */
+        private static Object nullValue(Class<?> type) {
+            if (!type.isPrimitive()) {
+                return null;
+            }
+            if (type == boolean.class) {
+                return false;
+            }
+            Map<Class<?>, Object> zeros = ImmutableMap.of(byte.class, (byte) 0, short.class, (short) 0, int.class, 0,
+                    long.class, 0L, float.class, 0F);
+            return zeros.getOrDefault(type, 0D);
+        }
+
+        /**
+         * @param value not null
+         * @param args column & the second argument of the getter if any ({@code Calendar}, {@code Class}, scale)
+         */
+        private static Object get(String getter, Object value, Object[] args) throws SQLException {
+            Object argument = args.length == 2 ? args[1] : null;
+            switch (getter) {
+                case "getObject":
+                    return argument instanceof Class ? convert(value, (Class<?>) argument) : copy(value);
+                case "getString":
+                case "getNString":
+                    return value instanceof byte[] ? BaseEncoding.base16().lowerCase().encode((byte[]) value)
+                            : value.toString();
+                case "getBoolean":
+                    return value instanceof Boolean ? value : ((Number) value).intValue() != 0;
+                case "getByte":
+                    return ((Number) value).byteValue();
+                case "getShort":
+                    return ((Number) value).shortValue();
+                case "getInt":
+                    return ((Number) value).intValue();
+                case "getLong":
+                    return ((Number) value).longValue();
+                case "getFloat":
+                    return ((Number) value).floatValue();
+                case "getDouble":
+                    return ((Number) value).doubleValue();
+                case "getBigDecimal":
+                    BigDecimal decimal = value instanceof BigDecimal
+                            ? (BigDecimal) value
+                            : new BigDecimal(value.toString());
+                    // getBigDecimal(column, scale)
+                    return argument instanceof Integer
+                            ? decimal.setScale((Integer) argument, RoundingMode.HALF_UP)
+                            : decimal;
+                case "getDate":
+                    return new java.sql.Date(millis(value, argument));
+                case "getTime":
+                    return new Time(millis(value, argument));
+                case "getTimestamp":
+                    return timestamp(value, argument);
+                case "getBytes":
+                    return bytes(value);
+                case "getBinaryStream":
+                    return new ByteArrayInputStream(bytes(value));
+                case "getCharacterStream":
+                case "getNCharacterStream":
+                    return new StringReader(value.toString());
+                case "getAsciiStream":
+                    return new ByteArrayInputStream(value.toString().getBytes(StandardCharsets.US_ASCII));
+                case "getBlob":
+                    return new SerialBlob(bytes(value));
+                case "getClob":
+                    return new SerialClob(value.toString().toCharArray());
+                default:
+                    throw new SQLFeatureNotSupportedException(getter);
+            }
+        }
+
+        /**
+         * @return copy of binary value; UUID (BINARY column of H2) as its 16 bytes
+         */
+        private static byte[] bytes(Object value) {
+            if (value instanceof UUID) {
+                UUID uuid = (UUID) value;
+                return ByteBuffer.allocate(16)
+                        .putLong(uuid.getMostSignificantBits())
+                        .putLong(uuid.getLeastSignificantBits())
+                        .array();
+            }
+            return ((byte[]) value).clone();
+        }
+
+        private static Object copy(Object value) {
+            return value instanceof java.util.Date ? ((java.util.Date) value).clone()
+                    : value instanceof byte[] ? ((byte[]) value).clone()
+                    : value instanceof Zoned ? ((Zoned) value).object
+                    : value;
+        }
+
+        /**
+         * {@code getObject(column, type)}: conversions of JDBC 4.2 (java.time) & between number types.
+         */
+        private static Object convert(Object value, Class<?> type) throws SQLException {
+            Object copy = copy(value);
+            if (type.isInstance(copy)) {
+                return copy;
+            }
+            if (type == String.class) {
+                return get("getString", value, new Object[1]);
+            }
+            if (value instanceof Number) {
+                Number number = (Number) value;
+                if (type == Integer.class) {
+                    return number.intValue();
+                } else if (type == Long.class) {
+                    return number.longValue();
+                } else if (type == Short.class) {
+                    return number.shortValue();
+                } else if (type == Byte.class) {
+                    return number.byteValue();
+                } else if (type == Double.class) {
+                    return number.doubleValue();
+                } else if (type == Float.class) {
+                    return number.floatValue();
+                } else if (type == BigDecimal.class) {
+                    return new BigDecimal(value.toString());
+                } else if (type == Boolean.class) {
+                    return number.intValue() != 0;
+                }
+            }
+            if (value instanceof Zoned) {
+                OffsetDateTime offsetDateTime = ((Zoned) value).offsetDateTime;
+                if (type == OffsetDateTime.class) {
+                    return offsetDateTime;
+                } else if (type == Instant.class) {
+                    return offsetDateTime.toInstant();
+                } else if (type == ZonedDateTime.class) {
+                    return offsetDateTime.toZonedDateTime();
+                } else if (type == Timestamp.class) {
+                    return Timestamp.from(offsetDateTime.toInstant());
+                } else if (type == LocalDateTime.class) {
+                    return LocalDateTime.ofInstant(offsetDateTime.toInstant(), ZoneId.systemDefault());
+                }
+            }
+            if (value instanceof java.sql.Date && type == LocalDate.class) {
+                return ((java.sql.Date) value).toLocalDate();
+            }
+            if (value instanceof Time && type == LocalTime.class) {
+                return ((Time) value).toLocalTime();
+            }
+            if (value instanceof Timestamp) {
+                Timestamp timestamp = (Timestamp) value;
+                if (type == LocalDateTime.class) {
+                    return timestamp.toLocalDateTime();
+                } else if (type == LocalDate.class) {
+                    return timestamp.toLocalDateTime().toLocalDate();
+                } else if (type == LocalTime.class) {
+                    return timestamp.toLocalDateTime().toLocalTime();
+                } else if (type == Instant.class) {
+                    return timestamp.toInstant();
+                } else if (type == java.sql.Date.class) {
+                    return new java.sql.Date(timestamp.getTime());
+                } else if (type == Time.class) {
+                    return new Time(timestamp.getTime());
+                }
+            }
+            throw new SQLFeatureNotSupportedException(
+                    "getObject(" + type.getName() + ") of " + value.getClass().getName());
+        }
+
+        /**
+         * Date-time values are read in the default time zone (timestamp with time zone as its instant); with a
+         * calendar, the local date-time in the default time zone is read again in the time zone of the calendar - as
+         * H2 does.
+         */
+        private static Timestamp timestamp(Object value, Object calendar) {
+            Timestamp timestamp = value instanceof Zoned
+                    ? Timestamp.from(((Zoned) value).offsetDateTime.toInstant())
+                    : value instanceof Timestamp
+                    ? (Timestamp) ((Timestamp) value).clone()
+                    : new Timestamp(((java.util.Date) value).getTime());
+            if (calendar instanceof Calendar) {
+                int nanos = timestamp.getNanos();
+                timestamp = Timestamp.from(timestamp.toLocalDateTime()
+                        .atZone(((Calendar) calendar).getTimeZone().toZoneId())
+                        .toInstant());
+                timestamp.setNanos(nanos);
+            }
+            return timestamp;
+        }
+
+        private static long millis(Object value, Object calendar) {
+            return timestamp(value, calendar).getTime();
+        }
+    }
+
+    /**
+     * Value of a timestamp with time zone: {@code getObject} of the driver (e.g. H2 {@code TimestampWithTimeZone}) &
+     * the same instant & offset for conversions.
+     */
+    private static final class Zoned {
+        private final Object object;
+        private final OffsetDateTime offsetDateTime;
+
+        Zoned(Object object, OffsetDateTime offsetDateTime) {
+            this.object = object;
+            this.offsetDateTime = offsetDateTime;
+        }
+
+        @Override
+        public String toString() {
+            return object.toString();
+        }
+    }
+}
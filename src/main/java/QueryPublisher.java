@@ -0,0 +1,239 @@
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import java.sql.Statement;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * {@link Flow.Publisher} of query results (entities or DTO projections, e.g. {@code SELECT NEW BookstoreCountAVG})
+ * pulled from a forward-only cursor as subscribers request them:
+ * <pre>
+ * new QueryPublisher&lt;&gt;(emf, entityManager -&gt; entityManager.createQuery(cc_query)).subscribe(subscriber);
+ * </pre>
+ * Every subscription runs the query in its own EntityManager (read-only transaction) on the scheduler, never on
+ * the thread of {@code request}: the cursor is opened by the first request, rows are read only while there is
+ * demand & the persistence context is cleared every {@code fetchSize} rows (emitted entities are detached), so a
+ * slow subscriber holds at most a fetch of rows. H2 streams the result ({@code LAZY_QUERY_EXECUTION}) instead of
+ * materializing it.
+ * <p>
+ * The connection is held until the result is exhausted, fails or the subscription is cancelled - cancel releases
+ * it as soon as the scheduler runs (right away unless a row is being emitted).
+ */
+public final class QueryPublisher<T> implements Flow.Publisher<T> {
+    public static final int DEFAULT_FETCH_SIZE = 100;
+    private static final ExecutorService SCHEDULER = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("query-publisher-%d").setDaemon(true).build());
+
+    private final EntityManagerFactory emf;
+    private final Function<EntityManager, TypedQuery<T>> query;
+    private final Executor scheduler;
+    private final int fetchSize;
+    private final AtomicInteger openCursors = new AtomicInteger();
+
+    public QueryPublisher(EntityManagerFactory emf, Function<EntityManager, TypedQuery<T>> query) {
+        this(emf, query, SCHEDULER, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * @param query     creates the query in the EntityManager of a subscription
+     * @param scheduler runs the blocking JDBC work
+     */
+    public QueryPublisher(EntityManagerFactory emf, Function<EntityManager, TypedQuery<T>> query,
+                          Executor scheduler, int fetchSize) {
+        Preconditions.checkArgument(fetchSize > 0, "fetchSize has to be positive: %s", fetchSize);
+        this.emf = emf;
+        this.query = query;
+        this.scheduler = scheduler;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Preconditions.checkNotNull(subscriber);
+        subscriber.onSubscribe(new CursorSubscription(subscriber));
+    }
+
+    /**
+     * @return cursors (connections) held by subscriptions of this publisher
+     */
+    public int openCursors() {
+        return openCursors.get();
+    }
+
+    /**
+     * Signals of a subscription are serialized by the work-in-progress counter: one drain at a time, on the
+     * scheduler.
+     */
+    private final class CursorSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger workInProgress = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        // accessed by the drain only
+        private boolean done;
+        private EntityManager entityManager;
+        private ScrollableResults rows;
+        private int sinceClear;
+
+        CursorSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (workInProgress.getAndIncrement() == 0) {
+                try {
+                    scheduler.execute(this);
+                } catch (RejectedExecutionException e) {
+                    workInProgress.set(0);
+                    finish(e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = workInProgress.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void drain() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                close();
+                done = true;
+                return;
+            }
+            if (invalidRequest != null) {
+                finish(invalidRequest);
+                return;
+            }
+            try {
+                while (demand.get() > 0 && !cancelled) {
+                    if (rows == null) {
+                        open();
+                    }
+                    if (!rows.next()) {
+                        finish(null);
+                        return;
+                    }
+                    Object[] row = rows.get();
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext((T) (row.length == 1 ? row[0] : row));
+                    if (++sinceClear == fetchSize) {
+                        entityManager.clear();
+                        sinceClear = 0;
+                    }
+                }
+                if (cancelled) {
+                    close();
+                    done = true;
+                }
+            } catch (RuntimeException e) {
+                finish(e);
+            }
+        }
+
+        private void open() {
+            entityManager = emf.createEntityManager();
+            openCursors.incrementAndGet();
+            entityManager.getTransaction().begin();
+            lazyQueryExecution(true);
+            rows = query.apply(entityManager)
+                    .unwrap(org.hibernate.query.Query.class)
+                    .setFetchSize(fetchSize)
+                    .setReadOnly(true)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+        }
+
+        /**
+         * Releases the cursor & signals completion (failure null) or failure.
+         */
+        private void finish(Throwable failure) {
+            done = true;
+            try {
+                close();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            if (failure == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(failure);
+            }
+        }
+
+        private void close() {
+            if (entityManager == null) {
+                return;
+            }
+            try {
+                try {
+                    if (rows != null) {
+                        rows.close();
+                    }
+                } finally {
+                    lazyQueryExecution(false);
+                }
+            } finally {
+                if (entityManager.getTransaction().isActive()) {
+                    entityManager.getTransaction().rollback();
+                }
+                entityManager.close();
+                entityManager = null;
+                rows = null;
+                openCursors.decrementAndGet();
+            }
+        }
+
+        /**
+         * Session setting of H2 - reset before the connection goes back to the pool.
+         */
+        private void lazyQueryExecution(boolean lazy) {
+            entityManager.unwrap(Session.class).doWork(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET LAZY_QUERY_EXECUTION " + (lazy ? 1 : 0));
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,713 @@
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import org.hibernate.Session;
+import org.hibernate.collection.internal.PersistentBag;
+import org.hibernate.collection.internal.PersistentSet;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.BagType;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.SetType;
+import org.hibernate.type.Type;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-through cache of reference data - {@link Author}, {@link Bookstore} & {@link Address} by id & results of
+ * selected JPQL queries over them - that survives restarts:
+ * <pre>
+ * ReferenceDataCache cache = ReferenceDataCache.open(emf, path); // on startup
+ * cache.find(Author.class, 5);
+ * cache.query("SELECT a FROM Author a ORDER BY a.name", Author.class, ImmutableMap.of());
+ * cache.save(path); // on shutdown
+ * </pre>
+ * Cached entities are detached & shared - they must not be changed (lazy collections throw
+ * LazyInitializationException, to-one associations point to cached entities).
+ * <p>
+ * Cached queries may only read tables of reference data (no joins to other entities, no collection tables) -
+ * others throw IllegalArgumentException; the entities whose tables a query reads are taken from its query spaces.
+ * <p>
+ * Snapshot file (big-endian): magic {@code REFC}, format version, Flyway schema version, then per entity its name &
+ * an index of (id, version, offset of state) sorted by id, then queries (JPQL, parameters, entity name, per read
+ * entity its name & the fingerprint of its table taken when the query was cached, ids of results), then states: a
+ * tagged value per persistent property. The file is memory-mapped & states are decoded on first lookup of the entity.
+ * <p>
+ * Validation on open: a snapshot of another schema version is discarded; entries whose row version changed (or row
+ * was deleted) are discarded & loaded again; queries are discarded if the fingerprint of any table they read changed
+ * - row count & a hash of (id, version) of all rows, so rows which weren't cached count too.
+ */
+public final class ReferenceDataCache {
+    public static final Set<Class<?>> ENTITIES = ImmutableSet.of(Author.class, Bookstore.class, Address.class);
+
+    static final byte[] MAGIC = "REFC".getBytes(StandardCharsets.US_ASCII);
+    static final int FORMAT = 3;
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte TEXT = 3;
+    private static final byte REFERENCE = 4;
+    private static final byte COLLECTION = 5;
+
+    private final EntityManagerFactory emf;
+    private final SessionFactoryImplementor sessionFactory;
+    private final String schemaVersion;
+    private final Map<String, ConcurrentMap<Integer, Object>> entities = new HashMap<>();
+    private final Map<Serializable, String> tables = new HashMap<>();
+    private final ConcurrentMap<List<Object>, Result> queries = new ConcurrentHashMap<>();
+    private final Snapshot snapshot;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder restored = new LongAdder();
+    private final long discarded;
+
+    private ReferenceDataCache(EntityManagerFactory emf, Snapshot snapshot, long discarded) {
+        this.emf = emf;
+        this.sessionFactory = emf.unwrap(SessionFactoryImplementor.class);
+        this.schemaVersion = schemaVersion(emf);
+        for (Class<?> type : ENTITIES) {
+            entities.put(type.getName(), new ConcurrentHashMap<>());
+            for (Serializable table : persister(type.getName()).getQuerySpaces()) {
+                tables.put(table, type.getName());
+            }
+        }
+        this.snapshot = snapshot;
+        this.discarded = discarded;
+    }
+
+    /**
+     * @return empty cache
+     */
+    public static ReferenceDataCache create(EntityManagerFactory emf) {
+        return new ReferenceDataCache(emf, null, 0);
+    }
+
+    /**
+     * @return cache warmed by the snapshot (validated against the database); empty cache if there is no snapshot
+     * @throws IllegalStateException if the file is not a snapshot
+     */
+    public static ReferenceDataCache open(EntityManagerFactory emf, Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return create(emf);
+        }
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        Snapshot snapshot = Snapshot.read(mapped, file);
+        ReferenceDataCache cache;
+        if (!snapshot.schemaVersion.equals(schemaVersion(emf))) {
+            cache = new ReferenceDataCache(emf, null, snapshot.entries());
+        } else {
+            long discarded = snapshot.validate(emf);
+            cache = new ReferenceDataCache(emf, snapshot, discarded);
+            cache.queries.putAll(snapshot.queries);
+        }
+        return cache;
+    }
+
+    /**
+     * @return cached entity, loaded from the database on a miss; null if there is no such entity
+     */
+    public <T> T find(Class<T> type, int id) {
+        ConcurrentMap<Integer, Object> cached = entities(type);
+        Object entity = cached.get(id);
+        if (entity == null && snapshot != null) {
+            entity = restore(type.getName(), id);
+        }
+        if (entity != null) {
+            hits.increment();
+            return type.cast(entity);
+        }
+        misses.increment();
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            T loaded = entityManager.find(type, id);
+            if (loaded != null) {
+                Object previous = cached.putIfAbsent(id, loaded);
+                return previous == null ? loaded : type.cast(previous);
+            }
+            return null;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * @param jpql       query reading only tables of reference data
+     * @param parameters named parameters, values Integer, Long or String
+     * @return cached results of the query, executed on a miss
+     * @throws IllegalArgumentException if the query reads a table of other entities
+     */
+    public <T> List<T> query(String jpql, Class<T> type, Map<String, ?> parameters) {
+        entities(type);
+        List<Object> key = key(jpql, type, parameters);
+        Result result = queries.get(key);
+        if (result == null) {
+            Map<String, Fingerprint> read = new TreeMap<>();
+            EntityManager entityManager = emf.createEntityManager();
+            try {
+                // before the query: a change in between discards the result on open instead of going unnoticed
+                for (String entityName : readEntities(jpql)) {
+                    read.put(entityName, Fingerprint.of(versions(entityManager, persister(entityName))));
+                }
+                TypedQuery<T> query = entityManager.createQuery(jpql, type);
+                parameters.forEach(query::setParameter);
+                List<T> rows = query.getResultList();
+                int[] ids = new int[rows.size()];
+                ConcurrentMap<Integer, Object> cached = entities(type);
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = (Integer) sessionFactory.getPersistenceUnitUtil().getIdentifier(rows.get(i));
+                    cached.putIfAbsent(ids[i], rows.get(i));
+                }
+                result = new Result(type.getName(), read, ids);
+                queries.putIfAbsent(key, result);
+            } finally {
+                entityManager.close();
+            }
+        }
+        List<T> rows = new ArrayList<>(result.ids.length);
+        for (int id : result.ids) {
+            T row = find(type, id);
+            if (row != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Writes all cached entities (snapshot entries not decoded yet included) & queries to the file (replaced
+     * atomically).
+     */
+    public void save(Path file) throws IOException {
+        ByteArrayOutputStream states = new ByteArrayOutputStream();
+        DataOutputStream stateOut = new DataOutputStream(states);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        if (snapshot != null) {
+            for (Class<?> type : ENTITIES) {
+                for (int id : snapshot.ids(type.getName())) {
+                    restore(type.getName(), id);
+                }
+            }
+        }
+        addReferenced();
+        out.write(MAGIC);
+        out.writeInt(FORMAT);
+        writeText(out, schemaVersion);
+        out.writeInt(ENTITIES.size());
+        for (Class<?> type : ENTITIES) {
+            String name = type.getName();
+            EntityPersister persister = persister(name);
+            Map<Integer, Object> sorted = new TreeMap<>(entities.get(name));
+            writeText(out, name);
+            out.writeInt(sorted.size());
+            for (Map.Entry<Integer, Object> entry : sorted.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeInt((Integer) persister.getVersion(entry.getValue()));
+                out.writeInt(stateOut.size());
+                writeState(stateOut, persister, entry.getValue());
+            }
+        }
+        out.writeInt(queries.size());
+        for (Map.Entry<List<Object>, Result> query : queries.entrySet()) {
+            writeText(out, (String) query.getKey().get(0));
+            Map<?, ?> parameters = (Map<?, ?>) query.getKey().get(2);
+            out.writeInt(parameters.size());
+            for (Map.Entry<?, ?> parameter : parameters.entrySet()) {
+                writeText(out, (String) parameter.getKey());
+                writeValue(out, parameter.getValue());
+            }
+            writeText(out, query.getValue().entityName);
+            out.writeInt(query.getValue().read.size());
+            for (Map.Entry<String, Fingerprint> read : query.getValue().read.entrySet()) {
+                writeText(out, read.getKey());
+                out.writeLong(read.getValue().count);
+                out.writeLong(read.getValue().hash);
+            }
+            out.writeInt(query.getValue().ids.length);
+            for (int id : query.getValue().ids) {
+                out.writeInt(id);
+            }
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream file_out = Files.newOutputStream(temporary)) {
+            header.writeTo(file_out);
+            states.writeTo(file_out);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return lookups answered by the cache (snapshot included)
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return lookups loaded from the database
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return entities decoded from the snapshot
+     */
+    public long restored() {
+        return restored.sum();
+    }
+
+    /**
+     * @return snapshot entries (entities & queries) discarded by validation
+     */
+    public long discarded() {
+        return discarded;
+    }
+
+    private ConcurrentMap<Integer, Object> entities(Class<?> type) {
+        ConcurrentMap<Integer, Object> cached = entities.get(type.getName());
+        Preconditions.checkArgument(cached != null, "%s is not reference data: %s", type, ENTITIES);
+        return cached;
+    }
+
+    private EntityPersister persister(String entityName) {
+        return sessionFactory.getMetamodel().entityPersister(entityName);
+    }
+
+    private Class<?> mappedClass(String entityName) {
+        return persister(entityName).getMappedClass();
+    }
+
+    /**
+     * The query plan cache is the only access to query spaces of JPQL in Hibernate 5.2; its accessor is deprecated.
+     *
+     * @return names of reference entities whose tables the query reads
+     */
+    @SuppressWarnings("deprecation")
+    private Set<String> readEntities(String jpql) {
+        Set<String> read = new TreeSet<>();
+        for (Object table : sessionFactory.getQueryPlanCache()
+                .getHQLQueryPlan(jpql, false, Collections.emptyMap())
+                .getQuerySpaces()) {
+            String entityName = tables.get(table);
+            Preconditions.checkArgument(entityName != null, "%s reads %s which is not a table of reference data: %s",
+                    jpql, table, ENTITIES);
+            read.add(entityName);
+        }
+        return read;
+    }
+
+    /**
+     * Decodes the entity & entities it references (not cached yet) from the snapshot & publishes them at once.
+     */
+    private Object restore(String entityName, int id) {
+        synchronized (snapshot) {
+            Object cached = entities.get(entityName).get(id);
+            if (cached != null) {
+                return cached;
+            }
+            Map<List<Object>, Object> decoded = new HashMap<>();
+            Object entity = decode(entityName, id, decoded);
+            decoded.forEach((key, each) -> entities.get((String) key.get(0)).put((Integer) key.get(1), each));
+            restored.add(decoded.size());
+            return entity;
+        }
+    }
+
+    private Object decode(String entityName, int id, Map<List<Object>, Object> decoded) {
+        Object cached = entities.get(entityName).get(id);
+        if (cached != null) {
+            return cached;
+        }
+        List<Object> key = ImmutableList.of(entityName, id);
+        if (decoded.containsKey(key)) {
+            return decoded.get(key);
+        }
+        ByteBuffer state = snapshot.state(entityName, id);
+        if (state == null) {
+            return null;
+        }
+        EntityPersister persister = persister(entityName);
+        Object entity = persister.instantiate(id, null);
+        decoded.put(key, entity);
+        Type[] types = persister.getPropertyTypes();
+        Object[] values = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            byte tag = state.get();
+            switch (tag) {
+                case NULL:
+                    break;
+                case INT:
+                    values[i] = state.getInt();
+                    break;
+                case LONG:
+                    values[i] = state.getLong();
+                    break;
+                case TEXT:
+                    String text = text(state);
+                    Class<?> type = types[i].getReturnedClass();
+                    values[i] = type.isEnum() ? enumValue(type, text) : text;
+                    break;
+                case REFERENCE:
+                    String referenced = ((EntityType) types[i]).getAssociatedEntityName();
+                    int referencedId = state.getInt();
+                    values[i] = decode(referenced, referencedId, decoded);
+                    if (values[i] == null) {
+                        // discarded by validation
+                        values[i] = find(mappedClass(referenced), referencedId);
+                    }
+                    break;
+                case COLLECTION:
+                    values[i] = types[i] instanceof SetType ? new PersistentSet() : new PersistentBag();
+                    break;
+                default:
+                    throw new IllegalStateException("Corrupted snapshot: tag " + tag + " of " + entityName);
+            }
+        }
+        persister.setPropertyValues(entity, values);
+        return entity;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumValue(Class<?> type, String name) {
+        return Enum.valueOf((Class<? extends Enum>) type, name);
+    }
+
+    private void writeState(DataOutputStream out, EntityPersister persister, Object entity) throws IOException {
+        Type[] types = persister.getPropertyTypes();
+        Object[] values = persister.getPropertyValues(entity);
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] instanceof CollectionType) {
+                Preconditions.checkArgument(types[i] instanceof BagType || types[i] instanceof SetType,
+                        "Unsupported collection %s", types[i].getName());
+                out.writeByte(COLLECTION);
+            } else if (types[i] instanceof EntityType && values[i] != null) {
+                out.writeByte(REFERENCE);
+                out.writeInt((Integer) sessionFactory.getPersistenceUnitUtil().getIdentifier(values[i]));
+            } else {
+                writeValue(out, values[i] instanceof Enum ? ((Enum<?>) values[i]).name() : values[i]);
+            }
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof String) {
+            out.writeByte(TEXT);
+            writeText(out, (String) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported value " + value.getClass().getName() + ": " + value);
+        }
+    }
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String text(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Adds entities referenced by cached entities (to-one associations), so the snapshot restores them together.
+     */
+    private void addReferenced() {
+        List<Object> added = new ArrayList<>();
+        for (Map<Integer, Object> cached : entities.values()) {
+            added.addAll(cached.values());
+        }
+        while (!added.isEmpty()) {
+            Object entity = added.remove(added.size() - 1);
+            EntityPersister persister = sessionFactory.getMetamodel().entityPersister(entity.getClass());
+            Type[] types = persister.getPropertyTypes();
+            Object[] values = persister.getPropertyValues(entity);
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] instanceof EntityType && values[i] != null) {
+                    String referenced = ((EntityType) types[i]).getAssociatedEntityName();
+                    Preconditions.checkArgument(entities.containsKey(referenced),
+                            "%s references %s which is not reference data", persister.getEntityName(), referenced);
+                    Integer id = (Integer) sessionFactory.getPersistenceUnitUtil().getIdentifier(values[i]);
+                    if (entities.get(referenced).putIfAbsent(id, values[i]) == null) {
+                        added.add(values[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<Object> key(String jpql, Class<?> type, Map<String, ?> parameters) {
+        parameters.values().forEach(value -> Preconditions.checkArgument(
+                value instanceof Integer || value instanceof Long || value instanceof String,
+                "Unsupported parameter %s", value));
+        return ImmutableList.of(jpql, type.getName(), ImmutableMap.copyOf(new TreeMap<>(parameters)));
+    }
+
+    /**
+     * @return (id, version) of all rows of the entity's table
+     */
+    private static List<Object[]> versions(EntityManager entityManager, EntityPersister persister) {
+        String version = persister.getPropertyNames()[persister.getVersionProperty()];
+        return entityManager.createQuery("" +
+                "SELECT e." + persister.getIdentifierPropertyName() + ", e." + version + " " +
+                "FROM " + persister.getEntityName() + " e", Object[].class)
+                .getResultList();
+    }
+
+    /**
+     * @return version of the latest successful Flyway migration
+     */
+    static String schemaVersion(EntityManagerFactory emf) {
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("" +
+                        "SELECT \"version\" FROM \"flyway_schema_history\" " +
+                        "WHERE \"success\" AND \"version\" IS NOT NULL " +
+                        "ORDER BY \"installed_rank\" DESC LIMIT 1");
+                     ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getString(1) : "";
+                }
+            });
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private static final class Result {
+        final String entityName;
+        /**
+         * Names of entities whose tables the query reads & fingerprints of the tables when it was cached.
+         */
+        final Map<String, Fingerprint> read;
+        final int[] ids;
+
+        Result(String entityName, Map<String, Fingerprint> read, int[] ids) {
+            this.entityName = entityName;
+            this.read = read;
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * Row count & sum of hashes of (id, version) of all rows of a table - independent of the order of rows, changes
+     * with every insert, delete & versioned update.
+     */
+    private static final class Fingerprint {
+        final long count;
+        final long hash;
+
+        Fingerprint(long count, long hash) {
+            this.count = count;
+            this.hash = hash;
+        }
+
+        /**
+         * @param rows (id, version)
+         */
+        static Fingerprint of(List<Object[]> rows) {
+            long hash = 0;
+            for (Object[] row : rows) {
+                long pair = (long) (Integer) row[0] << 32 | ((Integer) row[1] & 0xffffffffL);
+                hash += Hashing.murmur3_128().hashLong(pair).asLong();
+            }
+            return new Fingerprint(rows.size(), hash);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Fingerprint
+                    && count == ((Fingerprint) other).count && hash == ((Fingerprint) other).hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(count * 31 + hash);
+        }
+    }
+
+    /**
+     * Index of the mapped snapshot: ids, versions & offsets of states per entity; queries decoded eagerly (ids
+     * only).
+     */
+    private static final class Snapshot {
+        final ByteBuffer buffer;
+        final String schemaVersion;
+        final Map<String, int[]> ids = new HashMap<>();
+        final Map<String, int[]> versions = new HashMap<>();
+        final Map<String, int[]> offsets = new HashMap<>();
+        final Map<List<Object>, Result> queries = new HashMap<>();
+        int statesStart;
+
+        private Snapshot(ByteBuffer buffer, String schemaVersion) {
+            this.buffer = buffer;
+            this.schemaVersion = schemaVersion;
+        }
+
+        static Snapshot read(ByteBuffer buffer, Path file) {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            Preconditions.checkState(Arrays.equals(magic, MAGIC) && buffer.getInt() == FORMAT,
+                    "Not a reference data snapshot: %s", file);
+            Snapshot snapshot = new Snapshot(buffer, text(buffer));
+            int entityCount = buffer.getInt();
+            for (int e = 0; e < entityCount; e++) {
+                String name = text(buffer);
+                int count = buffer.getInt();
+                int[] ids = new int[count];
+                int[] versions = new int[count];
+                int[] offsets = new int[count];
+                for (int i = 0; i < count; i++) {
+                    ids[i] = buffer.getInt();
+                    versions[i] = buffer.getInt();
+                    offsets[i] = buffer.getInt();
+                }
+                snapshot.ids.put(name, ids);
+                snapshot.versions.put(name, versions);
+                snapshot.offsets.put(name, offsets);
+            }
+            int queryCount = buffer.getInt();
+            for (int q = 0; q < queryCount; q++) {
+                String jpql = text(buffer);
+                Map<String, Object> parameters = new TreeMap<>();
+                int parameterCount = buffer.getInt();
+                for (int p = 0; p < parameterCount; p++) {
+                    String name = text(buffer);
+                    byte tag = buffer.get();
+                    parameters.put(name, tag == INT ? (Object) buffer.getInt()
+                            : tag == LONG ? (Object) buffer.getLong()
+                            : text(buffer));
+                }
+                String entityName = text(buffer);
+                Map<String, Fingerprint> read = new TreeMap<>();
+                int readCount = buffer.getInt();
+                for (int r = 0; r < readCount; r++) {
+                    read.put(text(buffer), new Fingerprint(buffer.getLong(), buffer.getLong()));
+                }
+                int[] ids = new int[buffer.getInt()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = buffer.getInt();
+                }
+                snapshot.queries.put(ImmutableList.of(jpql, entityName, ImmutableMap.copyOf(parameters)),
+                        new Result(entityName, read, ids));
+            }
+            snapshot.statesStart = buffer.position();
+            return snapshot;
+        }
+
+        /**
+         * Discards entries of changed rows (offset -1) & queries reading tables whose fingerprint changed.
+         *
+         * @return number of discarded entries & queries
+         */
+        long validate(EntityManagerFactory emf) {
+            long discarded = 0;
+            Map<String, Fingerprint> fingerprints = new HashMap<>();
+            EntityManager entityManager = emf.createEntityManager();
+            try {
+                for (Map.Entry<String, int[]> entity : ids.entrySet()) {
+                    String name = entity.getKey();
+                    EntityPersister persister = emf.unwrap(SessionFactoryImplementor.class).getMetamodel()
+                            .entityPersister(name);
+                    List<Object[]> rows = versions(entityManager, persister);
+                    Map<Integer, Integer> current = new HashMap<>(rows.size() * 2);
+                    for (Object[] row : rows) {
+                        current.put((Integer) row[0], (Integer) row[1]);
+                    }
+                    fingerprints.put(name, Fingerprint.of(rows));
+                    int[] ids = entity.getValue();
+                    int[] versions = this.versions.get(name);
+                    int[] offsets = this.offsets.get(name);
+                    for (int i = 0; i < ids.length; i++) {
+                        Integer currentVersion = current.get(ids[i]);
+                        if (currentVersion == null || currentVersion != versions[i]) {
+                            offsets[i] = -1;
+                            discarded++;
+                        }
+                    }
+                }
+            } finally {
+                entityManager.close();
+            }
+            for (Iterator<Result> results = queries.values().iterator(); results.hasNext(); ) {
+                Map<String, Fingerprint> read = results.next().read;
+                if (!read.entrySet().stream()
+                        .allMatch(table -> table.getValue().equals(fingerprints.get(table.getKey())))) {
+                    results.remove();
+                    discarded++;
+                }
+            }
+            return discarded;
+        }
+
+        long entries() {
+            return ids.values().stream().mapToLong(each -> each.length).sum() + queries.size();
+        }
+
+        int[] ids(String entityName) {
+            int[] ids = this.ids.get(entityName);
+            return ids == null ? new int[0] : ids;
+        }
+
+        /**
+         * @return state of the entity positioned at its first property or null if it is not in the snapshot (or
+         * discarded)
+         */
+        ByteBuffer state(String entityName, int id) {
+            int index = Arrays.binarySearch(ids(entityName), id);
+            if (index < 0 || offsets.get(entityName)[index] < 0) {
+                return null;
+            }
+            ByteBuffer state = buffer.duplicate();
+            state.position(statesStart + offsets.get(entityName)[index]);
+            return state;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+import com.google.common.base.Preconditions;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.internal.ConcurrentStatisticsImpl;
+import org.hibernate.stat.spi.StatisticsFactory;
+import org.hibernate.stat.spi.StatisticsImplementor;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Statistics of a persistence unit serving metrics ({@code hibernate.stats.factory = SampledStatistics$Factory},
+ * see {@link HibernateMetrics#properties(double)}) recording events of an entity, collection role, cache region or
+ * query with probability {@value #SAMPLING_RATE} (default 1 - all events): counts of sampled events divided by the
+ * rate estimate the real counts ({@link HibernateMetrics} exports estimates). Session, flush, connection, statement
+ * & transaction counters are exact.
+ * <p>
+ * Sampling is random, not every n-th event: events of different entities interleave regularly (e.g. a query loading
+ * a book & its bookstore), every n-th event could always hit the same entity.
+ */
+public class SampledStatistics extends ConcurrentStatisticsImpl {
+    public static final String SAMPLING_RATE = "statistics.sampling_rate";
+
+    private final double rate;
+
+    SampledStatistics(SessionFactoryImplementor sessionFactory, double rate) {
+        super(sessionFactory);
+        Preconditions.checkArgument(rate > 0 && rate <= 1, "%s has to be in (0, 1]: %s", SAMPLING_RATE, rate);
+        this.rate = rate;
+    }
+
+    public double samplingRate() {
+        return rate;
+    }
+
+    private boolean sampled() {
+        return rate == 1 || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    @Override
+    public void loadEntity(String entityName) {
+        if (sampled()) {
+            super.loadEntity(entityName);
+        }
+    }
+
+    @Override
+    public void fetchEntity(String entityName) {
+        if (sampled()) {
+            super.fetchEntity(entityName);
+        }
+    }
+
+    @Override
+    public void updateEntity(String entityName) {
+        if (sampled()) {
+            super.updateEntity(entityName);
+        }
+    }
+
+    @Override
+    public void insertEntity(String entityName) {
+        if (sampled()) {
+            super.insertEntity(entityName);
+        }
+    }
+
+    @Override
+    public void deleteEntity(String entityName) {
+        if (sampled()) {
+            super.deleteEntity(entityName);
+        }
+    }
+
+    @Override
+    public void optimisticFailure(String entityName) {
+        if (sampled()) {
+            super.optimisticFailure(entityName);
+        }
+    }
+
+    @Override
+    public void loadCollection(String role) {
+        if (sampled()) {
+            super.loadCollection(role);
+        }
+    }
+
+    @Override
+    public void fetchCollection(String role) {
+        if (sampled()) {
+            super.fetchCollection(role);
+        }
+    }
+
+    @Override
+    public void updateCollection(String role) {
+        if (sampled()) {
+            super.updateCollection(role);
+        }
+    }
+
+    @Override
+    public void recreateCollection(String role) {
+        if (sampled()) {
+            super.recreateCollection(role);
+        }
+    }
+
+    @Override
+    public void removeCollection(String role) {
+        if (sampled()) {
+            super.removeCollection(role);
+        }
+    }
+
+    @Override
+    public void secondLevelCachePut(String regionName) {
+        if (sampled()) {
+            super.secondLevelCachePut(regionName);
+        }
+    }
+
+    @Override
+    public void secondLevelCacheHit(String regionName) {
+        if (sampled()) {
+            super.secondLevelCacheHit(regionName);
+        }
+    }
+
+    @Override
+    public void secondLevelCacheMiss(String regionName) {
+        if (sampled()) {
+            super.secondLevelCacheMiss(regionName);
+        }
+    }
+
+    @Override
+    public void naturalIdCachePut(String regionName) {
+        if (sampled()) {
+            super.naturalIdCachePut(regionName);
+        }
+    }
+
+    @Override
+    public void naturalIdCacheHit(String regionName) {
+        if (sampled()) {
+            super.naturalIdCacheHit(regionName);
+        }
+    }
+
+    @Override
+    public void naturalIdCacheMiss(String regionName) {
+        if (sampled()) {
+            super.naturalIdCacheMiss(regionName);
+        }
+    }
+
+    @Override
+    public void naturalIdQueryExecuted(String regionName, long time) {
+        if (sampled()) {
+            super.naturalIdQueryExecuted(regionName, time);
+        }
+    }
+
+    @Override
+    public void queryExecuted(String hql, int rows, long time) {
+        if (sampled()) {
+            super.queryExecuted(hql, rows, time);
+        }
+    }
+
+    @Override
+    public void queryCacheHit(String hql, String regionName) {
+        if (sampled()) {
+            super.queryCacheHit(hql, regionName);
+        }
+    }
+
+    @Override
+    public void queryCacheMiss(String hql, String regionName) {
+        if (sampled()) {
+            super.queryCacheMiss(hql, regionName);
+        }
+    }
+
+    @Override
+    public void queryCachePut(String hql, String regionName) {
+        if (sampled()) {
+            super.queryCachePut(hql, regionName);
+        }
+    }
+
+    /**
+     * {@code hibernate.stats.factory} of {@link HibernateMetrics#properties(double)}.
+     */
+    public static final class Factory implements StatisticsFactory {
+        @Override
+        public StatisticsImplementor buildStatistics(SessionFactoryImplementor sessionFactory) {
+            Object rate = sessionFactory.getProperties().getOrDefault(SAMPLING_RATE, "1");
+            return new SampledStatistics(sessionFactory, Double.parseDouble(rate.toString()));
+        }
+    }
+}
@@ -0,0 +1,275 @@
+import com.google.common.base.Preconditions;
+import org.hibernate.dialect.pagination.LimitHandler;
+import org.hibernate.dialect.pagination.LimitHelper;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.query.spi.HQLQueryPlan;
+import org.hibernate.engine.spi.RowSelection;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.hql.spi.ParameterTranslations;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.hibernate.type.Type;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Reads scalar Criteria / JPQL queries (e.g. {@code SELECT b.genre, count(b) FROM Book b GROUP BY b.genre})
+ * by position, without {@code Object[]}, {@code Tuple} or boxed values per row: the query is translated
+ * to SQL by the Hibernate query plan cache & executed with JDBC in the session's connection, every row
+ * is exposed through one reusable {@link Row} (primitive getters read the result set directly).
+ * <pre>
+ * ScalarRows.of(entityManager, entityManager.createQuery(cc_query))
+ *         .forEach(WritingGenre.class, (genre, count) -> counts[genre.ordinal()] = count);
+ * </pre>
+ * First & max results of the query are applied as Hibernate pages queries: by the limit handler of the dialect,
+ * first result without max results by skipping rows.
+ * Collection-valued parameters are not supported.
+ * <p>
+ * The statement is prepared & executed through the session's {@link JdbcCoordinator} like Hibernate's loaders, so the
+ * statement inspector of the persistence unit, connection proxies ({@link JdbcProxy} listeners) & JDBC settings
+ * (fetch size) apply, and the statement is released with the session's resources. Only the row mapping bypasses
+ * Hibernate (no entities, no result transformers).
+ */
+public final class ScalarRows {
+    private final SessionImplementor session;
+    private final QueryTranslator translator;
+    private final Map<String, Object> parameters;
+    private final RowSelection selection = new RowSelection();
+    private final LimitHandler limitHandler;
+
+    private ScalarRows(SessionImplementor session, QueryTranslator translator, Map<String, Object> parameters,
+                       int firstResult, int maxResults) {
+        this.session = session;
+        this.translator = translator;
+        this.parameters = parameters;
+        this.limitHandler = session.getJdbcServices().getDialect().getLimitHandler();
+        if (firstResult > 0) {
+            selection.setFirstRow(firstResult);
+        }
+        if (maxResults != Integer.MAX_VALUE) {
+            selection.setMaxRows(maxResults);
+        }
+    }
+
+    /**
+     * @param query Criteria or JPQL query (with bound parameters)
+     */
+    public static ScalarRows of(EntityManager entityManager, Query query) {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        org.hibernate.query.Query<?> hibernateQuery = query.unwrap(org.hibernate.query.Query.class);
+        HQLQueryPlan plan = queryPlan(session, hibernateQuery.getQueryString());
+        Preconditions.checkArgument(plan.isSelect() && plan.getTranslators().length == 1,
+                "Not a single select: %s", hibernateQuery.getQueryString());
+        Map<String, Object> parameters = new HashMap<>();
+        for (String name : hibernateQuery.getParameterMetadata().getNamedParameterNames()) {
+            parameters.put(name, hibernateQuery.getParameterValue(name));
+        }
+        return new ScalarRows(session, plan.getTranslators()[0], parameters, query.getFirstResult(),
+                query.getMaxResults());
+    }
+
+    /**
+     * @return SQL executed by {@link #forEach(RowConsumer)}
+     */
+    public String sql() {
+        return useLimit() ? limitHandler.processSql(translator.getSQLString(), selection) : translator.getSQLString();
+    }
+
+    /**
+     * @return aliases of selections ({@code SELECT b.title AS title}), position for selections without alias
+     */
+    public String[] columnNames() {
+        String[] aliases = translator.getReturnAliases();
+        String[] names = new String[translator.getReturnTypes().length];
+        for (int column = 0; column < names.length; column++) {
+            names[column] = aliases != null && aliases[column] != null ? aliases[column] : String.valueOf(column);
+        }
+        return names;
+    }
+
+    /**
+     * @return java types of selections (e.g. {@code Integer}, {@code String}, {@code WritingGenre})
+     */
+    public Class<?>[] columnTypes() {
+        Type[] types = translator.getReturnTypes();
+        Class<?>[] classes = new Class<?>[types.length];
+        for (int column = 0; column < types.length; column++) {
+            classes[column] = types[column].getReturnedClass();
+        }
+        return classes;
+    }
+
+    /**
+     * Flushes the session first if there is a transaction in progress (as auto flush of Hibernate queries).
+     */
+    public void forEach(RowConsumer consumer) {
+        if (session.isTransactionInProgress()) {
+            session.flush();
+        }
+        JdbcCoordinator jdbc = session.getJdbcCoordinator();
+        String sql = sql();
+        PreparedStatement statement = jdbc.getStatementPreparer().prepareQueryStatement(sql, false, null);
+        ResultSet resultSet = null;
+        try {
+            boolean limit = useLimit();
+            int start = limit ? limitHandler.bindLimitParametersAtStartOfQuery(selection, statement, 1) : 0;
+            int end = 1 + start + bind(statement, 1 + start);
+            if (limit) {
+                limitHandler.bindLimitParametersAtEndOfQuery(selection, statement, end);
+                limitHandler.setMaxRows(selection, statement);
+            }
+            resultSet = jdbc.getResultSetReturn().extract(statement);
+            Row row = new Row(resultSet);
+            for (int skip = limit ? 0 : LimitHelper.getFirstRow(selection); skip > 0; skip--) {
+                if (!resultSet.next()) {
+                    return;
+                }
+            }
+            while (resultSet.next()) {
+                consumer.accept(row);
+            }
+        } catch (SQLException e) {
+            throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "Cannot read scalar rows", sql);
+        } finally {
+            if (resultSet == null) {
+                jdbc.getLogicalConnection().getResourceRegistry().release(statement);
+            } else {
+                jdbc.getLogicalConnection().getResourceRegistry().release(resultSet, statement);
+            }
+            jdbc.afterStatementExecution();
+        }
+    }
+
+    /**
+     * Rows of (value, long) - e.g. {@code (genre, count)}.
+     */
+    public <T> void forEach(Class<T> type, ObjLongConsumer<? super T> consumer) {
+        forEach(row -> consumer.accept(row.get(0, type), row.getLong(1)));
+    }
+
+    /**
+     * @return values of the column (nulls as 0)
+     */
+    public int[] ints(int column) {
+        int[][] values = {new int[16]};
+        int[] size = {0};
+        forEach(row -> {
+            if (size[0] == values[0].length) {
+                values[0] = Arrays.copyOf(values[0], size[0] * 2);
+            }
+            values[0][size[0]++] = row.getInt(column);
+        });
+        return Arrays.copyOf(values[0], size[0]);
+    }
+
+    /**
+     * @return values of the column (nulls as 0)
+     */
+    public long[] longs(int column) {
+        long[][] values = {new long[16]};
+        int[] size = {0};
+        forEach(row -> {
+            if (size[0] == values[0].length) {
+                values[0] = Arrays.copyOf(values[0], size[0] * 2);
+            }
+            values[0][size[0]++] = row.getLong(column);
+        });
+        return Arrays.copyOf(values[0], size[0]);
+    }
+
+    /**
+     * The query plan cache is the only access to translated HQL in Hibernate 5.2; its accessor is deprecated in
+     * favour of the query engine of Hibernate 6.
+     */
+    @SuppressWarnings("deprecation")
+    private static HQLQueryPlan queryPlan(SessionImplementor session, String hql) {
+        return session.getFactory()
+                .getQueryPlanCache()
+                .getHQLQueryPlan(hql, false, Collections.emptyMap());
+    }
+
+    private boolean useLimit() {
+        return LimitHelper.useLimit(limitHandler, selection);
+    }
+
+    /**
+     * @param first index of the first parameter of the query
+     * @return number of bound parameters
+     */
+    private int bind(PreparedStatement statement, int first) throws SQLException {
+        ParameterTranslations translations = translator.getParameterTranslations();
+        int count = 0;
+        for (Object name : translations.getNamedParameterNames()) {
+            Object value = parameters.get(name);
+            Preconditions.checkArgument(!(value instanceof Collection), "Collection-valued parameter: %s", name);
+            Type type = translations.getNamedParameterExpectedType((String) name);
+            if (type == null && value != null) {
+                // e.g. argument of function: mod(b.id, :partitions)
+                type = session.getFactory().resolveParameterBindType(value);
+            }
+            for (int location : translations.getNamedParameterSqlLocations((String) name)) {
+                if (type == null) {
+                    statement.setObject(first + location, null);
+                } else {
+                    type.nullSafeSet(statement, value, first + location, session);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @FunctionalInterface
+    public interface RowConsumer {
+        void accept(Row row) throws SQLException;
+    }
+
+    /**
+     * Current row; columns are indexed by position of selection (from 0).
+     */
+    public final class Row {
+        private final ResultSet resultSet;
+        private final String[][] columns = translator.getColumnNames();
+        private final Type[] types = translator.getReturnTypes();
+        private final int[] indexes = new int[columns.length];
+
+        private Row(ResultSet resultSet) throws SQLException {
+            this.resultSet = resultSet;
+            for (int column = 0; column < columns.length; column++) {
+                indexes[column] = resultSet.findColumn(columns[column][0]);
+            }
+        }
+
+        public int getInt(int column) throws SQLException {
+            return resultSet.getInt(indexes[column]);
+        }
+
+        public long getLong(int column) throws SQLException {
+            return resultSet.getLong(indexes[column]);
+        }
+
+        public double getDouble(int column) throws SQLException {
+            return resultSet.getDouble(indexes[column]);
+        }
+
+        public String getString(int column) throws SQLException {
+            return resultSet.getString(indexes[column]);
+        }
+
+        public boolean wasNull() throws SQLException {
+            return resultSet.wasNull();
+        }
+
+        /**
+         * @return value converted by the mapping type of selection (e.g. enum constant)
+         */
+        public <T> T get(int column, Class<T> type) throws SQLException {
+            return type.cast(types[column].nullSafeGet(resultSet, columns[column], session, null));
+        }
+    }
+}
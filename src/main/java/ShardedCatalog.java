@@ -0,0 +1,403 @@
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import javax.persistence.Tuple;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Catalog partitioned by bookstore id across several databases (every one with its own EntityManagerFactory):
+ * bookstore {@code id} with its books & address lives in shard {@code id mod N} (books without bookstore in
+ * shard 0), authors are replicated to every shard.
+ * <ul>
+ * <li>{@link #inShard(int, Function)} - query concerning single bookstore goes to single shard</li>
+ * <li>{@link #scatterGather(Function)} - query runs in parallel in all shards, partial results are merged
+ * (concatenated, merged in order or reduced)</li>
+ * </ul>
+ * Entities returned from shards are detached. New rows have to get ids unique across shards.
+ * <p>
+ * Replicated writes ({@link #inEveryShard(Consumer)}) are prepared in all shards before any shard commits; a commit
+ * failing after other shards committed is recorded in {@link #divergedShards()} until the work succeeds there again.
+ */
+public final class ShardedCatalog implements AutoCloseable {
+    private static final String PERSISTENCE_UNIT = "NewPersistenceUnit";
+
+    private final List<EntityManagerFactory> shards;
+    private final ExecutorService executor;
+    private final Set<Integer> diverged = ConcurrentHashMap.newKeySet();
+
+    public ShardedCatalog(List<EntityManagerFactory> shards) {
+        this.shards = ImmutableList.copyOf(shards);
+        this.executor = Executors.newFixedThreadPool(shards.size(),
+                new ThreadFactoryBuilder().setNameFormat("shard-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Restores the catalog into N databases & removes from every database bookstores
+     * (with their books & addresses) that belong to other shards.
+     *
+     * @param restore restores the whole catalog into a fresh database of the given name & returns its jdbc url
+     */
+    public static ShardedCatalog split(Function<String, String> restore, String name, int shardCount) {
+        List<EntityManagerFactory> shards = new ArrayList<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            String database = name + "-shard-" + shard;
+            String url = restore.apply(database);
+            try (Connection connection = DriverManager.getConnection(url);
+                 Statement statement = connection.createStatement()) {
+                String foreignBookstore = "MOD(COALESCE(%s, 0), " + shardCount + ") <> " + shard;
+                statement.executeUpdate("DELETE FROM BOOK_AUTHOR WHERE BOOKS_ID IN " +
+                        "(SELECT ID FROM BOOK WHERE " + String.format(foreignBookstore, "BOOKSTORE_ID") + ")");
+                statement.executeUpdate("DELETE FROM BOOK WHERE " + String.format(foreignBookstore, "BOOKSTORE_ID"));
+                statement.executeUpdate("UPDATE BOOKSTORE SET ADDRESS_ID = NULL WHERE " + String.format(foreignBookstore, "ID"));
+                statement.executeUpdate("DELETE FROM ADDRESS WHERE " + String.format(foreignBookstore, "BOOKSTORE_ID"));
+                statement.executeUpdate("DELETE FROM BOOKSTORE WHERE " + String.format(foreignBookstore, "ID"));
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cannot split " + database, e);
+            }
+            shards.add(Persistence.createEntityManagerFactory(PERSISTENCE_UNIT,
+                    ImmutableMap.of("hibernate.connection.url", url)));
+        }
+        return new ShardedCatalog(shards);
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    public int shardOf(int bookstoreId) {
+        return Math.floorMod(bookstoreId, shards.size());
+    }
+
+    /**
+     * Runs work in the shard of bookstore (in a transaction).
+     */
+    public <T> T inShard(int bookstoreId, Function<EntityManager, T> work) {
+        return inTransaction(shards.get(shardOf(bookstoreId)), work);
+    }
+
+    /**
+     * Runs work in every shard in parallel (e.g. to write replicated authors): work of every shard is run & flushed
+     * first, shards commit only if it succeeded in all of them - otherwise all are rolled back.
+     *
+     * @throws PartialCommitException if some shards failed to commit after others committed (replicas diverged);
+     *                                idempotent work (e.g. merge by id) can be retried with
+     *                                {@link #inShards(Collection, Consumer)}
+     */
+    public void inEveryShard(Consumer<EntityManager> work) {
+        List<Integer> all = new ArrayList<>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            all.add(shard);
+        }
+        inShards(all, work);
+    }
+
+    /**
+     * Runs replicated work in the given shards like {@link #inEveryShard(Consumer)}, e.g. to retry it in
+     * {@link #divergedShards()}.
+     */
+    public void inShards(Collection<Integer> shardIds, Consumer<EntityManager> work) {
+        Map<Integer, EntityManager> prepared = prepare(ImmutableSet.copyOf(shardIds), work);
+        Map<Integer, RuntimeException> failed = new TreeMap<>();
+        boolean committed = false;
+        for (Map.Entry<Integer, EntityManager> shard : prepared.entrySet()) {
+            EntityManager entityManager = shard.getValue();
+            try {
+                if (!committed && !failed.isEmpty()) {
+                    // nothing committed yet - the remaining shards roll back & replicas stay equal
+                    continue;
+                }
+                entityManager.getTransaction().commit();
+                committed = true;
+            } catch (RuntimeException e) {
+                failed.put(shard.getKey(), e);
+            } finally {
+                close(entityManager);
+            }
+        }
+        if (!committed && !failed.isEmpty()) {
+            throw new IllegalStateException("Replicated work not committed, all shards rolled back",
+                    failed.values().iterator().next());
+        }
+        diverged.addAll(failed.keySet());
+        if (!failed.isEmpty()) {
+            PartialCommitException exception = new PartialCommitException(failed.keySet());
+            failed.values().forEach(exception::addSuppressed);
+            throw exception;
+        }
+        diverged.removeAll(prepared.keySet());
+    }
+
+    /**
+     * @return shards which failed to commit replicated work that other shards committed (and didn't commit it on
+     * retry yet)
+     */
+    public Set<Integer> divergedShards() {
+        return ImmutableSet.copyOf(new TreeSet<>(diverged));
+    }
+
+    /**
+     * @return concatenated results of query from all shards
+     */
+    public <T> List<T> scatterGather(Function<EntityManager, List<T>> query) {
+        List<T> merged = new ArrayList<>();
+        scatter(query).forEach(merged::addAll);
+        return merged;
+    }
+
+    /**
+     * @param query has to return results ordered by the same order (null rows are passed to it as well)
+     * @return results of query from all shards merged in order
+     */
+    public <T> List<T> scatterGather(Function<EntityManager, List<T>> query, Comparator<? super T> order) {
+        List<List<T>> partials = scatter(query);
+        PriorityQueue<PeekingCursor<T>> cursors = new PriorityQueue<>(Math.max(1, partials.size()),
+                (first, second) -> order.compare(first.peek(), second.peek()));
+        int size = 0;
+        for (List<T> partial : partials) {
+            size += partial.size();
+            if (!partial.isEmpty()) {
+                cursors.add(new PeekingCursor<>(partial.iterator()));
+            }
+        }
+        List<T> merged = new ArrayList<>(size);
+        while (!cursors.isEmpty()) {
+            PeekingCursor<T> cursor = cursors.poll();
+            merged.add(cursor.next());
+            if (cursor.hasNext()) {
+                cursors.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return partial results of query from all shards reduced with merge function
+     */
+    public <T> T scatterGather(Function<EntityManager, T> query, T identity, BinaryOperator<T> merge) {
+        T result = identity;
+        for (T partial : scatter(query)) {
+            result = merge.apply(result, partial);
+        }
+        return result;
+    }
+
+    /**
+     * Bookstores don't span shards, so groups of every shard are complete.
+     */
+    public List<BookstoreCountAVG> getBookstoresWithCountBooksAndPriceAverage() {
+        return scatterGather(entityManager -> entityManager.createQuery("" +
+                        "SELECT new BookstoreCountAVG(b.bookstore, count(b), avg(b.price)) " +
+                        "FROM Book b " +
+                        "GROUP BY b.bookstore",
+                BookstoreCountAVG.class)
+                .getResultList());
+    }
+
+    /**
+     * Genres span shards, so partial counts are summed.
+     */
+    public Map<WritingGenre, Long> countBooksByGenre() {
+        Map<WritingGenre, Long> counts = new EnumMap<>(WritingGenre.class);
+        for (List<Tuple> partial : scatter(entityManager -> entityManager.createQuery("" +
+                        "SELECT b.genre AS genre, count(b) AS count " +
+                        "FROM Book b " +
+                        "GROUP BY b.genre",
+                Tuple.class)
+                .getResultList())) {
+            for (Tuple row : partial) {
+                counts.merge(row.get("genre", WritingGenre.class), row.get("count", Long.class), Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Average of averages is not an average - partial sums & counts are merged.
+     *
+     * @return empty if there are no books (as avg() in SQL)
+     */
+    public OptionalDouble averageBookPrice() {
+        long[] countAndSum = scatterGather(entityManager -> {
+            Object[] row = entityManager.createQuery("" +
+                            "SELECT count(b), sum(b.price) " +
+                            "FROM Book b",
+                    Object[].class)
+                    .getSingleResult();
+            return new long[]{(Long) row[0], row[1] == null ? 0 : (Long) row[1]};
+        }, new long[2], (first, second) -> new long[]{first[0] + second[0], first[1] + second[1]});
+        return countAndSum[0] == 0
+                ? OptionalDouble.empty()
+                : OptionalDouble.of((double) countAndSum[1] / countAndSum[0]);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        shards.forEach(EntityManagerFactory::close);
+    }
+
+    /**
+     * @return shard -> entity manager with active transaction in which work was run & flushed
+     * @throws IllegalArgumentException if a shard id is unknown (nothing is run)
+     * @throws IllegalStateException    if work failed in any shard (all shards are rolled back)
+     */
+    private Map<Integer, EntityManager> prepare(Set<Integer> shardIds, Consumer<EntityManager> work) {
+        for (Integer shard : shardIds) {
+            Preconditions.checkArgument(shard >= 0 && shard < shards.size(), "Unknown shard %s of %s", shard,
+                    shards.size());
+        }
+        Map<Integer, Future<EntityManager>> futures = new TreeMap<>();
+        Throwable failure = null;
+        for (Integer shard : shardIds) {
+            EntityManagerFactory factory = shards.get(shard);
+            Future<EntityManager> future;
+            try {
+                future = executor.submit(() -> prepare(factory, work));
+            } catch (RuntimeException e) {
+                // e.g. rejected after close - work submitted so far is rolled back below
+                failure = e;
+                break;
+            }
+            futures.put(shard, future);
+        }
+        Map<Integer, EntityManager> prepared = new TreeMap<>();
+        // every submitted shard is waited for, so no entity manager is left open
+        for (Map.Entry<Integer, Future<EntityManager>> future : futures.entrySet()) {
+            try {
+                prepared.put(future.getKey(), Uninterruptibles.getUninterruptibly(future.getValue()));
+            } catch (ExecutionException e) {
+                failure = failure == null ? e.getCause() : failure;
+            }
+        }
+        if (failure != null) {
+            prepared.values().forEach(ShardedCatalog::close);
+            throw new IllegalStateException("Replicated work failed, all shards rolled back", failure);
+        }
+        return prepared;
+    }
+
+    private static EntityManager prepare(EntityManagerFactory shard, Consumer<EntityManager> work) {
+        EntityManager entityManager = shard.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            work.accept(entityManager);
+            entityManager.flush();
+            return entityManager;
+        } catch (RuntimeException | Error e) {
+            close(entityManager);
+            throw e;
+        }
+    }
+
+    private <T> List<T> scatter(Function<EntityManager, T> work) {
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (EntityManagerFactory shard : shards) {
+            futures.add(executor.submit(() -> inTransaction(shard, work)));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new IllegalStateException("Query failed in shard", e.getCause());
+        }
+        return results;
+    }
+
+    private static void close(EntityManager entityManager) {
+        if (entityManager.getTransaction().isActive()) {
+            entityManager.getTransaction().rollback();
+        }
+        entityManager.close();
+    }
+
+    private static <T> T inTransaction(EntityManagerFactory shard, Function<EntityManager, T> work) {
+        EntityManager entityManager = shard.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            T result = work.apply(entityManager);
+            transaction.commit();
+            return result;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Replicated work committed only in some shards.
+     */
+    public static final class PartialCommitException extends IllegalStateException {
+        private final Set<Integer> failedShards;
+
+        PartialCommitException(Set<Integer> failedShards) {
+            super("Replicated work not committed in shards " + failedShards + ", other shards committed it");
+            this.failedShards = ImmutableSet.copyOf(failedShards);
+        }
+
+        public Set<Integer> failedShards() {
+            return failedShards;
+        }
+    }
+
+    /**
+     * Cursor over a non-empty partial result; rows may be null (end of the result is tracked separately).
+     */
+    private static final class PeekingCursor<T> {
+        private final Iterator<T> iterator;
+        private T next;
+        private boolean exhausted;
+
+        PeekingCursor(Iterator<T> iterator) {
+            this.iterator = iterator;
+            this.next = iterator.next();
+        }
+
+        T peek() {
+            return next;
+        }
+
+        boolean hasNext() {
+            return !exhausted;
+        }
+
+        T next() {
+            T current = next;
+            if (iterator.hasNext()) {
+                next = iterator.next();
+            } else {
+                next = null;
+                exhausted = true;
+            }
+            return current;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.stream.Collectors;
+
+/**
+ * {@link JdbcProxy} listener of NewPersistenceUnit (see {@link #properties(Path, long)}) logging statements slower
+ * than {@value #THRESHOLD} (default 100 ms) to a rotating file {@value #FILE} - {@value #FILE_SIZE} bytes (default
+ * 10 MB) per file, {@value #FILES} files (default 5). Entry: time, call site (first frame outside Hibernate & JDK),
+ * JPQL of the query (rendered JPQL of Criteria queries; the SQL comment of {@code hibernate.use_sql_comments}), SQL,
+ * bound parameters & H2 {@code EXPLAIN ANALYZE} plan.
+ * <p>
+ * The statement thread only measures & records parameters; call site is captured for slow statements only. Plans are
+ * captured & entries written by a background thread - {@code EXPLAIN ANALYZE} runs the query again (on another
+ * connection without proxy), so only {@code SELECT}s are explained. At most {@value #MAX_PER_SECOND} (default 10)
+ * entries per second are logged & 16 wait for a plan: a storm of slow queries doesn't load the database with more
+ * queries, slow statements over the limit are only counted (reported by the next entry).
+ */
+public class SlowQueryLog implements JdbcProxy.Listener {
+    public static final String THRESHOLD = "slow_query_log.threshold_ms";
+    public static final String FILE = "slow_query_log.file";
+    public static final String FILE_SIZE = "slow_query_log.file_size";
+    public static final String FILES = "slow_query_log.files";
+    public static final String MAX_PER_SECOND = "slow_query_log.max_per_second";
+
+    private static final int EXPLAIN_TIMEOUT_SECONDS = 10;
+
+    private JdbcProxy proxy;
+    private Set<String> proxyClasses;
+    private long thresholdNanos;
+    private RateLimiter rateLimiter;
+    private FileHandler file;
+    private final AtomicLong suppressed = new AtomicLong();
+    private final ThreadPoolExecutor explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(16),
+            runnable -> {
+                Thread thread = new Thread(runnable, "slow-query-log");
+                thread.setDaemon(true);
+                return thread;
+            },
+            (runnable, executor) -> suppressed.incrementAndGet());
+
+    /**
+     * @param file rotated file pattern of {@link FileHandler}, e.g. {@code logs/slow-queries.%g.log}
+     * @return properties logging statements of persistence unit slower than threshold to file
+     */
+    public static Map<String, Object> properties(Path file, long thresholdMillis) {
+        return ImmutableMap.<String, Object>builder()
+                .putAll(JdbcProxy.properties(SlowQueryLog.class))
+                .put("hibernate.use_sql_comments", "true")
+                .put(FILE, file.toString())
+                .put(THRESHOLD, String.valueOf(thresholdMillis))
+                .build();
+    }
+
+    @Override
+    public void configure(JdbcProxy proxy, Map<?, ?> configurationValues) {
+        this.proxy = proxy;
+        proxyClasses = proxy.listenerClasses().stream().map(Class::getName).collect(Collectors.toSet());
+        proxyClasses.add(JdbcProxy.class.getName());
+        long threshold = Long.parseLong(setting(configurationValues, THRESHOLD, "100"));
+        double maxPerSecond = Double.parseDouble(setting(configurationValues, MAX_PER_SECOND, "10"));
+        Preconditions.checkArgument(threshold >= 0, "%s has to be non-negative: %s", THRESHOLD, threshold);
+        Preconditions.checkArgument(maxPerSecond > 0, "%s has to be positive: %s", MAX_PER_SECOND, maxPerSecond);
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+        rateLimiter = RateLimiter.create(maxPerSecond);
+        try {
+            file = new FileHandler(setting(configurationValues, FILE, "slow-queries.%g.log"),
+                    Integer.parseInt(setting(configurationValues, FILE_SIZE, String.valueOf(10 << 20))),
+                    Integer.parseInt(setting(configurationValues, FILES, "5")),
+                    true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open slow query log", e);
+        }
+        file.setFormatter(new Formatter() {
+            @Override
+            public String format(LogRecord record) {
+                return record.getMessage();
+            }
+        });
+    }
+
+    private static String setting(Map<?, ?> configurationValues, String name, String defaultValue) {
+        Object value = configurationValues.get(name);
+        return value == null ? defaultValue : value.toString();
+    }
+
+    /**
+     * Measures execution; the call site is captured for slow statements only.
+     */
+    @Override
+    public Object execute(JdbcProxy.Execution execution) throws SQLException {
+        long start = System.nanoTime();
+        Object result = execution.proceed();
+        long nanos = System.nanoTime() - start;
+        if (nanos >= thresholdNanos && execution.sql() != null) {
+            Object[] parameters = execution.parameters();
+            for (int i = 0; i < parameters.length; i++) {
+                if (parameters[i] instanceof InputStream || parameters[i] instanceof Reader) {
+                    parameters[i] = "<stream>";
+                }
+            }
+            slow(execution.sql(), parameters, nanos);
+        }
+        return result;
+    }
+
+    /**
+     * Writes pending entries before connections are closed.
+     */
+    @Override
+    public void stop() {
+        explainer.shutdown();
+        try {
+            explainer.awaitTermination(EXPLAIN_TIMEOUT_SECONDS * 2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (file != null) {
+            long notLogged = suppressed.getAndSet(0);
+            if (notLogged > 0) {
+                write("# " + notLogged + " slow statements not logged\n\n");
+            }
+            file.close();
+        }
+    }
+
+    private void slow(String sql, Object[] parameters, long nanos) {
+        if (!rateLimiter.tryAcquire()) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        Instant time = Instant.now();
+        String callSite = callSite(new Throwable().getStackTrace());
+        String thread = Thread.currentThread().getName();
+        explainer.execute(() -> write(entry(time, thread, callSite, sql, parameters, nanos)));
+    }
+
+    private String entry(Instant time, String thread, String callSite, String sql, Object[] parameters, long nanos) {
+        String jpql = null;
+        String statement = sql.trim();
+        if (statement.startsWith("/*") && statement.contains("*/")) {
+            jpql = statement.substring(2, statement.indexOf("*/")).trim();
+            statement = statement.substring(statement.indexOf("*/") + 2).trim();
+        }
+        StringBuilder entry = new StringBuilder(1024)
+                .append("# ").append(time).append(' ')
+                .append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms, thread ").append(thread).append('\n')
+                .append("# at ").append(callSite).append('\n');
+        long notLogged = suppressed.getAndSet(0);
+        if (notLogged > 0) {
+            entry.append("# ").append(notLogged).append(" slow statements not logged before\n");
+        }
+        if (jpql != null) {
+            entry.append("# jpql: ").append(jpql).append('\n');
+        }
+        entry.append("# parameters: ").append(Arrays.deepToString(parameters)).append('\n')
+                .append(statement).append(";\n")
+                .append(explain(statement, parameters)).append("\n\n");
+        return entry.toString();
+    }
+
+    private String explain(String statement, Object[] parameters) {
+        if (!statement.regionMatches(true, 0, "select", 0, "select".length())) {
+            return "-- not explained: not a SELECT";
+        }
+        try {
+            Connection connection = proxy.unproxiedConnection();
+            try (PreparedStatement explain = connection.prepareStatement("EXPLAIN ANALYZE " + statement)) {
+                explain.setQueryTimeout(EXPLAIN_TIMEOUT_SECONDS);
+                for (int i = 0; i < parameters.length; i++) {
+                    explain.setObject(i + 1, parameters[i]);
+                }
+                StringBuilder plan = new StringBuilder("-- EXPLAIN ANALYZE\n");
+                try (ResultSet resultSet = explain.executeQuery()) {
+                    while (resultSet.next()) {
+                        plan.append(resultSet.getString(1));
+                    }
+                }
+                return plan.toString();
+            } finally {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                }
+                proxy.closeUnproxiedConnection(connection);
+            }
+        } catch (SQLException | RuntimeException e) {
+            return "-- not explained: " + e;
+        }
+    }
+
+    private void write(String entry) {
+        file.publish(new LogRecord(Level.INFO, entry));
+        file.flush();
+    }
+
+    /**
+     * @return first frame outside of the proxy & its listeners, Hibernate & JDK
+     */
+    private String callSite(StackTraceElement[] stackTrace) {
+        for (StackTraceElement frame : stackTrace) {
+            String className = frame.getClassName();
+            int nested = className.indexOf('$');
+            if (!proxyClasses.contains(nested < 0 ? className : className.substring(0, nested))
+                    && !className.startsWith("org.hibernate.")
+                    && !className.startsWith("java.")
+                    && !className.startsWith("javax.")
+                    && !className.startsWith("sun.")
+                    && !className.startsWith("com.sun.")) {
+                return frame.toString();
+            }
+        }
+        return "unknown";
+    }
+}
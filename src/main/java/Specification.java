@@ -0,0 +1,20 @@
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+/**
+ * Reusable typed filter of entities, e.g.
+ * {@code (cb, book) -> cb.equal(book.get(Book_.genre), WritingGenre.FANTASY)}.
+ */
+@FunctionalInterface
+public interface Specification<T> {
+    Predicate toPredicate(CriteriaBuilder cb, Root<T> root);
+
+    default Specification<T> and(Specification<T> other) {
+        return (cb, root) -> cb.and(toPredicate(cb, root), other.toPredicate(cb, root));
+    }
+
+    static <T> Specification<T> all() {
+        return (cb, root) -> cb.conjunction();
+    }
+}
@@ -0,0 +1,172 @@
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.criteria.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Case-insensitive substring search over Book.title (LIKE '%fragment%') served by the trigram index
+ * BOOK_TITLE_TRIGRAM instead of scanning all titles:
+ * <pre>
+ * query.where(TitleSearch.titleContains(cb, query, book, TitleSearch.fragment(entityManager, "rings")));
+ * </pre>
+ * {@link #fragment(EntityManager, String)} counts postings of the trigrams of the fragment (capped at
+ * {@value #FREQUENCY_CAP}) in one statement & orders them from the rarest. The predicate is built without touching the
+ * database: candidates are a subquery - postings of the rarest trigram probed by primary key (TRIGRAM, BOOK_ID) for the
+ * other trigrams, so postings of common trigrams are never scanned - verified with LIKE to remove false positives
+ * (trigrams in a different order). Trigrams & the pattern are bound, so the SQL depends only on the number of
+ * trigrams. The order of trigrams affects only the speed: a query executed later or reused still returns current
+ * results. Fragments shorter than 3 characters have no trigrams, so they fall back to plain LIKE.
+ * <p>
+ * Titles & fragments are folded by {@link #fold(String)} everywhere - in the trigger, the backfill
+ * (V11__Title_fold.sql, alias TITLE_FOLD) & the LIKE - so the index doesn't depend on the default locale.
+ */
+public final class TitleSearch {
+    static final int FREQUENCY_CAP = 100;
+    private static final int N = 3;
+
+    private TitleSearch() {
+    }
+
+    /**
+     * @return fragment with its trigrams from the rarest (postings are counted by one statement, none for fragments
+     * shorter than 3 characters)
+     */
+    public static Fragment fragment(EntityManager entityManager, String text) {
+        Set<String> trigrams = trigrams(text);
+        return new Fragment(text, trigrams.isEmpty() ? ImmutableList.of() : rarestFirst(entityManager, trigrams));
+    }
+
+    /**
+     * @return predicate: title of book contains fragment (ignoring case); doesn't access the database
+     */
+    public static Predicate titleContains(CriteriaBuilder cb, AbstractQuery<?> query, Path<Book> book,
+                                         Fragment fragment) {
+        Predicate like = cb.like(cb.function("TITLE_FOLD", String.class, book.get(Book_.title)),
+                "%" + escape(fold(fragment.text)) + "%", '\\');
+        if (fragment.trigrams.isEmpty()) {
+            return like;
+        }
+
+        Subquery<Integer> candidates = query.subquery(Integer.class);
+        Root<BookTitleTrigram> rarest = candidates.from(BookTitleTrigram.class);
+        List<Predicate> all = new ArrayList<>();
+        all.add(cb.equal(rarest.get(BookTitleTrigram_.trigram), fragment.trigrams.get(0)));
+        for (String trigram : fragment.trigrams.subList(1, fragment.trigrams.size())) {
+            Subquery<Integer> posting = candidates.subquery(Integer.class);
+            Root<BookTitleTrigram> other = posting.from(BookTitleTrigram.class);
+            posting.select(other.get(BookTitleTrigram_.bookId))
+                    .where(cb.equal(other.get(BookTitleTrigram_.trigram), trigram),
+                            cb.equal(other.get(BookTitleTrigram_.bookId), rarest.get(BookTitleTrigram_.bookId)));
+            all.add(cb.exists(posting));
+        }
+        candidates.select(rarest.get(BookTitleTrigram_.bookId))
+                .where(all.toArray(new Predicate[0]));
+
+        return cb.and(book.get(Book_.id).in(candidates), like);
+    }
+
+    /**
+     * @return ids of books which title contains fragment (ignoring case), ordered by id
+     */
+    public static List<Integer> findBookIds(EntityManager entityManager, String fragment) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Integer> query = cb.createQuery(Integer.class);
+        Root<Book> book = query.from(Book.class);
+
+        query.select(book.get(Book_.id))
+                .where(titleContains(cb, query, book, fragment(entityManager, fragment)))
+                .orderBy(cb.asc(book.get(Book_.id)));
+
+        return entityManager.createQuery(query).getResultList();
+    }
+
+    /**
+     * Case folding of titles & fragments, also the H2 alias TITLE_FOLD.
+     */
+    public static String fold(String text) {
+        return text == null ? null : text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return distinct trigrams of folded text (empty if text is shorter than 3 characters)
+     */
+    static Set<String> trigrams(String text) {
+        String folded = fold(text);
+        ImmutableSet.Builder<String> trigrams = ImmutableSet.builder();
+        for (int i = 0; i + N <= folded.length(); i++) {
+            trigrams.add(folded.substring(i, i + N));
+        }
+        return trigrams.build();
+    }
+
+    /**
+     * Counts postings of every trigram up to {@value #FREQUENCY_CAP} in one statement.
+     *
+     * @return trigrams from the rarest
+     */
+    private static List<String> rarestFirst(EntityManager entityManager, Set<String> trigrams) {
+        List<String> ordered = new ArrayList<>(trigrams);
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < ordered.size(); i++) {
+            if (i > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append("SELECT ").append(i).append(", COUNT(*) FROM (SELECT 1 FROM BOOK_TITLE_TRIGRAM WHERE TRIGRAM = ?")
+                    .append(i + 1).append(" LIMIT ").append(FREQUENCY_CAP).append(")");
+        }
+        Query counts = entityManager.createNativeQuery(sql.toString());
+        for (int i = 0; i < ordered.size(); i++) {
+            counts.setParameter(i + 1, ordered.get(i));
+        }
+        Map<String, Long> postings = new HashMap<>();
+        for (Object row : counts.getResultList()) {
+            Object[] columns = (Object[]) row;
+            postings.put(ordered.get(((Number) columns[0]).intValue()), ((Number) columns[1]).longValue());
+        }
+        ordered.sort(Comparator.comparing(postings::get));
+        return ordered;
+    }
+
+    private static String escape(String fragment) {
+        return fragment.replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+    }
+
+    /**
+     * Fragment of a title searched by {@link #titleContains(CriteriaBuilder, AbstractQuery, Path, Fragment)}.
+     */
+    public static final class Fragment {
+        private final String text;
+        private final List<String> trigrams;
+
+        private Fragment(String text, List<String> trigrams) {
+            this.text = text;
+            this.trigrams = ImmutableList.copyOf(trigrams);
+        }
+
+        /**
+         * @return trigrams from the rarest (when the fragment was created)
+         */
+        public List<String> trigrams() {
+            return trigrams;
+        }
+
+        @Override
+        public String toString() {
+            return "Fragment{" +
+                    "text='" + text + '\'' +
+                    ", trigrams=" + trigrams +
+                    '}';
+        }
+    }
+}
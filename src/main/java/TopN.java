@@ -0,0 +1,116 @@
+import com.google.common.base.Preconditions;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.SingularAttribute;
+import java.util.List;
+
+/**
+ * Top-N (per group) query: entities ranked by {@code RANK() OVER (PARTITION BY group ORDER BY order DESC) <= n}
+ * (ties share a rank), defined by metamodel attributes, e.g. 3 most expensive books of every bookstore:
+ * <pre>
+ * TopN.perGroup(Book.class, Book_.bookstore, Book_.price, 3).getResultList(entityManager)
+ * </pre>
+ * H2 1.4.197 has no window functions, the rank is rendered as a threshold: row is in top-N iff its order value is
+ * at least the n-th highest order value of its group. Thresholds are computed once per group (not per row as by
+ * correlated {@code MAX} / {@code COUNT} subqueries), then rows above them are joined:
+ * <pre>
+ * SELECT t.* FROM (SELECT x.GROUP, (n-th highest ORDER of x.GROUP) THRESHOLD FROM (SELECT DISTINCT GROUP ...) x) r
+ * LEFT JOIN T t ON t.GROUP = r.GROUP AND t.ORDER &gt;= r.THRESHOLD
+ * </pre>
+ * ({@code LEFT JOIN}: H2 keeps the order of tables - thresholds first; every group has a matching row). The index
+ * of the order column (V9__Book_price_index.sql) reads only rows above the threshold. Rows with null group or
+ * order value are not ranked.
+ * <p>
+ * No (group, order) indexes: H2 groups {@code GROUP BY group} queries by such index with a row lookup per entry
+ * (countBooksByGenre 3x slower by {@code mvn -Pregression test}).
+ */
+public final class TopN<T> {
+    private final Class<T> entity;
+    private final SingularAttribute<? super T, ?> group;
+    private final SingularAttribute<? super T, ?> order;
+    private final int n;
+    private volatile String sql;
+
+    private TopN(Class<T> entity, SingularAttribute<? super T, ?> group, SingularAttribute<? super T, ?> order, int n) {
+        Preconditions.checkArgument(n > 0, "n has to be positive: %s", n);
+        this.entity = entity;
+        this.group = group;
+        this.order = order;
+        this.n = n;
+    }
+
+    /**
+     * @return entities with n highest values of order (with ties)
+     */
+    public static <T> TopN<T> overall(Class<T> entity, SingularAttribute<? super T, ?> order, int n) {
+        return new TopN<>(entity, null, order, n);
+    }
+
+    /**
+     * @return entities with n highest values of order in every group (with ties)
+     */
+    public static <T> TopN<T> perGroup(Class<T> entity, SingularAttribute<? super T, ?> group,
+                                       SingularAttribute<? super T, ?> order, int n) {
+        return new TopN<>(entity, group, order, n);
+    }
+
+    /**
+     * @return ranked entities ordered by group, order (descending) & id
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getResultList(EntityManager entityManager) {
+        return entityManager.createNativeQuery(sql(entityManager), entity).getResultList();
+    }
+
+    String sql(EntityManager entityManager) {
+        if (sql == null) {
+            sql = render((AbstractEntityPersister) entityManager.getEntityManagerFactory()
+                    .unwrap(SessionFactoryImplementor.class)
+                    .getMetamodel()
+                    .entityPersister(entity));
+        }
+        return sql;
+    }
+
+    private String render(AbstractEntityPersister persister) {
+        String table = persister.getTableName();
+        String orderColumn = column(persister, order);
+        String id = persister.getIdentifierColumnNames()[0];
+        if (group == null) {
+            // uncorrelated: evaluated once, the threshold is an index condition of the outer query
+            return "" +
+                    "SELECT t.* FROM " + table + " t " +
+                    "WHERE t." + orderColumn + " >= (" +
+                    "SELECT MIN(" + orderColumn + ") FROM (" +
+                    "SELECT g." + orderColumn + " FROM " + table + " g " +
+                    "WHERE g." + orderColumn + " IS NOT NULL " +
+                    "ORDER BY g." + orderColumn + " DESC LIMIT " + n + ")) " +
+                    "ORDER BY t." + orderColumn + " DESC, t." + id;
+        }
+        String groupColumn = column(persister, group);
+        // n-th highest or the lowest value if the group has less than n rows
+        String threshold = "" +
+                "COALESCE((" +
+                "SELECT g." + orderColumn + " FROM " + table + " g " +
+                "WHERE g." + groupColumn + " = x." + groupColumn + " AND g." + orderColumn + " IS NOT NULL " +
+                "ORDER BY g." + groupColumn + ", g." + orderColumn + " DESC LIMIT 1 OFFSET " + (n - 1) + "), (" +
+                "SELECT MIN(g." + orderColumn + ") FROM " + table + " g " +
+                "WHERE g." + groupColumn + " = x." + groupColumn + "))";
+        return "" +
+                "SELECT t.* FROM (" +
+                "SELECT x." + groupColumn + ", " + threshold + " THRESHOLD FROM (" +
+                "SELECT DISTINCT " + groupColumn + " FROM " + table + " " +
+                "WHERE " + groupColumn + " IS NOT NULL AND " + orderColumn + " IS NOT NULL) x) r " +
+                "LEFT JOIN " + table + " t " +
+                "ON t." + groupColumn + " = r." + groupColumn + " AND t." + orderColumn + " >= r.THRESHOLD " +
+                "ORDER BY t." + groupColumn + ", t." + orderColumn + " DESC, t." + id;
+    }
+
+    private static String column(AbstractEntityPersister persister, SingularAttribute<?, ?> attribute) {
+        String[] columns = persister.getPropertyColumnNames(attribute.getName());
+        Preconditions.checkArgument(columns.length == 1, "Not a single column attribute: %s", attribute.getName());
+        return columns[0];
+    }
+}
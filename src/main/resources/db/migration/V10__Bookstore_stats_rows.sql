@@ -0,0 +1,7 @@
+INSERT INTO BOOKSTORE_STATS (BOOKSTORE_ID, BOOK_COUNT, PRICE_SUM, MIN_PRICE, MAX_PRICE)
+SELECT ID, 0, 0, NULL, NULL
+FROM BOOKSTORE
+WHERE ID NOT IN (SELECT BOOKSTORE_ID FROM BOOKSTORE_STATS);
+
+create trigger BOOKSTORE_STATS_ROW after insert on BOOKSTORE
+for each row call "BookstoreStatsTrigger";
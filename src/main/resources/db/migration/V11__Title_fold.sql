@@ -0,0 +1,8 @@
+create alias TITLE_FOLD deterministic for "TitleSearch.fold";
+
+DELETE FROM BOOK_TITLE_TRIGRAM;
+
+INSERT INTO BOOK_TITLE_TRIGRAM (TRIGRAM, BOOK_ID)
+SELECT DISTINCT SUBSTRING(TITLE_FOLD(b.TITLE), r.X, 3), b.ID
+FROM BOOK b, SYSTEM_RANGE(1, 200) r
+WHERE r.X <= LENGTH(TITLE_FOLD(b.TITLE)) - 2;
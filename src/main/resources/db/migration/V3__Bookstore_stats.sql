@@ -0,0 +1,31 @@
+create table BOOKSTORE_STATS (
+    BOOKSTORE_ID int primary key,
+    foreign key (BOOKSTORE_ID) references BOOKSTORE(ID) on delete cascade,
+    BOOK_COUNT bigint not null,
+    PRICE_SUM bigint not null,
+    MIN_PRICE int,
+    MAX_PRICE int,
+);
+
+create table BOOKSTORE_GENRE_STATS (
+    BOOKSTORE_ID int not null,
+    foreign key (BOOKSTORE_ID) references BOOKSTORE(ID) on delete cascade,
+    GENRE varchar(100) not null,
+    BOOK_COUNT bigint not null,
+    primary key (BOOKSTORE_ID, GENRE),
+);
+
+INSERT INTO BOOKSTORE_STATS (BOOKSTORE_ID, BOOK_COUNT, PRICE_SUM, MIN_PRICE, MAX_PRICE)
+SELECT BOOKSTORE_ID, count(*), sum(PRICE), min(PRICE), max(PRICE)
+FROM BOOK
+WHERE BOOKSTORE_ID IS NOT NULL
+GROUP BY BOOKSTORE_ID;
+
+INSERT INTO BOOKSTORE_GENRE_STATS (BOOKSTORE_ID, GENRE, BOOK_COUNT)
+SELECT BOOKSTORE_ID, GENRE, count(*)
+FROM BOOK
+WHERE BOOKSTORE_ID IS NOT NULL
+GROUP BY BOOKSTORE_ID, GENRE;
+
+create trigger BOOKSTORE_STATS_MAINTENANCE after insert, update, delete on BOOK
+for each row call "BookstoreStatsTrigger";
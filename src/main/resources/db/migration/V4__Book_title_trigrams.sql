@@ -0,0 +1,15 @@
+create table BOOK_TITLE_TRIGRAM (
+    TRIGRAM varchar(3) not null,
+    BOOK_ID int not null,
+    primary key (TRIGRAM, BOOK_ID),
+);
+
+create index BOOK_TITLE_TRIGRAM_BOOK on BOOK_TITLE_TRIGRAM(BOOK_ID);
+
+INSERT INTO BOOK_TITLE_TRIGRAM (TRIGRAM, BOOK_ID)
+SELECT DISTINCT SUBSTRING(LOWER(b.TITLE), r.X, 3), b.ID
+FROM BOOK b, SYSTEM_RANGE(1, 100) r
+WHERE r.X <= LENGTH(b.TITLE) - 2;
+
+create trigger BOOK_TITLE_TRIGRAM_MAINTENANCE after insert, update, delete on BOOK
+for each row call "BookTitleTrigramTrigger";
@@ -0,0 +1 @@
+alter table BOOK_AUTHOR add primary key (BOOKS_ID, AUTHORS_ID);
@@ -0,0 +1,6 @@
+alter table BOOK add column VERSION int default 0 not null;
+alter table BOOKSTORE add column VERSION int default 0 not null;
+alter table ADDRESS add column VERSION int default 0 not null;
+alter table AUTHOR add column VERSION int default 0 not null;
+alter table Announcement add column version int default 0 not null;
+alter table Entitlement add column version int default 0 not null;
@@ -0,0 +1,6 @@
+create table IMPORT_PROGRESS (
+    FEED varchar(255) not null,
+    FIRST_RECORD bigint not null,
+    RECORDS int not null,
+    primary key (FEED, FIRST_RECORD)
+);
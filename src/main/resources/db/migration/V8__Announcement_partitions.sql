@@ -0,0 +1,28 @@
+create table ANNOUNCEMENT_DEFAULT (
+    STATEREF int primary key,
+    A_ID int not null,
+    TITLE varchar(50),
+    DIVIDEND int not null,
+    CREATEDON TIMESTAMP WITH TIME ZONE,
+    VERSION int default 0 not null,
+);
+
+INSERT INTO ANNOUNCEMENT_DEFAULT (STATEREF, A_ID, TITLE, DIVIDEND, CREATEDON, VERSION)
+SELECT stateRef, a_id, title, dividend, createdOn, version
+FROM Announcement;
+
+create sequence ANNOUNCEMENT_STATE_REF;
+alter sequence ANNOUNCEMENT_STATE_REF restart with (SELECT COALESCE(MAX(stateRef), 0) + 1 FROM Announcement);
+
+drop table Announcement;
+
+create view Announcement as
+SELECT * FROM ANNOUNCEMENT_DEFAULT;
+
+create trigger ANNOUNCEMENT_ROUTING instead of insert, update, delete on Announcement
+for each row call "AnnouncementPartitionTrigger";
+
+-- a bucket of every month having announcements (replaces the view)
+create alias ANNOUNCEMENT_BUCKET_DEFAULT for "AnnouncementPartitions.bucketDefault";
+call ANNOUNCEMENT_BUCKET_DEFAULT();
+drop alias ANNOUNCEMENT_BUCKET_DEFAULT;
@@ -0,0 +1 @@
+create index BOOK_PRICE on BOOK(PRICE desc);
@@ -0,0 +1,113 @@
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.sql.PreparedStatement;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 24 months of announcements (20k per month): announcements of one day by the view Announcement vs
+ * {@link AnnouncementPartitions#getResultList} (only the bucket of the day & the default one); retention of 12 months by
+ * {@code DELETE} vs dropping buckets.
+ */
+public class AnnouncementPartitionsBenchmark {
+    private static final YearMonth FIRST = YearMonth.of(2018, 1);
+    private static final int MONTHS = 24;
+    private static final int PER_MONTH = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = DatabaseSnapshot.seed().entityManagerFactory("AnnouncementPartitionsBenchmark");
+        AnnouncementPartitions partitions = new AnnouncementPartitions(emf);
+        BenchmarkRunner runner = new BenchmarkRunner(5, 20);
+        fill(emf, partitions);
+        AtomicInteger days = new AtomicInteger();
+
+        runner.measure("view, one day", () -> {
+            OffsetDateTime from = day(days.incrementAndGet());
+            EntityManager entityManager = emf.createEntityManager();
+            try {
+                return entityManager.createQuery(query(emf, from, from.plusDays(1))).getResultList();
+            } finally {
+                entityManager.close();
+            }
+        });
+        runner.measure("routed, one day", () -> {
+            OffsetDateTime from = day(days.incrementAndGet());
+            CriteriaQuery<Announcement> cc_query = emf.getCriteriaBuilder().createQuery(Announcement.class);
+            cc_query.from(Announcement.class);
+            EntityManager entityManager = emf.createEntityManager();
+            entityManager.getTransaction().begin();
+            try {
+                return partitions.getResultList(entityManager, cc_query, from, from.plusDays(1));
+            } finally {
+                entityManager.getTransaction().rollback();
+                entityManager.close();
+            }
+        });
+
+        long start = System.nanoTime();
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        int deleted = entityManager.createNativeQuery("DELETE FROM ANNOUNCEMENT_201801 WHERE 1 = 1").executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        System.out.println(String.format("DELETE of one month: %d rows, %d ms", deleted, (System.nanoTime() - start) / 1_000_000));
+
+        start = System.nanoTime();
+        int dropped = partitions.dropBucketsBefore(FIRST.plusMonths(MONTHS / 2));
+        System.out.println(String.format("drop of buckets: %d months, %d ms", dropped, (System.nanoTime() - start) / 1_000_000));
+
+        emf.close();
+    }
+
+    private static CriteriaQuery<Announcement> query(EntityManagerFactory emf, OffsetDateTime from, OffsetDateTime to) {
+        CriteriaBuilder cb = emf.getCriteriaBuilder();
+        CriteriaQuery<Announcement> cc_query = cb.createQuery(Announcement.class);
+        Root<Announcement> cc_a_root = cc_query.from(Announcement.class);
+        return cc_query.where(
+                cb.greaterThanOrEqualTo(cc_a_root.get(Announcement_.createdOn), from),
+                cb.lessThan(cc_a_root.get(Announcement_.createdOn), to));
+    }
+
+    /**
+     * @return a day of the generated months, different for subsequent calls (H2 reuses results of equal queries)
+     */
+    private static OffsetDateTime day(int call) {
+        return FIRST.atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC).plusDays(call % (MONTHS * 28));
+    }
+
+    private static void fill(EntityManagerFactory emf, AnnouncementPartitions partitions) {
+        partitions.createBuckets(FIRST, FIRST.plusMonths(MONTHS - 1));
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            int stateRef = 1000;
+            for (int month = 0; month < MONTHS; month++) {
+                YearMonth bucket = FIRST.plusMonths(month);
+                OffsetDateTime start = bucket.atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC);
+                long seconds = bucket.lengthOfMonth() * 24L * 3600;
+                try (PreparedStatement insert = connection.prepareStatement("" +
+                        "INSERT INTO " + AnnouncementPartitions.bucket(bucket) +
+                        " (STATEREF, A_ID, TITLE, DIVIDEND, CREATEDON) VALUES (?, ?, 'CashDividend', ?, ?)")) {
+                    for (int i = 0; i < PER_MONTH; i++) {
+                        stateRef++;
+                        insert.setInt(1, stateRef);
+                        insert.setInt(2, stateRef);
+                        insert.setInt(3, i % 100);
+                        insert.setObject(4, start.plusSeconds(seconds * i / PER_MONTH));
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                }
+            }
+        });
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+}
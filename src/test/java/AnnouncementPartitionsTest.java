@@ -0,0 +1,307 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Every test works on a fresh database; seed has announcements of 2019-05 (a_id 2) & 2019-06 (a_id 1).
+ */
+class AnnouncementPartitionsTest {
+
+    private EntityManagerFactory emf;
+    private AnnouncementPartitions partitions;
+
+    @BeforeEach
+    void open() {
+        emf = DatabaseSnapshot.seed().entityManagerFactory("AnnouncementPartitionsTest");
+        partitions = new AnnouncementPartitions(emf);
+    }
+
+    @AfterEach
+    void close() {
+        emf.close();
+    }
+
+    @Test
+    void seedIsBucketedByMonth() {
+        assertThat(partitions.buckets()).containsExactly(YearMonth.of(2019, 5), YearMonth.of(2019, 6));
+        assertThat(countIn("ANNOUNCEMENT_201905")).isEqualTo(1);
+        assertThat(countIn("ANNOUNCEMENT_201906")).isEqualTo(1);
+        assertThat(countIn("ANNOUNCEMENT_DEFAULT")).isZero();
+        assertThat(aIds()).containsExactly(1, 2);
+    }
+
+    @Test
+    void routing() {
+        String june = " WHERE CREATEDON >= @ANNOUNCEMENT_FROM AND CREATEDON < @ANNOUNCEMENT_TO";
+        assertThat(partitions.tables(date("2019-06-01T00:00:00Z"), date("2019-06-02T00:00:00+02:00")))
+                .isEqualTo("(SELECT * FROM ANNOUNCEMENT_201906" + june +
+                        " UNION ALL SELECT * FROM ANNOUNCEMENT_DEFAULT" + june + ")");
+        assertThat(partitions.tables(date("2019-05-20T00:00:00Z"), date("2019-07-01T00:00:00Z")))
+                .startsWith("(SELECT * FROM ANNOUNCEMENT_201905 WHERE ")
+                .contains(" UNION ALL SELECT * FROM ANNOUNCEMENT_201906 WHERE ")
+                .contains(" UNION ALL SELECT * FROM ANNOUNCEMENT_DEFAULT WHERE ")
+                .doesNotContain("ANNOUNCEMENT_201907");
+        assertThat(partitions.tables(date("2019-06-30T00:00:00Z"), date("2019-07-02T00:00:00Z")))
+                .contains("ANNOUNCEMENT_201906")
+                .contains("ANNOUNCEMENT_DEFAULT");
+        assertThat(AnnouncementPartitions.route("" +
+                        "select announceme0_.stateRef from Announcement announceme0_ " +
+                        "where exists (select 1 from Entitlement e where e.announcementId = announceme0_.a_id)",
+                "ANNOUNCEMENT_201906"))
+                .isEqualTo("" +
+                        "select announceme0_.stateRef from ANNOUNCEMENT_201906 announceme0_ " +
+                        "where exists (select 1 from Entitlement e where e.announcementId = announceme0_.a_id)");
+    }
+
+    @Test
+    void routedQueryEqualsQueryOfView() {
+        EntityManager entityManager = emf.createEntityManager();
+        List<Announcement> expected = entityManager.createQuery("" +
+                        "SELECT a " +
+                        "FROM Announcement a " +
+                        "WHERE (YEAR(a.createdOn)=2019) AND (MONTH(a.createdOn)=6) AND (DAY(a.createdOn)=1) AND " +
+                        "2 = (SELECT COUNT(e.e_id) FROM Entitlement e where e.announcementId = a.a_id)",
+                Announcement.class)
+                .getResultList();
+        entityManager.close();
+
+        CriteriaBuilder cb = emf.getCriteriaBuilder();
+        CriteriaQuery<Announcement> cc_query = cb.createQuery(Announcement.class);
+        Root<Announcement> cc_a_root = cc_query.from(Announcement.class);
+        Subquery<Long> cc_cnt_sq = cc_query.subquery(Long.class);
+        Root<Entitlement> cc_cnt_sq_root = cc_cnt_sq.from(Entitlement.class);
+        cc_cnt_sq.select(cb.count(cc_cnt_sq_root.get(Entitlement_.e_id)))
+                .where(cb.equal(cc_cnt_sq_root.get(Entitlement_.announcementId), cc_a_root.get(Announcement_.a_id)));
+        cc_query.select(cc_a_root).where(cb.equal(cc_cnt_sq, 2));
+
+        entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        List<Announcement> routed = partitions.getResultList(entityManager, cc_query,
+                date("2019-06-01T00:00:00Z"), date("2019-06-02T00:00:00Z"));
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        assertThat(expected).isNotEmpty();
+        assertThat(routed).isEqualTo(expected);
+        assertThat(aIds()).containsExactly(1, 2);
+    }
+
+    @Test
+    void routingIsChainedWithInspectorOfTest() {
+        SqlStatements statements = new SqlStatements();
+        EntityManagerFactory recorded = DatabaseSnapshot.seed()
+                .entityManagerFactory("AnnouncementPartitionsTest_chained", statements.properties());
+        CriteriaQuery<Announcement> cc_query = recorded.getCriteriaBuilder().createQuery(Announcement.class);
+        cc_query.from(Announcement.class);
+        EntityManager entityManager = recorded.createEntityManager();
+        entityManager.getTransaction().begin();
+
+        List<Announcement> june = new AnnouncementPartitions(recorded).getResultList(entityManager, cc_query,
+                date("2019-06-01T00:00:00Z"), date("2019-07-01T00:00:00Z"));
+
+        assertThat(june).extracting(Announcement::getA_id).containsExactly(1);
+        assertThat(statements.statements("select")).hasSize(1).allMatch(sql -> sql.contains("ANNOUNCEMENT_201906"));
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        recorded.close();
+    }
+
+    @Test
+    void bucketsAreCachedUntilRefreshed() {
+        assertThat(partitions.buckets()).containsExactly(YearMonth.of(2019, 5), YearMonth.of(2019, 6));
+        assertThat(new AnnouncementPartitions(emf).createBuckets(YearMonth.of(2019, 7), YearMonth.of(2019, 7)))
+                .isEqualTo(1);
+
+        assertThat(partitions.buckets()).containsExactly(YearMonth.of(2019, 5), YearMonth.of(2019, 6));
+        assertThat(partitions.refreshBuckets())
+                .containsExactly(YearMonth.of(2019, 5), YearMonth.of(2019, 6), YearMonth.of(2019, 7));
+
+        assertThat(partitions.createBuckets(YearMonth.of(2019, 8), YearMonth.of(2019, 8))).isEqualTo(1);
+        assertThat(partitions.buckets()).endsWith(YearMonth.of(2019, 7), YearMonth.of(2019, 8));
+    }
+
+    @Test
+    void rangeSpanningBuckets() {
+        CriteriaQuery<Announcement> cc_query = emf.getCriteriaBuilder().createQuery(Announcement.class);
+        cc_query.from(Announcement.class);
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+
+        List<Announcement> mayAndJune = partitions.getResultList(entityManager, cc_query,
+                date("2019-05-01T00:00:00Z"), date("2019-07-01T00:00:00Z"));
+        List<Announcement> june = partitions.getResultList(entityManager, cc_query,
+                date("2019-06-01T00:00:00Z"), date("2019-07-01T00:00:00Z"));
+
+        assertThat(mayAndJune).extracting(Announcement::getA_id).containsExactlyInAnyOrder(1, 2);
+        assertThat(june).extracting(Announcement::getA_id).containsExactly(1);
+        assertThat(cc_query.getRestriction()).isNull();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    @Test
+    void rangeIsBoundInTransactionOnly() {
+        CriteriaQuery<Announcement> cc_query = emf.getCriteriaBuilder().createQuery(Announcement.class);
+        cc_query.from(Announcement.class);
+        EntityManager entityManager = emf.createEntityManager();
+
+        assertThatThrownBy(() -> partitions.getResultList(entityManager, cc_query,
+                date("2019-06-01T00:00:00Z"), date("2019-07-01T00:00:00Z")))
+                .isInstanceOf(IllegalStateException.class);
+
+        entityManager.getTransaction().begin();
+        assertThat(partitions.getResultList(entityManager, cc_query,
+                date("2019-06-01T00:00:00Z"), date("2019-07-01T00:00:00Z"))).hasSize(1);
+        assertThat(entityManager.createNativeQuery("SELECT @ANNOUNCEMENT_FROM IS NULL AND @ANNOUNCEMENT_TO IS NULL")
+                .getSingleResult()).isEqualTo(true);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    @Test
+    void resultsAreManagedByCallersEntityManager() {
+        CriteriaQuery<Announcement> cc_query = emf.getCriteriaBuilder().createQuery(Announcement.class);
+        cc_query.from(Announcement.class);
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+
+        List<Announcement> june = partitions.getResultList(entityManager, cc_query,
+                date("2019-06-01T00:00:00Z"), date("2019-07-01T00:00:00Z"));
+
+        assertThat(june).hasSize(1).allMatch(entityManager::contains);
+        assertThat(june.get(0).getEntitlements()).isNotEmpty();
+        assertThat(entityManager.createQuery("SELECT COUNT(a) FROM Announcement a", Long.class).getSingleResult())
+                .isEqualTo(2);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    @Test
+    void rowsLeftInDefaultAreReadUpdatedAndMoved() {
+        inTransaction(entityManager -> entityManager.createNativeQuery("" +
+                "INSERT INTO ANNOUNCEMENT_DEFAULT (STATEREF, A_ID, TITLE, DIVIDEND, CREATEDON) " +
+                "VALUES (100, 3, 'CashDividend', 9, '2019-06-10T00:00:00+00')")
+                .executeUpdate());
+        CriteriaQuery<Announcement> cc_query = emf.getCriteriaBuilder().createQuery(Announcement.class);
+        cc_query.from(Announcement.class);
+        inTransaction(entityManager -> assertThat(partitions.getResultList(entityManager, cc_query,
+                date("2019-06-01T00:00:00Z"), date("2019-07-01T00:00:00Z")))
+                .extracting(Announcement::getA_id).containsExactlyInAnyOrder(1, 3));
+
+        inTransaction(entityManager -> entityManager.find(Announcement.class, 100).setDividend(3));
+        assertThat(countIn("ANNOUNCEMENT_DEFAULT WHERE DIVIDEND = 3")).isEqualTo(1);
+
+        assertThat(partitions.createBuckets(YearMonth.of(2019, 6), YearMonth.of(2019, 6))).isZero();
+        assertThat(countIn("ANNOUNCEMENT_DEFAULT")).isZero();
+        assertThat(countIn("ANNOUNCEMENT_201906 WHERE DIVIDEND = 3")).isEqualTo(1);
+        assertThat(aIds()).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void writesAreRoutedToBuckets() {
+        inTransaction(entityManager -> {
+            Announcement announcement = new Announcement();
+            announcement.setStateRef(100);
+            announcement.setTitle("CashDividend");
+            announcement.setCreatedOn(date("2019-06-15T12:00:00+02:00"));
+            entityManager.persist(announcement);
+        });
+        assertThat(countIn("ANNOUNCEMENT_201906")).isEqualTo(2);
+
+        inTransaction(entityManager -> entityManager.find(Announcement.class, 100)
+                .setCreatedOn(date("2019-06-30T23:30:00-01:00")));
+        assertThat(countIn("ANNOUNCEMENT_201906")).isEqualTo(1);
+        assertThat(countIn("ANNOUNCEMENT_DEFAULT")).isEqualTo(1);
+
+        inTransaction(entityManager -> entityManager.find(Announcement.class, 100).setDividend(3));
+        inTransaction(entityManager -> {
+            Announcement announcement = entityManager.find(Announcement.class, 100);
+            assertThat(announcement.getDividend()).isEqualTo(3);
+            assertThat(announcement.getVersion()).isEqualTo(2);
+            entityManager.remove(announcement);
+        });
+        assertThat(countIn("ANNOUNCEMENT_DEFAULT")).isZero();
+        assertThat(aIds()).containsExactly(1, 2);
+    }
+
+    @Test
+    void createdBucketTakesOverRowsOfDefault() {
+        inTransaction(entityManager -> entityManager.createNativeQuery("" +
+                "INSERT INTO Announcement (a_id, title, dividend, createdOn) " +
+                "VALUES (3, 'CashDividend', 9, '2019-07-10T00:00:00+00')")
+                .executeUpdate());
+        assertThat(countIn("ANNOUNCEMENT_DEFAULT")).isEqualTo(1);
+
+        assertThat(partitions.createBuckets(YearMonth.of(2019, 6), YearMonth.of(2019, 8))).isEqualTo(2);
+        inTransaction(entityManager -> entityManager.createNativeQuery("" +
+                "INSERT INTO Announcement (a_id, title, dividend, createdOn) " +
+                "VALUES (4, 'CashDividend', 9, '2019-08-10T00:00:00+00')")
+                .executeUpdate());
+
+        assertThat(partitions.buckets()).containsExactly(
+                YearMonth.of(2019, 5), YearMonth.of(2019, 6), YearMonth.of(2019, 7), YearMonth.of(2019, 8));
+        assertThat(countIn("ANNOUNCEMENT_DEFAULT")).isZero();
+        assertThat(countIn("ANNOUNCEMENT_201907")).isEqualTo(1);
+        assertThat(countIn("ANNOUNCEMENT_201908")).isEqualTo(1);
+        assertThat(aIds()).containsExactly(1, 2, 3, 4);
+        inTransaction(entityManager -> assertThat(entityManager.createQuery(
+                "SELECT a.stateRef FROM Announcement a WHERE a.a_id IN (3, 4) ORDER BY a.stateRef", Integer.class)
+                .getResultList()).containsExactly(3, 4));
+    }
+
+    @Test
+    void retentionDropsWholeBuckets() {
+        assertThat(partitions.dropBucketsBefore(YearMonth.of(2019, 6))).isEqualTo(1);
+        assertThat(partitions.dropBucketsBefore(YearMonth.of(2019, 6))).isZero();
+
+        assertThat(partitions.buckets()).containsExactly(YearMonth.of(2019, 6));
+        assertThat(aIds()).containsExactly(1);
+        assertThat(countIn("INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'ANNOUNCEMENT_201905'")).isZero();
+    }
+
+    private List<Integer> aIds() {
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            return entityManager.createQuery("SELECT a.a_id FROM Announcement a ORDER BY a.a_id", Integer.class)
+                    .getResultList();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private long countIn(String from) {
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            return ((Number) entityManager.createNativeQuery("SELECT COUNT(*) FROM " + from).getSingleResult())
+                    .longValue();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private static OffsetDateTime date(String text) {
+        return OffsetDateTime.parse(text);
+    }
+
+    private void inTransaction(Consumer<EntityManager> work) {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        work.accept(entityManager);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+}
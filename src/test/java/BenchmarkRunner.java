@@ -0,0 +1,66 @@
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * Minimal harness for benchmarks run with {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=...}
+ * (JMH can't generate benchmarks for classes in the default package).
+ * <p>
+ * Every operation is measured separately: median & 90th percentile of latency, allocated bytes per operation
+ * (of the measuring thread).
+ */
+final class BenchmarkRunner {
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static volatile Object blackhole;
+
+    private final int warmups;
+    private final int iterations;
+
+    BenchmarkRunner(int warmups, int iterations) {
+        this.warmups = warmups;
+        this.iterations = iterations;
+    }
+
+    Result measure(String name, Callable<?> operation) throws Exception {
+        for (int i = 0; i < warmups; i++) {
+            blackhole = operation.call();
+        }
+        long[] nanos = new long[iterations];
+        long allocated = 0;
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < iterations; i++) {
+            long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            blackhole = operation.call();
+            nanos[i] = System.nanoTime() - start;
+            allocated += THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+        Arrays.sort(nanos);
+        Result result = new Result(name, nanos[nanos.length / 2], nanos[nanos.length * 9 / 10], allocated / iterations);
+        System.out.println(result);
+        return result;
+    }
+
+    static final class Result {
+        final String name;
+        final long medianNanos;
+        final long p90Nanos;
+        final long allocatedBytesPerOperation;
+
+        Result(String name, long medianNanos, long p90Nanos, long allocatedBytesPerOperation) {
+            this.name = name;
+            this.medianNanos = medianNanos;
+            this.p90Nanos = p90Nanos;
+            this.allocatedBytesPerOperation = allocatedBytesPerOperation;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-50s median %10.3f ms   p90 %10.3f ms   %,14d B/op",
+                    name, medianNanos / 1e6, p90Nanos / 1e6, allocatedBytesPerOperation);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Adding & removing one author of a book with 10 - 1000 authors: {@code Set} mapping (one INSERT & one DELETE)
+ * vs what the former bag mapping did (delete all rows of the book & reinsert them - reproduced with JDBC,
+ * the bag mapping is gone).
+ */
+public class BookAuthorsBenchmark {
+    private static final int BOOK = 1;
+    private static final int FIRST_AUTHOR = 1_000;
+    private static final int[] AUTHORS = {10, 100, 1_000};
+    private static final int WARMUPS = 20;
+    private static final int ITERATIONS = 100;
+
+    public static void main(String[] args) throws Exception {
+        SqlStatements statements = new SqlStatements();
+        EntityManagerFactory emf = DatabaseSnapshot.seed()
+                .entityManagerFactory("BookAuthorsBenchmark", statements.properties());
+        EntityManager entityManager = emf.createEntityManager();
+        BenchmarkRunner runner = new BenchmarkRunner(WARMUPS, ITERATIONS);
+
+        for (int authors : AUTHORS) {
+            setAuthors(entityManager, authors);
+            int added = FIRST_AUTHOR + authors;
+
+            statements.clear();
+            runner.measure("set, " + authors + " authors", () -> {
+                inTransaction(entityManager, () -> entityManager.find(Book.class, BOOK)
+                        .getAuthors().add(entityManager.find(Author.class, added)));
+                inTransaction(entityManager, () -> entityManager.find(Book.class, BOOK)
+                        .getAuthors().remove(entityManager.find(Author.class, added)));
+                return null;
+            });
+            System.out.println("  BOOK_AUTHOR statements per add / remove: " + (statements.count("insert into BOOK_AUTHOR")
+                    + statements.count("delete from BOOK_AUTHOR")) / (2.0 * (WARMUPS + ITERATIONS)));
+
+            runner.measure("bag (delete all & reinsert), " + authors + " authors", () -> {
+                inTransaction(entityManager, () -> reinsert(entityManager, authors + 1));
+                inTransaction(entityManager, () -> reinsert(entityManager, authors));
+                return null;
+            });
+        }
+
+        entityManager.close();
+        emf.close();
+    }
+
+    private static void setAuthors(EntityManager entityManager, int authors) {
+        inTransaction(entityManager, () -> entityManager.unwrap(Session.class).doWork(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DELETE FROM BOOK_AUTHOR WHERE BOOKS_ID = " + BOOK);
+                statement.executeUpdate("DELETE FROM AUTHOR WHERE ID >= " + FIRST_AUTHOR);
+                statement.executeUpdate("INSERT INTO AUTHOR (ID, NAME) " +
+                        "SELECT X, 'Author ' || X FROM SYSTEM_RANGE(" + FIRST_AUTHOR + ", " + (FIRST_AUTHOR + authors) + ")");
+                statement.executeUpdate("INSERT INTO BOOK_AUTHOR (BOOKS_ID, AUTHORS_ID) " +
+                        "SELECT " + BOOK + ", X FROM SYSTEM_RANGE(" + FIRST_AUTHOR + ", " + (FIRST_AUTHOR + authors - 1) + ")");
+            }
+        }));
+    }
+
+    private static void reinsert(EntityManager entityManager, int authors) {
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM BOOK_AUTHOR WHERE BOOKS_ID = ?");
+                 PreparedStatement insert = connection.prepareStatement("INSERT INTO BOOK_AUTHOR (BOOKS_ID, AUTHORS_ID) VALUES (?, ?)")) {
+                delete.setInt(1, BOOK);
+                delete.executeUpdate();
+                for (int author = FIRST_AUTHOR; author < FIRST_AUTHOR + authors; author++) {
+                    insert.setInt(1, BOOK);
+                    insert.setInt(2, author);
+                    insert.executeUpdate();
+                }
+            }
+        });
+    }
+
+    private static void inTransaction(EntityManager entityManager, Runnable work) {
+        entityManager.getTransaction().begin();
+        work.run();
+        entityManager.getTransaction().commit();
+        entityManager.clear();
+    }
+}
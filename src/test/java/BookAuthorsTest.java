@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Every test works in its own transaction which is rolled back afterwards.
+ */
+class BookAuthorsTest {
+
+    private static final SqlStatements statements = new SqlStatements();
+    private static final EntityManagerFactory emf =
+            DatabaseSnapshot.seed().entityManagerFactory("BookAuthorsTest", statements.properties());
+    private static final EntityManager entityManager = emf.createEntityManager();
+
+    @BeforeEach
+    void beginTransaction() {
+        entityManager.getTransaction().begin();
+        statements.clear();
+    }
+
+    @AfterEach
+    void rollbackTransaction() {
+        entityManager.getTransaction().rollback();
+        entityManager.clear();
+    }
+
+    @AfterAll
+    static void closeEntityManager() {
+        entityManager.close();
+    }
+
+    @Test
+    void addingAuthorInsertsOneRow() {
+        Book cassandra = entityManager.find(Book.class, 3);
+        cassandra.getAuthors().add(entityManager.find(Author.class, 5));
+        entityManager.flush();
+
+        assertThat(statements.statements("delete from BOOK_AUTHOR")).isEmpty();
+        assertThat(statements.statements("insert into BOOK_AUTHOR")).hasSize(1);
+        assertThat(authorsOf(3)).isEqualTo(3);
+    }
+
+    @Test
+    void removingAuthorDeletesOneRow() {
+        Book cassandra = entityManager.find(Book.class, 3);
+        cassandra.getAuthors().remove(entityManager.find(Author.class, 4));
+        entityManager.flush();
+
+        assertThat(statements.statements("delete from BOOK_AUTHOR")).hasSize(1);
+        assertThat(statements.statements("insert into BOOK_AUTHOR")).isEmpty();
+        assertThat(authorsOf(3)).isEqualTo(1);
+    }
+
+    @Test
+    void duplicateAuthorIsRejected() {
+        assertThatThrownBy(() -> entityManager.createNativeQuery("INSERT INTO BOOK_AUTHOR (BOOKS_ID, AUTHORS_ID) VALUES (3, 4)")
+                .executeUpdate())
+                .isInstanceOf(PersistenceException.class);
+    }
+
+    private int authorsOf(int book) {
+        return entityManager.createNativeQuery("SELECT AUTHORS_ID FROM BOOK_AUTHOR WHERE BOOKS_ID = ?1")
+                .setParameter(1, book)
+                .getResultList()
+                .size();
+    }
+}
@@ -0,0 +1,53 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Price & genre aggregates over 100k books: queries vs {@link BookColumns}.
+ * <p>
+ * H2 returns the previous result of a query whose tables & parameters haven't changed, so every query gets
+ * a changing (no-op) price floor.
+ */
+public class BookColumnsBenchmark {
+    private static final int BOOKS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = CatalogGenerator.snapshot(BOOKS).entityManagerFactory("BookColumnsBenchmark");
+        EntityManager entityManager = emf.createEntityManager();
+        BookColumns columns = BookColumns.attach(emf);
+        AtomicInteger floor = new AtomicInteger();
+        BenchmarkRunner runner = new BenchmarkRunner(200, 200);
+
+        runner.measure("query: count by genre", () -> entityManager.createQuery("" +
+                        "SELECT b.genre, count(b) " +
+                        "FROM Book b " +
+                        "WHERE b.price > :floor " +
+                        "GROUP BY b.genre",
+                Object[].class)
+                .setParameter("floor", -floor.incrementAndGet())
+                .getResultList());
+        runner.measure("columns: count by genre", columns::countByGenre);
+
+        runner.measure("query: average price by bookstore", () -> entityManager.createQuery("" +
+                        "SELECT b.bookstore.id, avg(b.price) " +
+                        "FROM Book b " +
+                        "WHERE b.price > :floor " +
+                        "GROUP BY b.bookstore.id",
+                Object[].class)
+                .setParameter("floor", -floor.incrementAndGet())
+                .getResultList());
+        runner.measure("columns: average price by bookstore", columns::averagePriceByBookstore);
+
+        runner.measure("query: bookstores with most expensive book", () -> entityManager.createQuery("" +
+                        "SELECT book.bookstore.id " +
+                        "FROM Book book " +
+                        "WHERE book.price = (SELECT MAX(b.price) FROM Book b WHERE b.price > :floor)",
+                Integer.class)
+                .setParameter("floor", -floor.incrementAndGet())
+                .getResultList());
+        runner.measure("columns: bookstores with most expensive book", columns::bookstoresWithMostExpensiveBook);
+
+        entityManager.close();
+        emf.close();
+    }
+}
@@ -0,0 +1,287 @@
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * Every test works on a fresh database; changes are committed to fire post-commit events.
+ */
+class BookColumnsTest {
+
+    private EntityManagerFactory emf;
+    private BookColumns columns;
+
+    @BeforeEach
+    void attach() {
+        emf = DatabaseSnapshot.seed().entityManagerFactory("BookColumnsTest");
+        columns = BookColumns.attach(emf);
+    }
+
+    @AfterEach
+    void close() {
+        columns.close();
+        emf.close();
+    }
+
+    @Test
+    void aggregatesOfSeed() {
+        assertThat(columns.size()).isEqualTo(4);
+        assertThat(columns.countByGenre())
+                .containsOnly(entry(WritingGenre.FANTASY, 2L), entry(WritingGenre.SCIENCE, 2L));
+        assertThat(columns.maxPrice()).hasValue(20);
+        assertThat(columns.bookstoresWithMostExpensiveBook()).containsExactly(1, 2);
+        assertThat(columns.averagePriceByBookstore())
+                .containsOnly(entry(1, 35.0 / 3), entry(2, 20.0));
+        assertMatchesDatabase();
+    }
+
+    @Test
+    void update() {
+        inTransaction(entityManager -> {
+            Book effectiveJava = entityManager.find(Book.class, 4);
+            effectiveJava.setPrice(100);
+            effectiveJava.setGenre(WritingGenre.FANTASY);
+        });
+
+        assertThat(columns.maxPrice()).hasValue(100);
+        assertThat(columns.bookstoresWithMostExpensiveBook()).containsExactly(2);
+        assertThat(columns.countByGenre()).containsEntry(WritingGenre.FANTASY, 3L);
+        assertMatchesDatabase();
+    }
+
+    @Test
+    void moveBetweenBookstores() {
+        inTransaction(entityManager -> entityManager.find(Book.class, 3)
+                .setBookstore(entityManager.find(Bookstore.class, 3)));
+
+        assertThat(columns.averagePriceByBookstore())
+                .containsOnly(entry(1, 7.5), entry(2, 20.0), entry(3, 20.0));
+        assertMatchesDatabase();
+    }
+
+    @Test
+    void insertAndDelete() {
+        inTransaction(entityManager -> {
+            Book dune = new Book();
+            dune.setTitle("Dune");
+            dune.setPrice(40);
+            dune.setGenre(WritingGenre.SCIENCE);
+            entityManager.persist(dune);
+        });
+
+        assertThat(columns.size()).isEqualTo(5);
+        assertThat(columns.maxPrice()).hasValue(40);
+        assertThat(columns.bookstoresWithMostExpensiveBook()).isEmpty();
+        assertMatchesDatabase();
+
+        inTransaction(entityManager -> {
+            Book harryPotter = entityManager.find(Book.class, 1);
+            harryPotter.getAuthors().clear();
+            entityManager.remove(harryPotter);
+        });
+
+        assertThat(columns.size()).isEqualTo(4);
+        assertThat(columns.averagePriceByBookstore()).containsEntry(1, 12.5);
+        assertMatchesDatabase();
+    }
+
+    @Test
+    void rollbackIsIgnored() {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.find(Book.class, 4).setPrice(100);
+        entityManager.flush();
+        entityManager.getTransaction().rollback();
+        entityManager.close();
+
+        assertThat(columns.maxPrice()).hasValue(20);
+        assertMatchesDatabase();
+    }
+
+    @Test
+    void reloadAfterNativeUpdate() {
+        inTransaction(entityManager -> entityManager.createNativeQuery("UPDATE BOOK SET PRICE = PRICE * 2")
+                .executeUpdate());
+
+        columns.reload();
+
+        assertThat(columns.maxPrice()).hasValue(40);
+        assertMatchesDatabase();
+    }
+
+    @Test
+    void olderEventIsIgnored() {
+        EntityManager stale = emf.createEntityManager();
+        Book effectiveJava = stale.find(Book.class, 4);
+        stale.close();
+        inTransaction(entityManager -> entityManager.find(Book.class, 4).setPrice(100));
+
+        effectiveJava.setPrice(1);
+        columns.onPostUpdate(new PostUpdateEvent(effectiveJava, 4, null, null, null, null, null));
+
+        assertThat(columns.maxPrice()).hasValue(100);
+        assertMatchesDatabase();
+    }
+
+    /**
+     * Update committed before the delete, its event delivered after the delete event.
+     */
+    @Test
+    void updateAfterDeleteIsIgnored() {
+        EntityManager stale = emf.createEntityManager();
+        Book effectiveJava = stale.find(Book.class, 4);
+        stale.close();
+        inTransaction(entityManager -> {
+            Book book = entityManager.find(Book.class, 4);
+            book.getAuthors().clear();
+            entityManager.remove(book);
+        });
+
+        effectiveJava.setPrice(100);
+        columns.onPostUpdate(new PostUpdateEvent(effectiveJava, 4, null, null, null, null, null));
+
+        assertThat(columns.size()).isEqualTo(3);
+        assertThat(columns.maxPrice()).hasValue(20);
+        assertMatchesDatabase();
+    }
+
+    /**
+     * New books get id 0 (ids are assigned by hand), so the second one reuses the id of the deleted one.
+     */
+    @Test
+    void insertUnderIdOfDeletedBook() {
+        inTransaction(entityManager -> entityManager.persist(newBook("Dune", 40)));
+        inTransaction(entityManager -> entityManager.remove(entityManager.find(Book.class, 0)));
+
+        inTransaction(entityManager -> entityManager.persist(newBook("Solaris", 50)));
+
+        assertThat(columns.size()).isEqualTo(5);
+        assertThat(columns.maxPrice()).hasValue(50);
+        assertMatchesDatabase();
+    }
+
+    @Test
+    void bookstoreIdsZeroAndFarApart() {
+        inTransaction(entityManager -> {
+            entityManager.createNativeQuery("" +
+                    "INSERT INTO BOOKSTORE (ID, NAME) VALUES (0, 'Zero'), (2000000000, 'Far')")
+                    .executeUpdate();
+            entityManager.createNativeQuery("" +
+                    "INSERT INTO BOOK (ID, TITLE, PRICE, GENRE, BOOKSTORE_ID) VALUES " +
+                    "(100, 'Zero', 10, 'SCIENCE', 0), (101, 'Far', 30, 'SCIENCE', 2000000000), " +
+                    "(102, 'Nowhere', 50, 'SCIENCE', NULL)")
+                    .executeUpdate();
+        });
+
+        columns.reload();
+
+        assertThat(columns.averagePriceByBookstore())
+                .containsEntry(0, 10.0)
+                .containsEntry(2_000_000_000, 30.0)
+                .hasSize(4);
+        assertThat(columns.bookstoresWithMostExpensiveBook()).isEmpty();
+        assertMatchesDatabase();
+    }
+
+    @Test
+    void reloadKeepsConcurrentChanges() throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        CompletableFuture<Void> updates = CompletableFuture.runAsync(() -> {
+            for (int price = 21; running.get(); price++) {
+                int next = price;
+                inTransaction(entityManager -> entityManager.find(Book.class, 4).setPrice(next));
+            }
+        });
+        try {
+            for (int i = 0; i < 50; i++) {
+                columns.reload();
+            }
+        } finally {
+            running.set(false);
+            updates.get(5, TimeUnit.SECONDS);
+        }
+
+        assertMatchesDatabase();
+    }
+
+    @Test
+    void closeUnregisters() {
+        columns.close();
+        inTransaction(entityManager -> entityManager.find(Book.class, 4).setPrice(100));
+
+        assertThat(columns.maxPrice()).hasValue(20);
+        assertThat(emf.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+                .getService(EventListenerRegistry.class)
+                .getEventListenerGroup(EventType.POST_COMMIT_UPDATE).listeners())
+                .doesNotContain(columns);
+    }
+
+    private static Book newBook(String title, int price) {
+        Book book = new Book();
+        book.setTitle(title);
+        book.setPrice(price);
+        book.setGenre(WritingGenre.SCIENCE);
+        return book;
+    }
+
+    private void inTransaction(Consumer<EntityManager> work) {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        work.accept(entityManager);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    private void assertMatchesDatabase() {
+        EntityManager entityManager = emf.createEntityManager();
+
+        Map<WritingGenre, Long> countByGenre = entityManager.createQuery("" +
+                        "SELECT b.genre, count(b) " +
+                        "FROM Book b " +
+                        "GROUP BY b.genre",
+                Object[].class)
+                .getResultList()
+                .stream()
+                .collect(Collectors.toMap(row -> (WritingGenre) row[0], row -> (Long) row[1]));
+        Map<Integer, Double> averagePriceByBookstore = entityManager.createQuery("" +
+                        "SELECT b.bookstore.id, avg(b.price) " +
+                        "FROM Book b " +
+                        "WHERE b.bookstore IS NOT NULL " +
+                        "GROUP BY b.bookstore.id",
+                Object[].class)
+                .getResultList()
+                .stream()
+                .collect(Collectors.toMap(row -> (Integer) row[0], row -> (Double) row[1]));
+        Integer maxPrice = entityManager.createQuery("SELECT max(b.price) FROM Book b", Integer.class)
+                .getSingleResult();
+        Map<Integer, Bookstore> mostExpensive = entityManager.createQuery("" +
+                        "SELECT book.bookstore " +
+                        "FROM Book book " +
+                        "WHERE book.price = (SELECT MAX(b.price) FROM Book b)",
+                Bookstore.class)
+                .getResultList()
+                .stream()
+                .collect(Collectors.toMap(Bookstore::getId, bookstore -> bookstore, (first, second) -> first));
+
+        assertThat(columns.countByGenre()).isEqualTo(countByGenre);
+        assertThat(columns.averagePriceByBookstore()).isEqualTo(averagePriceByBookstore);
+        assertThat(columns.maxPrice()).hasValue(maxPrice);
+        assertThat(columns.bookstoresWithMostExpensiveBook()).containsExactlyInAnyOrderElementsOf(mostExpensive.keySet());
+        entityManager.close();
+    }
+}
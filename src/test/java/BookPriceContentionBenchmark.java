@@ -0,0 +1,93 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Concurrent price increments of 10 (hot) or 1000 books by 1 - 16 threads: optimistic versioning with
+ * {@link OptimisticRetryExecutor} vs pessimistic {@code SELECT ... FOR UPDATE}.
+ * <p>
+ * Optimistic variant loads books without lock mode - {@code LockModeType.OPTIMISTIC} would add a version
+ * check select at commit; the version is checked by the update anyway. Pessimistic variant is native SQL in a plain
+ * transaction - no retries & no version check or increment, the row lock serializes the increments.
+ */
+public class BookPriceContentionBenchmark {
+    private static final int[] BOOKS = {10, 1_000};
+    private static final int INCREMENTS = 2_000;
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = CatalogGenerator.snapshot(1_000).entityManagerFactory("BookPriceContentionBenchmark");
+
+        optimistic(emf, 4, BOOKS[0]);
+        pessimistic(emf, 4, BOOKS[0]);
+        System.out.println("(warm-up)");
+        for (int books : BOOKS) {
+            for (int threads : THREADS) {
+                optimistic(emf, threads, books);
+                pessimistic(emf, threads, books);
+            }
+        }
+
+        emf.close();
+    }
+
+    private static void optimistic(EntityManagerFactory emf, int threads, int books) throws Exception {
+        OptimisticRetryExecutor executor = new OptimisticRetryExecutor(emf, 1_000, Duration.ofMillis(1), Duration.ofMillis(50));
+        long start = System.nanoTime();
+        run(threads, () -> executor.execute(entityManager -> {
+            Book book = entityManager.find(Book.class, 1 + ThreadLocalRandom.current().nextInt(books));
+            book.setPrice(book.getPrice() + 1);
+            return null;
+        }));
+        report("@Version", books, threads, start, executor.metrics().toString());
+    }
+
+    private static void pessimistic(EntityManagerFactory emf, int threads, int books) throws Exception {
+        long start = System.nanoTime();
+        run(threads, () -> {
+            EntityManager entityManager = emf.createEntityManager();
+            try {
+                entityManager.getTransaction().begin();
+                int id = 1 + ThreadLocalRandom.current().nextInt(books);
+                Number price = (Number) entityManager.createNativeQuery("SELECT PRICE FROM BOOK WHERE ID = ?1 FOR UPDATE")
+                        .setParameter(1, id)
+                        .getSingleResult();
+                entityManager.createNativeQuery("UPDATE BOOK SET PRICE = ?1 WHERE ID = ?2")
+                        .setParameter(1, price.intValue() + 1)
+                        .setParameter(2, id)
+                        .executeUpdate();
+                entityManager.getTransaction().commit();
+            } finally {
+                if (entityManager.getTransaction().isActive()) {
+                    entityManager.getTransaction().rollback();
+                }
+                entityManager.close();
+            }
+        });
+        report("SELECT FOR UPDATE", books, threads, start, "");
+    }
+
+    private static void report(String variant, int books, int threads, long start, String metrics) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%-17s %4d books, %2d threads: %6.0f commits/s   %s",
+                variant, books, threads, INCREMENTS / seconds, metrics));
+    }
+
+    private static void run(int threads, Runnable increment) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < INCREMENTS; i++) {
+            futures.add(pool.submit(increment));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,102 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Root;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Query of books by five filters over 10k books - built only & built + executed: criteria query built per search
+ * with attributes by name (as {@code Tests}) vs by metamodel (as {@code TestsWithFullTypeSafe}) vs
+ * {@link BookSearch}.
+ */
+public class BookSearchBenchmark {
+    private static final int BOOKS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = CatalogGenerator.snapshot(BOOKS).entityManagerFactory("BookSearchBenchmark");
+        EntityManager entityManager = emf.createEntityManager();
+        BookSearch bookSearch = new BookSearch(emf);
+        BenchmarkRunner runner = new BenchmarkRunner(2_000, 10_000);
+        AtomicInteger searches = new AtomicInteger();
+
+        runner.measure("build, criteria by name", () -> byName(entityManager, searches.incrementAndGet()));
+        runner.measure("build, criteria by metamodel", () -> byMetamodel(entityManager, searches.incrementAndGet()));
+        runner.measure("build, BookSearch",
+                () -> bookSearch.query(entityManager, filter(searches.incrementAndGet())));
+
+        runner.measure("search, criteria by name", () -> {
+            entityManager.clear();
+            return byName(entityManager, searches.incrementAndGet()).getResultList();
+        });
+        runner.measure("search, criteria by metamodel", () -> {
+            entityManager.clear();
+            return byMetamodel(entityManager, searches.incrementAndGet()).getResultList();
+        });
+        runner.measure("search, BookSearch", () -> {
+            entityManager.clear();
+            return bookSearch.find(entityManager, filter(searches.incrementAndGet()));
+        });
+
+        entityManager.close();
+        emf.close();
+    }
+
+    private static TypedQuery<Book> byName(EntityManager entityManager, int search) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Book> cc_query = cb.createQuery(Book.class);
+        Root<Book> cc_query_root = cc_query.from(Book.class);
+        Join<Book, Author> cc_authors = cc_query_root.join("authors");
+        cc_query.select(cc_query_root)
+                .distinct(true)
+                .where(cb.equal(cc_query_root.get("title"), title(search)),
+                        cb.between(cc_query_root.get("price"), minPrice(search), minPrice(search) + 100),
+                        cb.equal(cc_query_root.get("genre"), WritingGenre.FANTASY),
+                        cb.equal(cc_query_root.get("bookstore").get("address").get("city"), "New York"),
+                        cb.equal(cc_authors.get("name"), author(search)))
+                .orderBy(cb.asc(cc_query_root.get("id")));
+
+        return entityManager.createQuery(cc_query);
+    }
+
+    private static TypedQuery<Book> byMetamodel(EntityManager entityManager, int search) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Book> cc_query = cb.createQuery(Book.class);
+        Root<Book> cc_query_root = cc_query.from(Book.class);
+        Join<Book, Author> cc_authors = cc_query_root.join(Book_.authors);
+        cc_query.select(cc_query_root)
+                .distinct(true)
+                .where(cb.equal(cc_query_root.get(Book_.title), title(search)),
+                        cb.between(cc_query_root.get(Book_.price), minPrice(search), minPrice(search) + 100),
+                        cb.equal(cc_query_root.get(Book_.genre), WritingGenre.FANTASY),
+                        cb.equal(cc_query_root.get(Book_.bookstore).get(Bookstore_.address).get(Address_.city),
+                                "New York"),
+                        cb.equal(cc_authors.get(Author_.name), author(search)))
+                .orderBy(cb.asc(cc_query_root.get(Book_.id)));
+
+        return entityManager.createQuery(cc_query);
+    }
+
+    private static BookSearch.Filter filter(int search) {
+        return BookSearch.filter()
+                .titleEquals(title(search))
+                .priceBetween(minPrice(search), minPrice(search) + 100)
+                .genre(WritingGenre.FANTASY)
+                .bookstoreCity("New York")
+                .hasAuthor(author(search));
+    }
+
+    private static String title(int search) {
+        return "Book " + search % BOOKS + " quantum";
+    }
+
+    private static int minPrice(int search) {
+        return search % 900;
+    }
+
+    private static String author(int search) {
+        return "Author " + search % (BOOKS / 10);
+    }
+}
@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BookSearchTest {
+
+    private static final EntityManagerFactory emf =
+            DatabaseSnapshot.seed().entityManagerFactory("BookSearchTest");
+    private static final EntityManager entityManager = emf.createEntityManager();
+
+    private final BookSearch bookSearch = new BookSearch(emf);
+
+    @AfterEach
+    void clear() {
+        entityManager.clear();
+    }
+
+    @AfterAll
+    static void closeEntityManager() {
+        entityManager.close();
+    }
+
+    @Test
+    void withoutFilters() {
+        assertThat(ids(BookSearch.filter())).containsExactly(1, 2, 3, 4);
+    }
+
+    @Test
+    void singleFilters() {
+        assertThat(ids(BookSearch.filter().titleEquals("Cassandra"))).containsExactly(3);
+        assertThat(ids(BookSearch.filter().priceBetween(10, 20))).containsExactly(1, 3, 4);
+        assertThat(ids(BookSearch.filter().genre(WritingGenre.FANTASY))).containsExactly(1, 2);
+        assertThat(ids(BookSearch.filter().bookstoreCity("New York"))).containsExactly(4);
+        assertThat(ids(BookSearch.filter().hasAuthor("Hewitt Eben"))).containsExactly(3);
+    }
+
+    @Test
+    void allFilters() {
+        BookSearch.Filter filter = BookSearch.filter()
+                .titleEquals("Cassandra")
+                .priceBetween(15, 25)
+                .genre(WritingGenre.SCIENCE)
+                .bookstoreCity("London")
+                .hasAuthor("Carpenter Jeff");
+
+        List<Book> books = bookSearch.find(entityManager, filter);
+
+        List<Book> expected = entityManager.createQuery("" +
+                        "SELECT DISTINCT b " +
+                        "FROM Book b JOIN b.authors a " +
+                        "WHERE b.title = 'Cassandra' AND b.price BETWEEN 15 AND 25 AND b.genre = 'SCIENCE' " +
+                        "AND b.bookstore.address.city = 'London' AND a.name = 'Carpenter Jeff'",
+                Book.class)
+                .getResultList();
+        assertThat(books).isNotEmpty().isEqualTo(expected);
+        assertThat(ids(filter.bookstoreCity("New York"))).isEmpty();
+    }
+
+    @Test
+    void combinationIsCompiledOnce() {
+        assertThat(ids(BookSearch.filter().priceBetween(5, 10).genre(WritingGenre.FANTASY))).containsExactly(1, 2);
+        assertThat(ids(BookSearch.filter().priceBetween(20, 20).genre(WritingGenre.SCIENCE))).containsExactly(3, 4);
+        assertThat(ids(BookSearch.filter().genre(WritingGenre.SCIENCE).priceBetween(0, 5))).isEmpty();
+
+        assertThat(bookSearch.compiled()).isEqualTo(1);
+        assertThat(bookSearch.jpql(1 << 1 | 1 << 2))
+                .contains(":minPrice", ":maxPrice", ":genre")
+                .doesNotContain("20");
+    }
+
+    @Test
+    void emptyPriceRange() {
+        assertThatThrownBy(() -> BookSearch.filter().priceBetween(10, 5))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private List<Integer> ids(BookSearch.Filter filter) {
+        return bookSearch.find(entityManager, filter).stream()
+                .map(Book::getId)
+                .collect(Collectors.toList());
+    }
+}
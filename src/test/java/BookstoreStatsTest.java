@@ -0,0 +1,209 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * Every test works in its own transaction which is rolled back afterwards.
+ */
+class BookstoreStatsTest {
+
+    private static final EntityManagerFactory emf =
+            DatabaseSnapshot.seed().entityManagerFactory("BookstoreStatsTest");
+    private static final EntityManager entityManager = emf.createEntityManager();
+
+    @BeforeEach
+    void beginTransaction() {
+        entityManager.getTransaction().begin();
+    }
+
+    @AfterEach
+    void rollbackTransaction() {
+        entityManager.getTransaction().rollback();
+        entityManager.clear();
+    }
+
+    @AfterAll
+    static void closeEntityManager() {
+        entityManager.close();
+    }
+
+    @Test
+    void statsOfSeed() {
+        BookstoreStats bloomsbury = stats(1);
+
+        assertThat(bloomsbury.getBookCount()).isEqualTo(3);
+        assertThat(bloomsbury.getPriceSum()).isEqualTo(35);
+        assertThat(bloomsbury.getMinPrice()).isEqualTo(5);
+        assertThat(bloomsbury.getMaxPrice()).isEqualTo(20);
+        assertThat(bloomsbury.getGenreCounts())
+                .containsEntry(WritingGenre.FANTASY, 2L)
+                .containsEntry(WritingGenre.SCIENCE, 1L);
+        BookstoreStats cityLights = stats(3);
+        assertThat(cityLights.getBookCount()).isZero();
+        assertThat(cityLights.getMinPrice()).isNull();
+        assertThat(cityLights.getGenreCounts()).isEmpty();
+    }
+
+    @Test
+    void emptyBookstoreHasNoAverage() {
+        entityManager.createNativeQuery("INSERT INTO BOOKSTORE (ID, NAME) VALUES (100, 'Shakespeare and Company')")
+                .executeUpdate();
+
+        assertThat(stats(100).getPriceAvg()).isNull();
+        assertThat(stats(3).getPriceAvg()).isNull();
+        insertBook("Dune", 40, WritingGenre.SCIENCE, 100);
+        assertThat(stats(100).getPriceAvg()).isEqualTo(40.0);
+    }
+
+    @Test
+    void newBookstoreHasStatsRow() {
+        entityManager.createNativeQuery("INSERT INTO BOOKSTORE (ID, NAME) VALUES (100, 'Shakespeare and Company')")
+                .executeUpdate();
+
+        assertThat(stats(100).getBookCount()).isZero();
+        insertBook("Dune", 40, WritingGenre.SCIENCE, 100);
+        assertThat(stats(100).getBookCount()).isEqualTo(1);
+        assertNoDrift();
+    }
+
+    /**
+     * First books of a genre in a bookstore inserted by two transactions at once: the second waits for the lock of
+     * the stats row instead of failing on a duplicate key of BOOKSTORE_GENRE_STATS.
+     */
+    @Test
+    void concurrentFirstInserts() throws Exception {
+        EntityManagerFactory committing = DatabaseSnapshot.seed().entityManagerFactory("BookstoreStatsConcurrencyTest");
+        EntityManager first = committing.createEntityManager();
+        EntityManager second = committing.createEntityManager();
+        try {
+            first.getTransaction().begin();
+            insertBook(first, "Dune", 40, WritingGenre.SCIENCE, 3);
+            CompletableFuture<Void> concurrent = CompletableFuture.runAsync(() -> {
+                second.getTransaction().begin();
+                insertBook(second, "Solaris", 30, WritingGenre.SCIENCE, 3);
+                second.getTransaction().commit();
+            });
+            Thread.sleep(200);
+            first.getTransaction().commit();
+            concurrent.get(5, TimeUnit.SECONDS);
+
+            BookstoreStats cityLights = first.find(BookstoreStats.class, 3);
+            assertThat(cityLights.getBookCount()).isEqualTo(2);
+            assertThat(cityLights.getGenreCounts()).containsOnly(entry(WritingGenre.SCIENCE, 2L));
+            assertThat(new BookstoreStatsReconciliation(first).verify()).isEmpty();
+        } finally {
+            first.close();
+            second.close();
+            committing.close();
+        }
+    }
+
+    @Test
+    void insert() {
+        insertBook("Dune", 40, WritingGenre.SCIENCE, 3);
+
+        BookstoreStats cityLights = stats(3);
+        assertThat(cityLights.getBookCount()).isEqualTo(1);
+        assertThat(cityLights.getPriceSum()).isEqualTo(40);
+        assertThat(cityLights.getMinPrice()).isEqualTo(40);
+        assertThat(cityLights.getMaxPrice()).isEqualTo(40);
+        assertThat(cityLights.getGenreCounts()).containsOnlyKeys(WritingGenre.SCIENCE);
+        assertNoDrift();
+    }
+
+    @Test
+    void updatePriceAndGenre() {
+        Book lordOfTheRings = entityManager.find(Book.class, 2);
+        lordOfTheRings.setPrice(30);
+        lordOfTheRings.setGenre(WritingGenre.SCIENCE);
+        entityManager.flush();
+
+        BookstoreStats bloomsbury = stats(1);
+        assertThat(bloomsbury.getBookCount()).isEqualTo(3);
+        assertThat(bloomsbury.getPriceSum()).isEqualTo(60);
+        assertThat(bloomsbury.getMinPrice()).isEqualTo(10);
+        assertThat(bloomsbury.getMaxPrice()).isEqualTo(30);
+        assertThat(bloomsbury.getGenreCounts())
+                .containsEntry(WritingGenre.FANTASY, 1L)
+                .containsEntry(WritingGenre.SCIENCE, 2L);
+        assertNoDrift();
+    }
+
+    @Test
+    void moveBetweenBookstores() {
+        Book cassandra = entityManager.find(Book.class, 3);
+        cassandra.setBookstore(entityManager.find(Bookstore.class, 2));
+        entityManager.flush();
+
+        BookstoreStats bloomsbury = stats(1);
+        assertThat(bloomsbury.getBookCount()).isEqualTo(2);
+        assertThat(bloomsbury.getMaxPrice()).isEqualTo(10);
+        assertThat(bloomsbury.getPriceAvg()).isEqualTo(7.5);
+
+        BookstoreStats theStrand = stats(2);
+        assertThat(theStrand.getBookCount()).isEqualTo(2);
+        assertThat(theStrand.getPriceSum()).isEqualTo(40);
+        assertThat(theStrand.getGenreCounts()).containsEntry(WritingGenre.SCIENCE, 2L);
+        assertNoDrift();
+    }
+
+    @Test
+    void delete() {
+        entityManager.createNativeQuery("DELETE FROM BOOK_AUTHOR WHERE BOOKS_ID = 4").executeUpdate();
+        entityManager.createNativeQuery("DELETE FROM BOOK WHERE ID = 4").executeUpdate();
+
+        BookstoreStats theStrand = stats(2);
+        assertThat(theStrand.getBookCount()).isZero();
+        assertThat(theStrand.getPriceSum()).isZero();
+        assertThat(theStrand.getMinPrice()).isNull();
+        assertThat(theStrand.getMaxPrice()).isNull();
+        assertNoDrift();
+    }
+
+    @Test
+    void reconciliationRepairsDrift() {
+        entityManager.createNativeQuery("UPDATE BOOKSTORE_STATS SET BOOK_COUNT = 100 WHERE BOOKSTORE_ID = 1")
+                .executeUpdate();
+        entityManager.createNativeQuery("DELETE FROM BOOKSTORE_GENRE_STATS WHERE BOOKSTORE_ID = 2")
+                .executeUpdate();
+
+        BookstoreStatsReconciliation reconciliation = new BookstoreStatsReconciliation(entityManager);
+
+        assertThat(reconciliation.verify()).containsExactly(1, 2);
+        assertThat(reconciliation.repair()).containsExactly(1, 2);
+        assertThat(reconciliation.verify()).isEmpty();
+        assertThat(stats(1).getBookCount()).isEqualTo(3);
+    }
+
+    private BookstoreStats stats(int bookstore) {
+        entityManager.clear();
+        return entityManager.find(BookstoreStats.class, bookstore);
+    }
+
+    private void insertBook(String title, int price, WritingGenre genre, int bookstore) {
+        insertBook(entityManager, title, price, genre, bookstore);
+    }
+
+    private static void insertBook(EntityManager entityManager, String title, int price, WritingGenre genre,
+                                   int bookstore) {
+        entityManager.createNativeQuery("INSERT INTO BOOK (TITLE, PRICE, GENRE, BOOKSTORE_ID) VALUES (?1, ?2, ?3, ?4)")
+                .setParameter(1, title)
+                .setParameter(2, price)
+                .setParameter(3, genre.name())
+                .setParameter(4, bookstore)
+                .executeUpdate();
+    }
+
+    private void assertNoDrift() {
+        assertThat(new BookstoreStatsReconciliation(entityManager).verify()).isEmpty();
+    }
+}
@@ -0,0 +1,46 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+
+/**
+ * Raising price 5% of all 100k books: {@link BulkOperations} (chunks of 1k - 100k ids) vs loading & changing
+ * entities (committed & cleared every 1000 books).
+ */
+public class BulkOperationsBenchmark {
+    private static final int BOOKS = 100_000;
+    private static final int[] CHUNK_SIZES = {1_000, 10_000, 100_000};
+    private static final int PAGE = 1_000;
+
+    public static void main(String[] args) {
+        EntityManagerFactory emf = CatalogGenerator.snapshot(BOOKS).entityManagerFactory("BulkOperationsBenchmark");
+        EntityManager entityManager = emf.createEntityManager();
+
+        for (int chunkSize : CHUNK_SIZES) {
+            System.out.println("bulk, chunk " + chunkSize + ": "
+                    + new BulkOperations(entityManager, chunkSize).update(Book.class, Specification.all(), BulkOperations.raisePrice(5)));
+        }
+
+        long start = System.nanoTime();
+        long rows = 0;
+        for (int first = 0; ; first += PAGE) {
+            entityManager.getTransaction().begin();
+            List<Book> books = entityManager.createQuery("SELECT b FROM Book b ORDER BY b.id", Book.class)
+                    .setFirstResult(first)
+                    .setMaxResults(PAGE)
+                    .getResultList();
+            if (books.isEmpty()) {
+                entityManager.getTransaction().commit();
+                break;
+            }
+            books.forEach(book -> book.setPrice((book.getPrice() * 105 + 50) / 100));
+            rows += books.size();
+            entityManager.getTransaction().commit();
+            entityManager.clear();
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println(String.format("entities: %d rows, %d ms (%.0f rows/s)", rows, nanos / 1_000_000, rows * 1e9 / nanos));
+
+        entityManager.close();
+        emf.close();
+    }
+}
@@ -0,0 +1,134 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Every test works on a fresh database (bulk operations commit their chunks).
+ */
+class BulkOperationsTest {
+
+    private EntityManagerFactory emf;
+    private EntityManager entityManager;
+
+    @BeforeEach
+    void restore() {
+        emf = DatabaseSnapshot.seed().entityManagerFactory("BulkOperationsTest");
+        entityManager = emf.createEntityManager();
+    }
+
+    @AfterEach
+    void close() {
+        entityManager.close();
+        emf.close();
+    }
+
+    @Test
+    void raisePriceOfFantasyBooksInBookstore() {
+        BulkOperations.Result result = new BulkOperations(entityManager, 1).update(Book.class,
+                (cb, book) -> cb.and(
+                        cb.equal(book.get(Book_.genre), WritingGenre.FANTASY),
+                        cb.equal(book.get(Book_.bookstore).get(Bookstore_.id), 1)),
+                BulkOperations.raisePrice(5));
+
+        assertThat(result.getRows()).isEqualTo(2);
+        assertThat(result.getChunks()).isEqualTo(2);
+        assertThat(price(1)).isEqualTo(11);
+        assertThat(price(2)).isEqualTo(5);
+        assertThat(price(3)).isEqualTo(20);
+        assertThat(price(4)).isEqualTo(20);
+        assertThat(entityManager.find(Book.class, 1).getVersion()).isEqualTo(1);
+        assertThat(entityManager.find(Book.class, 4).getVersion()).isZero();
+    }
+
+    @Test
+    void managedEntitiesOfAffectedChunksAreDetached() {
+        Book harryPotter = entityManager.find(Book.class, 1);
+        Book effectiveJava = entityManager.find(Book.class, 4);
+
+        new BulkOperations(entityManager, 2).update(Book.class,
+                (cb, book) -> cb.equal(book.get(Book_.genre), WritingGenre.FANTASY),
+                BulkOperations.raisePrice(100));
+
+        assertThat(entityManager.contains(harryPotter)).isFalse();
+        assertThat(entityManager.contains(effectiveJava)).isTrue();
+        assertThat(entityManager.find(Book.class, 1).getPrice()).isEqualTo(20);
+    }
+
+    @Test
+    void setGenre() {
+        new BulkOperations(entityManager).update(Book.class,
+                (cb, book) -> cb.equal(book.get(Book_.bookstore).get(Bookstore_.id), 2),
+                BulkOperations.setGenre(WritingGenre.FANTASY));
+
+        assertThat(entityManager.find(Book.class, 4).getGenre()).isEqualTo(WritingGenre.FANTASY);
+        assertThat(entityManager.find(BookstoreStats.class, 2).getGenreCounts())
+                .containsEntry(WritingGenre.FANTASY, 1L)
+                .containsEntry(WritingGenre.SCIENCE, 0L);
+    }
+
+    @Test
+    void delete() {
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("" +
+                "INSERT INTO BOOK (TITLE, PRICE, GENRE, BOOKSTORE_ID) " +
+                "SELECT 'Remainder ' || X, 1000 + X, 'SCIENCE', 3 FROM SYSTEM_RANGE(1, 10)")
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+
+        BulkOperations.Result result = new BulkOperations(entityManager, 3).delete(Book.class,
+                (cb, book) -> cb.gt(book.get(Book_.price), 1000));
+
+        assertThat(result.getRows()).isEqualTo(10);
+        assertThat(result.getChunks()).isEqualTo(4);
+        assertThat(entityManager.createQuery("SELECT count(b) FROM Book b", Long.class).getSingleResult())
+                .isEqualTo(4);
+    }
+
+    @Test
+    void sparseIdsTakeNoEmptyChunks() {
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("" +
+                "INSERT INTO BOOK (ID, TITLE, PRICE, GENRE, BOOKSTORE_ID) VALUES " +
+                "(100, 'Near', 2000, 'SCIENCE', 3), (1000000000, 'Far', 2000, 'SCIENCE', 3)")
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+
+        BulkOperations.Result result = new BulkOperations(entityManager).update(Book.class,
+                (cb, book) -> cb.gt(book.get(Book_.price), 1000),
+                BulkOperations.raisePrice(5));
+
+        assertThat(result.getRows()).isEqualTo(2);
+        assertThat(result.getChunks()).isEqualTo(1);
+        assertThat(price(1_000_000_000)).isEqualTo(2100);
+    }
+
+    @Test
+    void nothingMatches() {
+        BulkOperations.Result result = new BulkOperations(entityManager).update(Book.class,
+                (cb, book) -> cb.gt(book.get(Book_.price), 1000),
+                BulkOperations.raisePrice(5));
+
+        assertThat(result.getRows()).isZero();
+        assertThat(result.getChunks()).isZero();
+    }
+
+    @Test
+    void requiresNoActiveTransaction() {
+        entityManager.getTransaction().begin();
+
+        assertThatThrownBy(() -> new BulkOperations(entityManager).delete(Book.class, Specification.all()))
+                .isInstanceOf(IllegalStateException.class);
+
+        entityManager.getTransaction().rollback();
+    }
+
+    private int price(int book) {
+        return entityManager.find(Book.class, book).getPrice();
+    }
+}
@@ -0,0 +1,70 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Export of the catalog with 100k books: {@link CatalogExport} (CSV & binary) vs {@code getResultList()} &
+ * string building - latency & bytes allocated by the exporting thread; throughput of 1 - 4 partitions.
+ */
+public class CatalogExportBenchmark {
+    private static final int BOOKS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = CatalogGenerator.snapshot(BOOKS).entityManagerFactory("CatalogExportBenchmark");
+        Path directory = Files.createDirectories(Paths.get("target", "export-benchmark"));
+        BenchmarkRunner runner = new BenchmarkRunner(3, 10);
+
+        for (CatalogExport.Format format : CatalogExport.Format.values()) {
+            runner.measure(format + ", single thread", () -> {
+                EntityManager entityManager = emf.createEntityManager();
+                try {
+                    for (String name : CatalogExport.CATALOG.keySet()) {
+                        CatalogExport.export(entityManager, entityManager.createQuery(CatalogExport.CATALOG.get(name))
+                                        .setParameter("partitions", 1)
+                                        .setParameter("partition", 0),
+                                directory.resolve(name + "." + format), format);
+                    }
+                    return null;
+                } finally {
+                    entityManager.close();
+                }
+            });
+            for (int partitions : new int[]{1, 2, 4}) {
+                System.out.println(String.format("%s, %d partitions: %s",
+                        format, partitions, CatalogExport.exportCatalog(emf, directory, format, partitions)));
+            }
+        }
+
+        runner.measure("getResultList & StringBuilder", () -> {
+            EntityManager entityManager = emf.createEntityManager();
+            try {
+                for (String name : CatalogExport.CATALOG.keySet()) {
+                    List<Object[]> rows = entityManager.createQuery(CatalogExport.CATALOG.get(name), Object[].class)
+                            .setParameter("partitions", 1)
+                            .setParameter("partition", 0)
+                            .getResultList();
+                    StringBuilder csv = new StringBuilder();
+                    for (Object[] row : rows) {
+                        for (int column = 0; column < row.length; column++) {
+                            if (column > 0) {
+                                csv.append(',');
+                            }
+                            csv.append(row[column] == null ? "" : row[column]);
+                        }
+                        csv.append('\n');
+                    }
+                    Files.write(directory.resolve(name + ".csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            } finally {
+                entityManager.close();
+            }
+        });
+
+        emf.close();
+    }
+}
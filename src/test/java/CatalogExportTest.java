@@ -0,0 +1,155 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CatalogExportTest {
+
+    private static final EntityManagerFactory emf =
+            DatabaseSnapshot.seed().entityManagerFactory("CatalogExportTest");
+    private static Path directory;
+
+    @BeforeAll
+    static void prepare() throws IOException {
+        Files.createDirectories(Paths.get("target"));
+        directory = Files.createTempDirectory(Paths.get("target"), "export");
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("" +
+                "INSERT INTO BOOK (ID, TITLE, PRICE, GENRE) VALUES (5, 'Say \"hi\", Zo\u00eb', 7, 'SCIENCE')")
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    @AfterAll
+    static void close() {
+        emf.close();
+    }
+
+    @Test
+    void csv() throws IOException {
+        CatalogExport.Report report = CatalogExport.exportPartitioned(emf, CatalogExport.CATALOG.get("books"),
+                directory, "books", CatalogExport.Format.CSV, 1);
+
+        assertThat(report.getRows()).isEqualTo(5);
+        assertThat(report.getBytes()).isEqualTo(Files.size(directory.resolve("books-0.csv")));
+        assertThat(Files.readAllLines(directory.resolve("books-0.csv"), StandardCharsets.UTF_8)).containsExactly(
+                "id,title,price,genre,bookstore",
+                "1,Harry Potter,10,FANTASY,1",
+                "2,Lord of the rings,5,FANTASY,1",
+                "3,Cassandra,20,SCIENCE,1",
+                "4,Effective Java,20,SCIENCE,2",
+                "5,\"Say \"\"hi\"\", Zo\u00eb\",7,SCIENCE,");
+    }
+
+    @Test
+    void binary() throws IOException {
+        CatalogExport.exportPartitioned(emf, CatalogExport.CATALOG.get("books"),
+                directory, "books", CatalogExport.Format.BINARY, 1);
+
+        assertThat(decode(directory.resolve("books-0.bin"))).containsExactly(
+                Arrays.asList("id", "title", "price", "genre", "bookstore"),
+                Arrays.asList(1, "Harry Potter", 10, "FANTASY", 1),
+                Arrays.asList(2, "Lord of the rings", 5, "FANTASY", 1),
+                Arrays.asList(3, "Cassandra", 20, "SCIENCE", 1),
+                Arrays.asList(4, "Effective Java", 20, "SCIENCE", 2),
+                Arrays.asList(5, "Say \"hi\", Zo\u00eb", 7, "SCIENCE", null));
+    }
+
+    @Test
+    void partitionedCatalog() throws IOException {
+        CatalogExport.Report report = CatalogExport.exportCatalog(emf, directory, CatalogExport.Format.CSV, 3);
+
+        assertThat(report.getRows()).isEqualTo(3 + 5 + 5 + 5);
+        List<String> books = new ArrayList<>();
+        for (int partition = 0; partition < 3; partition++) {
+            List<String> lines = Files.readAllLines(directory.resolve("books-" + partition + ".csv"), StandardCharsets.UTF_8);
+            assertThat(lines.get(0)).isEqualTo("id,title,price,genre,bookstore");
+            books.addAll(lines.subList(1, lines.size()));
+        }
+        assertThat(books).hasSize(5);
+        assertThat(Files.readAllLines(directory.resolve("book_authors-0.csv"))).containsExactly("book,author", "3,3", "3,4");
+    }
+
+    /**
+     * Magic & column count (8 bytes), length of the name (4), "p" (1) & a 4-byte character fill the buffer, the
+     * type code goes to the next one.
+     */
+    @Test
+    void columnNameFillingTheBuffer() throws IOException {
+        Path file = directory.resolve("boundary.bin");
+        String name = "p\uD83D\uDE00";
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CatalogExport.BinaryEncoder encoder =
+                    new CatalogExport.BinaryEncoder(channel, new Class<?>[]{Integer.class}, 17);
+            encoder.header(new String[]{name});
+            encoder.flush();
+        }
+
+        assertThat(decode(file)).containsExactly(Arrays.asList((Object) name));
+    }
+
+    /**
+     * @return column names & rows
+     */
+    private static List<List<Object>> decode(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        byte[] magic = new byte[4];
+        buffer.get(magic);
+        assertThat(magic).isEqualTo(CatalogExport.MAGIC);
+        int columns = buffer.getInt();
+        byte[] types = new byte[columns];
+        List<Object> names = new ArrayList<>();
+        for (int column = 0; column < columns; column++) {
+            names.add(text(buffer));
+            types[column] = buffer.get();
+        }
+        List<List<Object>> rows = new ArrayList<>();
+        rows.add(names);
+        while (buffer.hasRemaining()) {
+            int end = buffer.getInt() + buffer.position();
+            byte[] nulls = new byte[(columns + 7) / 8];
+            buffer.get(nulls);
+            List<Object> row = new ArrayList<>();
+            for (int column = 0; column < columns; column++) {
+                if ((nulls[column / 8] & 1 << column % 8) != 0) {
+                    row.add(null);
+                } else if (types[column] == CatalogExport.INT) {
+                    row.add(buffer.getInt());
+                } else if (types[column] == CatalogExport.LONG) {
+                    row.add(buffer.getLong());
+                } else if (types[column] == CatalogExport.DOUBLE) {
+                    row.add(buffer.getDouble());
+                } else {
+                    row.add(text(buffer));
+                }
+            }
+            assertThat(buffer.position()).isEqualTo(end);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static String text(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
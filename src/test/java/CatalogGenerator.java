@@ -0,0 +1,104 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * Deterministic catalog appended to the seed: bookstores (1 per 1000 books) with addresses, books & authors
+ * (1 per 10 books, 1 - 3 authors per book).
+ */
+class CatalogGenerator implements DatabaseSnapshot.DatasetGenerator {
+    private static final String[] CITIES = {"New York", "London", "Paris", "Berlin", "Warsaw", "Tokyo"};
+    private static final String[] WORDS = {"rings", "java", "dragon", "potter", "night", "garden", "code", "river"};
+    private static final int BATCH_SIZE = 1000;
+
+    private final int books;
+
+    CatalogGenerator(int books) {
+        this.books = books;
+    }
+
+    static DatabaseSnapshot snapshot(int books) {
+        return DatabaseSnapshot.generated("catalog-" + books, new CatalogGenerator(books));
+    }
+
+    @Override
+    public void generate(Connection connection) throws SQLException {
+        Random random = new Random(books);
+        int bookstores = Math.max(1, books / 1000);
+        int authors = Math.max(1, books / 10);
+
+        int firstBookstore = nextId(connection, "BOOKSTORE");
+        int firstAddress = nextId(connection, "ADDRESS");
+        try (PreparedStatement bookstore = connection.prepareStatement("INSERT INTO BOOKSTORE (ID, NAME) VALUES (?, ?)");
+             PreparedStatement address = connection.prepareStatement("" +
+                     "INSERT INTO ADDRESS (ID, STREET, CITY, COUNTRY, BOOKSTORE_ID) VALUES (?, ?, ?, 'Generated', ?)");
+             PreparedStatement link = connection.prepareStatement("UPDATE BOOKSTORE SET ADDRESS_ID = ? WHERE ID = ?")) {
+            for (int i = 0; i < bookstores; i++) {
+                bookstore.setInt(1, firstBookstore + i);
+                bookstore.setString(2, "Generated bookstore " + i);
+                bookstore.executeUpdate();
+                address.setInt(1, firstAddress + i);
+                address.setString(2, i + " Main Street");
+                address.setString(3, CITIES[i % CITIES.length]);
+                address.setInt(4, firstBookstore + i);
+                address.executeUpdate();
+                link.setInt(1, firstAddress + i);
+                link.setInt(2, firstBookstore + i);
+                link.executeUpdate();
+            }
+        }
+
+        int firstAuthor = nextId(connection, "AUTHOR");
+        try (PreparedStatement author = connection.prepareStatement("INSERT INTO AUTHOR (ID, NAME) VALUES (?, ?)")) {
+            for (int i = 0; i < authors; i++) {
+                author.setInt(1, firstAuthor + i);
+                author.setString(2, "Author " + i);
+                author.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0) {
+                    author.executeBatch();
+                }
+            }
+            author.executeBatch();
+        }
+
+        int firstBook = nextId(connection, "BOOK");
+        try (PreparedStatement book = connection.prepareStatement("" +
+                "INSERT INTO BOOK (ID, TITLE, PRICE, GENRE, BOOKSTORE_ID) VALUES (?, ?, ?, ?, ?)");
+             PreparedStatement bookAuthor = connection.prepareStatement("" +
+                     "INSERT INTO BOOK_AUTHOR (BOOKS_ID, AUTHORS_ID) VALUES (?, ?)")) {
+            for (int i = 0; i < books; i++) {
+                int id = firstBook + i;
+                book.setInt(1, id);
+                book.setString(2, "Book " + i + " " + WORDS[random.nextInt(WORDS.length)]);
+                book.setInt(3, 1 + random.nextInt(1000));
+                book.setString(4, WritingGenre.values()[i % WritingGenre.values().length].name());
+                book.setInt(5, firstBookstore + random.nextInt(bookstores));
+                book.addBatch();
+                int first = random.nextInt(authors);
+                int count = 1 + random.nextInt(Math.min(3, authors));
+                for (int j = 0; j < count; j++) {
+                    bookAuthor.setInt(1, id);
+                    bookAuthor.setInt(2, firstAuthor + (first + j) % authors);
+                    bookAuthor.addBatch();
+                }
+                if ((i + 1) % BATCH_SIZE == 0) {
+                    book.executeBatch();
+                    bookAuthor.executeBatch();
+                }
+            }
+            book.executeBatch();
+            bookAuthor.executeBatch();
+        }
+    }
+
+    private static int nextId(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet max = statement.executeQuery("SELECT COALESCE(MAX(ID), 0) + 1 FROM " + table)) {
+            max.next();
+            return max.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationInfo;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Post-migration snapshot of the database: schema & seed (optionally extended by a generated dataset)
+ * are migrated once, dumped into a zip-compressed H2 script and restored into fresh in-memory databases.
+ * <p>
+ * Snapshot files are keyed by the checksums of all migrations in db/migration and by the bytecode of classes
+ * migrations call (triggers & aliases compute stored data), so they are rebuilt only when the migrations, their
+ * code (or the dataset name) change.
+ */
+public final class DatabaseSnapshot {
+    public static final String PERSISTENCE_UNIT = "NewPersistenceUnit";
+
+    private static final Path DIRECTORY = Paths.get(System.getProperty("snapshot.directory", "target/snapshots"));
+    /**
+     * Classes called by migrations (V3, V4, V8, V10 & V11).
+     */
+    private static final List<Class<?>> MIGRATION_CODE = ImmutableList.of(BookstoreStatsTrigger.class,
+            BookTitleTrigramTrigger.class, TitleSearch.class, AnnouncementPartitionTrigger.class,
+            AnnouncementPartitions.class);
+    // builds of the same dataset in one JVM, instances are created per call of seed()
+    private static final ConcurrentMap<String, Object> BUILD_LOCKS = new ConcurrentHashMap<>();
+
+    private final String dataset;
+    private final DatasetGenerator generator;
+
+    private DatabaseSnapshot(String dataset, DatasetGenerator generator) {
+        this.dataset = Objects.requireNonNull(dataset);
+        this.generator = generator;
+    }
+
+    /**
+     * @return snapshot of database after migrations (schema & seed from V2__Fill_tables.sql)
+     */
+    public static DatabaseSnapshot seed() {
+        return new DatabaseSnapshot("seed", null);
+    }
+
+    /**
+     * @param dataset name of dataset, has to change whenever generator produces different data
+     *                (e.g. contain the size of dataset)
+     */
+    public static DatabaseSnapshot generated(String dataset, DatasetGenerator generator) {
+        Preconditions.checkArgument(dataset.matches("[\\w-]+"), "dataset name has to be a valid file name: %s", dataset);
+        return new DatabaseSnapshot(dataset, Objects.requireNonNull(generator));
+    }
+
+    /**
+     * Restores the snapshot into a fresh in-memory database (builds the snapshot first if necessary).
+     *
+     * @return jdbc url of restored database; it lives as long as the JVM
+     */
+    public String restore(String database) {
+        return restore(database, "");
+    }
+
+    /**
+     * @param settings H2 settings appended to the url (applied when the database opens), e.g. {@code ;QUERY_CACHE_SIZE=0}
+     */
+    public String restore(String database, String settings) {
+        Path snapshot = snapshotFile();
+        String url = "jdbc:h2:mem:" + database + settings + ";DB_CLOSE_DELAY=-1";
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+            statement.execute("RUNSCRIPT FROM '" + snapshot + "' COMPRESSION ZIP");
+            recompileViews(statement);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot restore " + snapshot + " into " + url, e);
+        }
+        return url;
+    }
+
+    /**
+     * SCRIPT may write views before tables they select from (e.g. Announcement); RUNSCRIPT creates them invalid.
+     */
+    private static void recompileViews(Statement statement) throws SQLException {
+        List<String> views = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery("" +
+                "SELECT TABLE_SCHEMA, TABLE_NAME FROM INFORMATION_SCHEMA.VIEWS WHERE STATUS <> 'VALID'")) {
+            while (resultSet.next()) {
+                views.add("\"" + resultSet.getString(1) + "\".\"" + resultSet.getString(2) + "\"");
+            }
+        }
+        for (String view : views) {
+            statement.execute("ALTER VIEW " + view + " RECOMPILE");
+        }
+    }
+
+    /**
+     * @return factory of NewPersistenceUnit working on fresh in-memory database restored from the snapshot
+     */
+    public EntityManagerFactory entityManagerFactory(String database) {
+        return entityManagerFactory(database, ImmutableMap.of());
+    }
+
+    /**
+     * @param properties overrides properties of NewPersistenceUnit
+     */
+    public EntityManagerFactory entityManagerFactory(String database, Map<String, ?> properties) {
+        Map<String, Object> overrides = new HashMap<>(properties);
+        overrides.put("hibernate.connection.url", restore(database));
+        return Persistence.createEntityManagerFactory(PERSISTENCE_UNIT, overrides);
+    }
+
+    /**
+     * @return snapshot file, built if there is no snapshot for the current migrations
+     */
+    public Path snapshotFile() {
+        Path snapshot = DIRECTORY.resolve(dataset + "-" + migrationsKey() + ".zip");
+        synchronized (BUILD_LOCKS.computeIfAbsent(dataset, key -> new Object())) {
+            if (Files.notExists(snapshot)) {
+                build(snapshot);
+            }
+        }
+        return snapshot.toAbsolutePath();
+    }
+
+    /**
+     * Other JVMs may build the same snapshot: the script is written to a temporary file & moved atomically.
+     */
+    private void build(Path snapshot) {
+        String url = "jdbc:h2:mem:snapshot-" + dataset + ";DB_CLOSE_DELAY=-1";
+        try {
+            Files.createDirectories(DIRECTORY);
+            Path temporary = Files.createTempFile(DIRECTORY, dataset, ".tmp");
+            try (Connection connection = DriverManager.getConnection(url);
+                 Statement statement = connection.createStatement()) {
+                Flyway flyway = new Flyway();
+                flyway.setDataSource(url, null, null);
+                flyway.migrate();
+                if (generator != null) {
+                    generator.generate(connection);
+                }
+                statement.execute("SCRIPT TO '" + temporary.toAbsolutePath() + "' COMPRESSION ZIP");
+                statement.execute("DROP ALL OBJECTS");
+            }
+            Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot build snapshot " + snapshot, e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flyway checksums of all migrations, computed against an empty (private) in-memory database, & bytecode of
+     * {@link #MIGRATION_CODE}.
+     */
+    private static String migrationsKey() {
+        Flyway flyway = new Flyway();
+        flyway.setDataSource("jdbc:h2:mem:", null, null);
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (MigrationInfo migration : flyway.info().all()) {
+            hasher.putString(String.valueOf(migration.getVersion()), StandardCharsets.UTF_8)
+                    .putInt(Objects.hashCode(migration.getChecksum()));
+        }
+        for (Class<?> code : MIGRATION_CODE) {
+            try (InputStream bytecode = code.getResourceAsStream(code.getSimpleName() + ".class")) {
+                hasher.putString(code.getName(), StandardCharsets.UTF_8)
+                        .putBytes(ByteStreams.toByteArray(bytecode));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return hasher.hash().toString().substring(0, 16);
+    }
+
+    /**
+     * Fills freshly migrated database with additional data.
+     */
+    @FunctionalInterface
+    public interface DatasetGenerator {
+        void generate(Connection connection) throws SQLException;
+    }
+}
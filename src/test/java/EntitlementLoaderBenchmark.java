@@ -0,0 +1,94 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Rendering 500 announcements with their entitlements (10 each): one query per announcement vs
+ * {@link EntitlementLoader} vs batch-fetched {@code Announcement.entitlements} - latency & statements per render.
+ */
+public class EntitlementLoaderBenchmark {
+    private static final int ANNOUNCEMENTS = 500;
+    private static final int PER_ANNOUNCEMENT = 10;
+    private static final int FIRST_ID = 1000;
+
+    public static void main(String[] args) throws Exception {
+        SqlStatements sql = new SqlStatements();
+        EntityManagerFactory emf = DatabaseSnapshot.seed().entityManagerFactory("EntitlementLoaderBenchmark",
+                sql.properties());
+        fill(emf);
+        BenchmarkRunner runner = new BenchmarkRunner(10, 50);
+
+        statements(sql, runner.measure("query per announcement", () -> render(emf, sql, (entityManager, ids) -> {
+            int rows = 0;
+            for (Integer id : ids) {
+                rows += entityManager.createQuery(
+                        "SELECT e FROM Entitlement e WHERE e.announcementId = :id", Entitlement.class)
+                        .setParameter("id", id)
+                        .getResultList().size();
+            }
+            return rows;
+        })));
+        statements(sql, runner.measure("EntitlementLoader", () -> render(emf, sql,
+                (entityManager, ids) -> new EntitlementLoader(entityManager).load(ids).size())));
+        statements(sql, runner.measure("Announcement.entitlements", () -> render(emf, sql, (entityManager, ids) -> {
+            int rows = 0;
+            for (Announcement announcement : announcements(entityManager)) {
+                rows += announcement.getEntitlements().size();
+            }
+            return rows;
+        })));
+
+        emf.close();
+    }
+
+    private interface Renderer {
+        int render(EntityManager entityManager, List<Integer> announcementIds);
+    }
+
+    /**
+     * Loads announcements, then their entitlements by the renderer.
+     */
+    private static int render(EntityManagerFactory emf, SqlStatements sql, Renderer renderer) {
+        sql.clear();
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            List<Integer> ids = announcements(entityManager).stream()
+                    .map(Announcement::getA_id)
+                    .collect(Collectors.toList());
+            return renderer.render(entityManager, ids);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private static List<Announcement> announcements(EntityManager entityManager) {
+        return entityManager.createQuery("SELECT a FROM Announcement a WHERE a.a_id >= :first", Announcement.class)
+                .setParameter("first", FIRST_ID)
+                .getResultList();
+    }
+
+    private static void statements(SqlStatements sql, BenchmarkRunner.Result result) {
+        System.out.printf("%-50s %d statements%n", "", sql.count("select"));
+    }
+
+    private static void fill(EntityManagerFactory emf) {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("" +
+                "INSERT INTO ANNOUNCEMENT_DEFAULT (STATEREF, A_ID, TITLE, DIVIDEND) " +
+                "SELECT X, X, 'CashDividend', MOD(X, 10) FROM SYSTEM_RANGE(?, ?)")
+                .setParameter(1, FIRST_ID)
+                .setParameter(2, FIRST_ID + ANNOUNCEMENTS - 1)
+                .executeUpdate();
+        entityManager.createNativeQuery("" +
+                "INSERT INTO Entitlement (e_id, amount, announcementId) " +
+                "SELECT X, MOD(X, 100), ? + MOD(X, ?) FROM SYSTEM_RANGE(1, ?)")
+                .setParameter(1, FIRST_ID)
+                .setParameter(2, ANNOUNCEMENTS)
+                .setParameter(3, ANNOUNCEMENTS * PER_ANNOUNCEMENT)
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+}
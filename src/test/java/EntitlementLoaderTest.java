@@ -0,0 +1,147 @@
+import com.google.common.cache.Cache;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Besides seeded entitlements of announcement 1 (e_id 22 & 33): one entitlement (e_id = 10 * id) of every
+ * announcement id 100 - 699.
+ */
+class EntitlementLoaderTest {
+
+    private static final SqlStatements sql = new SqlStatements();
+    private static final EntityManagerFactory emf =
+            DatabaseSnapshot.seed().entityManagerFactory("EntitlementLoaderTest", sql.properties());
+
+    @BeforeAll
+    static void insertEntitlements() {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("" +
+                "INSERT INTO Entitlement (e_id, amount, announcementId) " +
+                "SELECT X * 10, X, X FROM SYSTEM_RANGE(100, 699)")
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    @AfterAll
+    static void close() {
+        emf.close();
+    }
+
+    @BeforeEach
+    void clear() {
+        sql.clear();
+    }
+
+    @Test
+    void chunkedInLists() {
+        EntityManager entityManager = emf.createEntityManager();
+
+        EntitlementLoader.ByAnnouncement entitlements = new EntitlementLoader(entityManager).load(range(100, 700));
+
+        assertThat(sql.count("select")).isEqualTo(2);
+        assertThat(entitlements.size()).isEqualTo(600);
+        assertThat(entitlements.get(123)).extracting(Entitlement::getE_id).containsExactly(1230);
+        entityManager.close();
+    }
+
+    @Test
+    void announcementsWithoutEntitlements() {
+        EntityManager entityManager = emf.createEntityManager();
+
+        EntitlementLoader.ByAnnouncement entitlements = new EntitlementLoader(entityManager)
+                .load(Arrays.asList(1, 2, 1, 99));
+
+        assertThat(entitlements.announcementIds()).containsExactly(1, 2, 99);
+        assertThat(entitlements.get(1)).extracting(Entitlement::getE_id).containsExactly(22, 33);
+        assertThat(entitlements.get(2)).isEmpty();
+        assertThat(entitlements.contains(99)).isTrue();
+        assertThat(entitlements.contains(100)).isFalse();
+        assertThat(entitlements.get(100)).isEmpty();
+        entityManager.close();
+    }
+
+    @Test
+    void temporaryTableInTransaction() {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+
+        EntitlementLoader.ByAnnouncement entitlements = new EntitlementLoader(entityManager, 8, 8, null)
+                .load(range(100, 120));
+
+        assertThat(sql.statements("select")).hasSize(1).allMatch(each -> each.contains("IN_LIST_VALUE"));
+        assertThat(entitlements.size()).isEqualTo(20);
+        entityManager.getTransaction().rollback();
+        entityManager.close();
+    }
+
+    @Test
+    void cachedAnnouncementsAreNotQueried() {
+        Cache<Integer, List<Entitlement>> cache = EntitlementLoader.cache(1000, Duration.ofMinutes(1));
+        EntityManager first = emf.createEntityManager();
+        new EntitlementLoader(first, cache).load(range(100, 110));
+        first.close();
+        sql.clear();
+
+        EntityManager second = emf.createEntityManager();
+        EntitlementLoader.ByAnnouncement entitlements = new EntitlementLoader(second, cache).load(range(105, 115));
+
+        assertThat(sql.count("select")).isEqualTo(1);
+        assertThat(sql.statements("select").get(0)).doesNotContain("IN_LIST_VALUE");
+        assertThat(entitlements.size()).isEqualTo(10);
+        assertThat(cache.size()).isEqualTo(15);
+        second.close();
+    }
+
+    @Test
+    void cachedEntitlementsAreDetachedCopies() {
+        Cache<Integer, List<Entitlement>> cache = EntitlementLoader.cache(1000, Duration.ofMinutes(1));
+        EntityManager first = emf.createEntityManager();
+        Entitlement loaded = new EntitlementLoader(first, cache).load(range(100, 110)).get(105).get(0);
+
+        EntityManager second = emf.createEntityManager();
+        EntitlementLoader.ByAnnouncement entitlements = new EntitlementLoader(second, cache).load(range(105, 111));
+        Entitlement cached = entitlements.get(105).get(0);
+
+        assertThat(first.contains(loaded)).isTrue();
+        assertThat(cached).isNotSameAs(loaded).isNotSameAs(cache.getIfPresent(105).get(0));
+        assertThat(cached.getStateRef()).isEqualTo(loaded.getStateRef());
+        assertThat(cached.getE_id()).isEqualTo(1050);
+        assertThat(second.contains(cached)).isFalse();
+        assertThat(second.contains(entitlements.get(110).get(0))).isTrue();
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void announcementEntitlementsAreBatchFetched() {
+        EntityManager entityManager = emf.createEntityManager();
+        List<Announcement> announcements = entityManager
+                .createQuery("SELECT a FROM Announcement a ORDER BY a.a_id", Announcement.class)
+                .getResultList();
+        sql.clear();
+
+        assertThat(announcements.get(0).getEntitlements()).extracting(Entitlement::getE_id)
+                .containsExactlyInAnyOrder(22, 33);
+        assertThat(announcements.get(1).getEntitlements()).isEmpty();
+        assertThat(sql.count("select")).isEqualTo(1);
+        entityManager.close();
+    }
+
+    private static List<Integer> range(int from, int to) {
+        return IntStream.range(from, to).boxed().collect(Collectors.toList());
+    }
+}
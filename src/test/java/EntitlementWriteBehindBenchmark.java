@@ -0,0 +1,83 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Burst of 10k entitlements written by 16 concurrent callers: one transaction per insert vs
+ * {@link EntitlementWriteBehind} with {@link EntitlementWriteBehind.Durability#QUEUED} (until flushed) &
+ * {@link EntitlementWriteBehind.Durability#FLUSHED} - inserts per second & batch metrics.
+ */
+public class EntitlementWriteBehindBenchmark {
+    private static final int ENTITLEMENTS = 10_000;
+    private static final int CALLERS = 16;
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = DatabaseSnapshot.seed().entityManagerFactory("EntitlementWriteBehindBenchmark");
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        BenchmarkRunner runner = new BenchmarkRunner(1, 5);
+
+        throughput(runner.measure("transaction per insert", () -> burst(executor, entitlement -> {
+            EntityManager entityManager = emf.createEntityManager();
+            entityManager.getTransaction().begin();
+            entityManager.createNativeQuery(
+                    "INSERT INTO Entitlement (e_id, amount, announcementId) VALUES (?, ?, ?)")
+                    .setParameter(1, entitlement.getE_id())
+                    .setParameter(2, entitlement.getAmount())
+                    .setParameter(3, entitlement.getAnnouncementId())
+                    .executeUpdate();
+            entityManager.getTransaction().commit();
+            entityManager.close();
+        })));
+
+        for (EntitlementWriteBehind.Durability durability : EntitlementWriteBehind.Durability.values()) {
+            EntitlementWriteBehind writeBehind = new EntitlementWriteBehind(emf,
+                    EntitlementWriteBehind.DEFAULT_CAPACITY, EntitlementWriteBehind.DEFAULT_BATCH_SIZE,
+                    EntitlementWriteBehind.DEFAULT_MAX_DELAY_MILLIS, durability);
+            throughput(runner.measure("write-behind, " + durability, () -> {
+                int written = burst(executor, writeBehind::write);
+                writeBehind.flush();
+                return written;
+            }));
+            System.out.printf("%-50s %d batches, max %d rows, avg %.1f rows, avg flush %.3f ms, max flush %.3f ms%n",
+                    "", writeBehind.batches(), writeBehind.maxBatchSize(),
+                    (double) writeBehind.written() / writeBehind.batches(),
+                    writeBehind.flushNanos() / 1e6 / writeBehind.batches(), writeBehind.maxFlushNanos() / 1e6);
+            writeBehind.close();
+        }
+
+        executor.shutdown();
+        emf.close();
+    }
+
+    private static void throughput(BenchmarkRunner.Result result) {
+        System.out.printf("%-50s %10.0f inserts/s%n", "", ENTITLEMENTS * 1e9 / result.medianNanos);
+    }
+
+    private interface Writer {
+        void write(Entitlement entitlement);
+    }
+
+    private static int burst(ExecutorService executor, Writer writer) throws Exception {
+        List<Future<?>> callers = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            int caller = i;
+            callers.add(executor.submit(() -> {
+                for (int e_id = caller; e_id < ENTITLEMENTS; e_id += CALLERS) {
+                    Entitlement entitlement = new Entitlement();
+                    entitlement.setE_id(e_id);
+                    entitlement.setAmount(e_id % 1000);
+                    entitlement.setAnnouncementId(e_id % 2 + 1);
+                    writer.write(entitlement);
+                }
+            }));
+        }
+        for (Future<?> caller : callers) {
+            caller.get();
+        }
+        return ENTITLEMENTS;
+    }
+}
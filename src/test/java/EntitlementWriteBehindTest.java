@@ -0,0 +1,211 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Every test works on a fresh database.
+ */
+class EntitlementWriteBehindTest {
+
+    private EntityManagerFactory emf;
+
+    @BeforeEach
+    void open() {
+        emf = DatabaseSnapshot.seed().entityManagerFactory("EntitlementWriteBehindTest");
+    }
+
+    @AfterEach
+    void close() {
+        emf.close();
+    }
+
+    @Test
+    void batchesBySize() {
+        try (EntitlementWriteBehind writeBehind = new EntitlementWriteBehind(emf, 100, 10, 60_000,
+                EntitlementWriteBehind.Durability.QUEUED)) {
+            for (int e_id = 1000; e_id < 1030; e_id++) {
+                writeBehind.write(entitlement(e_id));
+            }
+            writeBehind.flush();
+
+            assertThat(writeBehind.written()).isEqualTo(30);
+            assertThat(writeBehind.batches()).isGreaterThanOrEqualTo(3);
+            assertThat(writeBehind.maxBatchSize()).isEqualTo(10);
+            assertThat(writeBehind.queueDepth()).isZero();
+            assertThat(writeBehind.flushNanos()).isGreaterThanOrEqualTo(writeBehind.maxFlushNanos()).isPositive();
+        }
+        assertThat(count(1000, 1030)).isEqualTo(30);
+    }
+
+    @Test
+    void flushesAfterMaxDelay() throws Exception {
+        try (EntitlementWriteBehind writeBehind = new EntitlementWriteBehind(emf, 100, 100, 20,
+                EntitlementWriteBehind.Durability.QUEUED)) {
+            writeBehind.write(entitlement(2000)).get(5, TimeUnit.SECONDS);
+
+            assertThat(writeBehind.lastBatchSize()).isEqualTo(1);
+            assertThat(count(2000, 2001)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void flushedDurabilityCommitsBeforeReturning() {
+        try (EntitlementWriteBehind writeBehind = new EntitlementWriteBehind(emf, 100, 100, 60_000,
+                EntitlementWriteBehind.Durability.FLUSHED)) {
+            CompletableFuture<Void> written = writeBehind.write(entitlement(3000));
+
+            assertThat(written).isCompleted();
+            assertThat(count(3000, 3001)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void blocksWhileQueueIsFull() {
+        try (EntitlementWriteBehind writeBehind = new EntitlementWriteBehind(emf, 2, 1, 60_000,
+                EntitlementWriteBehind.Durability.QUEUED)) {
+            for (int e_id = 4000; e_id < 4200; e_id++) {
+                writeBehind.write(entitlement(e_id));
+                assertThat(writeBehind.queueDepth()).isLessThanOrEqualTo(2);
+            }
+            writeBehind.flush();
+
+            assertThat(writeBehind.blocked()).isPositive();
+            assertThat(writeBehind.written()).isEqualTo(200);
+        }
+        assertThat(count(4000, 4200)).isEqualTo(200);
+    }
+
+    @Test
+    void rolledBackBatch() {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("ALTER TABLE Entitlement ADD CONSTRAINT POSITIVE_E_ID CHECK (e_id > 0)")
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        try (EntitlementWriteBehind writeBehind = new EntitlementWriteBehind(emf, 100, 100, 60_000,
+                EntitlementWriteBehind.Durability.FLUSHED)) {
+            assertThatThrownBy(() -> writeBehind.write(entitlement(-1)))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("rolled back");
+            writeBehind.write(entitlement(5000));
+
+            assertThat(writeBehind.failed()).isEqualTo(1);
+            assertThat(writeBehind.written()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void closeWritesQueuedAndRejectsNew() {
+        EntitlementWriteBehind writeBehind = new EntitlementWriteBehind(emf, 100, 100, 60_000,
+                EntitlementWriteBehind.Durability.QUEUED);
+        for (int e_id = 6000; e_id < 6005; e_id++) {
+            writeBehind.write(entitlement(e_id));
+        }
+        writeBehind.close();
+
+        assertThat(count(6000, 6005)).isEqualTo(5);
+        assertThatThrownBy(() -> writeBehind.write(entitlement(6005)))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void writesRacingCloseCompleteAndReleaseSpace() throws Exception {
+        EntitlementWriteBehind writeBehind = new EntitlementWriteBehind(emf, 20, 10, 60_000,
+                EntitlementWriteBehind.Durability.QUEUED);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<CompletableFuture<Void>>>> writers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int first = 7000 + i * 10_000;
+            writers.add(executor.submit(() -> {
+                List<CompletableFuture<Void>> written = new ArrayList<>();
+                try {
+                    for (int e_id = first; ; e_id++) {
+                        written.add(writeBehind.write(entitlement(e_id)));
+                    }
+                } catch (IllegalStateException closed) {
+                    return written;
+                }
+            }));
+        }
+        Thread.sleep(100);
+
+        writeBehind.close();
+
+        long accepted = 0;
+        for (Future<List<CompletableFuture<Void>>> writer : writers) {
+            List<CompletableFuture<Void>> written = writer.get(10, TimeUnit.SECONDS);
+            assertThat(written).allMatch(CompletableFuture::isDone);
+            accepted += written.size();
+        }
+        executor.shutdown();
+        assertThat(writeBehind.written()).isEqualTo(accepted);
+        assertThat(writeBehind.queueDepth()).isZero();
+    }
+
+    @Test
+    void writerSurvivesError() {
+        AtomicBoolean fail = new AtomicBoolean(true);
+        EntityManagerFactory failingOnce = (EntityManagerFactory) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{EntityManagerFactory.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("createEntityManager") && fail.getAndSet(false)) {
+                        throw new AssertionError("injected");
+                    }
+                    try {
+                        return method.invoke(emf, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+
+        try (EntitlementWriteBehind writeBehind = new EntitlementWriteBehind(failingOnce, 100, 100, 60_000,
+                EntitlementWriteBehind.Durability.FLUSHED)) {
+            assertThatThrownBy(() -> writeBehind.write(entitlement(8000)))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasCauseInstanceOf(AssertionError.class);
+            writeBehind.write(entitlement(8001));
+
+            assertThat(writeBehind.failed()).isEqualTo(1);
+            assertThat(writeBehind.written()).isEqualTo(1);
+            assertThat(writeBehind.queueDepth()).isZero();
+        }
+        assertThat(count(8000, 8002)).isEqualTo(1);
+    }
+
+    private static Entitlement entitlement(int e_id) {
+        Entitlement entitlement = new Entitlement();
+        entitlement.setE_id(e_id);
+        entitlement.setAmount(e_id % 100);
+        entitlement.setAnnouncementId(1);
+        return entitlement;
+    }
+
+    private long count(int from, int to) {
+        EntityManager entityManager = emf.createEntityManager();
+        long count = entityManager.createQuery("" +
+                        "SELECT COUNT(e) FROM Entitlement e WHERE e.e_id >= :from AND e.e_id < :to",
+                Long.class)
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .getSingleResult();
+        entityManager.close();
+        return count;
+    }
+}
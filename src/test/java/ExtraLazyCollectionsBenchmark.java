@@ -0,0 +1,36 @@
+import org.hibernate.Hibernate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * {@code size()} & {@code contains(book)} of books of a generated bookstore (~1k of 50k books): extra lazy
+ * collection vs initialized collection (loading of all books).
+ */
+public class ExtraLazyCollectionsBenchmark {
+    private static final int BOOKS = 50_000;
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = CatalogGenerator.snapshot(BOOKS)
+                .entityManagerFactory("ExtraLazyCollectionsBenchmark");
+        EntityManager entityManager = emf.createEntityManager();
+        int bookstore = entityManager.createQuery("SELECT MAX(b.id) FROM Bookstore b", Integer.class)
+                .getSingleResult();
+        BenchmarkRunner runner = new BenchmarkRunner(5, 20);
+
+        runner.measure("size & contains, initialized", () -> {
+            entityManager.clear();
+            Bookstore store = entityManager.find(Bookstore.class, bookstore);
+            Hibernate.initialize(store.getBooks());
+            return store.getBooks().size() + (store.getBooks().contains(entityManager.find(Book.class, 1)) ? 1 : 0);
+        });
+        runner.measure("size & contains, extra lazy", () -> {
+            entityManager.clear();
+            Bookstore store = entityManager.find(Bookstore.class, bookstore);
+            return store.getBooks().size() + (store.getBooks().contains(entityManager.find(Book.class, 1)) ? 1 : 0);
+        });
+
+        entityManager.close();
+        emf.close();
+    }
+}
@@ -0,0 +1,100 @@
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.EntityKey;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Seed: bookstore 1 - books 1, 2, 3; bookstore 2 - book 4; author 3 - book 3; author 5 - book 4.
+ */
+class ExtraLazyCollectionsTest {
+
+    private static final SqlStatements statements = new SqlStatements();
+    private static final EntityManagerFactory emf =
+            DatabaseSnapshot.seed().entityManagerFactory("ExtraLazyCollectionsTest", statements.properties());
+    private static final EntityManager entityManager = emf.createEntityManager();
+
+    @BeforeEach
+    void beginTransaction() {
+        entityManager.getTransaction().begin();
+    }
+
+    @AfterEach
+    void rollbackTransaction() {
+        entityManager.getTransaction().rollback();
+        entityManager.clear();
+    }
+
+    @AfterAll
+    static void closeEntityManager() {
+        entityManager.close();
+    }
+
+    @Test
+    void bookstoreBooksSizeAndIsEmpty() {
+        Bookstore bookstore = entityManager.find(Bookstore.class, 1);
+        statements.clear();
+
+        assertThat(bookstore.getBooks().size()).isEqualTo(3);
+        assertThat(bookstore.getBooks().isEmpty()).isFalse();
+
+        assertThat(statements.statements()).hasSize(1);
+        assertThat(statements.statements("select count(")).hasSize(1);
+        assertThat(Hibernate.isInitialized(bookstore.getBooks())).isFalse();
+        assertThat(loadedBooks()).isZero();
+    }
+
+    @Test
+    void bookstoreBooksContains() {
+        Bookstore bookstore = entityManager.find(Bookstore.class, 1);
+        Book own = entityManager.getReference(Book.class, 1);
+        Book other = entityManager.getReference(Book.class, 4);
+        statements.clear();
+
+        assertThat(bookstore.getBooks().contains(own)).isTrue();
+        assertThat(bookstore.getBooks().contains(other)).isFalse();
+
+        assertThat(statements.statements()).hasSize(2);
+        assertThat(Hibernate.isInitialized(bookstore.getBooks())).isFalse();
+        assertThat(loadedBooks()).isZero();
+    }
+
+    @Test
+    void authorBooksSizeAndContains() {
+        Author author = entityManager.find(Author.class, 3);
+        statements.clear();
+
+        assertThat(author.getBooks().size()).isEqualTo(1);
+        assertThat(author.getBooks().contains(entityManager.getReference(Book.class, 3))).isTrue();
+        assertThat(author.getBooks().contains(entityManager.getReference(Book.class, 4))).isFalse();
+
+        assertThat(statements.statements()).hasSize(3);
+        assertThat(Hibernate.isInitialized(author.getBooks())).isFalse();
+        assertThat(loadedBooks()).isZero();
+    }
+
+    @Test
+    void iterationLoadsBooks() {
+        Bookstore bookstore = entityManager.find(Bookstore.class, 1);
+
+        assertThat(bookstore.getBooks()).extracting(Book::getId).containsExactlyInAnyOrder(1, 2, 3);
+        assertThat(Hibernate.isInitialized(bookstore.getBooks())).isTrue();
+        assertThat(loadedBooks()).isEqualTo(3);
+    }
+
+    private static long loadedBooks() {
+        Set<?> keys = entityManager.unwrap(Session.class).getStatistics().getEntityKeys();
+        return keys.stream()
+                .map(EntityKey.class::cast)
+                .filter(key -> key.getEntityName().equals(Book.class.getName()))
+                .count();
+    }
+}
@@ -0,0 +1,86 @@
+import com.google.common.collect.ImmutableMap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Import of 1M entitlements from CSV: {@link FeedImport} with 1 - 4 writers vs {@code persist} of entities with
+ * JDBC batching (100k entitlements) - rows per second.
+ */
+public class FeedImportBenchmark {
+    private static final int RECORDS = 1_000_000;
+    private static final int PERSISTED = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = DatabaseSnapshot.seed().entityManagerFactory("FeedImportBenchmark",
+                ImmutableMap.of("hibernate.jdbc.batch_size", "1000"));
+        Path file = Files.createDirectories(Paths.get("target")).resolve("entitlements.csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("e_id,amount,announcementId\n");
+            for (int e_id = 1; e_id <= RECORDS; e_id++) {
+                writer.write(e_id + "," + (e_id % 1000) + "," + (e_id % 2 + 1) + "\n");
+            }
+        }
+        BenchmarkRunner runner = new BenchmarkRunner(1, 3);
+        AtomicInteger feeds = new AtomicInteger();
+
+        for (int writers : new int[]{1, 2, 4}) {
+            FeedImport feedImport = new FeedImport(emf, writers, FeedImport.DEFAULT_COMMIT_INTERVAL);
+            runner.measure("FeedImport, " + writers + " writers", () -> {
+                truncate(emf);
+                FeedImport.Progress progress = feedImport.importFile(FeedImport.Feed.ENTITLEMENTS,
+                        "entitlements-" + feeds.incrementAndGet(), file);
+                System.out.println(progress);
+                return progress;
+            });
+        }
+
+        AtomicInteger stateRefs = new AtomicInteger();
+        runner.measure("persist, batch 1000, " + PERSISTED + " rows", () -> {
+            truncate(emf);
+            long start = System.nanoTime();
+            EntityManager entityManager = emf.createEntityManager();
+            try {
+                entityManager.getTransaction().begin();
+                for (int i = 0; i < PERSISTED; i++) {
+                    Entitlement entitlement = new Entitlement();
+                    entitlement.setStateRef(stateRefs.incrementAndGet());
+                    entitlement.setAmount(i % 1000);
+                    entitlement.setAnnouncementId(i % 2 + 1);
+                    entityManager.persist(entitlement);
+                    if (i % 1000 == 999) {
+                        entityManager.flush();
+                        entityManager.clear();
+                    }
+                }
+                entityManager.getTransaction().commit();
+            } finally {
+                entityManager.close();
+            }
+            System.out.println(String.format("%.0f rows/s", PERSISTED * 1e9 / (System.nanoTime() - start)));
+            return null;
+        });
+
+        emf.close();
+    }
+
+    /**
+     * Every iteration starts with an empty table (throughput of in-memory H2 drops as the table grows).
+     */
+    private static void truncate(EntityManagerFactory emf) {
+        EntityManager entityManager = emf.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            entityManager.createNativeQuery("TRUNCATE TABLE Entitlement").executeUpdate();
+            entityManager.getTransaction().commit();
+        } finally {
+            entityManager.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Every test works on a fresh database.
+ */
+class FeedImportTest {
+
+    private EntityManagerFactory emf;
+
+    @BeforeEach
+    void open() {
+        emf = DatabaseSnapshot.seed().entityManagerFactory("FeedImportTest");
+    }
+
+    @AfterEach
+    void close() {
+        emf.close();
+    }
+
+    @Test
+    void csvParser() throws IOException {
+        CsvParser parser = new CsvParser(new StringReader("" +
+                "a,\"b, c\",\"say \"\"hi\"\"\"\r\n" +
+                ",\"multi\nline\",\n" +
+                "last"));
+
+        assertThat(parser.next()).containsExactly("a", "b, c", "say \"hi\"");
+        assertThat(parser.next()).containsExactly("", "multi\nline", "");
+        assertThat(parser.next()).containsExactly("last");
+        assertThat(parser.next()).isNull();
+        assertThat(parser.records()).isEqualTo(3);
+    }
+
+    @Test
+    void announcements() throws IOException {
+        FeedImport.Progress progress = new FeedImport(emf, 2, 2).importFeed(FeedImport.Feed.ANNOUNCEMENTS,
+                "announcements", new StringReader("" +
+                        "createdOn,a_id,title,dividend\n" +
+                        "2019-07-01T10:00:00+02:00,3,\"StockDividend, special\",9\n" +
+                        ",4,,10\n" +
+                        "2019-07-03T00:00:00Z,5,CashDividend,11\n"),
+                p -> {
+                });
+
+        assertThat(progress.getRecords()).isEqualTo(3);
+        assertThat(progress.getImported()).isEqualTo(3);
+        assertThat(progress.getChunks()).isEqualTo(2);
+        assertThat(progress.getRejected()).isZero();
+        inTransaction(entityManager -> {
+            Announcement special = entityManager.createQuery(
+                    "SELECT a FROM Announcement a WHERE a.a_id = 3", Announcement.class)
+                    .getSingleResult();
+            assertThat(special.getTitle()).isEqualTo("StockDividend, special");
+            assertThat(special.getDividend()).isEqualTo(9);
+            assertThat(special.getCreatedOn().toInstant())
+                    .isEqualTo(OffsetDateTime.parse("2019-07-01T10:00:00+02:00").toInstant());
+            assertThat(count(entityManager, "Announcement")).isEqualTo(2 + 3);
+        });
+    }
+
+    @Test
+    void invalidRecordsAreRejected() throws IOException {
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < 51; i++) {
+            title.append('x');
+        }
+        FeedImport.Progress progress = new FeedImport(emf, 2, 10).importFeed(FeedImport.Feed.ENTITLEMENTS,
+                "entitlements", new StringReader("" +
+                        "e_id,amount,announcementId\n" +
+                        "100,15,1\n" +
+                        ",15,1\n" +
+                        "101,fifteen,1\n" +
+                        "102,16,2\n"),
+                p -> {
+                });
+        FeedImport.Progress announcements = new FeedImport(emf).importFeed(FeedImport.Feed.ANNOUNCEMENTS,
+                "announcements", new StringReader("" +
+                        "a_id,title,dividend,createdOn\n" +
+                        "6," + title + ",1,\n" +
+                        "7,CashDividend,1,yesterday\n"),
+                p -> {
+                });
+
+        assertThat(progress.getImported()).isEqualTo(2);
+        assertThat(progress.getRejected()).isEqualTo(2);
+        assertThat(progress.getRejections()).extracting(FeedImport.Rejection::toString).containsExactly(
+                "record 2: e_id is required",
+                "record 3: amount is not int: fifteen");
+        assertThat(announcements.getImported()).isZero();
+        assertThat(announcements.getRejections()).extracting(FeedImport.Rejection::toString).containsExactly(
+                "record 1: title is longer than 50",
+                "record 2: createdOn is not OffsetDateTime: yesterday");
+        inTransaction(entityManager -> assertThat(count(entityManager, "Entitlement")).isEqualTo(2 + 2));
+    }
+
+    @Test
+    void failedImportContinuesWhereItStopped() throws IOException {
+        StringBuilder feed = new StringBuilder("e_id,amount,announcementId\n");
+        for (int e_id = 1000; e_id < 2000; e_id++) {
+            feed.append(e_id).append(',').append(e_id % 100).append(",1\n");
+        }
+        inTransaction(entityManager -> entityManager.createNativeQuery("" +
+                "ALTER TABLE Entitlement ADD CONSTRAINT NOT_1666 CHECK (e_id <> 1666)")
+                .executeUpdate());
+        FeedImport feedImport = new FeedImport(emf, 2, 100);
+        List<Long> imported = new ArrayList<>();
+
+        assertThatThrownBy(() -> feedImport.importFeed(FeedImport.Feed.ENTITLEMENTS, "entitlements",
+                new StringReader(feed.toString()), p -> {
+                }))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("import it again to continue");
+        inTransaction(entityManager -> {
+            long committed = count(entityManager, "Entitlement") - 2;
+            assertThat(committed).isBetween(100L, 900L);
+            assertThat(committed % 100).isZero();
+            imported.add(committed);
+            entityManager.createNativeQuery("ALTER TABLE Entitlement DROP CONSTRAINT NOT_1666").executeUpdate();
+        });
+        FeedImport.Progress progress = feedImport.importFeed(FeedImport.Feed.ENTITLEMENTS, "entitlements",
+                new StringReader(feed.toString()), p -> {
+                });
+
+        assertThat(progress.getSkipped()).isEqualTo(imported.get(0));
+        assertThat(progress.getImported()).isEqualTo(1000 - imported.get(0));
+        inTransaction(entityManager -> {
+            assertThat(count(entityManager, "Entitlement")).isEqualTo(2 + 1000);
+            assertThat(entityManager.createQuery(
+                    "SELECT COUNT(DISTINCT e.e_id) FROM Entitlement e WHERE e.e_id >= 1000", Long.class)
+                    .getSingleResult()).isEqualTo(1000);
+        });
+    }
+
+    @Test
+    void resetImportsFeedAgain() throws IOException {
+        FeedImport feedImport = new FeedImport(emf);
+        String feed = "e_id,amount,announcementId\n100,15,1\n";
+
+        feedImport.importFeed(FeedImport.Feed.ENTITLEMENTS, "entitlements", new StringReader(feed), p -> {
+        });
+        FeedImport.Progress again = feedImport.importFeed(FeedImport.Feed.ENTITLEMENTS, "entitlements",
+                new StringReader(feed), p -> {
+                });
+        feedImport.reset("entitlements");
+        FeedImport.Progress afterReset = feedImport.importFeed(FeedImport.Feed.ENTITLEMENTS, "entitlements",
+                new StringReader(feed), p -> {
+                });
+
+        assertThat(again.getSkipped()).isEqualTo(1);
+        assertThat(again.getImported()).isZero();
+        assertThat(afterReset.getImported()).isEqualTo(1);
+        inTransaction(entityManager -> assertThat(count(entityManager, "Entitlement")).isEqualTo(2 + 2));
+    }
+
+    private static long count(EntityManager entityManager, String entity) {
+        return entityManager.createQuery("SELECT COUNT(e) FROM " + entity + " e", Long.class).getSingleResult();
+    }
+
+    private void inTransaction(Consumer<EntityManager> work) {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        work.accept(entityManager);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+}
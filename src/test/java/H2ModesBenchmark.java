@@ -0,0 +1,121 @@
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Queries of the suite ({@link Tests}) over 10k books by 1, 4 & 16 concurrent callers (own EntityManager each):
+ * embedded database vs the same database over loopback TCP ({@link H2TcpServer}). Operation: every caller runs
+ * the query mix once; throughput = callers * queries / median.
+ * <p>
+ * Engine settings of the database (both modes): {@code -Dh2.settings=CACHE_SIZE=65536,MULTI_THREADED=TRUE}, run by
+ * {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark="-Dh2.settings=... H2ModesBenchmark"}
+ */
+public class H2ModesBenchmark {
+    private static final int BOOKS = 10_000;
+    private static final int[] CALLERS = {1, 4, 16};
+    private static final String DATABASE = "H2ModesBenchmark";
+    private static final int QUERIES = 7;
+    private static final String USER = "BENCHMARK";
+    private static final String PASSWORD = "benchmark";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = Splitter.on(',').omitEmptyStrings().withKeyValueSeparator('=')
+                .split(System.getProperty("h2.settings", ""));
+        // settings applied when the database opens: by the restore, before the server opens it
+        StringBuilder url = new StringBuilder(";QUERY_CACHE_SIZE=0");
+        settings.forEach((name, value) -> url.append(';').append(name).append('=').append(value));
+        String embedded = CatalogGenerator.snapshot(BOOKS).restore(DATABASE, url.toString());
+        // the server requires a password, the restored database has only the default user
+        try (Connection connection = DriverManager.getConnection(embedded);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE USER " + USER + " PASSWORD '" + PASSWORD + "' ADMIN");
+        }
+        try (H2TcpServer server = H2TcpServer.start("mem:" + DATABASE, 0, settings, USER, PASSWORD, false)) {
+            EntityManagerFactory embeddedEmf = Persistence.createEntityManagerFactory(
+                    DatabaseSnapshot.PERSISTENCE_UNIT, ImmutableMap.of("hibernate.connection.url", embedded));
+            EntityManagerFactory tcpEmf = Persistence.createEntityManagerFactory(
+                    DatabaseSnapshot.PERSISTENCE_UNIT, ImmutableMap.of("hibernate.connection.url", server.url(),
+                            "hibernate.connection.username", USER, "hibernate.connection.password", PASSWORD));
+            ExecutorService executor = Executors.newFixedThreadPool(CALLERS[CALLERS.length - 1]);
+            BenchmarkRunner runner = new BenchmarkRunner(5, 20);
+            System.out.println("server settings " + settings);
+            // compiles Hibernate & H2 code paths of both modes before the first measurement
+            for (int i = 0; i < 20; i++) {
+                queries(embeddedEmf, i);
+                queries(tcpEmf, i);
+            }
+
+            for (int callers : CALLERS) {
+                throughput(callers, runner.measure(callers + " callers, embedded",
+                        () -> concurrently(executor, embeddedEmf, callers)));
+                throughput(callers, runner.measure(callers + " callers, tcp",
+                        () -> concurrently(executor, tcpEmf, callers)));
+            }
+
+            executor.shutdown();
+            embeddedEmf.close();
+            tcpEmf.close();
+        }
+    }
+
+    private static void throughput(int callers, BenchmarkRunner.Result result) {
+        System.out.printf("%-50s %10.0f queries/s%n", "", callers * QUERIES * 1e9 / result.medianNanos);
+    }
+
+    private static int concurrently(ExecutorService executor, EntityManagerFactory emf, int callers)
+            throws Exception {
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            int caller = i;
+            results.add(executor.submit(() -> queries(emf, caller)));
+        }
+        int rows = 0;
+        for (Future<Integer> result : results) {
+            rows += result.get();
+        }
+        return rows;
+    }
+
+    /**
+     * Queries of {@link Tests} with parameters matching the generated catalog.
+     */
+    private static int queries(EntityManagerFactory emf, int caller) {
+        EntityManager entityManager = emf.createEntityManager();
+        int rows = 0;
+        rows += entityManager.find(Book.class, 1 + caller * 37 % BOOKS) == null ? 0 : 1;
+        rows += entityManager.createQuery("SELECT b FROM Book b WHERE b.title LIKE :like", Book.class)
+                .setParameter("like", "Book 12%")
+                .getResultList().size();
+        rows += entityManager.createQuery("SELECT b FROM Book b WHERE b.title = :title", Book.class)
+                .setParameter("title", "Book 1234 " + caller)
+                .getResultList().size();
+        rows += entityManager.createQuery("SELECT b FROM Book b WHERE b.price > :value", Book.class)
+                .setParameter("value", 995)
+                .getResultList().size();
+        rows += entityManager.createQuery("SELECT count(b) FROM Book b", Long.class)
+                .getSingleResult().intValue();
+        rows += entityManager.createQuery("SELECT b.genre FROM Book b GROUP BY b.genre", WritingGenre.class)
+                .getResultList().size();
+        rows += entityManager.createQuery("" +
+                        "SELECT bookstore " +
+                        "FROM Bookstore bookstore JOIN bookstore.books book " +
+                        "WHERE EXISTS (SELECT ath FROM book.authors ath WHERE ath.name = :author)",
+                Bookstore.class)
+                .setParameter("author", "Author " + caller)
+                .getResultList().size();
+        entityManager.close();
+        return rows;
+    }
+}
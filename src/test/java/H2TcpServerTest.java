@@ -0,0 +1,102 @@
+import com.google.common.collect.ImmutableMap;
+import org.flywaydb.core.api.FlywayException;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class H2TcpServerTest {
+    private static final String USER = "app";
+    private static final String PASSWORD = "secret";
+
+    @Test
+    void migratedDatabaseOverTcp() {
+        try (H2TcpServer server = H2TcpServer.start("mem:H2TcpServerTest", 0, ImmutableMap.of(), USER, PASSWORD, false)) {
+            assertThat(server.url()).isEqualTo("jdbc:h2:tcp://127.0.0.1:" + server.port() + "/mem:H2TcpServerTest");
+            EntityManagerFactory emf = Persistence.createEntityManagerFactory(DatabaseSnapshot.PERSISTENCE_UNIT,
+                    ImmutableMap.of("hibernate.connection.url", server.url(),
+                            "hibernate.connection.username", USER, "hibernate.connection.password", PASSWORD));
+            EntityManager entityManager = emf.createEntityManager();
+
+            assertThat(entityManager.createQuery("SELECT COUNT(b) FROM Book b", Long.class).getSingleResult())
+                    .isEqualTo(4);
+
+            entityManager.close();
+            emf.close();
+        }
+    }
+
+    @Test
+    void engineSettings() throws Exception {
+        try (H2TcpServer server = H2TcpServer.start("mem:H2TcpServerTest_settings", 0,
+                ImmutableMap.of("CACHE_SIZE", "32768", "LOCK_MODE", "3"), USER, PASSWORD, false);
+             Connection connection = DriverManager.getConnection(server.url(), USER, PASSWORD);
+             Statement statement = connection.createStatement();
+             ResultSet settings = statement.executeQuery("" +
+                     "SELECT NAME, VALUE FROM INFORMATION_SCHEMA.SETTINGS " +
+                     "WHERE NAME IN ('info.CACHE_SIZE', 'CACHE_SIZE', 'LOCK_MODE') ORDER BY NAME")) {
+            ImmutableMap.Builder<String, String> values = ImmutableMap.builder();
+            while (settings.next()) {
+                values.put(settings.getString(1), settings.getString(2));
+            }
+
+            assertThat(values.build()).containsEntry("LOCK_MODE", "3").containsValue("32768");
+        }
+    }
+
+    @Test
+    void invalidSetting() {
+        assertThatThrownBy(() -> H2TcpServer.start("mem:H2TcpServerTest_invalid", 0,
+                ImmutableMap.of("CACHE_SIZE", "1;INIT=RUNSCRIPT FROM 'x'"), USER, PASSWORD, false))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("CACHE_SIZE");
+    }
+
+    @Test
+    void passwordRequired() {
+        assertThatThrownBy(() -> H2TcpServer.start("mem:H2TcpServerTest_password", 0, ImmutableMap.of(), "sa", "",
+                false))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void clientsNeedPasswordAndExistingDatabase() {
+        try (H2TcpServer server = H2TcpServer.start("mem:H2TcpServerTest_clients", 0, ImmutableMap.of(), USER,
+                PASSWORD, false)) {
+            assertThatThrownBy(() -> DriverManager.getConnection(server.url(), USER, "").close())
+                    .isInstanceOf(SQLException.class);
+            assertThatThrownBy(() -> DriverManager.getConnection(server.url(), "sa", "").close())
+                    .isInstanceOf(SQLException.class);
+            assertThatThrownBy(() -> DriverManager.getConnection(
+                    "jdbc:h2:tcp://127.0.0.1:" + server.port() + "/mem:H2TcpServerTest_other", "sa", "").close())
+                    .isInstanceOf(SQLException.class);
+        }
+    }
+
+    @Test
+    void connectionClosedWhenMigrationFails() throws Exception {
+        String url = "jdbc:h2:mem:H2TcpServerTest_failed";
+        try (Connection connection = DriverManager.getConnection(url, USER, PASSWORD);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE BOOKSTORE (ID INT)");
+
+            assertThatThrownBy(() -> H2TcpServer.start("mem:H2TcpServerTest_failed", 0, ImmutableMap.of(), USER,
+                    PASSWORD, false))
+                    .isInstanceOf(FlywayException.class);
+
+            try (ResultSet sessions = statement.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS")) {
+                sessions.next();
+                assertThat(sessions.getInt(1)).isEqualTo(1);
+            }
+        }
+    }
+}
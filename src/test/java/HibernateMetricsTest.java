@@ -0,0 +1,105 @@
+import com.google.common.io.ByteStreams;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class HibernateMetricsTest {
+
+    private static final EntityManagerFactory emf = DatabaseSnapshot.seed().entityManagerFactory(
+            "HibernateMetricsTest", HibernateMetrics.properties(1));
+
+    @AfterAll
+    static void close() {
+        emf.close();
+    }
+
+    @Test
+    void perEntityRoleAndQuery() {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.createQuery("SELECT b FROM Book b WHERE b.id = 1", Book.class)
+                .getSingleResult()
+                .getAuthors()
+                .size();
+        entityManager.close();
+
+        String metrics = new HibernateMetrics(emf).scrape();
+
+        assertThat(metrics)
+                .contains("# TYPE hibernate_entity_loads_total counter\n")
+                .contains("hibernate_statistics_sampling_rate 1.0\n")
+                .contains("hibernate_entity_loads_total{entity=\"Book\"} ")
+                .contains("hibernate_collection_loads_total{role=\"Book.authors\"} ")
+                .contains("hibernate_query_executions_total{query=\"SELECT b FROM Book b WHERE b.id = 1\"} 1\n")
+                .contains("hibernate_query_rows_total{query=\"SELECT b FROM Book b WHERE b.id = 1\"} 1\n");
+        assertThat(value(metrics, "hibernate_sessions_opened_total")).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    void sampledCountsAreEstimated() {
+        EntityManagerFactory sampled = DatabaseSnapshot.seed().entityManagerFactory(
+                "HibernateMetricsTest_sampled", HibernateMetrics.properties(0.25));
+        int executions = 4000;
+        EntityManager entityManager = sampled.createEntityManager();
+        for (int i = 0; i < executions; i++) {
+            entityManager.createQuery("SELECT COUNT(b) FROM Book b", Long.class).getSingleResult();
+        }
+        entityManager.close();
+
+        String metrics = new HibernateMetrics(sampled).scrape();
+        sampled.close();
+
+        assertThat(metrics).contains("hibernate_statistics_sampling_rate 0.25\n");
+        // binomial: standard deviation of the estimate ~ 3%
+        assertThat(value(metrics, "hibernate_query_executions_total{query=\"SELECT COUNT(b) FROM Book b\"}"))
+                .isCloseTo(executions, within(executions * 0.3));
+        assertThat(value(metrics, "hibernate_sessions_opened_total")).isEqualTo(1);
+    }
+
+    @Test
+    void statisticsAreOffInPersistenceUnit() {
+        EntityManagerFactory plain = DatabaseSnapshot.seed().entityManagerFactory("HibernateMetricsTest_plain");
+        EntityManager entityManager = plain.createEntityManager();
+        entityManager.find(Book.class, 1);
+        entityManager.close();
+
+        String metrics = new HibernateMetrics(plain).scrape();
+        plain.close();
+
+        assertThat(metrics).contains("hibernate_statistics_enabled 0.0\n")
+                .contains("hibernate_statistics_sampling_rate 1.0\n")
+                .contains("hibernate_entity_loads_total{entity=\"Book\"} 0\n");
+    }
+
+    @Test
+    void endpoint() throws Exception {
+        try (MetricsEndpoint endpoint = MetricsEndpoint.start(0, new HibernateMetrics(emf))) {
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://127.0.0.1:" + endpoint.port() + "/metrics").openConnection();
+
+            assertThat(connection.getResponseCode()).isEqualTo(200);
+            assertThat(connection.getContentType()).isEqualTo(MetricsEndpoint.CONTENT_TYPE);
+            try (InputStream body = connection.getInputStream()) {
+                assertThat(new String(ByteStreams.toByteArray(body), StandardCharsets.UTF_8))
+                        .contains("# TYPE hibernate_sessions_opened_total counter\n");
+            }
+        }
+    }
+
+    private static double value(String metrics, String sample) {
+        return Arrays.stream(metrics.split("\n"))
+                .filter(line -> line.startsWith(sample + " "))
+                .mapToDouble(line -> Double.parseDouble(line.substring(sample.length() + 1)))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No sample " + sample + " in\n" + metrics));
+    }
+}
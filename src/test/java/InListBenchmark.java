@@ -0,0 +1,72 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Books by id IN (list of 1 - 100k ids) over 100k books: plain IN with literals vs padded parameters
+ * vs temporary table.
+ */
+public class InListBenchmark {
+    private static final int BOOKS = 100_000;
+    private static final int[] SIZES = {1, 10, 100, 1_000, 10_000, 100_000};
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = CatalogGenerator.snapshot(BOOKS).entityManagerFactory("InListBenchmark");
+        EntityManager entityManager = emf.createEntityManager();
+        BenchmarkRunner runner = new BenchmarkRunner(5, 20);
+
+        for (int size : SIZES) {
+            List<Integer> ids = ids(size);
+            runner.measure("plain IN, size " + size, () -> plain(entityManager, ids));
+            runner.measure("padded, size " + size, () -> inList(entityManager, ids, Integer.MAX_VALUE));
+            runner.measure("temporary table, size " + size, () -> inList(entityManager, ids, 0));
+        }
+
+        entityManager.close();
+        emf.close();
+    }
+
+    private static List<Integer> plain(EntityManager entityManager, List<Integer> ids) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Integer> cc_query = cb.createQuery(Integer.class);
+        Root<Book> cc_query_root = cc_query.from(Book.class);
+        cc_query.select(cc_query_root.get(Book_.id))
+                .where(cc_query_root.get(Book_.id).in(ids));
+
+        return entityManager.createQuery(cc_query).getResultList();
+    }
+
+    private static List<Integer> inList(EntityManager entityManager, List<Integer> ids, int threshold) {
+        entityManager.getTransaction().begin();
+        try {
+            InList inList = InList.of(entityManager, ids, threshold);
+            CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+            CriteriaQuery<Integer> cc_query = cb.createQuery(Integer.class);
+            Root<Book> cc_query_root = cc_query.from(Book.class);
+            cc_query.select(cc_query_root.get(Book_.id))
+                    .where(inList.predicate(cb, cc_query, cc_query_root.get(Book_.id)));
+
+            return inList.bind(entityManager.createQuery(cc_query)).getResultList();
+        } finally {
+            entityManager.getTransaction().commit();
+        }
+    }
+
+    /**
+     * @return size random (distinct) ids of books
+     */
+    private static List<Integer> ids(int size) {
+        List<Integer> ids = new ArrayList<>(BOOKS);
+        for (int id = 1; id <= BOOKS; id++) {
+            ids.add(id);
+        }
+        Collections.shuffle(ids, new Random(size));
+        return new ArrayList<>(ids.subList(0, size));
+    }
+}
@@ -0,0 +1,142 @@
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Every test works in its own transaction which is rolled back afterwards.
+ */
+class InListTest {
+
+    private static final SqlStatements sql = new SqlStatements();
+    private static final EntityManagerFactory emf =
+            DatabaseSnapshot.seed().entityManagerFactory("InListTest", sql.properties());
+    private static final EntityManager entityManager = emf.createEntityManager();
+
+    @BeforeEach
+    void beginTransaction() {
+        entityManager.getTransaction().begin();
+        sql.clear();
+    }
+
+    @AfterEach
+    void rollbackTransaction() {
+        entityManager.getTransaction().rollback();
+        entityManager.clear();
+    }
+
+    @AfterAll
+    static void closeEntityManager() {
+        entityManager.close();
+    }
+
+    @Test
+    void pad() {
+        assertThat(InList.pad(ImmutableList.of())).isEmpty();
+        assertThat(InList.pad(ImmutableList.of(7))).containsExactly(7);
+        assertThat(InList.pad(ImmutableList.of(1, 2, 3))).containsExactly(1, 2, 3, 3);
+        assertThat(InList.pad(ImmutableList.of(1, 2, 2, 3, 4))).containsExactly(1, 2, 3, 4);
+        assertThat(InList.pad(ImmutableList.of(1, 2, 3, 4, 5))).hasSize(8);
+    }
+
+    @Test
+    void getBooksWithPriceIn() {
+        ImmutableSet<Integer> prices = ImmutableSet.of(10, 15, 20);
+
+        TypedQuery<Book> jpql_query =
+                entityManager.createQuery("" +
+                                "SELECT b " +
+                                "FROM Book b " +
+                                "WHERE b.price IN :prices",
+                        Book.class)
+                        .setParameter("prices", prices);
+
+        assertThat(booksWithPriceIn(prices, InList.DEFAULT_THRESHOLD))
+                .containsExactlyInAnyOrderElementsOf(jpql_query.getResultList());
+        assertThat(booksWithPriceIn(prices, 2))
+                .containsExactlyInAnyOrderElementsOf(jpql_query.getResultList());
+    }
+
+    @Test
+    void paddedListsOfSimilarSizeShareSql() {
+        booksWithPriceIn(ImmutableList.of(5, 10, 20), InList.DEFAULT_THRESHOLD);
+        booksWithPriceIn(ImmutableList.of(1, 2, 3, 4), InList.DEFAULT_THRESHOLD);
+        booksWithPriceIn(ImmutableList.of(1, 2, 3, 4, 5), InList.DEFAULT_THRESHOLD);
+
+        List<String> statements = sql.statements("select book0_");
+        assertThat(statements).hasSize(3);
+        assertThat(statements.get(0)).isEqualTo(statements.get(1));
+        assertThat(statements.get(2)).isNotEqualTo(statements.get(1));
+    }
+
+    @Test
+    void temporaryTableListsShareSql() {
+        assertThat(booksWithPriceIn(ImmutableList.of(5, 10, 15), 1)).hasSize(2);
+        assertThat(booksWithPriceIn(ImmutableList.of(5, 10, 15, 20, 25, 30, 35), 1)).hasSize(4);
+
+        List<String> selects = sql.statements("select book0_");
+        assertThat(selects).hasSize(2);
+        assertThat(selects.get(0)).isEqualTo(selects.get(1)).containsIgnoringCase("IN_LIST_VALUE");
+
+        entityManager.getTransaction().commit();
+        entityManager.getTransaction().begin();
+        assertThat((List<?>) entityManager.createNativeQuery("SELECT * FROM IN_LIST_VALUE").getResultList()).isEmpty();
+    }
+
+    @Test
+    void secondPredicateIsRejected() {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Book> cc_query = cb.createQuery(Book.class);
+        Root<Book> cc_query_root = cc_query.from(Book.class);
+        InList prices = InList.of(entityManager, ImmutableList.of(5, 20));
+        prices.predicate(cb, cc_query, cc_query_root.get(Book_.price));
+
+        assertThatThrownBy(() -> prices.predicate(cb, cc_query, cc_query_root.get(Book_.price)))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void emptyList() {
+        assertThat(booksWithPriceIn(ImmutableList.of(), InList.DEFAULT_THRESHOLD)).isEmpty();
+    }
+
+    @Test
+    void jpqlParameter() {
+        InList prices = InList.of(entityManager, ImmutableList.of(5, 20, 20));
+
+        List<Book> books = prices.bind(entityManager.createQuery("" +
+                        "SELECT b " +
+                        "FROM Book b " +
+                        "WHERE b.price IN :prices",
+                Book.class), "prices")
+                .getResultList();
+
+        assertThat(books).extracting(Book::getId).containsExactlyInAnyOrder(2, 3, 4);
+    }
+
+    private List<Book> booksWithPriceIn(Collection<Integer> values, int threshold) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Book> cc_query = cb.createQuery(Book.class);
+        Root<Book> cc_query_root = cc_query.from(Book.class);
+
+        InList prices = InList.of(entityManager, values, threshold);
+        cc_query.select(cc_query_root)
+                .where(prices.predicate(cb, cc_query, cc_query_root.get(Book_.price)));
+
+        return prices.bind(entityManager.createQuery(cc_query)).getResultList();
+    }
+}
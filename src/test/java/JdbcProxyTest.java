@@ -0,0 +1,45 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JdbcProxyTest {
+
+    @Test
+    void selects() {
+        assertThat(JdbcProxy.select("select b.id from Book b")).isTrue();
+        assertThat(JdbcProxy.select("/* select b from Book b */ select b.id from Book b")).isTrue();
+        assertThat(JdbcProxy.select("select b.id from Book b for update")).isFalse();
+        assertThat(JdbcProxy.select("select b.id\n    from Book b\nfor\n    update")).isFalse();
+        assertThat(JdbcProxy.select("select b.id from Book b FOR\tUPDATE nowait")).isFalse();
+        assertThat(JdbcProxy.select("update Book set price = 1")).isFalse();
+    }
+
+    @Test
+    void slowQueryLogAndCoalescingOnSameConnections() throws Exception {
+        Path directory = Files.createTempDirectory("jdbc-proxy");
+        Map<String, Object> properties = new HashMap<>(SlowQueryLog.properties(directory.resolve("slow.%g.log"), 0));
+        properties.putAll(JdbcProxy.properties(SlowQueryLog.class, QueryCoalescing.class));
+        EntityManagerFactory emf = DatabaseSnapshot.seed().entityManagerFactory("JdbcProxyTest", properties);
+        QueryCoalescing coalescing = QueryCoalescing.of(emf);
+        EntityManager entityManager = emf.createEntityManager();
+
+        long books = entityManager.createQuery("SELECT COUNT(b) FROM Book b", Long.class).getSingleResult();
+        entityManager.close();
+        emf.close();
+
+        String log = new String(Files.readAllBytes(directory.resolve("slow.0.log")), StandardCharsets.UTF_8);
+        assertThat(books).isPositive();
+        assertThat(coalescing.executed()).isEqualTo(1);
+        assertThat(log)
+                .contains("# at JdbcProxyTest.slowQueryLogAndCoalescingOnSameConnections(JdbcProxyTest.java:")
+                .contains("-- EXPLAIN ANALYZE\n");
+    }
+}
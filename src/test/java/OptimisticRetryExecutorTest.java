@@ -0,0 +1,135 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.RollbackException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Every test works on a fresh database.
+ */
+class OptimisticRetryExecutorTest {
+
+    private EntityManagerFactory emf;
+    private OptimisticRetryExecutor executor;
+
+    @BeforeEach
+    void restore() {
+        emf = DatabaseSnapshot.seed().entityManagerFactory("OptimisticRetryExecutorTest");
+        executor = new OptimisticRetryExecutor(emf, 3, Duration.ofMillis(1), Duration.ofMillis(10));
+    }
+
+    @AfterEach
+    void close() {
+        emf.close();
+    }
+
+    @Test
+    void lostUpdateIsDetected() {
+        EntityManager first = emf.createEntityManager();
+        EntityManager second = emf.createEntityManager();
+        first.getTransaction().begin();
+        second.getTransaction().begin();
+        first.find(Book.class, 1).setPrice(11);
+        second.find(Book.class, 1).setPrice(12);
+
+        first.getTransaction().commit();
+
+        assertThatThrownBy(() -> second.getTransaction().commit())
+                .isInstanceOf(RollbackException.class)
+                .hasCauseInstanceOf(OptimisticLockException.class);
+        first.close();
+        second.close();
+        Book book = executor.execute(entityManager -> entityManager.find(Book.class, 1));
+        assertThat(book.getPrice()).isEqualTo(11);
+        assertThat(book.getVersion()).isEqualTo(1);
+    }
+
+    @Test
+    void conflictIsRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        int price = executor.execute(entityManager -> {
+            Book book = entityManager.find(Book.class, 1);
+            if (attempts.incrementAndGet() == 1) {
+                concurrentPriceChange(1, 100);
+            }
+            book.setPrice(book.getPrice() + 1);
+            return book.getPrice();
+        });
+
+        assertThat(price).isEqualTo(101);
+        assertThat(attempts).hasValue(2);
+        assertThat(executor.metrics().getCommits()).isEqualTo(1);
+        assertThat(executor.metrics().getConflicts()).isEqualTo(1);
+        assertThat(executor.metrics().getRetriesPerCommit()).isEqualTo(1.0);
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() {
+        assertThatThrownBy(() -> executor.execute(entityManager -> {
+            Book book = entityManager.find(Book.class, 1);
+            concurrentPriceChange(1, book.getPrice() + 100);
+            book.setPrice(0);
+            return book;
+        })).isInstanceOf(OptimisticLockException.class);
+
+        assertThat(executor.metrics().getConflicts()).isEqualTo(3);
+        assertThat(executor.metrics().getRetries()).isEqualTo(2);
+        assertThat(executor.metrics().getFailures()).isEqualTo(1);
+    }
+
+    @Test
+    void otherExceptionsAreNotRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> executor.execute(entityManager -> {
+            attempts.incrementAndGet();
+            throw new IllegalArgumentException();
+        })).isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    void concurrentIncrementsAreNotLost() throws Exception {
+        OptimisticRetryExecutor executor = new OptimisticRetryExecutor(emf, 100, Duration.ofMillis(1), Duration.ofMillis(20));
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            futures.add(threads.submit(() -> executor.execute(entityManager -> {
+                Book book = entityManager.find(Book.class, 1);
+                book.setPrice(book.getPrice() + 1);
+                return book;
+            })));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        threads.shutdown();
+
+        int price = executor.execute(entityManager -> entityManager.find(Book.class, 1).getPrice());
+        assertThat(price).isEqualTo(50);
+        assertThat(executor.metrics().getCommits()).isEqualTo(41);
+    }
+
+    private void concurrentPriceChange(int book, int price) {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.find(Book.class, book).setPrice(price);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+}
@@ -0,0 +1,60 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 16 concurrent callers of the same title search (scan of 50k books) - plain connections vs {@link QueryCoalescing};
+ * single caller measures the cost of reading rows into memory.
+ */
+public class QueryCoalescingBenchmark {
+    private static final int BOOKS = 50_000;
+    private static final int CALLERS = 16;
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory plain = CatalogGenerator.snapshot(BOOKS)
+                .entityManagerFactory("QueryCoalescingBenchmark_plain");
+        EntityManagerFactory coalescing = CatalogGenerator.snapshot(BOOKS)
+                .entityManagerFactory("QueryCoalescingBenchmark_coalescing", QueryCoalescing.properties());
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        BenchmarkRunner runner = new BenchmarkRunner(5, 20);
+
+        runner.measure("1 caller, plain", () -> booksByTitle(plain));
+        runner.measure("1 caller, coalescing", () -> booksByTitle(coalescing));
+        runner.measure(CALLERS + " callers, plain", () -> concurrently(executor, () -> booksByTitle(plain)));
+        runner.measure(CALLERS + " callers, coalescing",
+                () -> concurrently(executor, () -> booksByTitle(coalescing)));
+        System.out.println("executed " + QueryCoalescing.of(coalescing).executed()
+                + ", coalesced " + QueryCoalescing.of(coalescing).coalesced());
+
+        executor.shutdown();
+        plain.close();
+        coalescing.close();
+    }
+
+    private static int concurrently(ExecutorService executor, Callable<Integer> caller) throws Exception {
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(caller));
+        }
+        int books = 0;
+        for (Future<Integer> result : results) {
+            books += result.get();
+        }
+        return books;
+    }
+
+    private static int booksByTitle(EntityManagerFactory emf) {
+        EntityManager entityManager = emf.createEntityManager();
+        int books = entityManager.createQuery("SELECT b FROM Book b WHERE b.title LIKE :title", Book.class)
+                .setParameter("title", "Book 123%")
+                .getResultList()
+                .size();
+        entityManager.close();
+        return books;
+    }
+}
@@ -0,0 +1,328 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Queries are slowed down by {@code SLEEP_MS} (Thread.sleep) so concurrent callers overlap; callers begin
+ * transactions (obtain connections) before they start together.
+ */
+class QueryCoalescingTest {
+
+    private static final EntityManagerFactory emf =
+            DatabaseSnapshot.seed().entityManagerFactory("QueryCoalescingTest", QueryCoalescing.properties());
+    private static final QueryCoalescing coalescing = QueryCoalescing.of(emf);
+
+    @BeforeAll
+    static void createSleep() {
+        createSleep(emf);
+    }
+
+    @AfterAll
+    static void close() {
+        emf.close();
+    }
+
+    @Test
+    void identicalConcurrentQueriesExecuteOnce() throws Exception {
+        int callers = 8;
+        long executed = coalescing.executed();
+        long coalesced = coalescing.coalesced();
+        CyclicBarrier start = new CyclicBarrier(callers);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        List<Future<List<Author>>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(executor.submit(() -> {
+                EntityManager entityManager = emf.createEntityManager();
+                entityManager.getTransaction().begin();
+                start.await();
+                List<Author> authors = authorsUpTo(entityManager, 3, 300);
+                entityManager.getTransaction().rollback();
+                entityManager.close();
+                return authors;
+            }));
+        }
+        List<List<Author>> authors = new ArrayList<>();
+        for (Future<List<Author>> result : results) {
+            authors.add(result.get());
+        }
+        executor.shutdown();
+
+        assertThat(coalescing.executed() - executed).isEqualTo(1);
+        assertThat(coalescing.coalesced() - coalesced).isEqualTo(callers - 1);
+        for (List<Author> each : authors) {
+            assertThat(each).extracting(Author::getId).containsExactlyInAnyOrder(1, 2, 3);
+            assertThat(each).extracting(Author::getName).doesNotContainNull();
+        }
+        assertThat(authors.get(0).get(0)).isNotSameAs(authors.get(1).get(0));
+    }
+
+    @Test
+    void differentParametersAreNotCoalesced() throws Exception {
+        long coalesced = coalescing.coalesced();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CyclicBarrier start = new CyclicBarrier(2);
+        Future<List<Author>> first = executor.submit(() -> {
+            EntityManager entityManager = emf.createEntityManager();
+            start.await();
+            List<Author> authors = authorsUpTo(entityManager, 1, 200);
+            entityManager.close();
+            return authors;
+        });
+        Future<List<Author>> second = executor.submit(() -> {
+            EntityManager entityManager = emf.createEntityManager();
+            start.await();
+            List<Author> authors = authorsUpTo(entityManager, 2, 200);
+            entityManager.close();
+            return authors;
+        });
+
+        assertThat(first.get()).extracting(Author::getId).containsExactly(1);
+        assertThat(second.get()).extracting(Author::getId).containsExactlyInAnyOrder(1, 2);
+        assertThat(coalescing.coalesced()).isEqualTo(coalesced);
+        executor.shutdown();
+    }
+
+    @Test
+    void transactionThatWroteSeesItsWrites() {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        long bypassed = coalescing.bypassed();
+
+        entityManager.createQuery("UPDATE Book b SET b.title = 'Rewritten' WHERE b.id = 1").executeUpdate();
+        String title = entityManager.createQuery("SELECT b.title FROM Book b WHERE b.id = 1", String.class)
+                .getSingleResult();
+
+        assertThat(title).isEqualTo("Rewritten");
+        assertThat(coalescing.bypassed()).isEqualTo(bypassed + 1);
+        entityManager.getTransaction().rollback();
+        entityManager.close();
+    }
+
+    @Test
+    void waitingCallerExecutesQueryItselfAfterMaxWait() throws Exception {
+        Map<String, Object> properties = ImmutableMap.<String, Object>builder()
+                .putAll(QueryCoalescing.properties())
+                .put(QueryCoalescing.MAX_WAIT, "100")
+                .build();
+        EntityManagerFactory impatient = DatabaseSnapshot.seed()
+                .entityManagerFactory("QueryCoalescingTest_impatient", properties);
+        createSleep(impatient);
+        QueryCoalescing coalescing = QueryCoalescing.of(impatient);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CyclicBarrier start = new CyclicBarrier(2);
+        List<Future<List<Author>>> results = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            results.add(executor.submit(() -> {
+                EntityManager entityManager = impatient.createEntityManager();
+                entityManager.getTransaction().begin();
+                start.await();
+                List<Author> authors = authorsUpTo(entityManager, 2, 500);
+                entityManager.getTransaction().rollback();
+                entityManager.close();
+                return authors;
+            }));
+        }
+
+        for (Future<List<Author>> result : results) {
+            assertThat(result.get()).extracting(Author::getId).containsExactlyInAnyOrder(1, 2);
+        }
+        executor.shutdown();
+        assertThat(coalescing.executed()).isEqualTo(1);
+        assertThat(coalescing.bypassed()).isEqualTo(1);
+        assertThat(coalescing.coalesced()).isZero();
+        impatient.close();
+    }
+
+    @Test
+    void stricterIsolationIsNotCoalesced() {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.unwrap(Session.class)
+                .doWork(connection -> connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE));
+        long bypassed = coalescing.bypassed();
+
+        authorsUpTo(entityManager, 1, 0);
+
+        assertThat(coalescing.bypassed()).isEqualTo(bypassed + 1);
+        entityManager.getTransaction().rollback();
+        entityManager.unwrap(Session.class)
+                .doWork(connection -> connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED));
+        entityManager.close();
+    }
+
+    /**
+     * The leader is held after it joined the flight: the caller commits meanwhile, so the leader's rows may miss the
+     * commit & the caller executes the query itself.
+     */
+    @Test
+    void queryAfterCommitDoesNotJoinEarlierQuery() throws Exception {
+        EntityManagerFactory held = DatabaseSnapshot.seed().entityManagerFactory("QueryCoalescingTest_commits",
+                JdbcProxy.properties(QueryCoalescing.class, HoldFirstSelect.class));
+        createSleep(held);
+        QueryCoalescing coalescing = QueryCoalescing.of(held);
+        HoldFirstSelect.hold();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<List<Author>> leader = executor.submit(() -> {
+            EntityManager entityManager = held.createEntityManager();
+            List<Author> authors = authorsUpTo(entityManager, 1, 0);
+            entityManager.close();
+            return authors;
+        });
+        HoldFirstSelect.held.await();
+
+        EntityManager writer = held.createEntityManager();
+        writer.getTransaction().begin();
+        writer.find(Author.class, 1).setName("Renamed");
+        writer.getTransaction().commit();
+        writer.close();
+        // a caller joining the leader waits for it
+        ScheduledExecutorService releaser = Executors.newSingleThreadScheduledExecutor();
+        releaser.schedule(HoldFirstSelect.release::countDown, 200, TimeUnit.MILLISECONDS);
+        EntityManager reader = held.createEntityManager();
+        List<Author> authors = authorsUpTo(reader, 1, 0);
+        reader.close();
+
+        assertThat(authors).extracting(Author::getName).containsExactly("Renamed");
+        assertThat(coalescing.coalesced()).isZero();
+        assertThat(leader.get()).hasSize(1);
+        executor.shutdown();
+        releaser.shutdown();
+        held.close();
+    }
+
+    @Test
+    void timestampsWithTimeZoneAreCopiedExactly() throws SQLException {
+        String sql = "SELECT CREATEDON FROM ANNOUNCEMENT ORDER BY A_ID";
+        JdbcProxy proxy = JdbcProxy.of(emf);
+        Connection unproxied = proxy.unproxiedConnection();
+        List<Object> expected;
+        try (Statement statement = unproxied.createStatement()) {
+            expected = createdOn(statement.executeQuery(sql));
+        } finally {
+            proxy.closeUnproxiedConnection(unproxied);
+        }
+        long executed = coalescing.executed();
+        EntityManager entityManager = emf.createEntityManager();
+
+        List<Object> copied = entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                return createdOn(statement.executeQuery());
+            }
+        });
+
+        assertThat(coalescing.executed()).isEqualTo(executed + 1);
+        assertThat(copied).isNotEmpty().isEqualTo(expected);
+        entityManager.close();
+    }
+
+    @Test
+    void resultNotCopiedExactlyIsReturnedAsItIs() {
+        long executed = coalescing.executed();
+        long bypassed = coalescing.bypassed();
+        EntityManager entityManager = emf.createEntityManager();
+
+        Object[] pair = entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT (1, 2) AS PAIR");
+                 ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return (Object[]) resultSet.getArray(1).getArray();
+            }
+        });
+
+        assertThat(pair).containsExactly(1, 2);
+        assertThat(coalescing.executed()).isEqualTo(executed);
+        assertThat(coalescing.bypassed()).isEqualTo(bypassed + 1);
+        entityManager.close();
+    }
+
+    @Test
+    void exportedByHibernateMetrics() {
+        assertThat(new HibernateMetrics(emf).scrape())
+                .contains("hibernate_coalescing_executed_total ")
+                .contains("hibernate_coalescing_coalesced_total ")
+                .contains("hibernate_coalescing_bypassed_total ");
+    }
+
+    /**
+     * Listener after QueryCoalescing: holds the first SELECT after {@link #hold()} until {@link #release}.
+     */
+    public static final class HoldFirstSelect implements JdbcProxy.Listener {
+        private static final AtomicBoolean holding = new AtomicBoolean();
+        static volatile CountDownLatch held;
+        static volatile CountDownLatch release;
+
+        static void hold() {
+            held = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+            holding.set(true);
+        }
+
+        @Override
+        public Object execute(JdbcProxy.Execution execution) throws SQLException {
+            if (execution.query() && holding.compareAndSet(true, false)) {
+                held.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+            }
+            return execution.proceed();
+        }
+    }
+
+    /**
+     * @return (getObject, getTimestamp, getObject as OffsetDateTime) of every row
+     */
+    private static List<Object> createdOn(ResultSet resultSet) throws SQLException {
+        List<Object> values = new ArrayList<>();
+        while (resultSet.next()) {
+            values.add(Arrays.asList(resultSet.getObject(1), resultSet.getTimestamp(1),
+                    resultSet.getObject(1, OffsetDateTime.class)));
+        }
+        resultSet.close();
+        return values;
+    }
+
+    private static void createSleep(EntityManagerFactory emf) {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("CREATE ALIAS SLEEP_MS FOR \"java.lang.Thread.sleep(long)\"")
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    private static List<Author> authorsUpTo(EntityManager entityManager, int id, long sleepMillis) {
+        return entityManager.createQuery("" +
+                        "SELECT a FROM Author a " +
+                        "WHERE a.id <= :id AND function('SLEEP_MS', :sleep) IS NULL",
+                Author.class)
+                .setParameter("id", id)
+                .setParameter("sleep", sleepMillis)
+                .getResultList();
+    }
+}
@@ -0,0 +1,80 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * All 100k books as entities: {@code getResultList()} vs {@link QueryPublisher} with a subscriber requesting
+ * {@value QueryPublisher#DEFAULT_FETCH_SIZE} rows at a time - latency of the first row & of the whole result
+ * (heap deltas are dominated by the in-memory database & its caches, so they are not reported).
+ */
+public class QueryPublisherBenchmark {
+    private static final int BOOKS = 100_000;
+    private static final String QUERY = "SELECT b FROM Book b";
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = CatalogGenerator.snapshot(BOOKS).entityManagerFactory("QueryPublisherBenchmark");
+        QueryPublisher<Book> publisher = new QueryPublisher<>(emf,
+                entityManager -> entityManager.createQuery(QUERY, Book.class));
+        BenchmarkRunner runner = new BenchmarkRunner(3, 10);
+
+        runner.measure("getResultList, first row", () -> {
+            EntityManager entityManager = emf.createEntityManager();
+            try {
+                return entityManager.createQuery(QUERY, Book.class).getResultList().get(0);
+            } finally {
+                entityManager.close();
+            }
+        });
+        runner.measure("publisher, first row", () -> stream(publisher, 1));
+        runner.measure("getResultList, all rows", () -> {
+            EntityManager entityManager = emf.createEntityManager();
+            try {
+                return entityManager.createQuery(QUERY, Book.class).getResultList().size();
+            } finally {
+                entityManager.close();
+            }
+        });
+        runner.measure("publisher, all rows", () -> stream(publisher, BOOKS));
+
+        emf.close();
+    }
+
+    /**
+     * @return rows received until {@code rows} were received (subscription cancelled) or the result was exhausted
+     */
+    private static int stream(QueryPublisher<Book> publisher, int rows) {
+        CompletableFuture<Integer> received = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<Book>() {
+            private Flow.Subscription subscription;
+            private int count;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(QueryPublisher.DEFAULT_FETCH_SIZE);
+            }
+
+            @Override
+            public void onNext(Book book) {
+                count++;
+                if (count == rows) {
+                    subscription.cancel();
+                    received.complete(count);
+                } else if (count % QueryPublisher.DEFAULT_FETCH_SIZE == 0) {
+                    subscription.request(QueryPublisher.DEFAULT_FETCH_SIZE);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                received.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                received.complete(count);
+            }
+        });
+        return received.join();
+    }
+}
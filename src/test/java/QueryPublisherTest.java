@@ -0,0 +1,143 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryPublisherTest {
+
+    private static final EntityManagerFactory emf = DatabaseSnapshot.seed().entityManagerFactory("QueryPublisherTest");
+
+    @AfterAll
+    static void close() {
+        emf.close();
+    }
+
+    @Test
+    void emitsOnlyRequestedRows() throws Exception {
+        QueryPublisher<Book> publisher = new QueryPublisher<>(emf, entityManager -> entityManager
+                .createQuery("SELECT b FROM Book b ORDER BY b.id", Book.class));
+        RecordingSubscriber<Book> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(2);
+        assertThat(subscriber.next().getId()).isEqualTo(1);
+        assertThat(subscriber.next().getId()).isEqualTo(2);
+        assertThat(subscriber.items.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(publisher.openCursors()).isEqualTo(1);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertThat(subscriber.completed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(subscriber.items).extracting(Book::getId).containsExactly(3, 4);
+        assertThat(publisher.openCursors()).isZero();
+    }
+
+    @Test
+    void dtoProjectionByCriteria() throws Exception {
+        CriteriaBuilder cb = emf.getCriteriaBuilder();
+        CriteriaQuery<BookstoreCountAVG> cc_query = cb.createQuery(BookstoreCountAVG.class);
+        Root<Book> cc_query_root = cc_query.from(Book.class);
+        cc_query.multiselect(cc_query_root.get("bookstore"), cb.count(cc_query_root), cb.avg(cc_query_root.get("price")))
+                .groupBy(cc_query_root.get("bookstore"));
+        RecordingSubscriber<BookstoreCountAVG> subscriber = new RecordingSubscriber<>();
+
+        new QueryPublisher<>(emf, entityManager -> entityManager.createQuery(cc_query)).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertThat(subscriber.completed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(subscriber.items).isNotEmpty().allMatch(BookstoreCountAVG.class::isInstance);
+    }
+
+    @Test
+    void cancelReleasesConnection() throws Exception {
+        QueryPublisher<Book> publisher = new QueryPublisher<>(emf, entityManager -> entityManager
+                .createQuery("SELECT b FROM Book b", Book.class));
+        RecordingSubscriber<Book> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.next();
+
+        subscriber.subscription.cancel();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (publisher.openCursors() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(publisher.openCursors()).isZero();
+        assertThat(subscriber.completed.getCount()).isEqualTo(1);
+        assertThat(subscriber.errors).isEmpty();
+    }
+
+    @Test
+    void nonPositiveRequestFails() throws Exception {
+        RecordingSubscriber<Book> subscriber = new RecordingSubscriber<>();
+        new QueryPublisher<>(emf, entityManager -> entityManager.createQuery("SELECT b FROM Book b", Book.class))
+                .subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+
+        assertThat(subscriber.completed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(subscriber.errors).hasSize(1).allMatch(IllegalArgumentException.class::isInstance);
+    }
+
+    @Test
+    void invalidQueryFailsAndReleasesConnection() throws Exception {
+        QueryPublisher<Book> publisher = new QueryPublisher<>(emf, entityManager -> entityManager
+                .createQuery("SELECT b FROM Book b WHERE b.unknown = 1", Book.class));
+        RecordingSubscriber<Book> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(1);
+
+        assertThat(subscriber.completed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(subscriber.errors).hasSize(1);
+        assertThat(publisher.openCursors()).isZero();
+    }
+
+    /**
+     * Requests nothing by itself; {@code completed} counts down on completion & failure.
+     */
+    private static final class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+        final BlockingQueue<T> items = new LinkedBlockingQueue<>();
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            errors.add(throwable);
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        T next() throws InterruptedException {
+            T item = items.poll(5, TimeUnit.SECONDS);
+            assertThat(item).isNotNull();
+            return item;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import com.google.common.base.Preconditions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Latency regression gate of the query suite ({@link Tests} & {@link TestsWithFullTypeSafe}), run by
+ * {@code mvn -Pregression test}: every test method is executed against the catalog of {@value QuerySuite#BOOKS}
+ * generated books; median latency & number of SQL statements are compared with the baseline
+ * ({@code src/test/resources/query-regression-baseline.csv}).
+ * <p>
+ * Latencies are relative to the reference query {@value #REFERENCE} (a full load of the catalog), measured first in
+ * every run: the baseline holds no wall-clock time of the machine that wrote it, so it holds on a faster or slower
+ * CI runner as long as the queries keep their proportions.
+ * <p>
+ * A query fails when it executes more statements than in the baseline or its median latency exceeds
+ * {@code baseline * reference * (1 + regression.tolerance) + regression.slack.ms} (defaults 0.5 & 1 ms: the slack
+ * covers sub-millisecond queries; N+1 selects fail by number of statements). Every measurement is a median of 31 runs
+ * after a full GC. A slow query is measured once more & fails if the second measurement is slow too; the baseline is
+ * the slower of two measurements, so a lucky run doesn't make the gate fail on noise of the machine. The baseline is
+ * rewritten only by {@code mvn -Pregression test -Dregression.update=true}; queries without baseline are skipped.
+ */
+class QueryRegression {
+    private static final Path BASELINE = Paths.get("src", "test", "resources", "query-regression-baseline.csv");
+    private static final String HEADER = "query,relative_median,statements";
+    static final String REFERENCE = "Tests.getAllBooks";
+    private static final SqlStatements statements = QuerySuite.statements;
+    private static final Map<String, Measurement> measurements = new TreeMap<>();
+
+    @TestFactory
+    Stream<DynamicTest> queries() throws Exception {
+        Preconditions.checkState(Boolean.getBoolean("query.regression"), "Run with -Pregression");
+        Map<String, Measurement> baseline = read();
+        double tolerance = Double.parseDouble(System.getProperty("regression.tolerance", "0.5"));
+        double slackMillis = Double.parseDouble(System.getProperty("regression.slack.ms", "1"));
+        BenchmarkRunner runner = new BenchmarkRunner(20, 31);
+        double referenceMillis = measure(runner, REFERENCE, instance(Tests.class),
+                Tests.class.getDeclaredMethod(REFERENCE.substring(REFERENCE.indexOf('.') + 1))).medianMillis;
+        System.out.printf(Locale.ROOT, "Reference %s: %.3f ms%n", REFERENCE, referenceMillis);
+        return Stream.of(Tests.class, TestsWithFullTypeSafe.class)
+                .flatMap(suite -> Arrays.stream(suite.getDeclaredMethods())
+                        .filter(method -> method.isAnnotationPresent(Test.class))
+                        .sorted(Comparator.comparing(Method::getName))
+                        .map(method -> DynamicTest.dynamicTest(suite.getSimpleName() + "." + method.getName(), () -> {
+                            String query = suite.getSimpleName() + "." + method.getName();
+                            Object instance = instance(suite);
+                            Measurement measurement = measure(runner, query, instance, method);
+                            Measurement expected = baseline.get(query);
+                            double expectedMillis = expected == null
+                                    ? Double.NaN : expected.relativeMedian * referenceMillis;
+                            double limit = expected == null
+                                    ? Double.MAX_VALUE : expectedMillis * (1 + tolerance) + slackMillis;
+                            if (Boolean.getBoolean("regression.update")) {
+                                Measurement again = measure(runner, query, instance, method);
+                                measurement = again.medianMillis > measurement.medianMillis ? again : measurement;
+                            } else if (measurement.medianMillis > limit) {
+                                // confirms the regression: a single slow run is usually noise of the machine
+                                measurement = measure(runner, query, instance, method);
+                            }
+                            measurements.put(query, measurement.relativeTo(referenceMillis));
+                            assumeTrue(expected != null, "No baseline of " + query);
+                            assumeFalse(Boolean.getBoolean("regression.update"), "Updating baseline");
+                            assertThat(measurement.statements)
+                                    .as("statements of %s", query)
+                                    .isLessThanOrEqualTo(expected.statements);
+                            assertThat(measurement.medianMillis)
+                                    .as("median latency (ms) of %s, baseline %.3f (%.4f of reference)",
+                                            query, expectedMillis, expected.relativeMedian)
+                                    .isLessThanOrEqualTo(limit);
+                        })));
+    }
+
+    @AfterAll
+    static void updateBaseline() throws IOException {
+        if (!Boolean.getBoolean("regression.update")) {
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        measurements.forEach((query, measurement) -> lines.add(String.format(Locale.ROOT, "%s,%.4f,%d",
+                query, measurement.relativeMedian, measurement.statements)));
+        Files.createDirectories(BASELINE.getParent());
+        Files.write(BASELINE, lines, StandardCharsets.UTF_8);
+        System.out.println("Baseline of " + measurements.size() + " queries written to " + BASELINE);
+    }
+
+    private static Measurement measure(BenchmarkRunner runner, String query, Object suite, Method method)
+            throws Exception {
+        statements.clear();
+        invoke(suite, method);
+        long count = statements.statements().size();
+        // garbage of previous queries is not collected during this one
+        System.gc();
+        BenchmarkRunner.Result result = runner.measure(query, () -> invoke(suite, method));
+        return new Measurement(result.medianNanos / 1e6, count);
+    }
+
+    /**
+     * Invokes the test method with empty persistence context of the suite (its static entity manager); otherwise
+     * auto flush of every query checks all entities loaded by previous invocations.
+     */
+    private static Object invoke(Object suite, Method method) throws Exception {
+        for (Field field : suite.getClass().getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == EntityManager.class) {
+                field.setAccessible(true);
+                ((EntityManager) field.get(null)).clear();
+            }
+        }
+        try {
+            return method.invoke(suite);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static Object instance(Class<?> suite) throws ReflectiveOperationException {
+        Constructor<?> constructor = suite.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return constructor.newInstance();
+    }
+
+    private static Map<String, Measurement> read() throws IOException {
+        Map<String, Measurement> baseline = new HashMap<>();
+        if (Files.notExists(BASELINE)) {
+            return baseline;
+        }
+        for (String line : Files.readAllLines(BASELINE, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.equals(HEADER)) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            baseline.put(fields[0],
+                    new Measurement(Double.NaN, Double.parseDouble(fields[1]), Long.parseLong(fields[2])));
+        }
+        return baseline;
+    }
+
+    private static final class Measurement {
+        private final double medianMillis;
+        /**
+         * Median latency / median latency of {@link #REFERENCE}; NaN if not known.
+         */
+        private final double relativeMedian;
+        private final long statements;
+
+        private Measurement(double medianMillis, long statements) {
+            this(medianMillis, Double.NaN, statements);
+        }
+
+        private Measurement(double medianMillis, double relativeMedian, long statements) {
+            this.medianMillis = medianMillis;
+            this.relativeMedian = relativeMedian;
+            this.statements = statements;
+        }
+
+        private Measurement relativeTo(double referenceMillis) {
+            return new Measurement(medianMillis, medianMillis / referenceMillis, statements);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Database of the query suite ({@link Tests} & {@link TestsWithFullTypeSafe}): the seed database, or the catalog of
+ * {@value #BOOKS} generated books in regression mode ({@code -Dquery.regression=true}, see {@link QueryRegression}).
+ */
+final class QuerySuite {
+    static final int BOOKS = 10_000;
+    /**
+     * Statements prepared by the suite in regression mode.
+     */
+    static final SqlStatements statements = new SqlStatements();
+
+    private QuerySuite() {
+    }
+
+    static EntityManagerFactory entityManagerFactory(String database) {
+        if (!Boolean.getBoolean("query.regression")) {
+            return DatabaseSnapshot.seed().entityManagerFactory(database);
+        }
+        // statements are parsed again on every execution: H2 doesn't return the cached result of an equal query
+        Map<String, Object> properties = new HashMap<>(statements.properties());
+        properties.put("hibernate.connection.url",
+                CatalogGenerator.snapshot(BOOKS).restore(database, ";QUERY_CACHE_SIZE=0"));
+        return Persistence.createEntityManagerFactory(DatabaseSnapshot.PERSISTENCE_UNIT, properties);
+    }
+}
@@ -0,0 +1,41 @@
+import javax.persistence.EntityManagerFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * First lookups after a start of all authors & bookstores of a catalog of 100k books (10k authors, 100
+ * bookstores): cold {@link ReferenceDataCache} (loaded from the database) vs warm start from its snapshot (open,
+ * validation & lazy decoding included).
+ */
+public class ReferenceDataCacheBenchmark {
+    private static final int BOOKS = 100_000;
+    private static final int AUTHORS = BOOKS / 10;
+    private static final int BOOKSTORES = BOOKS / 1000;
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = CatalogGenerator.snapshot(BOOKS).entityManagerFactory("ReferenceDataCacheBenchmark");
+        Path file = Files.createDirectories(Paths.get("target")).resolve("reference-data.bin");
+        ReferenceDataCache filled = ReferenceDataCache.create(emf);
+        lookups(filled);
+        filled.save(file);
+        System.out.printf("snapshot of %d authors & %d bookstores: %,d bytes%n", AUTHORS, BOOKSTORES, Files.size(file));
+        BenchmarkRunner runner = new BenchmarkRunner(3, 10);
+
+        runner.measure("cold", () -> lookups(ReferenceDataCache.create(emf)));
+        runner.measure("warm start", () -> lookups(ReferenceDataCache.open(emf, file)));
+
+        emf.close();
+    }
+
+    private static int lookups(ReferenceDataCache cache) {
+        int found = 0;
+        for (int id = 1; id <= AUTHORS; id++) {
+            found += cache.find(Author.class, id) == null ? 0 : 1;
+        }
+        for (int id = 1; id <= BOOKSTORES; id++) {
+            found += cache.find(Bookstore.class, id) == null ? 0 : 1;
+        }
+        return found;
+    }
+}
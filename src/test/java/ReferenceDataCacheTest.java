@@ -0,0 +1,187 @@
+import com.google.common.collect.ImmutableMap;
+import org.hibernate.LazyInitializationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Every test works on a fresh database; the snapshot is saved by one cache & opened by another.
+ */
+class ReferenceDataCacheTest {
+    private static final String AUTHORS = "SELECT a FROM Author a WHERE a.id <= :id ORDER BY a.id";
+
+    private final SqlStatements sql = new SqlStatements();
+    private EntityManagerFactory emf;
+    private Path file;
+
+    @BeforeEach
+    void open() throws IOException {
+        emf = DatabaseSnapshot.seed().entityManagerFactory("ReferenceDataCacheTest", sql.properties());
+        file = Files.createTempFile("reference-data", ".bin");
+        Files.delete(file);
+        ReferenceDataCache cache = ReferenceDataCache.create(emf);
+        cache.query(AUTHORS, Author.class, ImmutableMap.of("id", 5));
+        cache.find(Bookstore.class, 1);
+        cache.save(file);
+        sql.clear();
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        emf.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void warmStartWithoutStatements() throws IOException {
+        ReferenceDataCache cache = ReferenceDataCache.open(emf, file);
+        sql.clear();
+
+        List<Author> authors = cache.query(AUTHORS, Author.class, ImmutableMap.of("id", 5));
+        Bookstore bookstore = cache.find(Bookstore.class, 1);
+
+        assertThat(sql.statements()).isEmpty();
+        assertThat(authors).extracting(Author::getId).containsExactly(1, 2, 3, 4, 5);
+        assertThat(authors.get(4).getName()).isEqualTo("Joshua Bloch");
+        assertThat(bookstore.getAddress()).isSameAs(cache.find(Address.class, bookstore.getAddress().getId()));
+        assertThat(bookstore.getAddress().getCity()).isNotNull();
+        assertThat(cache.hits()).isEqualTo(7);
+        assertThat(cache.misses()).isZero();
+        assertThat(cache.discarded()).isZero();
+    }
+
+    @Test
+    void statesAreDecodedLazily() throws IOException {
+        ReferenceDataCache cache = ReferenceDataCache.open(emf, file);
+
+        assertThat(cache.restored()).isZero();
+        cache.find(Author.class, 1);
+        assertThat(cache.restored()).isEqualTo(1);
+    }
+
+    @Test
+    void lazyCollectionsAreNotRestored() throws IOException {
+        Author author = ReferenceDataCache.open(emf, file).find(Author.class, 5);
+
+        assertThatThrownBy(() -> author.getBooks().size()).isInstanceOf(LazyInitializationException.class);
+    }
+
+    @Test
+    void changedRowsAreDiscarded() throws IOException {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.find(Author.class, 1).setName("Renamed");
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        ReferenceDataCache cache = ReferenceDataCache.open(emf, file);
+        sql.clear();
+
+        assertThat(cache.discarded()).isEqualTo(2); // author 1 & the query
+        assertThat(cache.find(Author.class, 2).getName()).isNotEqualTo("Renamed");
+        assertThat(sql.statements()).isEmpty();
+        assertThat(cache.find(Author.class, 1).getName()).isEqualTo("Renamed");
+        assertThat(cache.misses()).isEqualTo(1);
+    }
+
+    @Test
+    void newRowsDiscardQueries() throws IOException {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("INSERT INTO AUTHOR (ID, NAME) VALUES (0, 'New')").executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        ReferenceDataCache cache = ReferenceDataCache.open(emf, file);
+
+        assertThat(cache.discarded()).isEqualTo(1);
+        assertThat(cache.query(AUTHORS, Author.class, ImmutableMap.of("id", 5)))
+                .extracting(Author::getId).containsExactly(0, 1, 2, 3, 4, 5);
+    }
+
+    @Test
+    void newRowsOfJoinedTablesDiscardQueries() throws IOException {
+        String bookstores = "SELECT b FROM Bookstore b WHERE b.address.city IS NOT NULL ORDER BY b.id";
+        ReferenceDataCache saved = ReferenceDataCache.open(emf, file);
+        saved.query(bookstores, Bookstore.class, ImmutableMap.of());
+        saved.save(file);
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("INSERT INTO ADDRESS (ID, CITY) VALUES (999, 'New')").executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        ReferenceDataCache cache = ReferenceDataCache.open(emf, file);
+        sql.clear();
+
+        assertThat(cache.discarded()).isEqualTo(1);
+        assertThat(cache.query(AUTHORS, Author.class, ImmutableMap.of("id", 5))).hasSize(5);
+        assertThat(sql.statements()).isEmpty();
+    }
+
+    @Test
+    void rowsNotCachedDiscardQueries() throws IOException {
+        String authorsJ = "SELECT a FROM Author a WHERE a.name LIKE 'J%' ORDER BY a.id";
+        ReferenceDataCache saved = ReferenceDataCache.create(emf);
+        assertThat(saved.query(authorsJ, Author.class, ImmutableMap.of())).extracting(Author::getId)
+                .containsExactly(1, 2, 5);
+        saved.save(file);
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.find(Author.class, 3).setName("Jeff Carpenter"); // not in the result, same row count
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        ReferenceDataCache cache = ReferenceDataCache.open(emf, file);
+
+        assertThat(cache.discarded()).isEqualTo(1);
+        assertThat(cache.query(authorsJ, Author.class, ImmutableMap.of())).extracting(Author::getId)
+                .containsExactly(1, 2, 3, 5);
+    }
+
+    @Test
+    void queriesReadingOtherTablesAreNotCached() {
+        ReferenceDataCache cache = ReferenceDataCache.create(emf);
+
+        assertThatThrownBy(() -> cache.query("SELECT DISTINCT a FROM Author a JOIN a.books b WHERE b.price > 0",
+                Author.class, ImmutableMap.of()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("not a table of reference data");
+        assertThat(sql.statements()).isEmpty();
+    }
+
+    @Test
+    void otherSchemaVersionDiscardsSnapshot() throws IOException {
+        EntityManager entityManager = emf.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("" +
+                "UPDATE \"flyway_schema_history\" SET \"version\" = '999' " +
+                "WHERE \"installed_rank\" = (SELECT MAX(\"installed_rank\") FROM \"flyway_schema_history\")")
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        ReferenceDataCache cache = ReferenceDataCache.open(emf, file);
+        cache.find(Author.class, 1);
+
+        assertThat(cache.discarded()).isPositive();
+        assertThat(cache.restored()).isZero();
+        assertThat(cache.misses()).isEqualTo(1);
+    }
+
+    @Test
+    void notReferenceData() {
+        assertThatThrownBy(() -> ReferenceDataCache.create(emf).find(Book.class, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,42 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Tuple;
+
+/**
+ * Price sum per genre of 100k rows ({@code SELECT b.genre, b.price FROM Book b}) read as {@code Tuple},
+ * {@code Object[]} & {@link ScalarRows}.
+ */
+public class ScalarRowsBenchmark {
+    private static final int BOOKS = 100_000;
+    private static final String QUERY = "SELECT b.genre AS genre, b.price AS price FROM Book b";
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = CatalogGenerator.snapshot(BOOKS).entityManagerFactory("ScalarRowsBenchmark");
+        EntityManager entityManager = emf.createEntityManager();
+        BenchmarkRunner runner = new BenchmarkRunner(20, 50);
+
+        runner.measure("Tuple", () -> {
+            long[] sums = new long[WritingGenre.values().length];
+            for (Tuple row : entityManager.createQuery(QUERY, Tuple.class).getResultList()) {
+                sums[row.get("genre", WritingGenre.class).ordinal()] += row.get("price", Integer.class);
+            }
+            return sums;
+        });
+        runner.measure("Object[]", () -> {
+            long[] sums = new long[WritingGenre.values().length];
+            for (Object[] row : entityManager.createQuery(QUERY, Object[].class).getResultList()) {
+                sums[((WritingGenre) row[0]).ordinal()] += (Integer) row[1];
+            }
+            return sums;
+        });
+        runner.measure("ScalarRows", () -> {
+            long[] sums = new long[WritingGenre.values().length];
+            ScalarRows.of(entityManager, entityManager.createQuery(QUERY))
+                    .forEach(WritingGenre.class, (genre, price) -> sums[genre.ordinal()] += price);
+            return sums;
+        });
+
+        entityManager.close();
+        emf.close();
+    }
+}
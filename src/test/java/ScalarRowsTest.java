@@ -0,0 +1,104 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class ScalarRowsTest {
+
+    private static final EntityManagerFactory emf =
+            DatabaseSnapshot.seed().entityManagerFactory("ScalarRowsTest");
+    private static final EntityManager entityManager = emf.createEntityManager();
+
+    @AfterAll
+    static void closeEntityManager() {
+        entityManager.close();
+    }
+
+    @Test
+    void countBooksByGenre() {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object[]> cc_query = cb.createQuery(Object[].class);
+        Root<Book> cc_query_root = cc_query.from(Book.class);
+        cc_query.multiselect(cc_query_root.get(Book_.genre), cb.count(cc_query_root))
+                .groupBy(cc_query_root.get(Book_.genre));
+
+        Map<WritingGenre, Long> counts = new EnumMap<>(WritingGenre.class);
+        ScalarRows.of(entityManager, entityManager.createQuery(cc_query))
+                .forEach(WritingGenre.class, counts::put);
+
+        assertThat(counts).containsOnly(entry(WritingGenre.FANTASY, 2L), entry(WritingGenre.SCIENCE, 2L));
+    }
+
+    @Test
+    void parameters() {
+        long[] prices = ScalarRows.of(entityManager, entityManager.createQuery("" +
+                        "SELECT b.price " +
+                        "FROM Book b " +
+                        "WHERE b.genre = :genre AND b.price > ?1 " +
+                        "ORDER BY b.price")
+                .setParameter("genre", WritingGenre.FANTASY)
+                .setParameter(1, 5))
+                .longs(0);
+
+        assertThat(prices).containsExactly(10);
+    }
+
+    @Test
+    void criteriaStringLiteral() {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Integer> cc_query = cb.createQuery(Integer.class);
+        Root<Book> cc_query_root = cc_query.from(Book.class);
+        cc_query.select(cc_query_root.get(Book_.price))
+                .where(cb.equal(cc_query_root.get(Book_.title), "Effective Java"));
+
+        assertThat(ScalarRows.of(entityManager, entityManager.createQuery(cc_query)).ints(0))
+                .containsExactly(20);
+    }
+
+    @Test
+    void page() {
+        long[] prices = ScalarRows.of(entityManager, entityManager.createQuery("" +
+                        "SELECT b.price " +
+                        "FROM Book b " +
+                        "WHERE b.price > :price " +
+                        "ORDER BY b.price")
+                .setParameter("price", 0)
+                .setFirstResult(1)
+                .setMaxResults(2))
+                .longs(0);
+
+        assertThat(prices).containsExactly(10, 20);
+        assertThat(ScalarRows.of(entityManager, entityManager.createQuery("" +
+                        "SELECT b.price " +
+                        "FROM Book b " +
+                        "ORDER BY b.price")
+                .setFirstResult(3))
+                .ints(0))
+                .containsExactly(20);
+    }
+
+    @Test
+    void rows() {
+        StringBuilder rows = new StringBuilder();
+        ScalarRows.of(entityManager, entityManager.createQuery("" +
+                        "SELECT b.bookstore.id, count(b), avg(b.price) " +
+                        "FROM Book b " +
+                        "GROUP BY b.bookstore.id " +
+                        "ORDER BY b.bookstore.id")
+                .setMaxResults(1))
+                .forEach(row -> rows.append(row.getInt(0)).append(':')
+                        .append(row.getLong(1)).append(':')
+                        .append(row.getDouble(2)));
+
+        assertThat(rows.toString()).isEqualTo("1:3:11.666666666666666");
+    }
+}
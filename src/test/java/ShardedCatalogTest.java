@@ -0,0 +1,211 @@
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.transaction.Synchronization;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Generated catalog split into 3 shards compared with the same catalog in a single database.
+ */
+class ShardedCatalogTest {
+
+    private static final DatabaseSnapshot snapshot = CatalogGenerator.snapshot(2_000);
+    private static final EntityManagerFactory emf = snapshot.entityManagerFactory("ShardedCatalogTest");
+    private static final EntityManager entityManager = emf.createEntityManager();
+    private static final ShardedCatalog catalog = ShardedCatalog.split(snapshot::restore, "ShardedCatalogTest", 3);
+
+    @AfterAll
+    static void close() {
+        catalog.close();
+        entityManager.close();
+        emf.close();
+    }
+
+    @Test
+    void bookstoresLiveInTheirShards() {
+        List<Integer> bookstores = entityManager.createQuery("SELECT b.id FROM Bookstore b", Integer.class)
+                .getResultList();
+
+        for (Integer id : bookstores) {
+            long books = entityManager.createQuery("SELECT count(b) FROM Book b WHERE b.bookstore.id = :id", Long.class)
+                    .setParameter("id", id)
+                    .getSingleResult();
+            Bookstore bookstore = catalog.inShard(id, em -> em.find(Bookstore.class, id));
+            Long booksInShard = catalog.inShard(id, em -> em.createQuery("SELECT count(b) FROM Book b WHERE b.bookstore.id = :id", Long.class)
+                    .setParameter("id", id)
+                    .getSingleResult());
+            assertThat(bookstore).isNotNull();
+            assertThat(booksInShard).isEqualTo(books);
+        }
+        assertThat(catalog.scatterGather(em -> em.createQuery("SELECT b.id FROM Bookstore b", Integer.class)
+                .getResultList()))
+                .containsExactlyInAnyOrderElementsOf(bookstores);
+    }
+
+    @Test
+    void authorsAreReplicated() {
+        long authors = entityManager.createQuery("SELECT count(a) FROM Author a", Long.class).getSingleResult();
+
+        assertThat(catalog.scatterGather(em -> em.createQuery("SELECT count(a) FROM Author a", Long.class)
+                .getResultList()))
+                .hasSize(catalog.shardCount())
+                .containsOnly(authors);
+    }
+
+    @Test
+    void booksOrderedByPrice() {
+        String query = "SELECT b FROM Book b ORDER BY b.price, b.id";
+
+        List<Book> merged = catalog.scatterGather(em -> em.createQuery(query, Book.class).getResultList(),
+                Comparator.comparing(Book::getPrice).thenComparing(Book::getId));
+
+        assertThat(ids(merged)).isEqualTo(ids(entityManager.createQuery(query, Book.class).getResultList()));
+    }
+
+    @Test
+    void nullRowsAreMerged() {
+        List<Integer> merged = catalog.scatterGather(em -> Arrays.asList(null, null, 1, 2),
+                Comparator.nullsFirst(Comparator.naturalOrder()));
+
+        assertThat(merged).hasSize(4 * catalog.shardCount())
+                .endsWith(1, 1, 1, 2, 2, 2)
+                .startsWith(null, null, null, null, null, null);
+    }
+
+    @Test
+    void getBookstoresWithCountBooksAndPriceAverage() {
+        List<BookstoreCountAVG> single = entityManager.createQuery("" +
+                        "SELECT new BookstoreCountAVG(b.bookstore, count(b), avg(b.price)) " +
+                        "FROM Book b " +
+                        "GROUP BY b.bookstore",
+                BookstoreCountAVG.class)
+                .getResultList();
+
+        assertThat(catalog.getBookstoresWithCountBooksAndPriceAverage()).containsExactlyInAnyOrderElementsOf(single);
+    }
+
+    @Test
+    void countBooksByGenre() {
+        Map<WritingGenre, Long> single = entityManager.createQuery("SELECT b FROM Book b", Book.class)
+                .getResultList()
+                .stream()
+                .collect(Collectors.groupingBy(Book::getGenre, Collectors.counting()));
+
+        assertThat(catalog.countBooksByGenre()).isEqualTo(single);
+    }
+
+    @Test
+    void averageBookPrice() {
+        Double single = entityManager.createQuery("SELECT avg(b.price) FROM Book b", Double.class).getSingleResult();
+
+        assertThat(catalog.averageBookPrice().getAsDouble()).isCloseTo(single, within(1e-9));
+    }
+
+    @Test
+    void noAverageBookPriceWithoutBooks() {
+        try (ShardedCatalog empty = ShardedCatalog.split(snapshot::restore, "ShardedCatalogTest_empty", 3)) {
+            empty.inEveryShard(em -> {
+                em.createNativeQuery("DELETE FROM BOOK_AUTHOR").executeUpdate();
+                em.createNativeQuery("DELETE FROM BOOK").executeUpdate();
+            });
+
+            assertThat(empty.averageBookPrice()).isEmpty();
+        }
+    }
+
+    @Test
+    void unknownShardsRunNothing() {
+        try (ShardedCatalog replicas = ShardedCatalog.split(snapshot::restore, "ShardedCatalogTest_unknown", 3)) {
+            assertThatThrownBy(() -> replicas.inShards(Arrays.asList(0, 3), ShardedCatalogTest::insertAuthor))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Unknown shard 3");
+
+            assertThat(authorsNamed(replicas)).containsOnly(0L);
+        }
+    }
+
+    @Test
+    void replicatedWorkFailingInOneShardIsRolledBackEverywhere() {
+        try (ShardedCatalog replicas = ShardedCatalog.split(snapshot::restore, "ShardedCatalogTest_rollback", 3)) {
+            assertThatThrownBy(() -> replicas.inEveryShard(em -> {
+                insertAuthor(em);
+                if (shardOf(em) == 1) {
+                    throw new IllegalArgumentException("injected");
+                }
+            })).isInstanceOf(IllegalStateException.class)
+                    .hasCauseInstanceOf(IllegalArgumentException.class);
+
+            assertThat(authorsNamed(replicas)).containsOnly(0L);
+            assertThat(replicas.divergedShards()).isEmpty();
+        }
+    }
+
+    /**
+     * Shard 2 fails to commit after shards 0 & 1 committed; idempotent work is retried there.
+     */
+    @Test
+    void partialCommitIsRecordedAndRetried() {
+        try (ShardedCatalog replicas = ShardedCatalog.split(snapshot::restore, "ShardedCatalogTest_partial", 3)) {
+            assertThatThrownBy(() -> replicas.inEveryShard(em -> {
+                insertAuthor(em);
+                if (shardOf(em) == 2) {
+                    em.unwrap(Session.class).getTransaction().registerSynchronization(new Synchronization() {
+                        @Override
+                        public void beforeCompletion() {
+                            throw new IllegalArgumentException("injected");
+                        }
+
+                        @Override
+                        public void afterCompletion(int status) {
+                        }
+                    });
+                }
+            })).isInstanceOfSatisfying(ShardedCatalog.PartialCommitException.class,
+                    e -> assertThat(e.failedShards()).containsExactly(2));
+            assertThat(replicas.divergedShards()).containsExactly(2);
+            assertThat(authorsNamed(replicas)).containsExactly(1L, 1L, 0L);
+
+            replicas.inShards(replicas.divergedShards(), ShardedCatalogTest::insertAuthor);
+
+            assertThat(replicas.divergedShards()).isEmpty();
+            assertThat(authorsNamed(replicas)).containsOnly(1L);
+        }
+    }
+
+    private static void insertAuthor(EntityManager em) {
+        em.createNativeQuery("MERGE INTO AUTHOR (ID, NAME) KEY (ID) VALUES (100001, 'Replicated Author')")
+                .executeUpdate();
+    }
+
+    private static List<Long> authorsNamed(ShardedCatalog replicas) {
+        List<Long> counts = new ArrayList<>();
+        for (int shard = 0; shard < replicas.shardCount(); shard++) {
+            // bookstore id = shard lives in the shard
+            counts.add(replicas.inShard(shard, em -> em.createQuery("" +
+                    "SELECT count(a) FROM Author a WHERE a.name = 'Replicated Author'", Long.class)
+                    .getSingleResult()));
+        }
+        return counts;
+    }
+
+    private static int shardOf(EntityManager em) {
+        String url = em.unwrap(Session.class).doReturningWork(connection -> connection.getMetaData().getURL());
+        return Integer.parseInt(url.replaceAll(".*-shard-(\\d+).*", "$1"));
+    }
+
+    private static List<Integer> ids(List<Book> books) {
+        return books.stream().map(Book::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,41 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Overhead of {@link SlowQueryLog} on fast statements (none logged): 1000 lookups of a book by id over 10k books,
+ * plain connections vs measured connections.
+ */
+public class SlowQueryLogBenchmark {
+    private static final int BOOKS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        Path log = Files.createTempDirectory("slow-query-log").resolve("slow.%g.log");
+        EntityManagerFactory plain = CatalogGenerator.snapshot(BOOKS)
+                .entityManagerFactory("SlowQueryLogBenchmark_plain");
+        EntityManagerFactory logged = CatalogGenerator.snapshot(BOOKS)
+                .entityManagerFactory("SlowQueryLogBenchmark_logged", SlowQueryLog.properties(log, 100));
+        BenchmarkRunner runner = new BenchmarkRunner(5, 20);
+
+        runner.measure("1000 lookups, plain", () -> lookups(plain));
+        runner.measure("1000 lookups, slow query log", () -> lookups(logged));
+
+        plain.close();
+        logged.close();
+    }
+
+    private static long lookups(EntityManagerFactory emf) {
+        EntityManager entityManager = emf.createEntityManager();
+        long found = 0;
+        for (int i = 0; i < 1000; i++) {
+            found += entityManager.createQuery("SELECT b FROM Book b WHERE b.id = :id", Book.class)
+                    .setParameter("id", 1 + i * 7 % BOOKS)
+                    .getResultList()
+                    .size();
+            entityManager.clear();
+        }
+        entityManager.close();
+        return found;
+    }
+}
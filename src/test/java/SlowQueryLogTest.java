@@ -0,0 +1,104 @@
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SlowQueryLogTest {
+
+    @Test
+    void slowQueryWithParametersCallSiteAndPlan() throws Exception {
+        Path directory = Files.createTempDirectory("slow-query-log");
+        EntityManagerFactory emf = DatabaseSnapshot.seed().entityManagerFactory("SlowQueryLogTest",
+                SlowQueryLog.properties(directory.resolve("slow.%g.log"), 0));
+        EntityManager entityManager = emf.createEntityManager();
+
+        List<Bookstore> bookstores = bookstoresWithBookWrittenBy(entityManager, "Joshua Bloch");
+        entityManager.close();
+        emf.close();
+
+        String log = new String(Files.readAllBytes(directory.resolve("slow.0.log")), StandardCharsets.UTF_8);
+        assertThat(bookstores).isNotEmpty();
+        assertThat(log)
+                .contains("# at SlowQueryLogTest.bookstoresWithBookWrittenBy(SlowQueryLogTest.java:")
+                .contains("# jpql: select generatedAlias0 from Bookstore as generatedAlias0")
+                .contains("# parameters: [Joshua Bloch]")
+                .contains("-- EXPLAIN ANALYZE\n")
+                .contains("scanCount");
+    }
+
+    @Test
+    void writesAreNotExplained() throws Exception {
+        Path directory = Files.createTempDirectory("slow-query-log");
+        EntityManagerFactory emf = DatabaseSnapshot.seed().entityManagerFactory("SlowQueryLogTest_writes",
+                SlowQueryLog.properties(directory.resolve("slow.%g.log"), 0));
+        EntityManager entityManager = emf.createEntityManager();
+
+        entityManager.getTransaction().begin();
+        entityManager.createQuery("UPDATE Book b SET b.price = b.price + 1 WHERE b.id = :id")
+                .setParameter("id", 1)
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        emf.close();
+
+        String log = new String(Files.readAllBytes(directory.resolve("slow.0.log")), StandardCharsets.UTF_8);
+        assertThat(log)
+                .contains("# parameters: [1]")
+                .contains("-- not explained: not a SELECT")
+                .doesNotContain("-- EXPLAIN ANALYZE");
+    }
+
+    @Test
+    void rateLimited() throws Exception {
+        Path directory = Files.createTempDirectory("slow-query-log");
+        Map<String, Object> properties = ImmutableMap.<String, Object>builder()
+                .putAll(SlowQueryLog.properties(directory.resolve("slow.%g.log"), 0))
+                .put(SlowQueryLog.MAX_PER_SECOND, "1")
+                .build();
+        EntityManagerFactory emf = DatabaseSnapshot.seed().entityManagerFactory("SlowQueryLogTest_storm", properties);
+        EntityManager entityManager = emf.createEntityManager();
+
+        for (int i = 0; i < 100; i++) {
+            entityManager.createQuery("SELECT COUNT(b) FROM Book b", Long.class).getSingleResult();
+        }
+        entityManager.close();
+        emf.close();
+
+        String log = new String(Files.readAllBytes(directory.resolve("slow.0.log")), StandardCharsets.UTF_8);
+        assertThat(log.split("-- EXPLAIN ANALYZE", -1).length - 1).isBetween(1, 5);
+        assertThat(log).containsPattern("# \\d+ slow statements not logged");
+    }
+
+    private static List<Bookstore> bookstoresWithBookWrittenBy(EntityManager entityManager, String author) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Bookstore> cc_query = cb.createQuery(Bookstore.class);
+        Root<Bookstore> cc_query_root = cc_query.from(Bookstore.class);
+        Join<Bookstore, Book> books = cc_query_root.join(Bookstore_.books);
+
+        Subquery<Author> cc_subquery = cc_query.subquery(Author.class);
+        Join<Bookstore, Book> cc_subquery_root = cc_subquery.correlate(books);
+        Join<Book, Author> authors = cc_subquery_root.join(Book_.authors);
+        cc_subquery.select(authors)
+                .where(cb.equal(authors.get(Author_.name), cb.parameter(String.class, "author")));
+
+        cc_query.select(cc_query_root)
+                .where(cb.exists(cc_subquery));
+
+        return entityManager.createQuery(cc_query)
+                .setParameter("author", author)
+                .getResultList();
+    }
+}
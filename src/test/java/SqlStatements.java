@@ -0,0 +1,49 @@
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records SQL statements prepared by Hibernate.
+ */
+class SqlStatements implements StatementInspector {
+    private final List<String> statements = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return properties registering this inspector in persistence unit, chained after the routing of announcements
+     */
+    Map<String, Object> properties() {
+        return ImmutableMap.of("hibernate.session_factory.statement_inspector",
+                new AnnouncementPartitions.Routing(this));
+    }
+
+    @Override
+    public String inspect(String sql) {
+        statements.add(sql);
+        return sql;
+    }
+
+    List<String> statements() {
+        return ImmutableList.copyOf(statements);
+    }
+
+    /**
+     * @return recorded statements starting with the prefix (ignoring case), e.g. "insert into BOOK_AUTHOR"
+     */
+    List<String> statements(String prefix) {
+        return statements.stream()
+                .filter(sql -> sql.trim().toLowerCase().startsWith(prefix.toLowerCase()))
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    long count(String prefix) {
+        return statements(prefix).size();
+    }
+
+    void clear() {
+        statements.clear();
+    }
+}
@@ -1,9 +1,7 @@
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
-import org.flywaydb.core.Flyway;
 import org.hibernate.Hibernate;
 import org.junit.jupiter.api.AfterAll;
-import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import javax.persistence.*;
@@ -19,25 +17,14 @@ import static org.assertj.core.api.Assertions.assertThat;
 class Tests {
 
     private static final EntityManagerFactory emf =
-            Persistence.createEntityManagerFactory("NewPersistenceUnit");
+            QuerySuite.entityManagerFactory("Tests");
     private static final EntityManager entityManager = emf.createEntityManager();
 
-    @BeforeAll
-    static void prepareForTests() {
-        prepareDatabaseForTests();
-    }
-    
     @AfterAll
     static void closeEntityManager() {
         entityManager.close();
     }
 
-    private static void prepareDatabaseForTests() {
-        Flyway flyway = new Flyway();
-        flyway.setDataSource("jdbc:h2:file:./database", null, null);
-        flyway.migrate();
-    }
-
     @Test
     void getAllBooks() {
         TypedQuery<Book> jpql_query =
@@ -512,4 +499,29 @@ class Tests {
         assertThat(entityManager.createQuery(cc_query).getResultList())
                 .containsExactlyInAnyOrderElementsOf(jpql_query.getResultList());
     }
+
+    /**
+     * same report read from BOOKSTORE_STATS (maintained by BookstoreStatsTrigger) instead of
+     * GROUP BY over all books
+     */
+    @Test
+    void getBookstoresWithCountBooksAndPriceAverageFromStats() {
+        TypedQuery<BookstoreCountAVG> jpql_query = entityManager.createQuery("" +
+                        "SELECT new BookstoreCountAVG(b.bookstore, count(b), sum(b.price) * 1.0 / count(b)) " +
+                        "FROM Book b " +
+                        "GROUP BY b.bookstore",
+                BookstoreCountAVG.class);
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<BookstoreCountAVG> cc_query = cb.createQuery(BookstoreCountAVG.class);
+        Root<BookstoreStats> cc_query_root = cc_query.from(BookstoreStats.class);
+
+        cc_query.multiselect(cc_query_root.get("bookstore"),
+                cc_query_root.get("bookCount"),
+                cb.quot(cb.prod(cc_query_root.<Long>get("priceSum"), 1.0), cc_query_root.<Long>get("bookCount")))
+                .where(cb.gt(cc_query_root.<Long>get("bookCount"), 0));
+
+        assertThat(entityManager.createQuery(cc_query).getResultList())
+                .containsExactlyInAnyOrderElementsOf(jpql_query.getResultList());
+    }
 }
@@ -0,0 +1,58 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Substring search over titles of the generated catalog ("Book 123 dragon", every title has the trigrams of "book")
+ * - ids of matching books: {@code LIKE} over all titles vs candidates by {@code GROUP BY ... HAVING count = |trigrams|}
+ * over all postings of the trigrams vs {@link TitleSearch} (subquery: postings of the rarest trigram probed for the
+ * others).
+ */
+public class TitleSearchBenchmark {
+    private static final int BOOKS = 200_000;
+    private static final String[] FRAGMENTS = {"book 12345 ", "45 drag", "rings"};
+
+    public static void main(String[] args) throws Exception {
+        EntityManagerFactory emf = CatalogGenerator.snapshot(BOOKS).entityManagerFactory("TitleSearchBenchmark");
+        EntityManager entityManager = emf.createEntityManager();
+        BenchmarkRunner runner = new BenchmarkRunner(3, 10);
+
+        for (String fragment : FRAGMENTS) {
+            System.out.printf("'%s': %d books%n", fragment, TitleSearch.findBookIds(entityManager, fragment).size());
+            runner.measure("LIKE, '" + fragment + "'", () -> like(entityManager, fragment));
+            runner.measure("GROUP BY candidates, '" + fragment + "'", () -> groupBy(entityManager, fragment));
+            runner.measure("TitleSearch, '" + fragment + "'", () -> TitleSearch.findBookIds(entityManager, fragment));
+        }
+
+        entityManager.close();
+        emf.close();
+    }
+
+    private static List<?> like(EntityManager entityManager, String fragment) {
+        return entityManager.createNativeQuery("" +
+                "SELECT ID FROM BOOK WHERE TITLE_FOLD(TITLE) LIKE ?1 ORDER BY ID")
+                .setParameter(1, "%" + TitleSearch.fold(fragment) + "%")
+                .getResultList();
+    }
+
+    private static List<?> groupBy(EntityManager entityManager, String fragment) {
+        Set<String> trigrams = TitleSearch.trigrams(fragment);
+        StringBuilder in = new StringBuilder();
+        for (int i = 1; i <= trigrams.size(); i++) {
+            in.append(i == 1 ? "?" : ", ?").append(i + 1);
+        }
+        Query query = entityManager.createNativeQuery("" +
+                "SELECT ID FROM BOOK " +
+                "WHERE ID IN (SELECT BOOK_ID FROM BOOK_TITLE_TRIGRAM WHERE TRIGRAM IN (" + in + ") " +
+                "GROUP BY BOOK_ID HAVING COUNT(*) = " + trigrams.size() + ") " +
+                "AND TITLE_FOLD(TITLE) LIKE ?1 ORDER BY ID")
+                .setParameter(1, "%" + TitleSearch.fold(fragment) + "%");
+        int position = 2;
+        for (String trigram : trigrams) {
+            query.setParameter(position++, trigram);
+        }
+        return query.getResultList();
+    }
+}
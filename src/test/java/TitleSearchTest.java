@@ -0,0 +1,172 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Every test works in its own transaction which is rolled back afterwards.
+ */
+class TitleSearchTest {
+
+    private static final EntityManagerFactory emf =
+            DatabaseSnapshot.seed().entityManagerFactory("TitleSearchTest");
+    private static final EntityManager entityManager = emf.createEntityManager();
+
+    @BeforeEach
+    void beginTransaction() {
+        entityManager.getTransaction().begin();
+    }
+
+    @AfterEach
+    void rollbackTransaction() {
+        entityManager.getTransaction().rollback();
+        entityManager.clear();
+    }
+
+    @AfterAll
+    static void closeEntityManager() {
+        entityManager.close();
+    }
+
+    @Test
+    void getBooksByTitleContaining() {
+        String fragment = "RINGS";
+
+        TypedQuery<Book> jpql_query = entityManager.createQuery("" +
+                        "SELECT b " +
+                        "FROM Book b " +
+                        "WHERE lower(b.title) LIKE :like",
+                Book.class)
+                .setParameter("like", "%rings%");
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Book> cc_query = cb.createQuery(Book.class);
+        Root<Book> cc_query_root = cc_query.from(Book.class);
+
+        cc_query.select(cc_query_root)
+                .where(TitleSearch.titleContains(cb, cc_query, cc_query_root,
+                        TitleSearch.fragment(entityManager, fragment)));
+
+        assertThat(entityManager.createQuery(cc_query).getResultList())
+                .containsExactlyInAnyOrderElementsOf(jpql_query.getResultList())
+                .hasSize(1);
+    }
+
+    @Test
+    void findBookIds() {
+        assertThat(TitleSearch.findBookIds(entityManager, "Potter")).containsExactly(1);
+        assertThat(TitleSearch.findBookIds(entityManager, "e")).containsExactly(1, 2, 4);
+        assertThat(TitleSearch.findBookIds(entityManager, "of the")).containsExactly(2);
+        assertThat(TitleSearch.findBookIds(entityManager, "java")).containsExactly(4);
+        assertThat(TitleSearch.findBookIds(entityManager, "rings of")).isEmpty();
+        assertThat(TitleSearch.findBookIds(entityManager, "100%")).isEmpty();
+    }
+
+    @Test
+    void indexFollowsInsertUpdateAndDelete() {
+        entityManager.createNativeQuery("INSERT INTO BOOK (ID, TITLE, PRICE, GENRE, BOOKSTORE_ID) " +
+                "VALUES (100, 'The Fellowship of the Ring', 30, 'FANTASY', 1)")
+                .executeUpdate();
+        assertThat(TitleSearch.findBookIds(entityManager, "fellowship")).containsExactly(100);
+        assertThat(TitleSearch.findBookIds(entityManager, "of the ring")).containsExactly(2, 100);
+
+        Book harryPotter = entityManager.find(Book.class, 1);
+        harryPotter.setTitle("Harry Potter and the Philosopher's Stone");
+        entityManager.flush();
+        assertThat(TitleSearch.findBookIds(entityManager, "philosopher")).containsExactly(1);
+
+        entityManager.createNativeQuery("DELETE FROM BOOK WHERE ID = 100").executeUpdate();
+        assertThat(TitleSearch.findBookIds(entityManager, "fellowship")).isEmpty();
+        assertThat((List<?>) entityManager.createNativeQuery("SELECT * FROM BOOK_TITLE_TRIGRAM WHERE BOOK_ID = 100")
+                .getResultList()).isEmpty();
+    }
+
+    @Test
+    void foldingDoesNotDependOnDefaultLocale() {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR")); // "I".toLowerCase() is dotless there
+        try {
+            entityManager.createNativeQuery("INSERT INTO BOOK (ID, TITLE, PRICE, GENRE, BOOKSTORE_ID) " +
+                    "VALUES (100, 'WINTER IN MOSCOW', 30, 'SCIENCE', 1)")
+                    .executeUpdate();
+
+            assertThat(TitleSearch.findBookIds(entityManager, "in mos")).containsExactly(100);
+            assertThat(TitleSearch.findBookIds(entityManager, "WI")).containsExactly(100);
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    void backfillEqualsTrigger() {
+        List<Object[]> backfilled = trigrams();
+        entityManager.createNativeQuery("UPDATE BOOK SET TITLE = TITLE || ' ' WHERE 1 = 1").executeUpdate();
+        entityManager.createNativeQuery("UPDATE BOOK SET TITLE = TRIM(TRAILING ' ' FROM TITLE) WHERE 1 = 1")
+                .executeUpdate();
+
+        assertThat(trigrams())
+                .usingElementComparator((left, right) -> Arrays.equals(left, right) ? 0 : 1)
+                .containsExactlyElementsOf(backfilled);
+    }
+
+    /**
+     * @return (trigram, book id) rows
+     */
+    private static List<Object[]> trigrams() {
+        List<?> rows = entityManager.createNativeQuery("" +
+                "SELECT TRIGRAM, BOOK_ID FROM BOOK_TITLE_TRIGRAM ORDER BY BOOK_ID, TRIGRAM").getResultList();
+        return rows.stream().map(Object[].class::cast).collect(Collectors.toList());
+    }
+
+    @Test
+    void absentTrigramNeedsNoCandidates() {
+        assertThat(TitleSearch.findBookIds(entityManager, "xyz potter")).isEmpty();
+    }
+
+    @Test
+    void fragmentOrdersTrigramsFromTheRarest() {
+        entityManager.createNativeQuery("INSERT INTO BOOK (ID, TITLE, PRICE, GENRE, BOOKSTORE_ID) " +
+                "VALUES (100, 'The Fellowship of the Ring', 30, 'FANTASY', 1), " +
+                "(101, 'The Return of the King', 30, 'FANTASY', 1)")
+                .executeUpdate();
+
+        // "ing" is in 3 titles, "ngs" in 1
+        assertThat(TitleSearch.fragment(entityManager, "ings").trigrams()).containsExactly("ngs", "ing");
+        assertThat(TitleSearch.fragment(entityManager, "of").trigrams()).isEmpty();
+    }
+
+    /**
+     * The predicate is built without the database: a query reused after the catalog changed finds the new books.
+     */
+    @Test
+    void reusedQuerySeesCurrentTitles() {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Integer> cc_query = cb.createQuery(Integer.class);
+        Root<Book> cc_query_root = cc_query.from(Book.class);
+        cc_query.select(cc_query_root.get(Book_.id))
+                .where(TitleSearch.titleContains(cb, cc_query, cc_query_root,
+                        TitleSearch.fragment(entityManager, "fellowship")))
+                .orderBy(cb.asc(cc_query_root.get(Book_.id)));
+        TypedQuery<Integer> query = entityManager.createQuery(cc_query);
+        assertThat(query.getResultList()).isEmpty();
+
+        entityManager.createNativeQuery("INSERT INTO BOOK (ID, TITLE, PRICE, GENRE, BOOKSTORE_ID) " +
+                "VALUES (100, 'The Fellowship of the Ring', 30, 'FANTASY', 1)")
+                .executeUpdate();
+
+        assertThat(query.getResultList()).containsExactly(100);
+    }
+}
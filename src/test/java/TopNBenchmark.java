@@ -0,0 +1,83 @@
+import com.google.common.collect.ImmutableMap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+import java.util.List;
+
+/**
+ * Top-N queries over 10k books: subquery forms ({@code MAX} / correlated {@code MAX} & {@code COUNT}) vs
+ * {@link TopN} - most expensive books, most expensive book per genre, 3 most expensive books per bookstore.
+ * Subquery forms read whole groups per row - measured by fewer iterations.
+ */
+public class TopNBenchmark {
+    private static final int BOOKS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        // equal statements are parsed again: H2 doesn't return the cached result of the previous execution
+        EntityManagerFactory emf = Persistence.createEntityManagerFactory(DatabaseSnapshot.PERSISTENCE_UNIT,
+                ImmutableMap.of("hibernate.connection.url",
+                        CatalogGenerator.snapshot(BOOKS).restore("TopNBenchmark", ";QUERY_CACHE_SIZE=0")));
+        EntityManager entityManager = emf.createEntityManager();
+        BenchmarkRunner slow = new BenchmarkRunner(1, 3);
+        BenchmarkRunner runner = new BenchmarkRunner(5, 20);
+
+        runner.measure("most expensive, MAX subquery", () -> {
+            entityManager.clear();
+            return mostExpensive(entityManager);
+        });
+        runner.measure("most expensive, TopN", () -> {
+            entityManager.clear();
+            return TopN.overall(Book.class, Book_.price, 1).getResultList(entityManager);
+        });
+
+        slow.measure("most expensive per genre, correlated MAX", () -> {
+            entityManager.clear();
+            return entityManager.createQuery("" +
+                            "SELECT b FROM Book b " +
+                            "WHERE b.price = (SELECT MAX(o.price) FROM Book o WHERE o.genre = b.genre)",
+                    Book.class)
+                    .getResultList();
+        });
+        runner.measure("most expensive per genre, TopN", () -> {
+            entityManager.clear();
+            return TopN.perGroup(Book.class, Book_.genre, Book_.price, 1).getResultList(entityManager);
+        });
+
+        slow.measure("top 3 per bookstore, correlated COUNT", () -> {
+            entityManager.clear();
+            return entityManager.createQuery("" +
+                            "SELECT b FROM Book b " +
+                            "WHERE (SELECT COUNT(o) FROM Book o " +
+                            "WHERE o.bookstore = b.bookstore AND o.price > b.price) < 3",
+                    Book.class)
+                    .getResultList();
+        });
+        runner.measure("top 3 per bookstore, TopN", () -> {
+            entityManager.clear();
+            return TopN.perGroup(Book.class, Book_.bookstore, Book_.price, 3).getResultList(entityManager);
+        });
+
+        entityManager.close();
+        emf.close();
+    }
+
+    private static List<Bookstore> mostExpensive(EntityManager entityManager) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Bookstore> cc_query = cb.createQuery(Bookstore.class);
+        Root<Book> cc_query_root = cc_query.from(Book.class);
+
+        Subquery<Integer> cc_max_subquery = cc_query.subquery(Integer.class);
+        Root<Book> cc_max_subquery_root = cc_max_subquery.from(Book.class);
+        cc_max_subquery.select(cb.max(cc_max_subquery_root.get(Book_.price)));
+
+        cc_query.select(cc_query_root.get(Book_.bookstore))
+                .where(cb.equal(cc_query_root.get(Book_.price), cc_max_subquery));
+
+        return entityManager.createQuery(cc_query).getResultList();
+    }
+}
@@ -0,0 +1,91 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Seed: bookstore 1 - books 1 (price 10), 2 (5), 3 (20); bookstore 2 - book 4 (20); FANTASY - 1, 2; SCIENCE - 3, 4.
+ */
+class TopNTest {
+
+    private static final EntityManagerFactory emf =
+            DatabaseSnapshot.seed().entityManagerFactory("TopNTest");
+    private static final EntityManager entityManager = emf.createEntityManager();
+
+    @AfterEach
+    void clear() {
+        entityManager.clear();
+    }
+
+    @AfterAll
+    static void closeEntityManager() {
+        entityManager.close();
+    }
+
+    @Test
+    void bookstoresWithMostExpensiveBook() {
+        List<Bookstore> jpql = entityManager.createQuery("" +
+                        "SELECT book.bookstore " +
+                        "FROM Book book " +
+                        "WHERE book.price = (SELECT MAX(b.price) FROM Book b)",
+                Bookstore.class)
+                .getResultList();
+
+        List<Bookstore> topN = TopN.overall(Book.class, Book_.price, 1).getResultList(entityManager).stream()
+                .map(Book::getBookstore)
+                .collect(Collectors.toList());
+
+        assertThat(topN).hasSize(2).containsExactlyInAnyOrderElementsOf(jpql);
+    }
+
+    @Test
+    void overallWithTies() {
+        assertThat(ids(TopN.overall(Book.class, Book_.price, 2))).containsExactly(3, 4);
+        assertThat(ids(TopN.overall(Book.class, Book_.price, 3))).containsExactly(3, 4, 1);
+        assertThat(ids(TopN.overall(Book.class, Book_.price, 10))).containsExactly(3, 4, 1, 2);
+    }
+
+    @Test
+    void topPerBookstore() {
+        assertThat(ids(TopN.perGroup(Book.class, Book_.bookstore, Book_.price, 1))).containsExactly(3, 4);
+        assertThat(ids(TopN.perGroup(Book.class, Book_.bookstore, Book_.price, 2))).containsExactly(3, 1, 4);
+        assertThat(ids(TopN.perGroup(Book.class, Book_.bookstore, Book_.price, 5))).containsExactly(3, 1, 2, 4);
+    }
+
+    @Test
+    void topPerBookstoreEqualsRankByCount() {
+        List<Integer> jpql = entityManager.createQuery("" +
+                        "SELECT b.id " +
+                        "FROM Book b " +
+                        "WHERE (SELECT COUNT(o) FROM Book o WHERE o.bookstore = b.bookstore AND o.price > b.price) < 2 " +
+                        "ORDER BY b.bookstore.id, b.price DESC, b.id",
+                Integer.class)
+                .getResultList();
+
+        assertThat(ids(TopN.perGroup(Book.class, Book_.bookstore, Book_.price, 2))).isEqualTo(jpql);
+    }
+
+    @Test
+    void mostExpensivePerGenre() {
+        assertThat(ids(TopN.perGroup(Book.class, Book_.genre, Book_.price, 1))).containsExactly(1, 3, 4);
+    }
+
+    @Test
+    void nonPositiveN() {
+        assertThatThrownBy(() -> TopN.overall(Book.class, Book_.price, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static List<Integer> ids(TopN<Book> topN) {
+        return topN.getResultList(entityManager).stream()
+                .map(Book::getId)
+                .collect(Collectors.toList());
+    }
+}